@@ -0,0 +1,113 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import lbms.plugins.mldht.DHTConfiguration;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Node.RoutingTable;
+import lbms.plugins.mldht.kad.Node.RoutingTableEntry;
+
+/**
+ * Builds populated, non-running DHT instances for the benchmarks. Lives in the kad package to reach the package-private setup methods.
+ */
+public class BenchTables {
+
+	static final DHTConfiguration CONFIG = new DHTConfiguration() {
+		@Override
+		public boolean noRouterBootstrap() {
+			return true;
+		}
+
+		@Override
+		public boolean isPersistingID() {
+			return false;
+		}
+
+		@Override
+		public Path getStoragePath() {
+			return Paths.get("./does.not.exist");
+		}
+
+		@Override
+		public int getListeningPort() {
+			return 0;
+		}
+
+		@Override
+		public boolean allowMultiHoming() {
+			return false;
+		}
+	};
+
+	public static KBucketEntry randomEntry(Random rnd) {
+		byte[] id = new byte[Key.SHA1_HASH_LENGTH];
+		rnd.nextBytes(id);
+		byte[] ip = new byte[16];
+		rnd.nextBytes(ip);
+		// 2001:20xx::/32 is global unicast
+		ip[0] = 0x20;
+		ip[1] = 0x01;
+		ip[2] = 0x20;
+		try {
+			KBucketEntry e = new KBucketEntry(new InetSocketAddress(InetAddress.getByAddress(ip), 1024 + rnd.nextInt(60000)), new Key(id));
+			e.signalResponse(10 + rnd.nextInt(500));
+			return e;
+		} catch (UnknownHostException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * @param inserts number of verified entries offered to the routing table, most of the far away ones end up in replacement buckets
+	 */
+	public static DHT populatedDHT(int inserts, long seed) {
+		return populatedDHT(inserts, 1, seed);
+	}
+
+	/**
+	 * @param localIds number of registered local IDs, each of them gets its own deeply split region of home buckets
+	 */
+	public static DHT populatedDHT(int inserts, int localIds, long seed) {
+		DHT dht = new DHT(DHTtype.IPV6_DHT);
+		dht.setScheduler(Executors.newScheduledThreadPool(0));
+		dht.populate();
+		dht.config = CONFIG;
+		Node node = dht.getNode();
+		node.initKey(CONFIG);
+		for(int i=0;i<localIds;i++)
+			node.registerId();
+		node.updateHomeBuckets();
+
+		Random rnd = new Random(seed);
+		for(int i=0;i<inserts;i++)
+			node.insertEntry(randomEntry(rnd), true);
+		node.rebuildAddressCache();
+
+		return dht;
+	}
+
+	public static int entryCount(DHT dht) {
+		return dht.getNode().table().stream().mapToInt(e -> e.getBucket().getNumEntries()).sum();
+	}
+
+	/**
+	 * the table update as it was done before batching: copy, sort and index the whole table
+	 */
+	public static RoutingTable fullRebuild(RoutingTable table, Collection<RoutingTableEntry> toRemove, Collection<RoutingTableEntry> toAdd) {
+		List<RoutingTableEntry> temp = new ArrayList<>(Arrays.asList(table.entries));
+		temp.removeAll(toRemove);
+		temp.addAll(toAdd);
+		return new RoutingTable(temp.stream().sorted().toArray(RoutingTableEntry[]::new));
+	}
+
+}
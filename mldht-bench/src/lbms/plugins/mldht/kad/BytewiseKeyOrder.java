@@ -0,0 +1,36 @@
+package lbms.plugins.mldht.kad;
+
+import static the8472.utils.Arrays.compareUnsigned;
+import static the8472.utils.Arrays.mismatch;
+
+import java.util.Comparator;
+
+/**
+ * Frozen copies of the byte-wise key comparisons used before the 64bit lane kernels, only kept as a baseline for the benchmarks.
+ */
+public class BytewiseKeyOrder {
+
+	public static final Comparator<Key> NATURAL = (a, b) -> compareUnsigned(a.hash, b.hash);
+
+	public static Comparator<Key> distanceOrder(Key target) {
+		return (k1, k2) -> threeWayDistance(target, k1, k2);
+	}
+
+	static int threeWayDistance(Key target, Key k1, Key k2) {
+		byte[] h0 = target.hash;
+		byte[] h1 = k1.hash;
+		byte[] h2 = k2.hash;
+
+		int mmi = mismatch(h1, h2);
+
+		if(mmi == -1)
+			return 0;
+
+		int h = Byte.toUnsignedInt(h0[mmi]);
+		int a = Byte.toUnsignedInt(h1[mmi]);
+		int b = Byte.toUnsignedInt(h2[mmi]);
+
+		return Integer.compareUnsigned(a ^ h, b ^ h);
+	}
+
+}
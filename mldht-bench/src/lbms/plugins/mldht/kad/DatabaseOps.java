@@ -0,0 +1,231 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.utils.ByteWrapper;
+
+/**
+ * Peer database operations as done by the announce and get_peers handlers. Lives in the kad package to reach the package-private
+ * sampling and token methods.
+ *
+ * The contended group runs announces concurrently with lookups against the same shared database, the hotKey group does the same
+ * on a single popular infohash. The other benchmarks measure the uncontended cost. All of them run against both the heap and the
+ * off-heap backend.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseOps {
+
+	static Database create(String backend) {
+		return "offheap".equals(backend) ? new OffHeapDatabase() : new Database();
+	}
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+
+		@Param({"1000"})
+		int keys;
+
+		@Param({"10", "500"})
+		int peersPerKey;
+
+		@Param({"heap", "offheap"})
+		String backend;
+
+		Database db;
+		Key[] infohashes;
+		// announces draw from twice as many addresses as initially stored so the sets keep churning but stay bounded
+		PeerAddressDBItem[][] pool;
+
+		@Setup
+		public void setup() throws UnknownHostException {
+			Random rnd = new Random(0xdeadbeef);
+			db = create(backend);
+			infohashes = new Key[keys];
+			pool = new PeerAddressDBItem[keys][];
+			for(int i=0;i<keys;i++) {
+				infohashes[i] = Key.createRandomKey();
+				pool[i] = new PeerAddressDBItem[peersPerKey * 2];
+				for(int j=0;j<pool[i].length;j++)
+					pool[i][j] = randomPeer(rnd);
+				for(int j=0;j<peersPerKey;j++)
+					db.store(infohashes[i], pool[i][j]);
+			}
+		}
+
+		static PeerAddressDBItem randomPeer(Random rnd) throws UnknownHostException {
+			byte[] ip = new byte[4];
+			rnd.nextBytes(ip);
+			ip[0] = (byte) (1 + (ip[0] & 0x7f));
+			return PeerAddressDBItem.createFromAddress(InetAddress.getByAddress(ip), 1024 + rnd.nextInt(60000), rnd.nextInt(4) == 0);
+		}
+	}
+
+	/**
+	 * A single popular infohash. Every announce and lookup goes to the same item sets, announces flip between seed and peer half of the
+	 * time so removals are exercised along with inserts and replacements.
+	 */
+	@State(Scope.Benchmark)
+	public static class HotKey {
+
+		@Param({"500", "6000"})
+		int peers;
+
+		@Param({"heap", "offheap"})
+		String backend;
+
+		Database db;
+		Key infohash;
+		PeerAddressDBItem[] asSeed;
+		PeerAddressDBItem[] asPeer;
+
+		@Setup
+		public void setup() throws UnknownHostException {
+			Random rnd = new Random(0xcafe);
+			db = create(backend);
+			infohash = Key.createRandomKey();
+			asSeed = new PeerAddressDBItem[peers];
+			asPeer = new PeerAddressDBItem[peers];
+			for(int i=0;i<peers;i++) {
+				PeerAddressDBItem it = Shared.randomPeer(rnd);
+				asSeed[i] = PeerAddressDBItem.createFromAddress(it.getInetAddress(), it.getPort(), true);
+				asPeer[i] = PeerAddressDBItem.createFromAddress(it.getInetAddress(), it.getPort(), false);
+				db.store(infohash, rnd.nextBoolean() ? asSeed[i] : asPeer[i]);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Requester {
+
+		Key nodeId;
+		InetAddress ip;
+		int port;
+		Key lookupKey;
+		ByteWrapper token;
+
+		@Setup
+		public void setup(Shared shared) throws UnknownHostException {
+			nodeId = Key.createRandomKey();
+			ip = InetAddress.getByAddress(new byte[] {93, (byte) 184, 16, 34});
+			port = 6881;
+			lookupKey = shared.infohashes[0];
+			token = shared.db.genToken(nodeId, ip, port, lookupKey);
+		}
+	}
+
+	private static int randomKey(Shared s) {
+		return ThreadLocalRandom.current().nextInt(s.infohashes.length);
+	}
+
+	static void doStore(Shared s) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int k = rnd.nextInt(s.infohashes.length);
+		PeerAddressDBItem[] candidates = s.pool[k];
+		s.db.store(s.infohashes[k], candidates[rnd.nextInt(candidates.length)]);
+	}
+
+	static List<DBItem> doSample(Shared s) {
+		return s.db.sample(s.infohashes[randomKey(s)], 50, DHTtype.IPV4_DHT, false);
+	}
+
+	@Benchmark
+	public void store(Shared s) {
+		doStore(s);
+	}
+
+	@Benchmark
+	public List<DBItem> sample(Shared s) {
+		return doSample(s);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void contendedStore(Shared s) {
+		doStore(s);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public List<DBItem> contendedSample(Shared s) {
+		return doSample(s);
+	}
+
+	@Benchmark
+	@Group("hotKey")
+	@GroupThreads(1)
+	public void hotKeyStore(HotKey h) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int i = rnd.nextInt(h.peers);
+		h.db.store(h.infohash, rnd.nextBoolean() ? h.asSeed[i] : h.asPeer[i]);
+	}
+
+	@Benchmark
+	@Group("hotKey")
+	@GroupThreads(3)
+	public List<DBItem> hotKeySample(HotKey h) {
+		return h.db.sample(h.infohash, 50, DHTtype.IPV4_DHT, false);
+	}
+
+	/**
+	 * announce followed by a BEP33 scrape on the same popular key, every other announce moves an item between seeds and peers
+	 */
+	@Benchmark
+	public BloomFilterBEP33 hotKeyScrape(HotKey h) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int i = rnd.nextInt(h.peers);
+		h.db.store(h.infohash, rnd.nextBoolean() ? h.asSeed[i] : h.asPeer[i]);
+		return h.db.createScrapeFilter(h.infohash, rnd.nextBoolean());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void concurrentStore(Shared s) {
+		doStore(s);
+	}
+
+	@Benchmark
+	public ByteWrapper genToken(Shared s, Requester r) {
+		return s.db.genToken(r.nodeId, r.ip, r.port, r.lookupKey);
+	}
+
+	@Benchmark
+	public boolean checkToken(Shared s, Requester r) {
+		return s.db.checkToken(r.token, r.nodeId, r.ip, r.port, r.lookupKey);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(DatabaseOps.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
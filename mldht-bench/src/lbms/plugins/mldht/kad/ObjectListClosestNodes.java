@@ -0,0 +1,65 @@
+package lbms.plugins.mldht.kad;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import lbms.plugins.mldht.kad.Node.RoutingTable;
+
+/**
+ * Frozen copy of the closest-nodes collection as it worked before buckets were packed: entries are streamed out of the bucket lists
+ * and the last bucket is sorted with a Key-based comparator. Only kept as a baseline for the benchmarks.
+ */
+public class ObjectListClosestNodes {
+
+	public static List<KBucketEntry> fill(DHT owner, Key targetKey, int maxEntries) {
+		List<KBucketEntry> entries = new ArrayList<>(maxEntries + DHTConstants.MAX_ENTRIES_PER_BUCKET);
+		Comparator<KBucketEntry> comp = new KBucketEntry.DistanceOrder(targetKey);
+		RoutingTable table = owner.getNode().table();
+
+		final int initialIdx = table.indexForId(targetKey);
+		int currentIdx = initialIdx;
+		Node.RoutingTableEntry current = table.get(initialIdx);
+
+		while(true) {
+			current.getBucket().entriesStream().filter(KBucketEntry::eligibleForNodesList).forEach(entries::add);
+
+			if(entries.size() >= maxEntries)
+				break;
+
+			Prefix bucketPrefix = current.prefix;
+			Prefix targetToBucketDistance = new Prefix(targetKey.distance(bucketPrefix), bucketPrefix.depth);
+			Key incrementedDistance = targetToBucketDistance.add(Key.setBit(targetToBucketDistance.depth));
+			Key nextBucketTarget = targetKey.distance(incrementedDistance);
+
+			int dir = Integer.signum(nextBucketTarget.compareTo(current.prefix));
+			int idx;
+
+			current = null;
+
+			idx = currentIdx + dir;
+			if(0 <= idx && idx < table.size())
+				current = table.get(idx);
+
+			if(current == null || !current.prefix.isPrefixOf(nextBucketTarget)) {
+				idx = table.indexForId(nextBucketTarget);
+				current = table.get(idx);
+			}
+
+			currentIdx = idx;
+
+			if(currentIdx == initialIdx)
+				break;
+		}
+
+		int overshoot = entries.size() - maxEntries;
+		if(overshoot > 0) {
+			List<KBucketEntry> tail = entries.subList(Math.max(0, entries.size() - DHTConstants.MAX_ENTRIES_PER_BUCKET), entries.size());
+			tail.sort(comp);
+			entries.subList(entries.size() - overshoot, entries.size()).clear();
+		}
+
+		return entries;
+	}
+
+}
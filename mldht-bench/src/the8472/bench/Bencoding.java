@@ -0,0 +1,144 @@
+package the8472.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import the8472.bench.MessageDecoding.Kind;
+import the8472.bencode.BDecoder;
+import the8472.bencode.BEncoder;
+import the8472.bencode.Tokenizer;
+import the8472.bencode.Tokenizer.Token;
+import the8472.bencode.Tokenizer.TokenConsumer;
+
+/**
+ * Raw bencoding throughput, independent of the message classes.
+ *
+ * Uses the synthetic packet of the selected kind unless the system property {@value #CAPTURE_PROPERTY} points to a capture file
+ * containing one hex-encoded UDP payload per line (blank lines and lines starting with # are skipped), in which case every
+ * invocation processes the next captured packet round-robin. Pass it to the forked JVMs with <code>-jvmArgsAppend -D...</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Bencoding {
+
+	static final String CAPTURE_PROPERTY = "mldht.bench.capture";
+
+	@Param
+	Kind kind;
+
+	ByteBuffer[] packets;
+	List<Map<String, Object>> decoded;
+	int next;
+
+	final BDecoder decoder = new BDecoder();
+	final BEncoder encoder = new BEncoder();
+	final Tokenizer tokenizer = new Tokenizer();
+	final ByteBuffer target = ByteBuffer.allocateDirect(1500);
+
+	@Setup
+	public void setup(Blackhole bh) throws IOException {
+		String capture = System.getProperty(CAPTURE_PROPERTY);
+		if(capture != null) {
+			packets = load(capture);
+		} else {
+			ByteBuffer buf = ByteBuffer.allocateDirect(1500);
+			MessageDecoding.packet(kind, buf);
+			packets = new ByteBuffer[] {buf};
+		}
+
+		decoded = new ArrayList<>(packets.length);
+		for(ByteBuffer p : packets)
+			decoded.add(decoder.decode(p.duplicate()));
+
+		tokenizer.consumer(new TokenConsumer() {
+			@Override
+			public void push(Token st) {
+				bh.consume(st);
+			}
+
+			@Override
+			public void pop(Token st) {
+				bh.consume(st);
+			}
+		});
+	}
+
+	static ByteBuffer[] load(String file) throws IOException {
+		List<ByteBuffer> result = new ArrayList<>();
+		for(String line : Files.readAllLines(Paths.get(file), StandardCharsets.US_ASCII)) {
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+			ByteBuffer buf = ByteBuffer.allocateDirect(line.length() / 2);
+			for(int i=0;i+1<line.length();i+=2)
+				buf.put((byte) Integer.parseInt(line.substring(i, i + 2), 16));
+			buf.flip();
+			result.add(buf);
+		}
+		if(result.isEmpty())
+			throw new IOException("no packets in " + file);
+		return result.toArray(new ByteBuffer[result.size()]);
+	}
+
+	private int nextIndex() {
+		int i = next;
+		next = i + 1 == packets.length ? 0 : i + 1;
+		return i;
+	}
+
+	@Benchmark
+	public Map<String, Object> decode() {
+		return decoder.decode(packets[nextIndex()].duplicate());
+	}
+
+	@Benchmark
+	public int tokenize() {
+		tokenizer.inputBuffer(packets[nextIndex()].duplicate());
+		try {
+			tokenizer.tokenize();
+			return tokenizer.stackIdx();
+		} finally {
+			tokenizer.reset();
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer encode() {
+		target.clear();
+		encoder.encodeInto(decoded.get(nextIndex()), target);
+		return target;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(Bencoding.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -0,0 +1,115 @@
+package the8472.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.BenchTables;
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.KBucketEntry;
+import lbms.plugins.mldht.kad.KClosestNodesSearch;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.ObjectListClosestNodes;
+import lbms.plugins.mldht.utils.ExponentialWeightendMovingAverage;
+
+/**
+ * Closest-node collection on packed bucket snapshots versus the previous stream/comparator based collection.
+ *
+ * Run the main method for a rough heap footprint comparison of the per-entry state in addition to the JMH results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClosestNodes {
+
+	@Param({"200", "2000", "50000"})
+	int inserts;
+
+	@Param({"8", "32"})
+	int results;
+
+	DHT dht;
+	Key[] targets;
+	int next;
+
+	@Setup
+	public void setup() {
+		dht = BenchTables.populatedDHT(inserts, 0xdeadbeef);
+		Random rnd = new Random(42);
+		targets = new Key[1024];
+		for(int i=0;i<targets.length;i++) {
+			byte[] id = new byte[Key.SHA1_HASH_LENGTH];
+			rnd.nextBytes(id);
+			targets[i] = new Key(id);
+		}
+	}
+
+	Key nextTarget() {
+		return targets[next++ & (targets.length - 1)];
+	}
+
+	@Benchmark
+	public List<KBucketEntry> packed() {
+		KClosestNodesSearch search = new KClosestNodesSearch(nextTarget(), results, dht);
+		search.fill();
+		return search.getEntries();
+	}
+
+	@Benchmark
+	public List<KBucketEntry> objectList() {
+		return ObjectListClosestNodes.fill(dht, nextTarget(), results);
+	}
+
+	static long usedHeap() {
+		for(int i=0;i<4;i++)
+			System.gc();
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Approximates the retained size of a routing table entry and of the RTT average object each entry used to carry in addition.
+	 */
+	static void footprint() {
+		Random rnd = new Random(0);
+		long before = usedHeap();
+		List<KBucketEntry> entries = new ArrayList<>();
+		for(int i=0;i<100_000;i++)
+			entries.add(BenchTables.randomEntry(rnd));
+		long after = usedHeap();
+		System.out.printf("KBucketEntry incl. Key and address: ~%d bytes%n", (after - before) / entries.size() - 4);
+
+		before = usedHeap();
+		List<ExponentialWeightendMovingAverage> averages = new ArrayList<>();
+		for(int i=0;i<100_000;i++)
+			averages.add(new ExponentialWeightendMovingAverage().setWeight(0.3));
+		after = usedHeap();
+		System.out.printf("RTT average object previously referenced by each entry: ~%d bytes%n", (after - before) / averages.size() - 4);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		footprint();
+		new Runner(new OptionsBuilder().include(ClosestNodes.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -0,0 +1,113 @@
+package the8472.bench;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.BytewiseKeyOrder;
+import lbms.plugins.mldht.kad.Key;
+
+/**
+ * Byte-wise versus 64bit lane key comparisons, on full sorts and on nearest-k selection with a bounded heap as done by lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyDistance {
+
+	public enum Impl {
+		BYTEWISE,
+		LANES
+	}
+
+	@Param
+	Impl impl;
+
+	/**
+	 * keys sharing a long prefix with the target, like the candidates late in a lookup, make the later lanes decide
+	 */
+	@Param({"0", "12"})
+	int sharedPrefixBytes;
+
+	static final int KEYS = 1000;
+	static final int K = 8;
+
+	Key[] keys;
+	Key[] scratch;
+	Comparator<Key> distance;
+	Comparator<Key> natural;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(0xbeef);
+		byte[] target = new byte[Key.SHA1_HASH_LENGTH];
+		rnd.nextBytes(target);
+
+		keys = new Key[KEYS];
+		for(int i=0;i<KEYS;i++) {
+			byte[] b = new byte[Key.SHA1_HASH_LENGTH];
+			rnd.nextBytes(b);
+			System.arraycopy(target, 0, b, 0, sharedPrefixBytes);
+			keys[i] = new Key(b);
+		}
+		scratch = new Key[KEYS];
+
+		Key t = new Key(target);
+		distance = impl == Impl.LANES ? new Key.DistanceOrder(t) : BytewiseKeyOrder.distanceOrder(t);
+		natural = impl == Impl.LANES ? Comparator.naturalOrder() : BytewiseKeyOrder.NATURAL;
+	}
+
+	@Benchmark
+	public Key[] sortByDistance() {
+		System.arraycopy(keys, 0, scratch, 0, KEYS);
+		Arrays.sort(scratch, distance);
+		return scratch;
+	}
+
+	@Benchmark
+	public Key[] sortNatural() {
+		System.arraycopy(keys, 0, scratch, 0, KEYS);
+		Arrays.sort(scratch, natural);
+		return scratch;
+	}
+
+	@Benchmark
+	public Key nearestK() {
+		// max-heap on distance, the head is the farthest of the K closest seen so far
+		PriorityQueue<Key> closest = new PriorityQueue<>(K + 1, distance.reversed());
+		for(Key k : keys) {
+			if(closest.size() < K) {
+				closest.add(k);
+			} else if(distance.compare(k, closest.peek()) < 0) {
+				closest.poll();
+				closest.add(k);
+			}
+		}
+		return closest.peek();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(KeyDistance.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,129 @@
+package the8472.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.DBItem;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.PeerAddressDBItem;
+import lbms.plugins.mldht.kad.messages.FindNodeRequest;
+import lbms.plugins.mldht.kad.messages.GetPeersResponse;
+import lbms.plugins.mldht.kad.messages.MessageBase;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+import lbms.plugins.mldht.kad.messages.MessageDecoder;
+import lbms.plugins.mldht.kad.messages.MessageException;
+import lbms.plugins.mldht.kad.messages.PingRequest;
+import the8472.bencode.BDecoder;
+
+/**
+ * Compares decoding via the intermediate bencoded map with the direct token-driven path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDecoding {
+
+	public enum Kind {
+		PING,
+		FIND_NODE,
+		GET_PEERS_RESPONSE
+	}
+
+	@Param
+	Kind kind;
+
+	final ByteBuffer raw = ByteBuffer.allocateDirect(1500);
+	final BDecoder decoder = new BDecoder();
+	MessageDecoder dec;
+
+	@Setup
+	public void setup() throws IOException {
+		packet(kind, raw);
+
+		Function<byte[], Optional<Method>> mapper = unused -> Optional.of(Method.GET_PEERS);
+		dec = new MessageDecoder(mapper, DHTtype.IPV4_DHT);
+	}
+
+	/**
+	 * Encodes a representative packet of the given kind into target, flipped for reading
+	 */
+	static void packet(Kind kind, ByteBuffer target) throws IOException {
+		Random rnd = new Random(0xdeadbeef);
+		byte[] mtid = new byte[6];
+		rnd.nextBytes(mtid);
+
+		MessageBase msg = null;
+
+		switch(kind) {
+			case PING:
+				msg = new PingRequest();
+				break;
+			case FIND_NODE:
+				FindNodeRequest fnr = new FindNodeRequest(Key.createRandomKey());
+				fnr.setWant4(true);
+				msg = fnr;
+				break;
+			case GET_PEERS_RESPONSE:
+				GetPeersResponse gpr = new GetPeersResponse(mtid);
+				gpr.setNodes(MessageEncoding.nodes(rnd));
+				byte[] token = new byte[4];
+				rnd.nextBytes(token);
+				gpr.setToken(token);
+				List<DBItem> items = new ArrayList<>();
+				for(int i=0;i<50;i++) {
+					byte[] peer = new byte[DHTtype.IPV4_DHT.ADDRESS_ENTRY_LENGTH];
+					rnd.nextBytes(peer);
+					items.add(new PeerAddressDBItem(peer, false));
+				}
+				gpr.setPeerItems(items);
+				msg = gpr;
+				break;
+		}
+
+		msg.setMTID(mtid);
+		msg.setID(Key.createRandomKey());
+		msg.encode(target);
+	}
+
+	@Benchmark
+	public MessageBase viaMap() throws MessageException, IOException {
+		dec.toDecode(raw, decoder.decode(raw.duplicate()));
+		return dec.parseMessage();
+	}
+
+	@Benchmark
+	public MessageBase direct() {
+		return dec.parseDirect(raw);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(MessageDecoding.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -0,0 +1,129 @@
+package the8472.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.DBItem;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.NodeList;
+import lbms.plugins.mldht.kad.NodeList.AddressType;
+import lbms.plugins.mldht.kad.PeerAddressDBItem;
+import lbms.plugins.mldht.kad.messages.FindNodeResponse;
+import lbms.plugins.mldht.kad.messages.GetPeersResponse;
+import lbms.plugins.mldht.kad.messages.MessageBase;
+import lbms.plugins.mldht.kad.messages.PingResponse;
+import the8472.bencode.BEncoder;
+import the8472.bencode.StreamingEncoder;
+
+/**
+ * Compares the map-based encoding path with the streaming one for the most common outgoing messages.
+ *
+ * Run with the GC profiler (<code>-prof gc</code>, or via {@link #main(String[])}) to get allocated bytes/op in addition to ns/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEncoding {
+
+	public enum Kind {
+		PING,
+		FIND_NODE,
+		GET_PEERS
+	}
+
+	@Param
+	Kind kind;
+
+	MessageBase msg;
+
+	final ByteBuffer target = ByteBuffer.allocateDirect(1500);
+	final StreamingEncoder direct = new StreamingEncoder();
+	final BEncoder fallback = new BEncoder();
+
+	@Setup
+	public void setup() throws IOException {
+		Random rnd = new Random(0xdeadbeef);
+		byte[] mtid = new byte[6];
+		rnd.nextBytes(mtid);
+
+		switch(kind) {
+			case PING:
+				msg = new PingResponse(mtid);
+				break;
+			case FIND_NODE:
+				FindNodeResponse fnr = new FindNodeResponse(mtid);
+				fnr.setNodes(nodes(rnd));
+				msg = fnr;
+				break;
+			case GET_PEERS:
+				GetPeersResponse gpr = new GetPeersResponse(mtid);
+				gpr.setNodes(nodes(rnd));
+				byte[] token = new byte[4];
+				rnd.nextBytes(token);
+				gpr.setToken(token);
+				List<DBItem> items = new ArrayList<>();
+				for(int i=0;i<50;i++) {
+					byte[] peer = new byte[DHTtype.IPV4_DHT.ADDRESS_ENTRY_LENGTH];
+					rnd.nextBytes(peer);
+					items.add(new PeerAddressDBItem(peer, false));
+				}
+				gpr.setPeerItems(items);
+				msg = gpr;
+				break;
+		}
+
+		msg.setID(Key.createRandomKey());
+		msg.setPublicIP(new InetSocketAddress(InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), 6881));
+	}
+
+	static NodeList nodes(Random rnd) {
+		byte[] raw = new byte[DHTtype.IPV4_DHT.NODES_ENTRY_LENGTH * 8];
+		rnd.nextBytes(raw);
+		return NodeList.fromBuffer(ByteBuffer.wrap(raw), AddressType.V4);
+	}
+
+	@Benchmark
+	public ByteBuffer mapEncoding() {
+		target.clear();
+		fallback.encodeInto(msg.getBase(), target);
+		return target;
+	}
+
+	@Benchmark
+	public ByteBuffer directEncoding() throws IOException {
+		target.clear();
+		msg.encode(target, direct, fallback);
+		return target;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(MessageEncoding.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -0,0 +1,102 @@
+package the8472.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.BenchTables;
+import lbms.plugins.mldht.kad.KBucket;
+import lbms.plugins.mldht.kad.Node.RoutingTable;
+import lbms.plugins.mldht.kad.Node.RoutingTableEntry;
+
+/**
+ * Cost of publishing a number of bucket splits on tables that were split around hundreds of local IDs.
+ *
+ * batch applies all splits in one copy, perChange publishes a table after every split like the split and merge loops used to,
+ * fullRebuild is the former copy, sort and reindex implementation applied once to all changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingTableChurn {
+
+	@Param({"100", "500"})
+	int localIds;
+
+	@Param({"1", "16", "64"})
+	int changes;
+
+	RoutingTable table;
+	List<RoutingTableEntry> toSplit;
+	List<RoutingTableEntry> low;
+	List<RoutingTableEntry> high;
+	List<RoutingTableEntry> children;
+
+	@Setup
+	public void setup() {
+		table = BenchTables.populatedDHT(20000, localIds, 0xdeadbeef).getNode().table();
+
+		Random rnd = new Random(42);
+		List<RoutingTableEntry> candidates = new ArrayList<>(table.list());
+		Collections.shuffle(candidates, rnd);
+		toSplit = candidates.subList(0, changes);
+		low = new ArrayList<>();
+		high = new ArrayList<>();
+		children = new ArrayList<>();
+		for(RoutingTableEntry e : toSplit) {
+			low.add(new RoutingTableEntry(e.prefix.splitPrefixBranch(false), new KBucket(), p -> false));
+			high.add(new RoutingTableEntry(e.prefix.splitPrefixBranch(true), new KBucket(), p -> false));
+		}
+		children.addAll(low);
+		children.addAll(high);
+	}
+
+	@Benchmark
+	public RoutingTable batch() {
+		RoutingTable.Batch b = table.batch();
+		for(int i=0;i<changes;i++)
+			b.split(toSplit.get(i), low.get(i), high.get(i));
+		return b.build();
+	}
+
+	@Benchmark
+	public RoutingTable perChange() {
+		RoutingTable t = table;
+		for(int i=0;i<changes;i++)
+			t = t.batch().split(toSplit.get(i), low.get(i), high.get(i)).build();
+		return t;
+	}
+
+	@Benchmark
+	public RoutingTable fullRebuild() {
+		return BenchTables.fullRebuild(table, toSplit, children);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for(int ids : new int[] {100, 500})
+			System.out.printf("local ids: %d buckets: %d%n", ids, BenchTables.populatedDHT(20000, ids, 0xdeadbeef).getNode().table().size());
+		new Runner(new OptionsBuilder().include(RoutingTableChurn.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
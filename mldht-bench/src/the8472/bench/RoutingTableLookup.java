@@ -0,0 +1,86 @@
+package the8472.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.BenchTables;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.Node.RoutingTable;
+
+/**
+ * Bucket lookup on routing tables of increasing depth, more inserts split the buckets around the local ID further.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingTableLookup {
+
+	public enum Targets {
+		/**
+		 * uniformly random keys, mostly hit the few shallow buckets like lookups for remote targets do
+		 */
+		UNIFORM_KEYS,
+		/**
+		 * keys spread evenly over all buckets, deep buckets are hit as often as shallow ones
+		 */
+		UNIFORM_BUCKETS
+	}
+
+	@Param({"200", "5000", "100000"})
+	int inserts;
+
+	@Param
+	Targets targets;
+
+	RoutingTable table;
+	Key[] keys;
+	int next;
+
+	@Setup
+	public void setup() {
+		table = BenchTables.populatedDHT(inserts, 0xdeadbeef).getNode().table();
+		Random rnd = new Random(42);
+		keys = new Key[1024];
+		for(int i=0;i<keys.length;i++) {
+			if(targets == Targets.UNIFORM_BUCKETS) {
+				keys[i] = table.get(rnd.nextInt(table.size())).prefix.createRandomKeyFromPrefix();
+			} else {
+				byte[] id = new byte[Key.SHA1_HASH_LENGTH];
+				rnd.nextBytes(id);
+				keys[i] = new Key(id);
+			}
+		}
+	}
+
+	@Benchmark
+	public int indexForId() {
+		return table.indexForId(keys[next++ & (keys.length - 1)]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for(int inserts : new int[] {200, 5000, 100000}) {
+			RoutingTable t = BenchTables.populatedDHT(inserts, 0xdeadbeef).getNode().table();
+			System.out.printf("inserts: %d buckets: %d max depth: %d%n", inserts, t.size(), t.stream().mapToInt(e -> e.prefix.getDepth()).max().getAsInt());
+		}
+		new Runner(new OptionsBuilder().include(RoutingTableLookup.class.getSimpleName()).build()).run();
+	}
+
+}
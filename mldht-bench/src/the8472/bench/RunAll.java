@@ -0,0 +1,47 @@
+package the8472.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Accepts the regular JMH command line but writes machine readable results to
+ * {@value #DEFAULT_RESULT} unless a result format or file is given explicitly, so that runs of different releases can be compared
+ * with any JMH result viewer or diffed by scripts.
+ *
+ * <pre>java -jar target/benchmarks.jar [jmh options] [benchmark regex]</pre>
+ */
+public class RunAll {
+
+	static final String DEFAULT_RESULT = "jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+
+		if(cmd.shouldHelp()) {
+			cmd.showHelp();
+			return;
+		}
+
+		if(cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+			// listing does not produce results, let the stock launcher handle it
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		ChainedOptionsBuilder opts = new OptionsBuilder().parent(cmd);
+		if(!cmd.getResultFormat().hasValue())
+			opts.resultFormat(ResultFormatType.JSON);
+		if(!cmd.getResult().hasValue())
+			opts.result(DEFAULT_RESULT);
+
+		new Runner(opts.build()).run();
+	}
+
+}
@@ -0,0 +1,102 @@
+package the8472.bench;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import the8472.utils.concurrent.NonblockingScheduledExecutor;
+import the8472.utils.concurrent.ShardedScheduledExecutor;
+
+/**
+ * Compares the scheduler implementations.
+ *
+ * scheduleCancel is the timeout pattern of calls and tasks, almost every timer gets cancelled before it fires.
+ * The firing group measures how late a 1ms timer runs (score minus 1ms) while other threads keep scheduling and cancelling,
+ * use the sample mode percentiles for the jitter.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Scheduler {
+
+	@Param({"nonblocking", "sharded"})
+	String impl;
+
+	ScheduledExecutorService exec;
+
+	@Setup
+	public void setup() {
+		int threads = 4;
+		exec = impl.equals("sharded") ? new ShardedScheduledExecutor("bench", threads, null) : new NonblockingScheduledExecutor("bench", threads, null);
+	}
+
+	@TearDown
+	public void teardown() throws InterruptedException {
+		exec.shutdownNow();
+		exec.awaitTermination(1, TimeUnit.SECONDS);
+	}
+
+	static final Runnable NOOP = () -> {};
+
+	ScheduledFuture<?> churn() {
+		// short deadline so that an implementation keeping cancelled timers doesn't accumulate them without bound
+		ScheduledFuture<?> f = exec.schedule(NOOP, 50 + ThreadLocalRandom.current().nextInt(50), TimeUnit.MILLISECONDS);
+		f.cancel(false);
+		return f;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Threads(4)
+	public ScheduledFuture<?> scheduleCancel() {
+		return churn();
+	}
+
+	@Benchmark
+	@Group("firing")
+	@GroupThreads(1)
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object fire() throws Exception {
+		return exec.schedule(() -> null, 1, TimeUnit.MILLISECONDS).get();
+	}
+
+	@Benchmark
+	@Group("firing")
+	@GroupThreads(3)
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public ScheduledFuture<?> background() {
+		// throttled, we want a loaded scheduler, not a saturated one
+		LockSupport.parkNanos(1000);
+		return churn();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(Scheduler.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,77 @@
+package the8472.bench;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.BloomFilterBEP33;
+
+/**
+ * BEP33 scrape filter population, once per address and as a full rebuild the way the database does it for a peer set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScrapeFilter {
+
+	@Param({"4", "16"})
+	int addressLength;
+
+	@Param({"50", "1000"})
+	int setSize;
+
+	InetAddress[] addresses;
+	BloomFilterBEP33 filter;
+	int next;
+
+	@Setup
+	public void setup() throws UnknownHostException {
+		Random rnd = new Random(0xdeadbeef);
+		addresses = new InetAddress[1024];
+		for(int i=0;i<addresses.length;i++) {
+			byte[] raw = new byte[addressLength];
+			rnd.nextBytes(raw);
+			addresses[i] = InetAddress.getByAddress(raw);
+		}
+		filter = new BloomFilterBEP33();
+	}
+
+	@Benchmark
+	public BloomFilterBEP33 insert() {
+		filter.insert(addresses[next++ & (addresses.length - 1)]);
+		return filter;
+	}
+
+	@Benchmark
+	public BloomFilterBEP33 build() {
+		BloomFilterBEP33 f = new BloomFilterBEP33();
+		for(int i=0;i<setSize;i++)
+			f.insert(addresses[i & (addresses.length - 1)]);
+		return f;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ScrapeFilter.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
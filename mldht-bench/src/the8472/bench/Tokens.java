@@ -0,0 +1,98 @@
+package the8472.bench;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.Sha1TokenEngine;
+import lbms.plugins.mldht.kad.SipHashTokenEngine;
+import lbms.plugins.mldht.kad.TokenEngine;
+
+/**
+ * Write token throughput in tokens per second. Checking a stale token has to try both secrets and is the worst case.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Tokens {
+
+	@Param({"siphash", "sha1"})
+	String engine;
+
+	@Param({"4", "16"})
+	int addressLength;
+
+	TokenEngine tokens;
+	Key[] nodes;
+	Key[] targets;
+	InetAddress[] addresses;
+	byte[][] issued;
+	byte[][] stale;
+	int next;
+
+	@Setup
+	public void setup() throws UnknownHostException {
+		tokens = engine.equals("sha1") ? new Sha1TokenEngine() : new SipHashTokenEngine();
+		Random rnd = new Random(0xdeadbeef);
+		int n = 1024;
+		nodes = new Key[n];
+		targets = new Key[n];
+		addresses = new InetAddress[n];
+		issued = new byte[n][];
+		stale = new byte[n][];
+		for(int i=0;i<n;i++) {
+			nodes[i] = Key.createRandomKey();
+			targets[i] = Key.createRandomKey();
+			byte[] raw = new byte[addressLength];
+			rnd.nextBytes(raw);
+			addresses[i] = InetAddress.getByAddress(raw);
+			issued[i] = tokens.generate(nodes[i], addresses[i], 6881, targets[i]);
+			stale[i] = issued[i].clone();
+			stale[i][0] ^= 1;
+		}
+	}
+
+	@Benchmark
+	public byte[] generate() {
+		int i = next++ & (nodes.length - 1);
+		return tokens.generate(nodes[i], addresses[i], 6881, targets[i]);
+	}
+
+	@Benchmark
+	public boolean checkValid() {
+		int i = next++ & (nodes.length - 1);
+		return tokens.check(issued[i], nodes[i], addresses[i], 6881, targets[i]);
+	}
+
+	@Benchmark
+	public boolean checkInvalid() {
+		int i = next++ & (nodes.length - 1);
+		return tokens.check(stale[i], nodes[i], addresses[i], 6881, targets[i]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(Tokens.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -30,5 +30,47 @@ public interface DHTConfiguration {
 	
 	public boolean allowMultiHoming();
 	
+	/**
+	 * @return maximum number of datagrams drained from a socket per selector wakeup and handed to a single worker task. values below 2 disable batching, each packet is then copied to the heap and processed individually
+	 */
+	public default int getReceiveBatchSize() {
+		return 1;
+	}
+	
+	/**
+	 * @return number of receive batches preallocated per socket as a single direct-memory slab. only used if batching is enabled
+	 */
+	public default int getReceiveSlabSize() {
+		return 8;
+	}
+	
+	/**
+	 * @return number of sockets bound to the same address and port via SO_REUSEPORT, each serviced by its own selector thread. the kernel spreads incoming datagrams across them. values above 1 are ignored on platforms without SO_REUSEPORT support
+	 */
+	public default int getSocketsPerAddress() {
+		return 1;
+	}
+	
+	/**
+	 * @return true to give each RPC server its own event loop thread for packet handling, timeouts and call state transitions instead of running them on the shared scheduler
+	 */
+	public default boolean useServerEventLoops() {
+		return false;
+	}
+	
+	/**
+	 * @return true to pace outgoing requests of each RPC server with a rate that backs off when loss or RTTs rise, capped at 5000/s.
+	 * responses are never paced
+	 */
+	public default boolean useSendPacing() {
+		return false;
+	}
+	
+	/**
+	 * @return true to keep announced peers in direct memory instead of one object per peer on the java heap. reduces GC load on nodes storing millions of peers
+	 */
+	public default boolean isPeerDatabaseOffHeap() {
+		return false;
+	}
 	
 }
@@ -17,6 +17,7 @@
 package lbms.plugins.mldht.kad;
 
 import lbms.plugins.mldht.kad.messages.MessageBase;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 import java.io.PrintWriter;
 import java.net.InetAddress;
@@ -63,7 +64,7 @@ public class AnnounceNodeCache {
 	public void register(Key target, boolean isFastLookup)
 	{
 		CacheAnchorPoint anchor = new CacheAnchorPoint(target);
-		anchor.expirationTime = System.currentTimeMillis() + (isFastLookup ? DHTConstants.ANNOUNCE_CACHE_FAST_LOOKUP_AGE : DHTConstants.ANNOUNCE_CACHE_MAX_AGE);
+		anchor.expirationTime = TimeSource.currentTimeMillis() + (isFastLookup ? DHTConstants.ANNOUNCE_CACHE_FAST_LOOKUP_AGE : DHTConstants.ANNOUNCE_CACHE_MAX_AGE);
 		anchors.put(target,anchor);
 	}
 	
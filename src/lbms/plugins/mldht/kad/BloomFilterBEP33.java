@@ -21,10 +21,10 @@ import static java.lang.Math.log1p;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 
 import lbms.plugins.mldht.kad.utils.BitVector;
+import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
 
 
 public class BloomFilterBEP33 implements Comparable<BloomFilterBEP33>, Cloneable {
@@ -33,19 +33,10 @@ public class BloomFilterBEP33 implements Comparable<BloomFilterBEP33>, Cloneable
 	private final static int k = 2;
 
 	
-	MessageDigest sha1;
 	BitVector filter;
 	
 	public BloomFilterBEP33() {
 		filter = new BitVector(m);
-		
-		try
-		{
-			sha1 = MessageDigest.getInstance("SHA1");
-		} catch (NoSuchAlgorithmException e)
-		{
-			e.printStackTrace();
-		}
 	}
 	
 	public BloomFilterBEP33(byte[] serializedFilter) {
@@ -53,8 +44,27 @@ public class BloomFilterBEP33 implements Comparable<BloomFilterBEP33>, Cloneable
 	}
 	
     public void insert(InetAddress addr) {
-        
-        byte[] hash = sha1.digest(addr.getAddress());
+        byte[] raw = addr.getAddress();
+        insert(indices(raw, raw.length));
+    }
+    
+    /**
+     * @param indices as returned by {@link #indices(byte[], int)}
+     */
+    void insert(int indices) {
+        // set bits at index1 and index2
+        filter.set(indices & 0xFFFF);
+        filter.set(indices >>> 16);
+    }
+    
+    /**
+     * @param address raw IPv4 or IPv6 address in the first {@code length} bytes
+     * @return both bit indices of the address, first in the lower half
+     */
+    static int indices(byte[] address, int length) {
+        MessageDigest sha1 = ThreadLocalUtils.getThreadLocalSHA1();
+        sha1.update(address, 0, length);
+        byte[] hash = sha1.digest();
         
         int index1 = (hash[0]&0xFF) | (hash[1]&0xFF) << 8;
         int index2 = (hash[2]&0xFF) | (hash[3]&0xFF) << 8;
@@ -62,10 +72,8 @@ public class BloomFilterBEP33 implements Comparable<BloomFilterBEP33>, Cloneable
         // truncate index to m (11 bits required)
         index1 %= m;
         index2 %= m;
-
-        // set bits at index1 and index2
-        filter.set(index1);
-        filter.set(index2);
+        
+        return index1 | index2 << 16;
     }
 	
 	
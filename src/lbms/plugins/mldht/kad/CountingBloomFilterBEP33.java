@@ -0,0 +1,64 @@
+package lbms.plugins.mldht.kad;
+
+/**
+ * Counting shadow of a {@link BloomFilterBEP33}, so that elements can be removed without rebuilding the filter from all remaining ones.
+ *
+ * Each bit of the filter has an 8bit counter, a bit is set while its counter is non-zero. Counters saturate at 255 and then stick,
+ * which keeps their bits set forever. That can only overestimate the size, it never drops members.
+ *
+ * Not thread-safe.
+ */
+final class CountingBloomFilterBEP33 {
+
+	private static final int SATURATED = 0xff;
+
+	private final byte[] counters = new byte[BloomFilterBEP33.m];
+	private final BloomFilterBEP33 bits = new BloomFilterBEP33();
+
+	/**
+	 * @param indices as returned by {@link BloomFilterBEP33#indices(byte[], int)}
+	 * @return true if the bitmap changed
+	 */
+	boolean add(int indices) {
+		// evaluate both, no short-circuit
+		return increment(indices & 0xffff) | increment(indices >>> 16);
+	}
+
+	/**
+	 * @param indices of an element previously passed to {@link #add(int)}
+	 * @return true if the bitmap changed
+	 */
+	boolean remove(int indices) {
+		return decrement(indices & 0xffff) | decrement(indices >>> 16);
+	}
+
+	private boolean increment(int index) {
+		int c = counters[index] & 0xff;
+		if(c == SATURATED)
+			return false;
+		counters[index] = (byte) (c + 1);
+		if(c != 0)
+			return false;
+		bits.filter.set(index);
+		return true;
+	}
+
+	private boolean decrement(int index) {
+		int c = counters[index] & 0xff;
+		if(c == SATURATED || c == 0)
+			return false;
+		counters[index] = (byte) (c - 1);
+		if(c != 1)
+			return false;
+		bits.filter.clear(index);
+		return true;
+	}
+
+	/**
+	 * @return a copy of the current bitmap
+	 */
+	BloomFilterBEP33 toFilter() {
+		return bits.clone();
+	}
+
+}
@@ -23,6 +23,8 @@ import java.util.Comparator;
 
 import the8472.bencode.Utils;
 
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
 /**
  * @author Damokles
  *
@@ -33,7 +35,7 @@ public class DBItem implements Comparable<DBItem> {
 	private final long	time_stamp;
 
 	private DBItem () {
-		time_stamp = System.currentTimeMillis();
+		time_stamp = TimeSource.currentTimeMillis();
 	}
 
 	public DBItem (final byte[] ip_port) {
@@ -41,6 +43,14 @@ public class DBItem implements Comparable<DBItem> {
 		item = ip_port.clone();
 	}
 
+	/**
+	 * restores an item with its original creation time, takes ownership of the array
+	 */
+	DBItem (final byte[] ip_port, final long createdAt) {
+		item = ip_port;
+		time_stamp = createdAt;
+	}
+
 	/// See if the item is expired
 	public boolean expired (final long now) {
 		return (now - time_stamp >= DHTConstants.MAX_ITEM_AGE);
@@ -22,7 +22,6 @@ import static the8472.utils.Functional.awaitAll;
 import lbms.plugins.mldht.DHTConfiguration;
 import lbms.plugins.mldht.kad.GenericStorage.StorageItem;
 import lbms.plugins.mldht.kad.GenericStorage.UpdateResult;
-import lbms.plugins.mldht.kad.Node.RoutingTableEntry;
 import lbms.plugins.mldht.kad.messages.AbstractLookupRequest;
 import lbms.plugins.mldht.kad.messages.AbstractLookupResponse;
 import lbms.plugins.mldht.kad.messages.AnnounceRequest;
@@ -44,13 +43,13 @@ import lbms.plugins.mldht.kad.messages.UnknownTypeResponse;
 import lbms.plugins.mldht.kad.tasks.AnnounceTask;
 import lbms.plugins.mldht.kad.tasks.NodeLookup;
 import lbms.plugins.mldht.kad.tasks.PeerLookupTask;
-import lbms.plugins.mldht.kad.tasks.PingRefreshTask;
 import lbms.plugins.mldht.kad.tasks.Task;
 import lbms.plugins.mldht.kad.tasks.TaskListener;
 import lbms.plugins.mldht.kad.tasks.TaskManager;
 import lbms.plugins.mldht.kad.utils.AddressUtils;
 import lbms.plugins.mldht.kad.utils.ByteWrapper;
 import lbms.plugins.mldht.kad.utils.PopulationEstimator;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 import lbms.plugins.mldht.utils.NIOConnectionManager;
 
 import java.io.IOException;
@@ -167,6 +166,9 @@ public class DHT implements DHTBase {
 	IDMismatchDetector						mismatchDetector;
 	NonReachableCache						unreachableCache;
 	private Path							table_file;
+	private Path							db_file;
+	// completes once the peer database snapshot has been read, no snapshots are written before that
+	private CompletableFuture<Void>			dbRestore = CompletableFuture.completedFuture(null);
 	private boolean							useRouterBootstrapping;
 
 	private List<DHTStatsListener>			statsListeners;
@@ -177,6 +179,7 @@ public class DHT implements DHTBase {
 	private PopulationEstimator				estimator;
 	private AnnounceNodeCache				cache;
 	private NIOConnectionManager			connectionManager;
+	private final List<NIOConnectionManager> socketSelectors = new ArrayList<>();
 	
 	RPCStats								serverStats;
 
@@ -184,6 +187,7 @@ public class DHT implements DHTBase {
 	private List<ScheduledFuture<?>>		scheduledActions = new ArrayList<>();
 	private List<DHT>						siblingGroup = new ArrayList<>();
 	private ScheduledExecutorService		scheduler;
+	private DatagramTransport				transport;
 	
 
 	public DHT(DHTtype type) {
@@ -205,6 +209,20 @@ public class DHT implements DHTBase {
 	public void setScheduler(ScheduledExecutorService scheduler) {
 		this.scheduler = scheduler;
 	}
+	
+	/**
+	 * @return null if regular UDP sockets are used
+	 */
+	public DatagramTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * has to be set before {@link #start(DHTConfiguration)}
+	 */
+	public void setTransport(DatagramTransport transport) {
+		this.transport = transport;
+	}
 
 	public void addSiblings(List<DHT> toAdd) {
 		toAdd.forEach(s -> {
@@ -574,6 +592,20 @@ public class DHT implements DHTBase {
 		return connectionManager;
 	}
 	
+	/**
+	 * @param socketIndex index among the sockets sharing a bind address
+	 * @return the shared connection manager for the first socket, a dedicated one for each additional socket. they are kept across server restarts
+	 */
+	public NIOConnectionManager getConnectionManager(int socketIndex) {
+		if(socketIndex == 0)
+			return connectionManager;
+		synchronized (socketSelectors) {
+			while(socketSelectors.size() < socketIndex)
+				socketSelectors.add(new NIOConnectionManager("mlDHT "+type.shortName+" NIO Selector "+(socketSelectors.size() + 1)));
+			return socketSelectors.get(socketIndex - 1);
+		}
+	}
+	
 	public PopulationEstimator getEstimator() {
 		return estimator;
 	}
@@ -652,7 +684,7 @@ public class DHT implements DHTBase {
 		unreachableCache = new NonReachableCache();
 
 		serverManager.notifyOnServerAdded(serverListener);
-		db = new Database();
+		db = config != null && config.isPeerDatabaseOffHeap() ? new OffHeapDatabase() : new Database();
 		stats.setDbStats(db.getStats());
 		tman = new TaskManager(this);
 		running = true;
@@ -679,19 +711,24 @@ public class DHT implements DHTBase {
 			DHT.log("Warning: storage path " + config.getStoragePath() +" is not a directory. DHT will not be able to persist state" , LogLevel.Info);
 		
 		table_file = config.getStoragePath().resolve(type.shortName+"-table.cache");
+		db_file = config.getStoragePath().resolve(type.shortName+"-peers.cache");
 
 		setStatus(DHTStatus.Stopped, DHTStatus.Initializing);
 		stats.resetStartedTimestamp();
 
 		logInfo("Starting DHT on port " + getPort());
-		resolveBootstrapAddresses();
+		// simulated networks have no DNS. real nodes need the router addresses even without router bootstrapping, full buckets evict them
+		if(transport == null)
+			resolveBootstrapAddresses();
 		
-		connectionManager = new NIOConnectionManager("mlDHT "+type.shortName+" NIO Selector");
+		if(transport == null)
+			connectionManager = new NIOConnectionManager("mlDHT "+type.shortName+" NIO Selector");
 		
 		populate();
 		
 		node.initKey(config);
 		node.loadTable(table_file);
+		restoreDatabase();
 		
 
 		// these checks are fairly expensive on large servers (network interface enumeration)
@@ -707,7 +744,7 @@ public class DHT implements DHTBase {
 		}, 5000, DHTConstants.DHT_UPDATE_INTERVAL, TimeUnit.MILLISECONDS));
 
 		// initialize as many RPC servers as we need
-		serverManager.refresh(System.currentTimeMillis());
+		serverManager.refresh(TimeSource.currentTimeMillis());
 		
 		
 		started();
@@ -720,17 +757,8 @@ public class DHT implements DHTBase {
 
 	public void started () {
 		
-		for(RoutingTableEntry bucket : node.table().list()) {
-			RPCServer srv = serverManager.getRandomServer();
-			if(srv == null)
-				break;
-			Task t = new PingRefreshTask(srv, node, bucket.getBucket(), true);
-			t.setInfo("Startup ping for " + bucket.prefix);
-			if(t.getTodoCount() > 0)
-				tman.addTask(t);
-		}
-			
-		
+		// verify the cached entries in rate-limited batches across all servers instead of one ping task per bucket
+		scheduledActions.add(new WarmStartSweep(this).start(scheduler));
 		
 		bootstrap();
 		
@@ -752,10 +780,9 @@ public class DHT implements DHTBase {
 		scheduledActions.add(scheduler.scheduleWithFixedDelay(() -> {
 			try
 			{
-				long now = System.currentTimeMillis();
+				long now = TimeSource.currentTimeMillis();
 
 
-				db.expire(now);
 				cache.cleanup(now);
 				storage.cleanup();
 			} catch (Exception e)
@@ -765,6 +792,17 @@ public class DHT implements DHTBase {
 
 		}, 1000, DHTConstants.CHECK_FOR_EXPIRED_ENTRIES, TimeUnit.MILLISECONDS));
 		
+		// small, frequent steps with a bounded amount of work instead of sweeping the whole database at once
+		scheduledActions.add(scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				db.expire(TimeSource.currentTimeMillis());
+			} catch (RuntimeException e) {
+				log(e, LogLevel.Fatal);
+			}
+		}, 1000, DHTConstants.DB_EXPIRY_TICK_INTERVAL, TimeUnit.MILLISECONDS));
+		
+		scheduledActions.add(scheduler.scheduleWithFixedDelay(this::saveDatabase, DHTConstants.DB_SNAPSHOT_INTERVAL, DHTConstants.DB_SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS));
+		
 		scheduledActions.add(scheduler.scheduleWithFixedDelay(node::decayThrottle, 1, Node.throttleUpdateIntervalMinutes, TimeUnit.MINUTES));
 		
 		// single ping to a random node per server to check socket liveness
@@ -779,6 +817,7 @@ public class DHT implements DHTBase {
 					RPCCall call = new RPCCall(req);
 					call.builtFromEntry(entry);
 					call.setExpectedID(entry.getID());
+					call.setTrafficClass(TrafficClass.MAINTENANCE);
 					srv.doCall(call);
 				});
 			}
@@ -852,6 +891,8 @@ public class DHT implements DHTBase {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		logInfo("persisting peer database on shutdown");
+		saveDatabase();
 		
 		stopped();
 		tman = null;
@@ -863,6 +904,39 @@ public class DHT implements DHTBase {
 		setStatus(DHTStatus.Running, DHTStatus.Stopped);
 	}
 
+	/**
+	 * reads the peer database snapshot on a separate thread, requests arriving in the meantime are served from what has been loaded so far
+	 */
+	private void restoreDatabase() {
+		Database target = db;
+		Path file = db_file;
+		dbRestore = CompletableFuture.runAsync(() -> {
+			try {
+				DatabaseSnapshot.load(target, file);
+			} catch (IOException e) {
+				log(e, LogLevel.Error);
+			}
+		}, r -> {
+			Thread t = new Thread(r, "mlDHT "+type.shortName+" peer database loader");
+			t.setDaemon(true);
+			t.start();
+		});
+	}
+	
+	private void saveDatabase() {
+		Database current = db;
+		if(current == null || db_file == null)
+			return;
+		// a partial snapshot would replace the complete one that is still being loaded
+		if(!dbRestore.isDone())
+			return;
+		try {
+			DatabaseSnapshot.save(current, db_file);
+		} catch (IOException e) {
+			log(e, LogLevel.Error);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -906,7 +980,7 @@ public class DHT implements DHTBase {
 	 */
 	public void update () {
 		
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		
 		serverManager.refresh(now);
 		
@@ -962,7 +1036,7 @@ public class DHT implements DHTBase {
 	 * to fill the Buckets.
 	 */
 	public synchronized void bootstrap () {
-		if (!isRunning() || System.currentTimeMillis() - lastBootstrap < DHTConstants.BOOTSTRAP_MIN_INTERVAL) {
+		if (!isRunning() || TimeSource.currentTimeMillis() - lastBootstrap < DHTConstants.BOOTSTRAP_MIN_INTERVAL) {
 			return;
 		}
 		
@@ -988,7 +1062,7 @@ public class DHT implements DHTBase {
 				continue;
 			FindNodeRequest fnr = new FindNodeRequest(Key.createRandomKey());
 			fnr.setDestination(addr);
-			RPCCall c = new RPCCall(fnr);
+			RPCCall c = new RPCCall(fnr).setTrafficClass(TrafficClass.MAINTENANCE);
 			CompletableFuture<RPCCall> f = new CompletableFuture<>();
 			
 			RPCServer srv = serverManager.getRandomActiveServer(true);
@@ -1024,7 +1098,7 @@ public class DHT implements DHTBase {
 			int count = taskCount.decrementAndGet();
 			if(count == 0) {
 				bootstrapping.set(BootstrapState.NONE); ;
-				lastBootstrap = System.currentTimeMillis();
+				lastBootstrap = TimeSource.currentTimeMillis();
 			}
 				
 			// fill the remaining buckets once all bootstrap operations finished
@@ -1054,6 +1128,8 @@ public class DHT implements DHTBase {
 		}
 
 		NodeLookup at = new NodeLookup(id, server, node, isBootstrap);
+		// only used for bootstrapping and refreshing the routing table
+		at.setTrafficClass(TrafficClass.MAINTENANCE);
 		if(configureTask != null)
 			configureTask.accept(at);
 		tman.addTask(at, isPriority);
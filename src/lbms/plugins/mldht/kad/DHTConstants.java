@@ -36,6 +36,10 @@ public class DHTConstants {
 	public static final int		RECEIVE_BUFFER_SIZE						= 5 * 1024;
 
 	public static final int		CHECK_FOR_EXPIRED_ENTRIES				= 5 * 60 * 1000;
+	public static final int		DB_EXPIRY_TICK_INTERVAL					= 1000;
+	public static final int		DB_EXPIRY_BUCKET						= 60 * 1000;
+	public static final int		DB_EXPIRY_KEYS_PER_TICK					= 5000;
+	public static final int		DB_SNAPSHOT_INTERVAL					= 10 * 60 * 1000;
 	public static final int		MAX_ITEM_AGE							= 60 * 60 * 1000;
 	public static final int		TOKEN_TIMEOUT							= 5 * 60 * 1000;
 	
@@ -43,6 +47,14 @@ public class DHTConstants {
 	public static final int		RPC_CALL_TIMEOUT_BASELINE_MIN			= 100; // ms
 	public static final int		TASK_TIMEOUT							= 2 * 60 * 1000;
 	
+	// share of the send opportunities each request class gets while both have requests queued
+	public static final int		MAINTENANCE_SEND_WEIGHT					= 1;
+	public static final int		USER_SEND_WEIGHT						= 3;
+	
+	// verification of the cached routing table after a start
+	public static final int		WARM_START_TICK_INTERVAL				= 100;
+	public static final int		WARM_START_PINGS_PER_TICK				= 8; // per server
+	
 	public static final int		MAX_DB_ENTRIES_PER_KEY					= 6000;
 
 	// enter survival mode if we don't see new packets after this time
@@ -20,6 +20,7 @@ import java.time.Duration;
 import java.time.Instant;
 
 import lbms.plugins.mldht.kad.tasks.Task;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 /**
  * @author Damokles
@@ -35,6 +36,8 @@ public class DHTStats {
 
 	private Instant			startedTimestamp;
 
+	private Duration		timeToReady;
+
 	/// number of peers in the routing table
 	private int				numPeers;
 	/// Number of running tasks
@@ -105,6 +108,14 @@ public class DHTStats {
 		return startedTimestamp;
 	}
 
+	/**
+	 * @return time from start until the entries restored from the routing table cache were verified, null while still in progress or
+	 *         if there was no cache to restore
+	 */
+	public Duration getTimeToReady () {
+		return timeToReady;
+	}
+
 	/**
 	 * @param num_peers the num_peers to set
 	 */
@@ -167,7 +178,12 @@ public class DHTStats {
 	}
 
 	protected void resetStartedTimestamp () {
-		startedTimestamp = Instant.now();
+		startedTimestamp = TimeSource.now();
+		timeToReady = null;
+	}
+
+	protected void setTimeToReady (Duration timeToReady) {
+		this.timeToReady = timeToReady;
 	}
 	
 	@Override
@@ -177,7 +193,9 @@ public class DHTStats {
 		b.append("DB Items: ").append(dbStats.getItemCount()).append('\n');
 		b.append("TX sum: ").append(numSentPackets).append(" RX sum: ").append(numReceivedPackets).append('\n');
 		b.append("avg task time/avg 1st result time (ms): ").append((int)avgFinishTime).append('/').append((int)avgFirstResultTime).append('\n');
-		b.append("Uptime: ").append(Duration.between(startedTimestamp, Instant.now())).append("s\n");
+		b.append("Uptime: ").append(Duration.between(startedTimestamp, TimeSource.now())).append("s\n");
+		if(timeToReady != null)
+			b.append("Time to ready: ").append(timeToReady).append('\n');
 		b.append("RPC stats\n");
 		b.append(rpcStats.toString());
 		return b.toString();
@@ -17,47 +17,50 @@
 package lbms.plugins.mldht.kad;
 
 import java.net.InetAddress;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 import java.util.stream.Stream;
 
 import lbms.plugins.mldht.kad.DHT.DHTtype;
 import lbms.plugins.mldht.kad.utils.ByteWrapper;
-import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 /**
  * @author Damokles
  * 
  */
 public class Database {
-	private ConcurrentMap<Key, PeersSeeds>	items;
-	private AtomicLong timestampCurrent = new AtomicLong();
-	private volatile long timestampPrevious;
-	
-	private static byte[] sessionSecret = new byte[20];
-	
-	static {
-		ThreadLocalUtils.getThreadLocalRandom().nextBytes(sessionSecret);
-	}
+	// null for backends that keep their items elsewhere
+	private final ConcurrentMap<Key, PeersSeeds>	items;
+	private volatile TokenEngine tokens = new SipHashTokenEngine();
+	// keys are scheduled when their entry is created and stay scheduled until expiry removes the entry. restoring an older item schedules
+	// the key once more for the earlier time, expiry ignores the visit for the replaced one
+	final ExpiryIndex expiryIndex = new ExpiryIndex(TimeSource.currentTimeMillis(), DHTConstants.MAX_ITEM_AGE, DHTConstants.DB_EXPIRY_BUCKET, DHTConstants.DB_EXPIRY_KEYS_PER_TICK);
 
 	Database() {
-		items = new ConcurrentHashMap<Key, PeersSeeds>(3000);
+		this(true);
+	}
+
+	/**
+	 * @param heapItems false for subclasses that override every method touching the items and keep them in their own structure
+	 */
+	Database(boolean heapItems) {
+		items = heapItems ? new ConcurrentHashMap<Key, PeersSeeds>(3000) : null;
 	}
 	
 	
 	public static class PeersSeeds {
 		ItemSet seeds;
 		ItemSet peers;
+		// expiry time the key is scheduled for, guarded by the map entry of the key
+		long scheduledExpiry;
 		
 		PeersSeeds(PeerAddressDBItem[] seeds, PeerAddressDBItem[] peers) {
 			this.seeds = new ItemSet(seeds);
@@ -73,9 +76,23 @@ public class Database {
 			return insertTarget.add(it);
 		}
 		
-		void expire() {
-			seeds.expire();
-			peers.expire();
+		/**
+		 * like {@link #add(PeerAddressDBItem)}, but keeps an item with the same address that is at least as recent
+		 * 
+		 * @return false if the item was dropped
+		 */
+		boolean addUnlessNewer(PeerAddressDBItem it) {
+			if(seeds.hasNewer(it) || peers.hasNewer(it))
+				return false;
+			add(it);
+			return true;
+		}
+		
+		/**
+		 * @return expiry time of the oldest remaining item, {@link Long#MAX_VALUE} if none are left
+		 */
+		long expire(long now) {
+			return Math.min(seeds.expire(now), peers.expire(now));
 		}
 		
 		public ItemSet peers() {
@@ -92,38 +109,148 @@ public class Database {
 	}
 
 	
+	/**
+	 * Items of one kind (seeds or peers) for a single key.
+	 * 
+	 * Items are kept in a dense, randomly permuted array for sampling and located through an open-addressing index from item to array
+	 * position. Inserts, replacements and removals are O(1): inserts swap the new item with a random position, removals move the last item
+	 * into the gap, both keep the permutation random. Samples are O(k) contiguous runs, taken under an optimistic read lock so that they
+	 * reflect a single point in time without blocking writers.
+	 * 
+	 * Full copies for iteration are built lazily and cached until the next modification.
+	 * 
+	 * Once the set is scraped it also maintains a {@link CountingBloomFilterBEP33}, so that the BEP33 filter follows inserts and removals
+	 * without being rebuilt. Items cache their filter bits, hashing only happens once per item.
+	 */
 	public static class ItemSet {
 		static final PeerAddressDBItem[] NO_ITEMS = new PeerAddressDBItem[0];
 		
+		private static final int MIN_CAPACITY = 4;
+		
+		private final StampedLock lock = new StampedLock();
 		
+		// guarded by lock
+		private PeerAddressDBItem[] items;
+		private int[] hashes;
+		// array position + 1 of the item hashing to a slot, 0 = empty. linear probing
+		private int[] index;
 		
-		private volatile PeerAddressDBItem[] items = NO_ITEMS;
+		private volatile int size;
+		private volatile PeerAddressDBItem[] snapshot = NO_ITEMS;
+		// created on the first scrape, modified under the write lock
+		private volatile CountingBloomFilterBEP33 filterCounts;
+		// immutable copy of the current bitmap handed out to scrapes
 		private volatile BloomFilterBEP33 filter = null;
 		
 		ItemSet(PeerAddressDBItem[] initial) {
-			this.items = initial;
+			allocate(Math.max(MIN_CAPACITY, initial.length));
+			for(PeerAddressDBItem it : initial)
+				add(it);
+		}
+		
+		private void allocate(int capacity) {
+			PeerAddressDBItem[] oldItems = items;
+			int[] oldHashes = hashes;
+			
+			items = new PeerAddressDBItem[capacity];
+			hashes = new int[capacity];
+			index = new int[Integer.highestOneBit(capacity * 4 - 1)];
+			
+			for(int i=0;i<size;i++) {
+				items[i] = oldItems[i];
+				hashes[i] = oldHashes[i];
+				index[freeSlot(hashes[i])] = i + 1;
+			}
+		}
+		
+		private static int home(int hash, int mask) {
+			// items hash their raw address bytes, spread them before masking
+			return (hash ^ (hash >>> 16)) * 0x9E3779B9 >>> 8 & mask;
+		}
+		
+		private int freeSlot(int hash) {
+			int mask = index.length - 1;
+			int slot = home(hash, mask);
+			while(index[slot] != 0)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+		
+		/**
+		 * @return slot in the index pointing to an equal item or -1
+		 */
+		private int slotOf(PeerAddressDBItem it, int hash) {
+			int mask = index.length - 1;
+			for(int slot = home(hash, mask);;slot = (slot + 1) & mask) {
+				int pos = index[slot] - 1;
+				if(pos < 0)
+					return -1;
+				if(hashes[pos] == hash && items[pos].equals(it))
+					return slot;
+			}
+		}
+		
+		private int slotOfPosition(int pos) {
+			int mask = index.length - 1;
+			int slot = home(hashes[pos], mask);
+			while(index[slot] != pos + 1)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+		
+		private void clearSlot(int slot) {
+			int mask = index.length - 1;
+			int hole = slot;
+			// backward shift deletion, keeps probe sequences intact without tombstones
+			for(int next = (slot + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+				int home = home(hashes[index[next] - 1], mask);
+				if(((next - home) & mask) >= ((next - hole) & mask)) {
+					index[hole] = index[next];
+					hole = next;
+				}
+			}
+			index[hole] = 0;
+		}
+		
+		private void removeAt(int pos, int slot) {
+			clearSlot(slot);
+			if(filterCounts != null && filterCounts.remove(items[pos].bloomIndices()))
+				filter = null;
+			int last = size - 1;
+			if(pos != last) {
+				index[slotOfPosition(last)] = pos + 1;
+				items[pos] = items[last];
+				hashes[pos] = hashes[last];
+			}
+			items[last] = null;
+			size = last;
+		}
+		
+		/**
+		 * @return true if the set holds an item with the same address that was created at the same time or later
+		 */
+		private boolean hasNewer(PeerAddressDBItem it) {
+			int hash = it.hashCode();
+			long stamp = lock.readLock();
+			try {
+				int slot = slotOf(it, hash);
+				return slot >= 0 && items[index[slot] - 1].getCreatedAt() >= it.getCreatedAt();
+			} finally {
+				lock.unlockRead(stamp);
+			}
 		}
 		
 		private void remove(PeerAddressDBItem it) {
-			synchronized (this) {
-				PeerAddressDBItem[] current = items;
-				
-				if(current.length == 0)
+			int hash = it.hashCode();
+			long stamp = lock.writeLock();
+			try {
+				int slot = slotOf(it, hash);
+				if(slot < 0)
 					return;
-				
-				
-				
-				int idx = Arrays.asList(current).indexOf(it);
-				if(idx < 0) {
-					return;
-				}
-				
-				PeerAddressDBItem[] newItems = Arrays.copyOf(current, current.length - 1);
-				
-				System.arraycopy(current, idx+1, newItems, idx, newItems.length - idx);
-				
-				items = newItems;
-				invalidateFilters();
+				removeAt(index[slot] - 1, slot);
+				modified();
+			} finally {
+				lock.unlockWrite(stamp);
 			}
 		}
 		
@@ -131,101 +258,207 @@ public class Database {
 		 * @return true when inserting, false when replacing
 		 */
 		private boolean add(PeerAddressDBItem toAdd) {
-			synchronized (this) {
-				PeerAddressDBItem[] current = items;
-				int idx = Arrays.asList(current).indexOf(toAdd);
-				if(idx >= 0) {
-					current[idx] = toAdd;
+			int hash = toAdd.hashCode();
+			// hash outside the lock
+			if(filterCounts != null)
+				toAdd.bloomIndices();
+			long stamp = lock.writeLock();
+			try {
+				int slot = slotOf(toAdd, hash);
+				if(slot >= 0) {
+					PeerAddressDBItem replaced = items[index[slot] - 1];
+					// same address, same filter bits
+					toAdd.inheritBloomIndices(replaced);
+					items[index[slot] - 1] = toAdd;
+					modified();
 					return false;
 				}
 				
-				PeerAddressDBItem[] newItems = Arrays.copyOf(current, current.length + 1);
-				newItems[newItems.length-1] = toAdd;
-				Collections.shuffle(Arrays.asList(newItems));
-
-				items = newItems;
-				
-				// bloom filter supports adding, only deletions need a rebuild.
-				BloomFilterBEP33 currentFilter = filter;
-				if(currentFilter != null)
-					synchronized (currentFilter) {
-						currentFilter.insert(toAdd.getInetAddress());
-					}
-				
+				if(size == items.length)
+					allocate(items.length * 2);
 				
-				return true;
+				// inside-out shuffle step: swap the new item with a random one so that the array remains a random permutation
+				int pos = size;
+				int swap = ThreadLocalRandom.current().nextInt(pos + 1);
+				int newSlot = freeSlot(hash);
+				if(swap != pos) {
+					index[slotOfPosition(swap)] = pos + 1;
+					items[pos] = items[swap];
+					hashes[pos] = hashes[swap];
+				}
+				items[swap] = toAdd;
+				hashes[swap] = hash;
+				index[newSlot] = swap + 1;
+				size = pos + 1;
+				if(filterCounts != null && filterCounts.add(toAdd.bloomIndices()))
+					filter = null;
+				modified();
+			} finally {
+				lock.unlockWrite(stamp);
 			}
+			
+			return true;
+		}
+		
+		private void modified() {
+			snapshot = null;
 		}
 		
+		/**
+		 * @return an immutable copy of all items
+		 */
 		PeerAddressDBItem[] snapshot() {
-			return items;
+			PeerAddressDBItem[] s = snapshot;
+			if(s != null)
+				return s;
+			
+			long stamp = lock.readLock();
+			try {
+				// writers are excluded while the read lock is held, so the copy stays current until they invalidate it
+				s = size == 0 ? NO_ITEMS : Arrays.copyOf(items, size);
+				snapshot = s;
+				return s;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		
+		/**
+		 * like {@link #snapshot()} but doesn't populate the cache, for one-off passes over all keys that would otherwise leave a copy behind in every set
+		 */
+		PeerAddressDBItem[] copy() {
+			PeerAddressDBItem[] s = snapshot;
+			if(s != null)
+				return s;
+			
+			long stamp = lock.readLock();
+			try {
+				return size == 0 ? NO_ITEMS : Arrays.copyOf(items, size);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		
+		/**
+		 * adds up to {@code max - target.size()} distinct random items to the target list, all items if there are not more than that
+		 */
+		void sample(List<? super PeerAddressDBItem> target, int max) {
+			int start = target.size();
+			
+			long stamp = lock.tryOptimisticRead();
+			if(stamp != 0) {
+				pick(target, max - start);
+				if(lock.validate(stamp))
+					return;
+				// raced with a writer, discard and retry with the lock held
+				target.subList(start, target.size()).clear();
+			}
+			
+			stamp = lock.readLock();
+			try {
+				pick(target, max - start);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		
+		private void pick(List<? super PeerAddressDBItem> target, int wanted) {
+			// may observe inconsistent state when reading optimistically, must not throw. the caller validates afterwards
+			PeerAddressDBItem[] items = this.items;
+			int n = Math.min(size, items.length);
+			if(wanted <= 0 || n == 0)
+				return;
+			
+			if(n <= wanted) {
+				for(int i=0;i<n;i++) {
+					PeerAddressDBItem it = items[i];
+					if(it != null)
+						target.add(it);
+				}
+				return;
+			}
+			
+			// the array is kept shuffled, any contiguous run is a random sample
+			int offset = ThreadLocalRandom.current().nextInt(n);
+			for(int i=0;i<wanted;i++) {
+				PeerAddressDBItem it = items[(i + offset) % n];
+				if(it != null)
+					target.add(it);
+			}
 		}
 		
 		boolean isEmpty() {
-			return items.length == 0;
+			return size == 0;
 		}
 		
 		public int size() {
-			return items.length;
+			return size;
 		}
 		
 		public Stream<PeerAddressDBItem> stream() {
-			return Arrays.stream(items);
-		}
-		
-		private void invalidateFilters() {
-			filter = null;
+			return Arrays.stream(snapshot());
 		}
 		
 		BloomFilterBEP33 getFilter() {
 			BloomFilterBEP33 f = filter;
-			if(f == null) {
-				f = filter = buildFilter();
-			}
-			
-			return f;
-		}
-		
-		private BloomFilterBEP33 buildFilter() {
-			// also return empty filters. strict interpretation of the spec doesn't allow omission of empty sets
-			// can happen if we have seeds but no peeds for example
+			if(f != null)
+				return f;
 			
-			BloomFilterBEP33 filter = new BloomFilterBEP33();
-
-			for (PeerAddressDBItem item : items) {
-				filter.insert(item.getInetAddress());
+			long stamp = lock.writeLock();
+			try {
+				if(filterCounts == null) {
+					CountingBloomFilterBEP33 counts = new CountingBloomFilterBEP33();
+					for(int i=0;i<size;i++)
+						counts.add(items[i].bloomIndices());
+					filterCounts = counts;
+				}
+				
+				// also return empty filters. strict interpretation of the spec doesn't allow omission of empty sets
+				// can happen if we have seeds but no peeds for example
+				f = filter;
+				if(f == null)
+					f = filter = filterCounts.toFilter();
+				return f;
+			} finally {
+				lock.unlockWrite(stamp);
 			}
-			
-			return filter;
 		}
 		
-		void expire() {
-			synchronized (this) {
-				long now = System.currentTimeMillis();
-				
-				PeerAddressDBItem[] items = this.items;
-				PeerAddressDBItem[] newItems = new PeerAddressDBItem[items.length];
-				
+		/**
+		 * @return expiry time of the oldest remaining item, {@link Long#MAX_VALUE} if none are left
+		 */
+		long expire(long now) {
+			long stamp = lock.writeLock();
+			try {
 				// don't remove all at once -> smears out new registrations on popular keys over time
 				int toRemove = DHTConstants.MAX_DB_ENTRIES_PER_KEY / 5;
+				int removed = 0;
+				long next = Long.MAX_VALUE;
 				
-				int insertPoint = 0;
-				
-				for(int i=0;i<items.length;i++) {
-					PeerAddressDBItem e = items[i];
-					if(toRemove == 0 || !e.expired(now))
-						newItems[insertPoint++] = e;
-					else
-						toRemove--;
+				for(int i=0;i<size;) {
+					PeerAddressDBItem it = items[i];
+					if(removed < toRemove && it.expired(now)) {
+						// the last item moves into this position, check it next
+						removeAt(i, slotOfPosition(i));
+						removed++;
+					} else {
+						next = Math.min(next, it.getCreatedAt() + DHTConstants.MAX_ITEM_AGE);
+						i++;
+					}
 				}
 				
-				if(insertPoint != newItems.length) {
-					this.items = Arrays.copyOf(newItems, insertPoint);
-					invalidateFilters();
-				}
+				if(removed == 0)
+					return next;
 				
+				// give memory back after popular keys cool down
+				if(items.length > MIN_CAPACITY && size < items.length / 4)
+					allocate(Math.max(MIN_CAPACITY, size * 2));
+				
+				modified();
+				return next;
+			} finally {
+				lock.unlockWrite(stamp);
 			}
-			
 		}
 	}
 
@@ -248,9 +481,36 @@ public class Database {
 				return v;
 			}
 			
-			return new PeersSeeds(dbi.seed ? new PeerAddressDBItem[] {dbi} : ItemSet.NO_ITEMS , dbi.seed ? ItemSet.NO_ITEMS : new PeerAddressDBItem[] {dbi});
+			return create(k, dbi);
 		});
 	}
+	
+	/**
+	 * Inserts an item read from a snapshot. Snapshots are loaded while the servers already accept announces, so unlike
+	 * {@link #store(Key, PeerAddressDBItem)} this never replaces a more recent item with the same address, and it schedules an existing
+	 * key again if the restored item expires before anything the key held so far.
+	 */
+	void restore(Key key, PeerAddressDBItem dbi) {
+		long expiresAt = dbi.getCreatedAt() + DHTConstants.MAX_ITEM_AGE;
+		items.compute(key, (k, v) -> {
+			if(v == null)
+				return create(k, dbi);
+			if(v.addUnlessNewer(dbi) && expiresAt < v.scheduledExpiry)
+				schedule(k, v, expiresAt);
+			return v;
+		});
+	}
+	
+	private PeersSeeds create(Key k, PeerAddressDBItem dbi) {
+		PeersSeeds created = new PeersSeeds(dbi.seed ? new PeerAddressDBItem[] {dbi} : ItemSet.NO_ITEMS , dbi.seed ? ItemSet.NO_ITEMS : new PeerAddressDBItem[] {dbi});
+		schedule(k, created, dbi.getCreatedAt() + DHTConstants.MAX_ITEM_AGE);
+		return created;
+	}
+	
+	private void schedule(Key k, PeersSeeds v, long expiresAt) {
+		v.scheduledExpiry = expiresAt;
+		expiryIndex.schedule(k, expiresAt);
+	}
 
 	/**
 	 * Get max_entries items from the database, which have the same key, items
@@ -266,19 +526,12 @@ public class Database {
 	 *            The maximum number entries
 	 */
 	List<DBItem> sample(Key key, int max_entries, DHTtype forType, boolean preferPeers) {
-		PeersSeeds keyEntry = null;
-		PeerAddressDBItem[] seedSnapshot = null;
-		PeerAddressDBItem[] peerSnapshot = null;
-
-
-		keyEntry = items.get(key);
+		PeersSeeds keyEntry = items.get(key);
 		if(keyEntry == null)
 			return null;
 		
-		seedSnapshot = keyEntry.seeds.snapshot();
-		peerSnapshot = keyEntry.peers.snapshot();
-		
-		int lengthSum = peerSnapshot.length + seedSnapshot.length;
+		int peerCount = keyEntry.peers.size();
+		int lengthSum = peerCount + keyEntry.seeds.size();
 		
 		if(lengthSum == 0)
 			return null;
@@ -287,48 +540,24 @@ public class Database {
 		
 		preferPeers &= lengthSum > max_entries;
 		
-		PeerAddressDBItem[] source;
+		ItemSet source;
 		
 		if(preferPeers)
-			source = peerSnapshot;
+			source = keyEntry.peers;
 		else {
 			// proportional sampling
-			source = ThreadLocalRandom.current().nextInt(lengthSum) < peerSnapshot.length ? peerSnapshot : seedSnapshot;
+			source = ThreadLocalRandom.current().nextInt(lengthSum) < peerCount ? keyEntry.peers : keyEntry.seeds;
 		}
 		
-		fill(peerlist, source, max_entries);
+		source.sample(peerlist, max_entries);
 		
-		source = source == peerSnapshot ? seedSnapshot : peerSnapshot;
+		source = source == keyEntry.peers ? keyEntry.seeds : keyEntry.peers;
 		
-		fill(peerlist, source, max_entries);
+		source.sample(peerlist, max_entries);
 		
 		return peerlist;
 	}
 	
-	
-	static void fill(List<DBItem> target, PeerAddressDBItem[] source, int max) {
-		if(source.length == 0)
-			return;
-		
-		if(source.length < max - target.size()) {
-			// copy whole
-			for(int i=0;i<source.length;i++) {
-				target.add(source[i]);
-			}
-		} else {
-			// sample random sublist
-			int offset = ThreadLocalRandom.current().nextInt(source.length);
-			
-			for(int i=0;i<source.length && target.size() < max;i++) {
-				PeerAddressDBItem toInsert = source[(i+offset)%source.length];
-				target.add(toInsert);
-			}
-			
-		}
-		
-		
-	}
-	
 	BloomFilterBEP33 createScrapeFilter(Key key, boolean seedFilter)
 	{
 		PeersSeeds dbl = items.get(key);
@@ -340,31 +569,50 @@ public class Database {
 	}
 
 	/**
-	 * Expire all items older than 30 minutes
+	 * Expire items older than {@link DHTConstants#MAX_ITEM_AGE}. Only visits keys that have expiring items, at most
+	 * {@link DHTConstants#DB_EXPIRY_KEYS_PER_TICK} per call. Remaining keys are picked up by the next calls.
 	 * 
 	 * @param now
 	 *            The time it is now (we pass this along so we only have to
 	 *            calculate it once)
 	 */
 	void expire(long now) {
-		
-		for (PeersSeeds dbl : items.values())
-		{
-			dbl.expire();
-		}
-		
-		items.entrySet().removeIf(e -> e.getValue().size() == 0);
-		
+		expiryIndex.drain(now, k -> expireKey(k, now));
+	}
+	
+	/**
+	 * Expires the items of a single key. Drops the key once it is empty, otherwise schedules it again for its next expiring item.
+	 */
+	void expireKey(Key key, long now) {
+		items.computeIfPresent(key, (k, v) -> {
+			// a restore scheduled the key for an earlier time, this visit belongs to the schedule it replaced
+			if(now < v.scheduledExpiry)
+				return v;
+			long next = v.expire(now);
+			if(v.size() == 0)
+				return null;
+			// items left over due to the per-key limit are retried once the current bucket has passed
+			schedule(k, v, Math.max(next, now + 1));
+			return v;
+		});
 	}
 	
 	
+	/**
+	 * @return size of the larger of the seed and peer sets for the key, -1 if the key is not present
+	 */
+	int largestSetSize(Key key) {
+		PeersSeeds entries = items.get(key);
+		if(entries == null)
+			return -1;
+		return Math.max(entries.peers.size(), entries.seeds.size());
+	}
+	
 	boolean insertForKeyAllowed(Key target)
 	{
-		PeersSeeds entries = items.get(target);
-		if(entries == null)
+		int size = largestSetSize(target);
+		if(size < 0)
 			return true;
-		
-		int size = Math.max(entries.peers.size(), entries.seeds.size());
 
 		if(size < DHTConstants.MAX_DB_ENTRIES_PER_KEY / 5)
 			return true;
@@ -380,6 +628,13 @@ public class Database {
 		return size < ThreadLocalRandom.current().nextInt(DHTConstants.MAX_DB_ENTRIES_PER_KEY);
 	}
 	
+	/**
+	 * replaces the token engine, tokens issued by the previous one become invalid
+	 */
+	public void setTokenEngine(TokenEngine engine) {
+		tokens = engine;
+	}
+	
 	/**
 	 * Generate a write token, which will give peers write access to the DB.
 	 * 
@@ -390,39 +645,7 @@ public class Database {
 	 * @return A Key
 	 */
 	ByteWrapper genToken(Key nodeId, InetAddress ip, int port, Key lookupKey) {
-		updateTokenTimestamps();
-		
-		byte[] tdata = new byte[Key.SHA1_HASH_LENGTH + ip.getAddress().length + 2 + 8 + Key.SHA1_HASH_LENGTH + sessionSecret.length];
-		// generate a hash of the ip port and the current time
-		// should prevent anybody from crapping things up
-		ByteBuffer bb = ByteBuffer.wrap(tdata);
-		nodeId.toBuffer(bb);
-		bb.put(ip.getAddress());
-		bb.putShort((short) port);
-		bb.putLong(timestampCurrent.get());
-		lookupKey.toBuffer(bb);
-		bb.put(sessionSecret);
-		
-		// shorten 4bytes to not waste packet size
-		// the chance of guessing correctly would be 1 : 4 million and only be valid for a single infohash
-		byte[] token = Arrays.copyOf(ThreadLocalUtils.getThreadLocalSHA1().digest(tdata), 4);
-		
-		
-		return new ByteWrapper(token);
-	}
-	
-	private void updateTokenTimestamps() {
-		long current = timestampCurrent.get();
-		long now = System.nanoTime();
-		while(TimeUnit.NANOSECONDS.toMillis(now - current) > DHTConstants.TOKEN_TIMEOUT)
-		{
-			if(timestampCurrent.compareAndSet(current, now))
-			{
-				timestampPrevious = current;
-				break;
-			}
-			current = timestampCurrent.get();
-		}
+		return new ByteWrapper(tokens.generate(nodeId, ip, port, lookupKey));
 	}
 
 	/**
@@ -437,33 +660,27 @@ public class Database {
 	 * @return true if the token was given to this peer, false other wise
 	 */
 	boolean checkToken(ByteWrapper token, Key nodeId, InetAddress ip, int port, Key lookupKey) {
-		updateTokenTimestamps();
-		boolean valid = checkToken(token, nodeId, ip, port, lookupKey, timestampCurrent.get()) || checkToken(token, nodeId, ip, port, lookupKey, timestampPrevious);
+		boolean valid = tokens.check(token.arr, nodeId, ip, port, lookupKey);
 		if(!valid)
 			DHT.logDebug("Received Invalid token from " + ip.getHostAddress());
 		return valid;
 	}
-
-
-	private boolean checkToken(ByteWrapper toCheck, Key nodeId, InetAddress ip, int port, Key lookupKey, long timeStamp) {
-
-		byte[] tdata = new byte[Key.SHA1_HASH_LENGTH + ip.getAddress().length + 2 + 8 + Key.SHA1_HASH_LENGTH + sessionSecret.length];
-		ByteBuffer bb = ByteBuffer.wrap(tdata);
-		nodeId.toBuffer(bb);
-		bb.put(ip.getAddress());
-		bb.putShort((short) port);
-		bb.putLong(timeStamp);
-		bb.put(lookupKey.getHash());
-		bb.put(sessionSecret);
-		
-		byte[] rawToken = Arrays.copyOf(ThreadLocalUtils.getThreadLocalSHA1().digest(tdata), 4);
-		
-		return toCheck.equals(new ByteWrapper(rawToken));
-	}
 	
 	public Map<Key, PeersSeeds> getData() {
 		return new HashMap<>(items);
 	}
+	
+	/**
+	 * hands out the seeds and peers of one key at a time, so that a full pass only needs memory for the largest key
+	 */
+	void forEachKey(KeyItemsConsumer consumer) {
+		items.forEach((k, v) -> consumer.accept(k, v.seeds.copy(), v.peers.copy()));
+	}
+	
+	@FunctionalInterface
+	interface KeyItemsConsumer {
+		void accept(Key key, PeerAddressDBItem[] seeds, PeerAddressDBItem[] peers);
+	}
 
 
 	/**
@@ -0,0 +1,211 @@
+package lbms.plugins.mldht.kad;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
+/**
+ * Streams the peer database to and from a compact binary file so that a restarted node can serve peers right away.
+ *
+ * The file is a header (magic, snapshot time) followed by tagged records: a key record starts a new key, the item records after it
+ * belong to that key, oldest first. An end record terminates the file. Items keep their creation time, expired ones are dropped when loading.
+ * Both directions go through a fixed size chunk buffer, memory use does not depend on the size of the database.
+ */
+final class DatabaseSnapshot {
+
+	private static final int MAGIC = 0x6d444231; // mDB1
+	private static final byte END = 0, KEY = 1, ITEM = 2;
+	private static final int FLAG_SEED = 1, FLAG_IPV6 = 2;
+	private static final int MAX_VERSION_LENGTH = 0xff;
+	// tag, flags, address + port, timestamp, version length, version
+	private static final int MAX_ITEM_RECORD = 1 + 1 + DHTtype.IPV6_DHT.ADDRESS_ENTRY_LENGTH + 8 + 1 + MAX_VERSION_LENGTH;
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private DatabaseSnapshot() {}
+
+	/**
+	 * writes to a temporary file first and atomically replaces the previous snapshot
+	 *
+	 * @return number of written items, -1 if the target directory does not exist
+	 */
+	static int save(Database db, Path file) throws IOException {
+		// don't persist in test mode
+		if(!Files.isDirectory(file.getParent()))
+			return -1;
+
+		long now = TimeSource.currentTimeMillis();
+		Path tempFile = Files.createTempFile(file.getParent(), "saveDatabase", "tmp");
+		int[] count = {0};
+
+		try {
+			try(FileChannel chan = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+				buf.putInt(MAGIC);
+				buf.putLong(now);
+
+				try {
+					db.forEachKey((key, seeds, peers) -> {
+						try {
+							if(seeds.length + peers.length == 0)
+								return;
+							reserve(chan, buf, 1 + Key.SHA1_HASH_LENGTH);
+							buf.put(KEY);
+							key.toBuffer(buf);
+							// oldest first, a key is scheduled for expiry by the first item stored under it when the snapshot gets loaded
+							PeerAddressDBItem[] items = Arrays.copyOf(seeds, seeds.length + peers.length);
+							System.arraycopy(peers, 0, items, seeds.length, peers.length);
+							Arrays.sort(items, Comparator.comparingLong(DBItem::getCreatedAt));
+							for(PeerAddressDBItem it : items) {
+								if(it.expired(now))
+									continue;
+								reserve(chan, buf, MAX_ITEM_RECORD);
+								writeItem(buf, it);
+								count[0]++;
+							}
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+
+				reserve(chan, buf, 1);
+				buf.put(END);
+				flush(chan, buf);
+				chan.force(true);
+			}
+			Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		return count[0];
+	}
+
+	private static void writeItem(ByteBuffer buf, PeerAddressDBItem it) {
+		byte[] data = it.getData();
+		byte[] version = it.originatorVersion;
+		if(version != null && version.length > MAX_VERSION_LENGTH)
+			version = null;
+
+		buf.put(ITEM);
+		buf.put((byte) ((it.seed ? FLAG_SEED : 0) | (data.length == DHTtype.IPV6_DHT.ADDRESS_ENTRY_LENGTH ? FLAG_IPV6 : 0)));
+		buf.put(data);
+		buf.putLong(it.getCreatedAt());
+		if(version == null) {
+			buf.put((byte) 0);
+		} else {
+			buf.put((byte) version.length);
+			buf.put(version);
+		}
+	}
+
+	private static void reserve(FileChannel chan, ByteBuffer buf, int bytes) throws IOException {
+		if(buf.remaining() < bytes)
+			flush(chan, buf);
+	}
+
+	private static void flush(FileChannel chan, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while(buf.hasRemaining())
+			chan.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * stores the items of a snapshot in the database. a truncated file is loaded up to the last complete record
+	 *
+	 * @return number of loaded items, items that expired since the snapshot was taken are not counted
+	 */
+	static int load(Database db, Path file) throws IOException {
+		if(!Files.isRegularFile(file))
+			return 0;
+
+		long now = TimeSource.currentTimeMillis();
+		int count = 0;
+
+		try(FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+			buf.flip();
+
+			require(chan, buf, 4 + 8);
+			if(buf.getInt() != MAGIC) {
+				DHT.logError("peer database snapshot " + file + " has an unknown format, ignoring it");
+				return 0;
+			}
+			long snapshotTime = buf.getLong();
+
+			Key key = null;
+
+			try {
+				while(true) {
+					require(chan, buf, 1);
+					byte tag = buf.get();
+					if(tag == END)
+						break;
+					if(tag == KEY) {
+						require(chan, buf, Key.SHA1_HASH_LENGTH);
+						key = new Key(buf, buf.position());
+						buf.position(buf.position() + Key.SHA1_HASH_LENGTH);
+						continue;
+					}
+					if(tag != ITEM || key == null)
+						throw new IOException("corrupt record at offset " + (chan.position() - buf.remaining() - 1));
+
+					require(chan, buf, 1);
+					int flags = buf.get();
+					byte[] data = new byte[(flags & FLAG_IPV6) != 0 ? DHTtype.IPV6_DHT.ADDRESS_ENTRY_LENGTH : DHTtype.IPV4_DHT.ADDRESS_ENTRY_LENGTH];
+					require(chan, buf, data.length + 8 + 1);
+					buf.get(data);
+					// a clock that went backwards must not extend the lifetime of items
+					long createdAt = Math.min(buf.getLong(), now);
+					int versionLength = buf.get() & 0xff;
+					byte[] version = null;
+					if(versionLength > 0) {
+						require(chan, buf, versionLength);
+						version = new byte[versionLength];
+						buf.get(version);
+					}
+
+					if(now - createdAt >= DHTConstants.MAX_ITEM_AGE)
+						continue;
+
+					PeerAddressDBItem it = new PeerAddressDBItem(data, (flags & FLAG_SEED) != 0, createdAt);
+					it.originatorVersion = version;
+					db.restore(key, it);
+					count++;
+				}
+			} catch (EOFException e) {
+				DHT.logError("peer database snapshot " + file + " is truncated, loaded " + count + " items");
+			}
+
+			DHT.logInfo("Loaded " + count + " peers from database snapshot. Snapshot was " + ((now - snapshotTime) / (60 * 1000)) + "min old.");
+		}
+
+		return count;
+	}
+
+	private static void require(FileChannel chan, ByteBuffer buf, int bytes) throws IOException {
+		if(buf.remaining() >= bytes)
+			return;
+		buf.compact();
+		while(buf.position() < bytes) {
+			if(chan.read(buf) < 0)
+				throw new EOFException();
+		}
+		buf.flip();
+	}
+
+}
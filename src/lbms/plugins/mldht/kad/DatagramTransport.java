@@ -0,0 +1,44 @@
+package lbms.plugins.mldht.kad;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Datagram delivery underneath the {@link RPCServer}s of a DHT, replacing the UDP sockets and the network interface enumeration used to
+ * pick bind addresses. Meant for simulated networks, regular operation uses the built-in NIO sockets.
+ *
+ * Implementations either accept or drop each datagram, there is no backpressure.
+ *
+ * @see DHT#setTransport(DatagramTransport)
+ */
+public interface DatagramTransport {
+
+	public static interface Receiver {
+		/**
+		 * @param packet ownership passes to the receiver, content spans from index 0 to the limit
+		 */
+		void received(ByteBuffer packet, InetSocketAddress source);
+	}
+
+	public static interface Endpoint {
+		/**
+		 * consumes the remaining bytes of the packet
+		 */
+		void send(ByteBuffer packet, InetSocketAddress destination) throws IOException;
+
+		InetSocketAddress getLocalAddress();
+
+		void close();
+	}
+
+	/**
+	 * @return the addresses a server may bind to, one server is started for each of them
+	 */
+	List<InetAddress> getLocalAddresses(Class<? extends InetAddress> type);
+
+	Endpoint bind(InetSocketAddress local, Receiver receiver) throws IOException;
+
+}
@@ -0,0 +1,114 @@
+package lbms.plugins.mldht.kad;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Ring of coarse time buckets holding the keys of the peer database, each in the bucket in which its oldest item expires.
+ *
+ * Instead of visiting every key on each expiry run, {@link #drain(long, Consumer)} only hands out keys whose buckets have fully elapsed.
+ * The callback expires the key and {@link #schedule(Key, long) schedules} it again for its next expiring item, so every key is in the
+ * ring exactly once as long as it holds items. Each call processes at most a fixed number of keys, backlogs carry over to the next one.
+ *
+ * Items may outlive their maximum age by up to one bucket. Scheduling is thread-safe, draining must be done by a single thread.
+ */
+class ExpiryIndex {
+
+	private final long bucketMillis;
+	private final int budget;
+	private final List<Queue<Scheduled>> buckets;
+
+	// first bucket not yet fully drained, counted in buckets since the epoch
+	private volatile long cursor;
+
+	private static final class Scheduled {
+		final Key key;
+		final long bucket;
+
+		Scheduled(Key key, long bucket) {
+			this.key = key;
+			this.bucket = bucket;
+		}
+	}
+
+	/**
+	 * @param span maximum distance between now and the scheduled expiry time
+	 * @param budget maximum number of keys processed per drain
+	 */
+	ExpiryIndex(long now, long span, long bucketMillis, int budget) {
+		this.bucketMillis = bucketMillis;
+		this.budget = budget;
+		// one extra bucket for the one being drained and one for rounding
+		int slots = (int) (span / bucketMillis) + 2;
+		buckets = new ArrayList<>(slots);
+		for(int i=0;i<slots;i++)
+			buckets.add(new ConcurrentLinkedQueue<>());
+		cursor = now / bucketMillis;
+	}
+
+	/**
+	 * @param expiresAt times in the past are treated as due in the bucket currently being drained
+	 */
+	void schedule(Key key, long expiresAt) {
+		long due = expiresAt / bucketMillis;
+		while(true) {
+			Scheduled s = new Scheduled(key, Math.max(due, cursor));
+			Queue<Scheduled> q = slot(s.bucket);
+			q.add(s);
+			// the drain may have moved past the bucket between reading the cursor and adding. whoever takes the entry out first
+			// moves it forward, either the sweep in drain or us
+			if(s.bucket >= cursor || !q.remove(s))
+				return;
+		}
+	}
+
+	private Queue<Scheduled> slot(long bucket) {
+		return buckets.get((int) (bucket % buckets.size()));
+	}
+
+	/**
+	 * hands the keys of all elapsed buckets to the callback, up to the budget
+	 *
+	 * @return number of processed keys
+	 */
+	int drain(long now, Consumer<Key> expire) {
+		int processed = 0;
+		long current = cursor;
+		// a bucket has elapsed once its last millisecond is in the past
+		List<Scheduled> notDue = new ArrayList<>();
+		while((current + 1) * bucketMillis <= now) {
+			Queue<Scheduled> q = slot(current);
+			Scheduled s;
+			while(processed < budget && (s = q.poll()) != null) {
+				// when draining lags behind by more than a full turn of the ring, later buckets share slots with due ones
+				if(s.bucket > current) {
+					notDue.add(s);
+					continue;
+				}
+				expire.accept(s.key);
+				processed++;
+			}
+			q.addAll(notDue);
+			notDue.clear();
+			if(processed >= budget)
+				break;
+			current++;
+			cursor = current;
+			// schedule() calls that read the old cursor can still add to the drained bucket, without this they would wait a full
+			// turn of the ring
+			while((s = q.poll()) != null) {
+				if(s.bucket < current)
+					slot(current).add(new Scheduled(s.key, current));
+				else
+					notDue.add(s);
+			}
+			q.addAll(notDue);
+			notDue.clear();
+		}
+		return processed;
+	}
+
+}
@@ -9,6 +9,7 @@ import the8472.bencode.Utils;
 import lbms.plugins.mldht.kad.messages.GetResponse;
 import lbms.plugins.mldht.kad.messages.PutRequest;
 import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
@@ -94,7 +95,7 @@ public class GenericStorage {
 		}
 		
 		public StorageItem(PutRequest req) {
-			expirationDate = System.currentTimeMillis() + EXPIRATION_INTERVAL_SECONDS*1000;
+			expirationDate = TimeSource.currentTimeMillis() + EXPIRATION_INTERVAL_SECONDS*1000;
 			value = buf2ary(req.getValue());
 			
 			if(req.getPubkey() != null) {
@@ -275,7 +276,7 @@ public class GenericStorage {
 	
 	
 	public void cleanup() {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		
 		items.entrySet().removeIf(entry -> {
 			return entry.getValue().expirationDate < now;
@@ -4,6 +4,7 @@ import lbms.plugins.mldht.kad.messages.FindNodeRequest;
 import lbms.plugins.mldht.kad.messages.GetPeersRequest;
 import lbms.plugins.mldht.kad.messages.MessageBase;
 import lbms.plugins.mldht.kad.messages.PingRequest;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -88,7 +89,7 @@ public class IDMismatchDetector {
 		ObservationEntry e = new ObservationEntry();
 		e.state = State.OBSERVING_PASSIVELY;
 		e.lastObservedId = suspect.getResponse().getID();
-		e.expirationTime = System.currentTimeMillis() + OBSERVATION_PERIOD;
+		e.expirationTime = TimeSource.currentTimeMillis() + OBSERVATION_PERIOD;
 		
 		// updateExisting() will take care of other cases
 		underObservation.putIfAbsent(suspect.getRequest().getDestination(), e);
@@ -109,7 +110,7 @@ public class IDMismatchDetector {
 		
 		ObservationEntry currentEntry = underObservation.get(addr);
 
-		if(currentEntry != null && System.currentTimeMillis() - currentEntry.lastActiveCheck < ACTIVE_CHECK_BACKOFF_INTERVAL) {
+		if(currentEntry != null && TimeSource.currentTimeMillis() - currentEntry.lastActiveCheck < ACTIVE_CHECK_BACKOFF_INTERVAL) {
 			return;
 		}
 			
@@ -135,10 +136,11 @@ public class IDMismatchDetector {
 			
 		RPCCall probeCall = new RPCCall(request);
 		probeCall.setExpectedID(confirmedID);
+		probeCall.setTrafficClass(TrafficClass.MAINTENANCE);
 		probeCall.addListener(new RPCCallListener() {
 			public void stateTransition(RPCCall probe2, RPCState previous, RPCState currentCallState) {
 				if(currentCallState == RPCState.ERROR || currentCallState == RPCState.RESPONDED || currentCallState == RPCState.TIMEOUT) {
-					long now = System.currentTimeMillis();
+					long now = TimeSource.currentTimeMillis();
 					
 					underObservation.compute(probe2.getRequest().getDestination(), (unused, existingObservationEntry) -> {
 						ObservationEntry newEntryObs = new ObservationEntry();
@@ -193,7 +195,7 @@ public class IDMismatchDetector {
 	}
 	
 	void purge() {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		
 		underObservation.values().removeIf(e -> {
 			return now > e.expirationTime;
@@ -31,6 +31,7 @@ import java.util.stream.Stream;
 
 import lbms.plugins.mldht.kad.messages.MessageBase;
 import lbms.plugins.mldht.kad.messages.MessageBase.Type;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 /**
  * A KBucket is just a list of KBucketEntry objects.
@@ -48,7 +49,7 @@ public class KBucket {
 	 * use {@link #insertOrRefresh}, {@link #sortedInsert} or {@link #removeEntry} to handle this<br>
 	 * using copy-on-write semantics for this list, referencing it is safe if you make local copy
 	 */
-	private volatile List<KBucketEntry>	entries;
+	private volatile PackedEntryList	entries;
 	
 	private AtomicInteger						currentReplacementPointer;
 	private AtomicReferenceArray<KBucketEntry>	replacementBucket;
@@ -56,7 +57,7 @@ public class KBucket {
 	private long						lastRefresh;
 	
 	public KBucket () {
-		entries = new ArrayList<>(); // using arraylist here since reading/iterating is far more common than writing.
+		entries = PackedEntryList.EMPTY; // packed arrays since reading/iterating is far more common than writing.
 		currentReplacementPointer = new AtomicInteger(0);
 		replacementBucket = new AtomicReferenceArray<>(DHTConstants.MAX_ENTRIES_PER_BUCKET);
 		// needed for bitmasking
@@ -71,18 +72,21 @@ public class KBucket {
 		if (newEntry == null)
 			return;
 		
-		List<KBucketEntry> entriesRef = entries;
+		PackedEntryList entriesRef = entries;
 		
-		for(KBucketEntry existing : entriesRef) {
+		// IDs and IPs are unique within the main list, so an exact match is always found by ID
+		int idx = entriesRef.indexOfId(newEntry.getID());
+		if(idx < 0)
+			idx = entriesRef.indexOfIP(newEntry.getAddress().getAddress());
+		if(idx >= 0) {
+			KBucketEntry existing = entriesRef.get(idx);
 			if(existing.equals(newEntry)) {
 				existing.mergeInTimestamps(newEntry);
 				return;
 			}
 			
-			if(existing.matchIPorID(newEntry)) {
-				DHT.logInfo("new node "+newEntry+" claims same ID or IP as "+existing+", might be impersonation attack or IP change. ignoring until old entry times out");
-				return;
-			}
+			DHT.logInfo("new node "+newEntry+" claims same ID or IP as "+existing+", might be impersonation attack or IP change. ignoring until old entry times out");
+			return;
 		}
 		
 		if(newEntry.verifiedReachable()) {
@@ -173,7 +177,7 @@ public class KBucket {
 			
 			// make changes visible
 			if(added || removed)
-				entries = newEntries;
+				entries = new PackedEntryList(newEntries);
 		}
 	}
 
@@ -209,6 +213,13 @@ public class KBucket {
 		return entries.stream();
 	}
 	
+	/**
+	 * @return immutable snapshot of the main entries
+	 */
+	PackedEntryList entriesSnapshot() {
+		return entries;
+	}
+	
 	Stream<KBucketEntry> replacementsStream() {
 		return IntStream.range(0, replacementBucket.length()).mapToObj(replacementBucket::get).filter(Objects::nonNull);
 	}
@@ -230,17 +241,15 @@ public class KBucket {
 	 * @param addr Address of the peer
 	 */
 	public void onTimeout(InetSocketAddress addr) {
-		List<KBucketEntry> entriesRef = entries;
-		for (int i = 0, n=entriesRef.size(); i < n; i++)
+		PackedEntryList entriesRef = entries;
+		int idx = entriesRef.indexOfAddress(addr);
+		if (idx >= 0)
 		{
-			KBucketEntry e = entriesRef.get(i);
-			if (e.getAddress().equals(addr))
-			{
-				e.signalRequestTimeout();
-				//only removes the entry if it is bad
-				removeEntryIfBad(e, false);
-				return;
-			}
+			KBucketEntry e = entriesRef.get(idx);
+			e.signalRequestTimeout();
+			//only removes the entry if it is bad
+			removeEntryIfBad(e, false);
+			return;
 		}
 		
 		for(int i=0, n=replacementBucket.length();i<n;i++) {
@@ -259,7 +268,7 @@ public class KBucket {
 	 * @return true if it needs to be refreshed
 	 */
 	public boolean needsToBeRefreshed () {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		// TODO: timer may be somewhat redundant with needsPing logic
 		return now - lastRefresh > DHTConstants.BUCKET_REFRESH_INTERVAL && entries.stream().anyMatch(KBucketEntry::needsPing);
 	}
@@ -267,7 +276,7 @@ public class KBucket {
 	public static final long REPLACEMENT_PING_MIN_INTERVAL = 30*1000;
 	
 	boolean needsReplacementPing() {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		
 		return now - lastRefresh > REPLACEMENT_PING_MIN_INTERVAL && (entriesStream().anyMatch(KBucketEntry::needsReplacement) || entries.size() == 0) && replacementsStream().anyMatch(KBucketEntry::neverContacted);
 	}
@@ -277,7 +286,7 @@ public class KBucket {
 	 * Resets the last modified for this Bucket
 	 */
 	public void updateRefreshTimer () {
-		lastRefresh = System.currentTimeMillis();
+		lastRefresh = TimeSource.currentTimeMillis();
 	}
 	
 
@@ -419,7 +428,11 @@ public class KBucket {
 	}
 	
 	public Optional<KBucketEntry> findByIPorID(InetAddress ip, Key id) {
-		return entries.stream().filter(e -> e.getID().equals(id) || e.getAddress().getAddress().equals(ip)).findAny();
+		PackedEntryList entriesRef = entries;
+		int idx = entriesRef.indexOfId(id);
+		if(idx < 0)
+			idx = entriesRef.indexOfIP(ip);
+		return idx >= 0 ? Optional.of(entriesRef.get(idx)) : Optional.empty();
 	}
 	
 	public Optional<KBucketEntry> randomEntry() {
@@ -430,18 +443,11 @@ public class KBucket {
 	{
 		if(msg.getType() != Type.RSP_MSG || msg.getAssociatedCall() == null)
 			return;
-		List<KBucketEntry> entriesRef = entries;
-		for (int i=0, n = entriesRef.size();i<n;i++)
-		{
-			KBucketEntry entry = entriesRef.get(i);
-			
-			// update last responded. insert will be invoked soon, thus we don't have to do the move-to-end stuff
-			if(entry.getID().equals(msg.getID()))
-			{
-				entry.signalResponse(msg.getAssociatedCall().getRTT());
-				return;
-			}
-		}
+		PackedEntryList entriesRef = entries;
+		int idx = entriesRef.indexOfId(msg.getID());
+		// update last responded. insert will be invoked soon, thus we don't have to do the move-to-end stuff
+		if(idx >= 0)
+			entriesRef.get(idx).signalResponse(msg.getAssociatedCall().getRTT());
 	}
 
 
@@ -19,8 +19,9 @@ package lbms.plugins.mldht.kad;
 import static the8472.bencode.Utils.prettyPrint;
 import static the8472.utils.Functional.typedGet;
 
+import the8472.bencode.StreamingEncoder;
 import lbms.plugins.mldht.kad.utils.AddressUtils;
-import lbms.plugins.mldht.utils.ExponentialWeightendMovingAverage;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -83,7 +84,8 @@ public class KBucketEntry {
 	private int					failedQueries;
 	private long				timeCreated;
 	private byte[]				version;
-	private ExponentialWeightendMovingAverage avgRTT = new ExponentialWeightendMovingAverage().setWeight(RTT_EMA_WEIGHT);;
+	// exponential moving average kept inline to avoid an extra object per entry, NaN until the first measurement
+	private double avgRTT = Double.NaN;
 	private long lastSendTime = -1;
 
 	
@@ -121,6 +123,24 @@ public class KBucketEntry {
 		
 		return map;
 	}
+	
+	/**
+	 * writes the same dictionary as {@link #toBencoded()} without building the map
+	 */
+	public void encodeTo(StreamingEncoder enc) {
+		enc.dict();
+		enc.key("addr").string(AddressUtils.packAddress(addr));
+		enc.key("created").number(timeCreated);
+		enc.key("failedCount").number(failedQueries());
+		enc.key("id").string(nodeID.hash);
+		enc.key("lastSeen").number(lastSeen);
+		enc.key("lastSend").number(lastSendTime);
+		if(verifiedReachable())
+			enc.key("verified").number(1);
+		if(version != null)
+			enc.key("version").string(version);
+		enc.end();
+	}
 
 
 	/**
@@ -131,7 +151,7 @@ public class KBucketEntry {
 	public KBucketEntry (InetSocketAddress addr, Key id) {
 		Objects.requireNonNull(addr);
 		Objects.requireNonNull(id);
-		lastSeen = System.currentTimeMillis();
+		lastSeen = TimeSource.currentTimeMillis();
 		timeCreated = lastSeen;
 		this.addr = addr;
 		this.nodeID = id;
@@ -147,7 +167,7 @@ public class KBucketEntry {
 		Objects.requireNonNull(addr);
 		Objects.requireNonNull(id);
 		lastSeen = timestamp;
-		timeCreated = System.currentTimeMillis();
+		timeCreated = TimeSource.currentTimeMillis();
 		this.addr = addr;
 		this.nodeID = id;
 	}
@@ -238,7 +258,7 @@ public class KBucketEntry {
 	
 	@Override
 	public String toString() {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		StringBuilder b = new StringBuilder(80);
 		b.append(nodeID+"/"+addr);
 		if(lastSendTime > 0)
@@ -249,7 +269,7 @@ public class KBucketEntry {
 			b.append(";fail:"+failedQueries);
 		if(verified)
 			b.append(";verified");
-		double rtt = avgRTT.getAverage();
+		double rtt = avgRTT;
 		if(!Double.isNaN(rtt))
 			b.append(";rtt:"+rtt);
 		if(version != null)
@@ -315,11 +335,11 @@ public class KBucketEntry {
 	}
 	
 	public boolean withinBackoffWindow() {
-		return withinBackoffWindow(System.currentTimeMillis());
+		return withinBackoffWindow(TimeSource.currentTimeMillis());
 	}
 	
 	public boolean needsPing() {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		
 		// don't ping if recently seen to allow NAT entries to time out
 		// see https://arxiv.org/pdf/1605.05606v1.pdf for numbers
@@ -332,7 +352,7 @@ public class KBucketEntry {
 
 	// old entries, e.g. from routing table reload
 	private boolean oldAndStale() {
-		return failedQueries > OLD_AND_STALE_TIMEOUTS && System.currentTimeMillis() - lastSeen > OLD_AND_STALE_TIME;
+		return failedQueries > OLD_AND_STALE_TIMEOUTS && TimeSource.currentTimeMillis() - lastSeen > OLD_AND_STALE_TIME;
 	}
 	
 	public boolean removableWithoutReplacement() {
@@ -356,12 +376,18 @@ public class KBucketEntry {
 		timeCreated = Math.min(timeCreated, other.getCreationTime());
 		if(other.verifiedReachable())
 			setVerified(true);
-		if(!Double.isNaN(other.avgRTT.getAverage()) )
-			avgRTT.updateAverage(other.avgRTT.getAverage());
+		if(!Double.isNaN(other.avgRTT))
+			updateRTT(other.avgRTT);
 	}
 	
 	public int getRTT() {
-		return (int) avgRTT.getAverage(DHTConstants.RPC_CALL_TIMEOUT_MAX);
+		double rtt = avgRTT;
+		return Double.isNaN(rtt) ? DHTConstants.RPC_CALL_TIMEOUT_MAX : (int) rtt;
+	}
+	
+	private void updateRTT(double value) {
+		double rtt = avgRTT;
+		avgRTT = Double.isNaN(rtt) ? value : value * RTT_EMA_WEIGHT + rtt * (1.0 - RTT_EMA_WEIGHT);
 	}
 
 	/**
@@ -369,11 +395,11 @@ public class KBucketEntry {
 	 * @param rtt > 0 in ms. -1 if unknown
 	 */
 	public void signalResponse(long rtt) {
-		lastSeen = System.currentTimeMillis();
+		lastSeen = TimeSource.currentTimeMillis();
 		failedQueries = 0;
 		verified = true;
 		if(rtt > 0)
-			avgRTT.updateAverage(rtt);
+			updateRTT(rtt);
 	}
 	
 	public void mergeRequestTime(long requestSent) {
@@ -381,7 +407,7 @@ public class KBucketEntry {
 	}
 	
 	public void signalScheduledRequest() {
-		lastSendTime = System.currentTimeMillis();
+		lastSendTime = TimeSource.currentTimeMillis();
 	}
 
 
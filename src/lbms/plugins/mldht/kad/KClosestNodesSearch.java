@@ -19,7 +19,6 @@ package lbms.plugins.mldht.kad;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -37,8 +36,14 @@ public class KClosestNodesSearch {
 	private List<KBucketEntry>			entries;
 	private int							max_entries;
 	private DHT							owner;
-	private Comparator<KBucketEntry> comp;
 	public Predicate<KBucketEntry> filter = KBucketEntry::eligibleForNodesList;
+	
+	private final long					target0, target1, target2;
+	
+	// the last bucket inserted and the snapshot positions of the entries taken from it, only those have to be sorted when shaving
+	private PackedEntryList				lastBucket;
+	private final int[]					lastBucketIndices = new int[DHTConstants.MAX_ENTRIES_PER_BUCKET];
+	private int							lastBucketCount;
 
 	/**
 	 * Constructor sets the key to compare with
@@ -50,8 +55,10 @@ public class KClosestNodesSearch {
 		this.targetKey = key;
 		this.owner = owner;
 		this.max_entries = max_entries;
-		this.comp = new KBucketEntry.DistanceOrder(key);
 		entries = new ArrayList<KBucketEntry>(max_entries + DHTConstants.MAX_ENTRIES_PER_BUCKET);
+		target0 = key.getLong(Key.LANE_0);
+		target1 = key.getLong(Key.LANE_1);
+		target2 = key.getLong(Key.LANE_2);
 	}
 
 	/**
@@ -103,7 +110,30 @@ This requires a non-contiguous search
 	
 	
 	private void insertBucket(KBucket bucket) {
-		bucket.entriesStream().filter(filter).forEach(entries::add);
+		PackedEntryList snapshot = bucket.entriesSnapshot();
+		lastBucket = snapshot;
+		lastBucketCount = 0;
+		
+		// snapshots never exceed the bucket size
+		for(int i=0,n=snapshot.size();i<n;i++) {
+			KBucketEntry e = snapshot.get(i);
+			if(!filter.test(e))
+				continue;
+			entries.add(e);
+			lastBucketIndices[lastBucketCount++] = i;
+		}
+	}
+	
+	/**
+	 * compares the xor distances of two snapshot entries to the target directly on the packed IDs
+	 */
+	private int compareDistance(PackedEntryList snapshot, int a, int b) {
+		int c = Long.compareUnsigned(snapshot.idLane(a, 0) ^ target0, snapshot.idLane(b, 0) ^ target0);
+		if(c == 0)
+			c = Long.compareUnsigned(snapshot.idLane(a, 1) ^ target1, snapshot.idLane(b, 1) ^ target1);
+		if(c == 0)
+			c = Long.compareUnsigned(snapshot.idLane(a, 2) ^ target2, snapshot.idLane(b, 2) ^ target2);
+		return c;
 	}
 	
 	private void shave() {
@@ -112,8 +142,24 @@ This requires a non-contiguous search
 		if(overshoot <= 0)
 			return;
 
-		List<KBucketEntry> tail = entries.subList(Math.max(0, entries.size() - DHTConstants.MAX_ENTRIES_PER_BUCKET), entries.size());
-		tail.sort(comp);
+		// buckets are visited in order of increasing distance, so only the entries of the last one need sorting.
+		// insertion sort on the snapshot indices, there are at most a bucket's worth
+		PackedEntryList snapshot = lastBucket;
+		int[] idx = lastBucketIndices;
+		int count = lastBucketCount;
+		int base = entries.size() - count;
+		for(int i=1;i<count;i++) {
+			int j = i;
+			while(j > 0 && compareDistance(snapshot, idx[j-1], idx[j]) > 0) {
+				int tmp = idx[j-1];
+				idx[j-1] = idx[j];
+				idx[j] = tmp;
+				j--;
+			}
+		}
+		for(int i=0;i<count;i++)
+			entries.set(base + i, snapshot.get(idx[i]));
+		
 		entries.subList(entries.size() - overshoot, entries.size()).clear();
 	}
 	
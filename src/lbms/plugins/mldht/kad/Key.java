@@ -16,8 +16,6 @@
  */
 package lbms.plugins.mldht.kad;
 
-import static the8472.utils.Arrays.compareUnsigned;
-import static the8472.utils.Arrays.mismatch;
 
 import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
 import lbms.plugins.mldht.utils.Radixable;
@@ -65,6 +63,13 @@ public class Key implements Radixable<Key> {
 	public static final int		SHA1_HASH_LENGTH	= 20;
 	public static final int		KEY_BITS			= SHA1_HASH_LENGTH * 8;
 	public static final Pattern STRING_PATTERN		= Pattern.compile("[a-fA-F0-9]{40}");
+	
+	/**
+	 * offsets of the 64bit lanes covering a key: bytes 0-7, 8-15 and 12-19.<br>
+	 * the last lane overlaps the second one. comparisons only look at it when the first two are equal, the overlapping bytes then cancel out
+	 */
+	public static final int LANE_0 = 0, LANE_1 = 8, LANE_2 = 12;
+	
 	final protected byte[]			hash				= new byte[SHA1_HASH_LENGTH];
 
 	/**
@@ -109,6 +114,14 @@ public class Key implements Radixable<Key> {
 		}
 		System.arraycopy(hash, 0, this.hash, 0, SHA1_HASH_LENGTH);
 	}
+
+	/**
+	 * Creates a Key from the 20 bytes at an absolute offset, the buffer's position is not modified
+	 */
+	public Key (ByteBuffer src, int offset) {
+		for(int i=0;i<SHA1_HASH_LENGTH;i++)
+			hash[i] = src.get(offset + i);
+	}
 	
 	public static Key setBit(int idx) {
 		Key k = new Key();
@@ -120,7 +133,19 @@ public class Key implements Radixable<Key> {
 	 * compares Keys according to their natural distance
 	 */
 	public int compareTo (Key o) {
-		return compareUnsigned(hash, o.hash);
+		byte[] h1 = hash;
+		byte[] h2 = o.hash;
+		long a = lane(h1, LANE_0);
+		long b = lane(h2, LANE_0);
+		if(a == b) {
+			a = lane(h1, LANE_1);
+			b = lane(h2, LANE_1);
+			if(a == b) {
+				a = lane(h1, LANE_2);
+				b = lane(h2, LANE_2);
+			}
+		}
+		return Long.compareUnsigned(a, b);
 	}
 	
 	/**
@@ -130,20 +155,28 @@ public class Key implements Radixable<Key> {
 	 */
 	public int threeWayDistance(Key k1, Key k2)
 	{
-		byte[] h0 = hash;
 		byte[] h1 = k1.hash;
 		byte[] h2 = k2.hash;
 		
-		int mmi = mismatch(h1, h2);
-		
-		if(mmi == -1)
-			return 0;
-		
-		int h = Byte.toUnsignedInt(h0[mmi]);
-		int a = Byte.toUnsignedInt(h1[mmi]);
-		int b = Byte.toUnsignedInt(h2[mmi]);
+		// the first lane where the keys differ decides, the target only needs to be loaded for that one
+		int offset = LANE_0;
+		long a = lane(h1, LANE_0);
+		long b = lane(h2, LANE_0);
+		if(a == b) {
+			offset = LANE_1;
+			a = lane(h1, LANE_1);
+			b = lane(h2, LANE_1);
+			if(a == b) {
+				offset = LANE_2;
+				a = lane(h1, LANE_2);
+				b = lane(h2, LANE_2);
+				if(a == b)
+					return 0;
+			}
+		}
 		
-		return Integer.compareUnsigned(a ^ h, b ^ h);
+		long t = lane(hash, offset);
+		return Long.compareUnsigned(a ^ t, b ^ t);
 	}
 
 
@@ -174,6 +207,17 @@ public class Key implements Radixable<Key> {
 		return Byte.toUnsignedInt(hash[offset]) << 24 | Byte.toUnsignedInt(hash[offset+1]) << 16 | Byte.toUnsignedInt(hash[offset+2]) << 8 | Byte.toUnsignedInt(hash[offset+3]);
 	}
 	
+	/**
+	 * @return big-endian value of the 8 bytes starting at offset, see {@link #LANE_0}, {@link #LANE_1}, {@link #LANE_2}
+	 */
+	public long getLong(int offset) {
+		return lane(hash, offset);
+	}
+	
+	private static long lane(byte[] hash, int offset) {
+		return the8472.utils.Arrays.getLong(hash, offset);
+	}
+	
 	public Key getDerivedKey(int idx) {
 		Key k = new Key(this);
 		idx = Integer.reverse(idx);
@@ -239,10 +283,20 @@ public class Key implements Radixable<Key> {
 	 */
 	public int findApproxKeyDistance (Key id) {
 
-		// XOR our id and the sender's ID
-		Key d = Key.distance(id, this);
-		
-		return d.leadingOneBit();
+		// XOR our id and the sender's ID, lane by lane to avoid allocating the distance key
+		byte[] h1 = hash;
+		byte[] h2 = id.hash;
+		long d = lane(h1, LANE_0) ^ lane(h2, LANE_0);
+		if(d != 0)
+			return Long.numberOfLeadingZeros(d);
+		d = lane(h1, LANE_1) ^ lane(h2, LANE_1);
+		if(d != 0)
+			return 64 + Long.numberOfLeadingZeros(d);
+		// bytes 12-15 are already known to be equal
+		d = lane(h1, LANE_2) ^ lane(h2, LANE_2);
+		if(d != 0)
+			return LANE_2 * 8 + Long.numberOfLeadingZeros(d);
+		return -1;
 	}
 	
 	public int leadingOneBit() {
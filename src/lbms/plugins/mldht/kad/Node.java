@@ -23,9 +23,8 @@ import static lbms.plugins.mldht.kad.Node.InsertOptions.FORCE_INTO_MAIN_BUCKET;
 import static lbms.plugins.mldht.kad.Node.InsertOptions.NEVER_SPLIT;
 import static lbms.plugins.mldht.kad.Node.InsertOptions.RELAXED_SPLIT;
 import static lbms.plugins.mldht.kad.Node.InsertOptions.REMOVE_IF_FULL;
-import static the8472.utils.Functional.typedGet;
 
-import the8472.bencode.BEncoder;
+import the8472.bencode.Tokenizer.BDecodingException;
 import the8472.utils.CowSet;
 import the8472.utils.Pair;
 import the8472.utils.concurrent.SerializedTaskExecutor;
@@ -38,20 +37,16 @@ import lbms.plugins.mldht.kad.messages.MessageBase.Type;
 import lbms.plugins.mldht.kad.tasks.PingRefreshTask;
 import lbms.plugins.mldht.kad.tasks.Task;
 import lbms.plugins.mldht.kad.utils.AddressUtils;
-import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -64,10 +59,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -129,6 +122,27 @@ public class Node {
 	
 	public static final class RoutingTable {
 		
+		// the index cache maps the leading bits of a key to a range of entries, 2 ints per slot
+		static final int CACHE_SLOTS = 128;
+		private static final Key[] SLOT_LOWER = new Key[CACHE_SLOTS];
+		private static final Key[] SLOT_UPPER = new Key[CACHE_SLOTS];
+		
+		static {
+			assert(Integer.bitCount(CACHE_SLOTS) == 1);
+			
+			int lsb = Integer.bitCount(CACHE_SLOTS-1)-1;
+			
+			Key increment = Key.setBit(lsb);
+			Key trailingBits = new Prefix(Key.MAX_KEY, lsb).distance(Key.MAX_KEY);
+			Key currentLower = new Key(new Prefix(Key.MIN_KEY, lsb));
+			
+			for(int i=0;i<CACHE_SLOTS;i++) {
+				SLOT_LOWER[i] = currentLower;
+				SLOT_UPPER[i] = currentLower.distance(trailingBits);
+				currentLower = new Key(new Prefix(currentLower.add(increment), lsb));
+			}
+		}
+		
 		final RoutingTableEntry[] entries;
 		final int[] indexCache;
 		
@@ -142,27 +156,26 @@ public class Node {
 			
 		}
 		
+		private RoutingTable(RoutingTableEntry[] entries, int[] indexCache) {
+			this.entries = entries;
+			this.indexCache = indexCache;
+		}
+		
 		public RoutingTable() {
 			this(new RoutingTableEntry[] {new RoutingTableEntry(new Prefix(), new KBucket(), (x) -> true)});
 		}
 		
 		int[] buildCache() {
-			int[] cache = new int[256];
-			
-			assert(Integer.bitCount(cache.length) == 1);
-			
-			int lsb = Integer.bitCount((cache.length/2)-1)-1;
-			
-			Key increment = Key.setBit(lsb);
-			Key trailingBits = new Prefix(Key.MAX_KEY, lsb).distance(Key.MAX_KEY);
-			Key currentLower = new Key(new Prefix(Key.MIN_KEY, lsb));
-			Key currentUpper = new Prefix(Key.MIN_KEY, lsb).distance(trailingBits);
+			int[] cache = new int[CACHE_SLOTS * 2];
 			
 			int innerOffset = 0;
 			
 			for(int i=0;i<cache.length;i+=2) {
 				cache[i+1] = entries.length;
 				
+				Key currentLower = SLOT_LOWER[i >> 1];
+				Key currentUpper = SLOT_UPPER[i >> 1];
+				
 				for(int j=innerOffset;j<entries.length;j++) {
 					Prefix p = entries[j].prefix;
 					
@@ -176,9 +189,6 @@ public class Node {
 					}
 						
 				}
-				
-				currentLower = new Key(new Prefix(currentLower.add(increment), lsb));
-				currentUpper = currentLower.distance(trailingBits);
 			}
 			
 			// System.out.println(IntStream.of(cache).mapToObj(Integer::toString).collect(Collectors.joining(", ")));
@@ -241,12 +251,157 @@ public class Node {
 		}
 		
 		public RoutingTable modify(Collection<RoutingTableEntry> toRemove, Collection<RoutingTableEntry> toAdd) {
-			List<RoutingTableEntry> temp = new ArrayList<>(Arrays.asList(entries));
+			Batch b = batch();
 			if(toRemove != null)
-				temp.removeAll(toRemove);
+				toRemove.forEach(b::remove);
 			if(toAdd != null)
-				temp.addAll(toAdd);
-			return new RoutingTable(temp.stream().sorted().toArray(RoutingTableEntry[]::new));
+				toAdd.forEach(b::add);
+			return b.build();
+		}
+		
+		public Batch batch() {
+			return new Batch(this);
+		}
+		
+		/**
+		 * Collects any number of splits, merges and replacements and applies them in a single copy of the table.
+		 * 
+		 * Entries that are neither removed nor added keep their relative order, so the result is produced by merging the surviving entries
+		 * with the sorted additions. Index cache slots that don't touch a removed entry only get their positions remapped, the others are
+		 * recomputed with a binary search.
+		 */
+		public static final class Batch {
+			
+			private final RoutingTable base;
+			private final Set<RoutingTableEntry> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+			private final Set<RoutingTableEntry> added = Collections.newSetFromMap(new IdentityHashMap<>());
+			
+			Batch(RoutingTable base) {
+				this.base = base;
+			}
+			
+			/**
+			 * entries that were added earlier in the same batch are simply dropped again
+			 */
+			public Batch remove(RoutingTableEntry e) {
+				if(!added.remove(e))
+					removed.add(e);
+				return this;
+			}
+			
+			public Batch add(RoutingTableEntry e) {
+				added.add(e);
+				return this;
+			}
+			
+			public Batch split(RoutingTableEntry toSplit, RoutingTableEntry low, RoutingTableEntry high) {
+				return remove(toSplit).add(low).add(high);
+			}
+			
+			public Batch merge(RoutingTableEntry low, RoutingTableEntry high, RoutingTableEntry parent) {
+				return remove(low).remove(high).add(parent);
+			}
+			
+			public Batch replace(RoutingTableEntry old, RoutingTableEntry updated) {
+				return remove(old).add(updated);
+			}
+			
+			public boolean isEmpty() {
+				return removed.isEmpty() && added.isEmpty();
+			}
+			
+			public RoutingTable build() {
+				if(isEmpty())
+					return base;
+				
+				RoutingTableEntry[] old = base.entries;
+				
+				// like modify used to do, removing entries that are not part of the table is a no-op
+				int[] removedIdx = removed.stream().mapToInt(e -> {
+					int idx = base.indexForId(e.prefix);
+					return old[idx] == e ? idx : -1;
+				}).filter(idx -> idx >= 0).sorted().toArray();
+				RoutingTableEntry[] toAdd = added.toArray(new RoutingTableEntry[added.size()]);
+				Arrays.sort(toAdd);
+				
+				RoutingTableEntry[] merged = new RoutingTableEntry[old.length - removedIdx.length + toAdd.length];
+				// position of each surviving entry in the new table, the end of the table maps to the new end
+				int[] oldToNew = new int[old.length + 1];
+				
+				int k = 0, a = 0, r = 0;
+				for(int i=0;i<old.length;i++) {
+					if(r < removedIdx.length && removedIdx[r] == i) {
+						r++;
+						oldToNew[i] = -1;
+						continue;
+					}
+					while(a < toAdd.length && toAdd[a].compareTo(old[i]) < 0)
+						merged[k++] = toAdd[a++];
+					oldToNew[i] = k;
+					merged[k++] = old[i];
+				}
+				while(a < toAdd.length)
+					merged[k++] = toAdd[a++];
+				oldToNew[old.length] = merged.length;
+				
+				if(merged.length <= 64)
+					return new RoutingTable(merged, new int[] {0, merged.length});
+				// additions without removals can only happen for malformed batches, don't bother remapping then
+				if(old.length <= 64 || removedIdx.length == 0)
+					return new RoutingTable(merged);
+				
+				int[] oldCache = base.indexCache;
+				int[] cache = new int[CACHE_SLOTS * 2];
+				
+				for(int i=0;i<cache.length;i+=2) {
+					int lo = oldCache[i];
+					int hi = oldCache[i+1];
+					
+					// both tables partition the keyspace, an added entry can only fall between lo and hi if something in that range was removed
+					int firstRemoved = Arrays.binarySearch(removedIdx, lo);
+					if(firstRemoved < 0)
+						firstRemoved = -firstRemoved - 1;
+					
+					if(firstRemoved < removedIdx.length && removedIdx[firstRemoved] <= Math.min(hi, old.length - 1)) {
+						cache[i] = lastAtOrBefore(merged, SLOT_LOWER[i >> 1]);
+						cache[i+1] = firstAtOrAfter(merged, SLOT_UPPER[i >> 1]);
+					} else {
+						cache[i] = oldToNew[lo];
+						cache[i+1] = oldToNew[hi];
+					}
+				}
+				
+				return new RoutingTable(merged, cache);
+			}
+			
+			private static int lastAtOrBefore(RoutingTableEntry[] entries, Key k) {
+				int low = 0, high = entries.length - 1, result = 0;
+				while(low <= high) {
+					int mid = (low + high) >>> 1;
+					if(entries[mid].prefix.compareTo(k) <= 0) {
+						result = mid;
+						low = mid + 1;
+					} else {
+						high = mid - 1;
+					}
+				}
+				return result;
+			}
+			
+			private static int firstAtOrAfter(RoutingTableEntry[] entries, Key k) {
+				int low = 0, high = entries.length - 1, result = entries.length;
+				while(low <= high) {
+					int mid = (low + high) >>> 1;
+					if(entries[mid].prefix.compareTo(k) >= 0) {
+						result = mid;
+						high = mid - 1;
+					} else {
+						low = mid + 1;
+					}
+				}
+				return result;
+			}
+			
 		}
 		
 	}
@@ -520,7 +675,7 @@ public class Node {
 			RoutingTableEntry a = new RoutingTableEntry(entry.prefix.splitPrefixBranch(false), new KBucket(), this::isLocalBucket);
 			RoutingTableEntry b = new RoutingTableEntry(entry.prefix.splitPrefixBranch(true), new KBucket(), this::isLocalBucket);
 			
-			RoutingTable newTable = current.modify(Arrays.asList(entry), Arrays.asList(a, b));
+			RoutingTable newTable = current.batch().split(entry, a, b).build();
 			
 			routingTableCOW = newTable;
 			
@@ -751,67 +906,87 @@ public class Node {
 	
 	
 	void mergeBuckets() {
-			
-		int i = 0;
-
-		// perform bucket merge operations where possible
+		
 		while(true) {
-			i++;
-			if(i < 1)
-				continue;
+			RoutingTable table = routingTableCOW;
+			RoutingTable.Batch batch = table.batch();
+			// merges are planned on a working copy so that cascading merges can see their results, the table is only published once
+			List<RoutingTableEntry> work = new ArrayList<>(table.list());
+			int delta = 0;
 			
-			// fine-grained locking to interfere less with other operations
-			synchronized (CoWLock) {
-				if(i >= routingTableCOW.size())
+			int i = 0;
+			
+			// perform bucket merge operations where possible
+			while(true) {
+				i++;
+				if(i < 1)
+					continue;
+				
+				if(i >= work.size())
 					break;
-
-				RoutingTableEntry e1 = routingTableCOW.get(i - 1);
-				RoutingTableEntry e2 = routingTableCOW.get(i);
-
+				
+				RoutingTableEntry e1 = work.get(i - 1);
+				RoutingTableEntry e2 = work.get(i);
+				
 				if (e1.prefix.isSiblingOf(e2.prefix)) {
 					int effectiveSize1 = (int) (e1.getBucket().entriesStream().filter(e -> !e.removableWithoutReplacement()).count() + e1.getBucket().replacementsStream().filter(KBucketEntry::eligibleForNodesList).count());
 					int effectiveSize2 = (int) (e2.getBucket().entriesStream().filter(e -> !e.removableWithoutReplacement()).count() + e2.getBucket().replacementsStream().filter(KBucketEntry::eligibleForNodesList).count());
-
+					
+					RoutingTableEntry parent = null;
+					
 					// uplift siblings if the other one is dead
 					if (effectiveSize1 == 0 || effectiveSize2 == 0) {
 						KBucket toLift = effectiveSize1 == 0 ? e2.getBucket() : e1.getBucket();
-
-						RoutingTable table = routingTableCOW;
-						routingTableCOW = table.modify(Arrays.asList(e1, e2), Arrays.asList(new RoutingTableEntry(e2.prefix.getParentPrefix(), toLift, this::isLocalBucket)));
-						i -= 2;
-						continue;
+						parent = new RoutingTableEntry(e2.prefix.getParentPrefix(), toLift, this::isLocalBucket);
 					}
-
+					
 					// check if the buckets can be merged without losing entries
-
-					if (effectiveSize1 + effectiveSize2 <= DHTConstants.MAX_ENTRIES_PER_BUCKET) {
-
-						RoutingTable table = routingTableCOW;
-						routingTableCOW = table.modify(Arrays.asList(e1, e2), Arrays.asList(new RoutingTableEntry(e1.prefix.getParentPrefix(), new KBucket(), this::isLocalBucket)));
-						
+					else if (effectiveSize1 + effectiveSize2 <= DHTConstants.MAX_ENTRIES_PER_BUCKET) {
+						KBucket mergedBucket = new KBucket();
 						// no splitting to avoid fibrillation between merge and split operations
-
-						for (KBucketEntry e : e1.bucket.getEntries())
-							insertEntry(e, EnumSet.of(InsertOptions.NEVER_SPLIT, InsertOptions.FORCE_INTO_MAIN_BUCKET));
-						for (KBucketEntry e : e2.bucket.getEntries())
-							insertEntry(e, EnumSet.of(InsertOptions.NEVER_SPLIT, InsertOptions.FORCE_INTO_MAIN_BUCKET));
-
-						e1.bucket.replacementsStream().forEach(r -> {
-							insertEntry(r, EnumSet.of(InsertOptions.NEVER_SPLIT));
-						});
-						e2.bucket.replacementsStream().forEach(r -> {
-							insertEntry(r, EnumSet.of(InsertOptions.NEVER_SPLIT));
-						});
-
+						moveInto(mergedBucket, e1.bucket);
+						moveInto(mergedBucket, e2.bucket);
+						parent = new RoutingTableEntry(e1.prefix.getParentPrefix(), mergedBucket, this::isLocalBucket);
+					}
+					
+					if(parent != null) {
+						batch.merge(e1, e2, parent);
+						delta += parent.bucket.getNumEntries() - e1.bucket.getNumEntries() - e2.bucket.getNumEntries();
+						work.set(i - 1, parent);
+						work.remove(i);
 						i -= 2;
 						continue;
 					}
 				}
 			}
-
+			
+			if(batch.isEmpty())
+				return;
+			
+			synchronized (CoWLock) {
+				// a split happened in the meantime, plan again
+				if(routingTableCOW != table)
+					continue;
+				routingTableCOW = batch.build();
+				num_entries += delta;
+				return;
+			}
 		}
 	}
 	
+	/**
+	 * same filtering as {@link #insertEntry(KBucketEntry, Set)} with NEVER_SPLIT but for a bucket that is not published yet
+	 */
+	private void moveInto(KBucket target, KBucket source) {
+		for (KBucketEntry e : source.getEntries())
+			if(!usedIDs.contains(e.getID()) && !AddressUtils.isBogon(e.getAddress()))
+				target.modifyMainBucket(null, e);
+		source.replacementsStream().forEach(r -> {
+			if(!usedIDs.contains(r.getID()) && !AddressUtils.isBogon(r.getAddress()))
+				target.insertOrRefresh(r);
+		});
+	}
+	
 	final Runnable singleThreadedUpdateHomeBuckets = SerializedTaskExecutor.onceMore(this::updateHomeBuckets);
 	
 	void updateHomeBuckets() {
@@ -831,7 +1006,10 @@ public class Node {
 					continue;
 				if(changed.isEmpty())
 					break;
-				routingTableCOW = t.modify(changed, changed.stream().map(e -> new RoutingTableEntry(e.prefix, e.bucket, this::isLocalBucket)).collect(Collectors.toList()));
+				RoutingTable.Batch batch = t.batch();
+				for(RoutingTableEntry e : changed)
+					batch.replace(e, new RoutingTableEntry(e.prefix, e.bucket, this::isLocalBucket));
+				routingTableCOW = batch.build();
 				break;
 			}
 		}
@@ -888,41 +1066,7 @@ public class Node {
 		if(!Files.isDirectory(saveTo.getParent()))
 			return;
 		
-		ByteBuffer tableBuffer = ByteBuffer.allocateDirect(50*1024*1024);
-		
-		
-		Map<String,Object> tableMap = new TreeMap<>();
-
-		RoutingTable table = routingTableCOW;
-		
-		List<Map<String, Object>> main = new ArrayList<>();
-		List<Map<String, Object>> replacements = new ArrayList<>();
-		
-		table.stream().map(RoutingTableEntry::getBucket).forEach(b -> {
-			b.entriesStream().map(KBucketEntry::toBencoded).collect(Collectors.toCollection(() -> main));
-			b.getReplacementEntries().stream().map(KBucketEntry::toBencoded).collect(Collectors.toCollection(() -> replacements));
-		});
-		
-		tableMap.put("mainEntries", main);
-		tableMap.put("replacements", replacements);
-		
-		ByteBuffer doubleBuf = ByteBuffer.wrap(new byte[8]);
-		doubleBuf.putDouble(0, dht.getEstimator().getRawDistanceEstimate());
-		tableMap.put("log2estimate", doubleBuf);
-		
-		tableMap.put("timestamp", System.currentTimeMillis());
-		tableMap.put("oldKey", getRootID().getHash());
-		
-		new BEncoder().encodeInto(tableMap, tableBuffer);
-		
-		Path tempFile = Files.createTempFile(saveTo.getParent(), "saveTable", "tmp");
-		
-		try(SeekableByteChannel chan = Files.newByteChannel(tempFile, StandardOpenOption.WRITE, StandardOpenOption.SYNC)) {
-			chan.write(tableBuffer);
-			chan.close();
-			Files.move(tempFile, saveTo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-		};
-
+		RoutingTableCache.write(saveTo, routingTableCOW, dht.getEstimator().getRawDistanceEstimate(), getRootID());
 	}
 	
 	void initKey(DHTConfiguration config)
@@ -988,59 +1132,96 @@ public class Node {
 		if(!f.exists() || !f.isFile())
 			return;
 		
-		try(FileChannel chan = FileChannel.open(tablePath, StandardOpenOption.READ)) {
-			
-			// don't use mmap, that would keep the file undeletable on windows, which would interfere with write-atomicmove persistence
-			ByteBuffer buf = ByteBuffer.allocateDirect((int)chan.size());
-			chan.read(buf);
-			buf.flip();
-			
-			Map<String, Object> table = ThreadLocalUtils.getDecoder().decode(buf);
-			
-			AtomicInteger counter = new AtomicInteger();
-
-			Key oldKey = typedGet(table, "oldKey", byte[].class).filter(b -> b.length == Key.SHA1_HASH_LENGTH).map(Key::new).orElse(null);
-			
-			boolean reuseKey = getRootID().equals(oldKey);
-			Comparator<KBucketEntry> comp = new KBucketEntry.DistanceOrder(getRootID());
-			
-			typedGet(table, "mainEntries", List.class).ifPresent(l -> {
-				Stream<KBucketEntry> st = l.stream().filter(Map.class::isInstance).map(m -> KBucketEntry.fromBencoded((Map<String, Object>) m));
-				if(!reuseKey) // sort so we insert in new home bucket first to minimize reshuffling
-					st = st.sorted(comp);
-				st.forEachOrdered(be -> {
-					insertEntry(be, reuseKey ? EnumSet.of(ALWAYS_SPLIT_IF_FULL, FORCE_INTO_MAIN_BUCKET) : EnumSet.noneOf(InsertOptions.class));
-					counter.incrementAndGet();
-				});
-			});
-			
-			typedGet(table, "replacements", List.class).ifPresent(l -> {
-				Stream<KBucketEntry> st = l.stream().filter(Map.class::isInstance).map(m -> KBucketEntry.fromBencoded((Map<String, Object>) m));
-				st.filter(e -> dht.getType().canUseSocketAddress(e.getAddress())).forEach(be -> {
-					routingTableCOW.entryForId(be.getID()).bucket.insertInReplacementBucket(be);
-					counter.incrementAndGet();
-				});
-			});
-			
-			typedGet(table, "log2estimate", byte[].class).filter(b -> b.length == 8).ifPresent(b -> {
-				ByteBuffer doubleBuf = ByteBuffer.wrap(b);
-				dht.getEstimator().setInitialRawDistanceEstimate(doubleBuf.getDouble());
+		List<KBucketEntry> main = new ArrayList<>();
+		List<KBucketEntry> replacements = new ArrayList<>();
+		Key[] oldKey = {null};
+		long[] timeStamp = {-1};
+		
+		try {
+			// the root ID is stored after the main entries, so they have to be collected before deciding how to insert them
+			RoutingTableCache.read(tablePath, new RoutingTableCache.Visitor() {
+				@Override
+				public void mainEntry(KBucketEntry e) {
+					main.add(e);
+				}
+				
+				@Override
+				public void replacement(KBucketEntry e) {
+					if(dht.getType().canUseSocketAddress(e.getAddress()))
+						replacements.add(e);
+				}
+				
+				@Override
+				public void log2estimate(double estimate) {
+					dht.getEstimator().setInitialRawDistanceEstimate(estimate);
+				}
+				
+				@Override
+				public void oldKey(Key k) {
+					oldKey[0] = k;
+				}
+				
+				@Override
+				public void timestamp(long timestamp) {
+					timeStamp[0] = timestamp;
+				}
 			});
-			
-
-			long timeStamp = typedGet(table, "timestamp", Long.class).orElse(-1L);
-
-			
-			DHT.logInfo("Loaded " + counter.get() + " entries from cache. Cache was "
-					+ ((System.currentTimeMillis() - timeStamp) / (60 * 1000))
-					+ "min old. Reusing old id = " + reuseKey);
-
-			
-			rebuildAddressCache();
-		} catch (IOException e) {
+		} catch (IOException | BDecodingException e) {
 			DHT.log(e, LogLevel.Error);
-		};
+		}
+		
+		boolean reuseKey = getRootID().equals(oldKey[0]);
+		
+		if(reuseKey && routingTableCOW.size() == 1 && num_entries == 0) {
+			bulkLoad(main);
+		} else {
+			if(!reuseKey) // sort so we insert in new home bucket first to minimize reshuffling
+				main.sort(new KBucketEntry.DistanceOrder(getRootID()));
+			for(KBucketEntry be : main)
+				insertEntry(be, reuseKey ? EnumSet.of(ALWAYS_SPLIT_IF_FULL, FORCE_INTO_MAIN_BUCKET) : EnumSet.noneOf(InsertOptions.class));
+		}
+		for(KBucketEntry be : replacements)
+			routingTableCOW.entryForId(be.getID()).bucket.insertInReplacementBucket(be);
+		
+		DHT.logInfo("Loaded " + (main.size() + replacements.size()) + " entries from cache. Cache was "
+				+ ((TimeSource.currentTimeMillis() - timeStamp[0]) / (60 * 1000))
+				+ "min old. Reusing old id = " + reuseKey);
+		
+		rebuildAddressCache();
+	}
+
+	/**
+	 * Builds the table in a single pass, equivalent to inserting the entries one by one with ALWAYS_SPLIT_IF_FULL and FORCE_INTO_MAIN_BUCKET
+	 * but without copying the table for every split. Only valid for an empty table.
+	 */
+	void bulkLoad(List<KBucketEntry> entries) {
+		KBucketEntry[] sorted = entries.stream().filter(e -> !usedIDs.contains(e.getID()) && !AddressUtils.isBogon(e.getAddress()) && dht.getType().canUseSocketAddress(e.getAddress())).sorted(Comparator.comparing(KBucketEntry::getID)).toArray(KBucketEntry[]::new);
+		List<RoutingTableEntry> leaves = new ArrayList<>();
+		partition(new Prefix(), sorted, 0, sorted.length, leaves);
+		
+		synchronized (CoWLock) {
+			routingTableCOW = new RoutingTable(leaves.toArray(new RoutingTableEntry[leaves.size()]));
+			num_entries = leaves.stream().mapToInt(e -> e.bucket.getNumEntries()).sum();
+		}
+	}
+	
+	private void partition(Prefix p, KBucketEntry[] sorted, int from, int to, List<RoutingTableEntry> leaves) {
+		if(to - from <= DHTConstants.MAX_ENTRIES_PER_BUCKET || p.getDepth() >= Key.KEY_BITS - 1) {
+			KBucket bucket = new KBucket();
+			for(int i=from;i<to;i++)
+				bucket.modifyMainBucket(null, sorted[i]);
+			leaves.add(new RoutingTableEntry(p, bucket, this::isLocalBucket));
+			return;
+		}
 		
+		Prefix low = p.splitPrefixBranch(false);
+		Prefix high = p.splitPrefixBranch(true);
+		int mid = from;
+		while(mid < to && low.isPrefixOf(sorted[mid].getID()))
+			mid++;
+		// leaves are emitted in key order
+		partition(low, sorted, from, mid, leaves);
+		partition(high, sorted, mid, to, leaves);
 	}
 
 	/**
@@ -5,6 +5,8 @@ import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
 public class NonReachableCache {
 	
 	final static long PURGE_TIME_MULTIPLIER = TimeUnit.MINUTES.toMillis(5);
@@ -36,7 +38,7 @@ public class NonReachableCache {
 			}
 			
 			CacheEntry newEntry = new CacheEntry();
-			newEntry.created = System.currentTimeMillis();
+			newEntry.created = TimeSource.currentTimeMillis();
 			newEntry.failures = 1;
 			
 			return newEntry;
@@ -48,7 +50,7 @@ public class NonReachableCache {
 	}
 	
 	void cleanStaleEntries() {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		
 		map.values().removeIf(v -> {
 			return now - v.created > v.failures * PURGE_TIME_MULTIPLIER;
@@ -0,0 +1,793 @@
+package lbms.plugins.mldht.kad;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+
+/**
+ * {@link Database} that keeps announced peers outside of the java heap, for nodes that hold millions of them.
+ *
+ * Each key gets one small on-heap {@link Entry}. Its seeds and peers are packed into fixed-size records inside blocks carved from
+ * direct memory chunks, so the garbage collector sees a handful of objects per infohash instead of several per announced peer.
+ * {@link PeerAddressDBItem}s are only materialized when they are handed out.
+ *
+ * Blocks are organized like {@link Database.ItemSet}: a randomly permuted dense record array followed by an open-addressing index over
+ * it. Inserts, replacements and removals are O(1), samples are contiguous runs from a random offset.
+ *
+ * Chunks are never returned to the OS, freed blocks are recycled through per-size class free lists.
+ */
+class OffHeapDatabase extends Database {
+
+	/*
+	 * record layout:
+	 *  0 address, 16 bytes, IPv4 zero-padded
+	 * 16 port
+	 * 18 flags
+	 * 19 version length
+	 * 20 version, first 4 bytes
+	 * 24 creation time
+	 */
+	static final int RECORD_BYTES = 32;
+	private static final int PORT = 16;
+	private static final int FLAGS = 18;
+	private static final int VERSION_LENGTH = 19;
+	private static final int VERSION = 20;
+	private static final int TIMESTAMP = 24;
+
+	private static final int FLAG_IPV6 = 1;
+	private static final int MAX_VERSION_LENGTH = 4;
+
+	// 2 index slots of 2 bytes per record keep the load factor at or below 0.5
+	private static final int INDEX_BYTES_PER_RECORD = 4;
+
+	private static final int MIN_CAPACITY = 4;
+	// smallest power of two capacity that holds MAX_DB_ENTRIES_PER_KEY, inserts beyond that are dropped
+	static final int SIZE_CLASSES = 33 - Integer.numberOfLeadingZeros((DHTConstants.MAX_DB_ENTRIES_PER_KEY - 1) / MIN_CAPACITY);
+
+	static int capacity(int sizeClass) {
+		return MIN_CAPACITY << sizeClass;
+	}
+
+	static int blockBytes(int sizeClass) {
+		return capacity(sizeClass) * (RECORD_BYTES + INDEX_BYTES_PER_RECORD);
+	}
+
+	/**
+	 * Hands out blocks of direct memory in power of two size classes. Thread-safe.
+	 */
+	static final class Arena {
+		static final int CHUNK_SIZE = 1 << 20;
+		private static final long NONE = -1;
+
+		private final List<ByteBuffer> chunks = new ArrayList<>();
+		// heads of intrusive lists, the first 8 bytes of each free block link to the next one
+		private final long[] freeLists = new long[SIZE_CLASSES];
+		private int bump = CHUNK_SIZE;
+		private long usedBytes;
+
+		Arena() {
+			Arrays.fill(freeLists, NONE);
+		}
+
+		static long handle(int chunk, int offset) {
+			return (long) chunk << 32 | offset;
+		}
+
+		static int offset(long handle) {
+			return (int) handle;
+		}
+
+		synchronized ByteBuffer chunk(long handle) {
+			return chunks.get((int) (handle >>> 32));
+		}
+
+		synchronized long allocate(int sizeClass) {
+			int bytes = blockBytes(sizeClass);
+			usedBytes += bytes;
+
+			long handle = freeLists[sizeClass];
+			if(handle != NONE) {
+				freeLists[sizeClass] = chunks.get((int) (handle >>> 32)).getLong(offset(handle));
+				return handle;
+			}
+
+			if(CHUNK_SIZE - bump < bytes) {
+				retireRemainder();
+				chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+				bump = 0;
+			}
+
+			handle = handle(chunks.size() - 1, bump);
+			bump += bytes;
+			return handle;
+		}
+
+		private void retireRemainder() {
+			if(chunks.isEmpty())
+				return;
+			for(int sizeClass = SIZE_CLASSES - 1; sizeClass >= 0; sizeClass--) {
+				while(CHUNK_SIZE - bump >= blockBytes(sizeClass)) {
+					push(handle(chunks.size() - 1, bump), sizeClass);
+					bump += blockBytes(sizeClass);
+				}
+			}
+		}
+
+		synchronized void free(long handle, int sizeClass) {
+			usedBytes -= blockBytes(sizeClass);
+			push(handle, sizeClass);
+		}
+
+		private void push(long handle, int sizeClass) {
+			chunks.get((int) (handle >>> 32)).putLong(offset(handle), freeLists[sizeClass]);
+			freeLists[sizeClass] = handle;
+		}
+
+		synchronized long getReservedBytes() {
+			return (long) chunks.size() * CHUNK_SIZE;
+		}
+
+		synchronized long getUsedBytes() {
+			return usedBytes;
+		}
+	}
+
+	/**
+	 * Seeds or peers of a single key. Not thread-safe, guarded by the lock of the owning {@link Entry}.
+	 */
+	static final class Records {
+		final boolean seed;
+
+		// created on the first scrape. records don't have room for the filter bits, expiry has to hash the removed addresses again
+		volatile CountingBloomFilterBEP33 filterCounts;
+		// immutable copy of the current bitmap handed out to scrapes
+		volatile BloomFilterBEP33 filter;
+
+		// null while empty
+		ByteBuffer buf;
+		long handle;
+		int base;
+		int sizeClass;
+		int capacity;
+		int size;
+
+		Records(boolean seed) {
+			this.seed = seed;
+		}
+
+		private int record(int pos) {
+			return base + pos * RECORD_BYTES;
+		}
+
+		private int indexMask() {
+			return capacity * 2 - 1;
+		}
+
+		private int slotOffset(int slot) {
+			return base + capacity * RECORD_BYTES + slot * 2;
+		}
+
+		// array position + 1, 0 = empty. linear probing
+		private int slot(int slot) {
+			return buf.getChar(slotOffset(slot));
+		}
+
+		private void setSlot(int slot, int value) {
+			buf.putChar(slotOffset(slot), (char) value);
+		}
+
+		private static int mix(int a, int b, int c, int d, boolean v6) {
+			int h = a;
+			h = h * 0x9E3779B9 ^ b;
+			h = h * 0x9E3779B9 ^ c;
+			h = h * 0x9E3779B9 ^ d;
+			h = h * 0x9E3779B9 ^ (v6 ? 1 : 0);
+			return h ^ h >>> 16;
+		}
+
+		static int hash(byte[] item) {
+			ByteBuffer bb = ByteBuffer.wrap(item);
+			if(item.length == DHTtype.IPV6_DHT.ADDRESS_ENTRY_LENGTH)
+				return mix(bb.getInt(0), bb.getInt(4), bb.getInt(8), bb.getInt(12), true);
+			return mix(bb.getInt(0), 0, 0, 0, false);
+		}
+
+		private int hashAt(int pos) {
+			int rec = record(pos);
+			return mix(buf.getInt(rec), buf.getInt(rec + 4), buf.getInt(rec + 8), buf.getInt(rec + 12), (buf.get(rec + FLAGS) & FLAG_IPV6) != 0);
+		}
+
+		private boolean matches(int pos, byte[] item) {
+			int rec = record(pos);
+			int addressLength = item.length - 2;
+			if(((buf.get(rec + FLAGS) & FLAG_IPV6) != 0) != (addressLength == 16))
+				return false;
+			for(int i=0;i<addressLength;i++)
+				if(buf.get(rec + i) != item[i])
+					return false;
+			return true;
+		}
+
+		private int freeSlot(int hash) {
+			int mask = indexMask();
+			int slot = hash & mask;
+			while(slot(slot) != 0)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		/**
+		 * @return slot in the index pointing to a record with the same address or -1
+		 */
+		private int slotOf(byte[] item, int hash) {
+			if(size == 0)
+				return -1;
+			int mask = indexMask();
+			for(int slot = hash & mask;;slot = (slot + 1) & mask) {
+				int pos = slot(slot) - 1;
+				if(pos < 0)
+					return -1;
+				if(matches(pos, item))
+					return slot;
+			}
+		}
+
+		private int slotOfPosition(int pos) {
+			int mask = indexMask();
+			int slot = hashAt(pos) & mask;
+			while(slot(slot) != pos + 1)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		private void clearSlot(int slot) {
+			int mask = indexMask();
+			int hole = slot;
+			// backward shift deletion, same as ItemSet
+			for(int next = (slot + 1) & mask; slot(next) != 0; next = (next + 1) & mask) {
+				int home = hashAt(slot(next) - 1) & mask;
+				if(((next - home) & mask) >= ((next - hole) & mask)) {
+					setSlot(hole, slot(next));
+					hole = next;
+				}
+			}
+			setSlot(hole, 0);
+		}
+
+		private void copyRecord(int from, int to) {
+			int src = record(from);
+			int dst = record(to);
+			for(int i=0;i<RECORD_BYTES;i+=8)
+				buf.putLong(dst + i, buf.getLong(src + i));
+		}
+
+		private void write(int pos, PeerAddressDBItem it) {
+			int rec = record(pos);
+			byte[] raw = it.item;
+			int addressLength = raw.length - 2;
+			for(int i=0;i<16;i++)
+				buf.put(rec + i, i < addressLength ? raw[i] : 0);
+			buf.put(rec + PORT, raw[addressLength]);
+			buf.put(rec + PORT + 1, raw[addressLength + 1]);
+			buf.put(rec + FLAGS, (byte) (addressLength == 16 ? FLAG_IPV6 : 0));
+			byte[] version = it.originatorVersion;
+			int versionLength = version == null ? 0 : Math.min(version.length, MAX_VERSION_LENGTH);
+			buf.put(rec + VERSION_LENGTH, (byte) versionLength);
+			for(int i=0;i<MAX_VERSION_LENGTH;i++)
+				buf.put(rec + VERSION + i, i < versionLength ? version[i] : 0);
+			buf.putLong(rec + TIMESTAMP, it.getCreatedAt());
+		}
+
+		private static void putInt(byte[] dst, int offset, int value) {
+			dst[offset] = (byte) (value >>> 24);
+			dst[offset + 1] = (byte) (value >>> 16);
+			dst[offset + 2] = (byte) (value >>> 8);
+			dst[offset + 3] = (byte) value;
+		}
+
+		PeerAddressDBItem read(int pos) {
+			int rec = record(pos);
+			int addressLength = (buf.get(rec + FLAGS) & FLAG_IPV6) != 0 ? 16 : 4;
+			byte[] raw = new byte[addressLength + 2];
+			for(int i=0;i<addressLength;i+=4)
+				putInt(raw, i, buf.getInt(rec + i));
+			char port = buf.getChar(rec + PORT);
+			raw[addressLength] = (byte) (port >>> 8);
+			raw[addressLength + 1] = (byte) port;
+			PeerAddressDBItem it = new PeerAddressDBItem(raw, seed, buf.getLong(rec + TIMESTAMP));
+			int versionLength = buf.get(rec + VERSION_LENGTH);
+			if(versionLength > 0) {
+				byte[] version = new byte[4];
+				putInt(version, 0, buf.getInt(rec + VERSION));
+				it.setVersion(versionLength == 4 ? version : Arrays.copyOf(version, versionLength));
+			}
+			return it;
+		}
+
+		private int bloomIndicesAt(int pos) {
+			int rec = record(pos);
+			int addressLength = (buf.get(rec + FLAGS) & FLAG_IPV6) != 0 ? 16 : 4;
+			byte[] raw = new byte[addressLength];
+			for(int i=0;i<addressLength;i+=4)
+				putInt(raw, i, buf.getInt(rec + i));
+			return BloomFilterBEP33.indices(raw, addressLength);
+		}
+
+		/**
+		 * moves all records into a block of a different size class, or releases the block if the class is negative
+		 */
+		private void resize(Arena arena, int newClass) {
+			ByteBuffer oldBuf = buf;
+			long oldHandle = handle;
+			int oldBase = base;
+			int oldClass = sizeClass;
+
+			if(newClass < 0) {
+				buf = null;
+				capacity = 0;
+			} else {
+				handle = arena.allocate(newClass);
+				buf = arena.chunk(handle);
+				base = Arena.offset(handle);
+				sizeClass = newClass;
+				capacity = capacity(newClass);
+
+				int indexStart = slotOffset(0);
+				for(int i=0;i<capacity * 2;i+=4)
+					buf.putLong(indexStart + i * 2, 0);
+
+				for(int pos=0;pos<size;pos++) {
+					for(int i=0;i<RECORD_BYTES;i+=8)
+						buf.putLong(record(pos) + i, oldBuf.getLong(oldBase + pos * RECORD_BYTES + i));
+					setSlot(freeSlot(hashAt(pos)), pos + 1);
+				}
+			}
+
+			if(oldBuf != null)
+				arena.free(oldHandle, oldClass);
+		}
+
+		/**
+		 * @return true when inserting, false when replacing or when the key is full
+		 */
+		boolean add(Arena arena, PeerAddressDBItem it) {
+			int hash = hash(it.item);
+			int slot = slotOf(it.item, hash);
+			if(slot >= 0) {
+				write(slot(slot) - 1, it);
+				return false;
+			}
+
+			if(size == capacity && buf != null && sizeClass == SIZE_CLASSES - 1)
+				return false;
+			if(filterCounts != null && filterCounts.add(it.bloomIndices()))
+				filter = null;
+
+			if(size == capacity)
+				resize(arena, buf == null ? 0 : sizeClass + 1);
+
+			// inside-out shuffle step, see ItemSet
+			int pos = size;
+			int swap = ThreadLocalRandom.current().nextInt(pos + 1);
+			int newSlot = freeSlot(hash);
+			if(swap != pos) {
+				setSlot(slotOfPosition(swap), pos + 1);
+				copyRecord(swap, pos);
+			}
+			write(swap, it);
+			setSlot(newSlot, swap + 1);
+			size = pos + 1;
+			return true;
+		}
+
+		/**
+		 * @return true if there is a record with the same address that was created at the same time or later
+		 */
+		boolean hasNewer(PeerAddressDBItem it) {
+			int slot = slotOf(it.item, hash(it.item));
+			return slot >= 0 && buf.getLong(record(slot(slot) - 1) + TIMESTAMP) >= it.getCreatedAt();
+		}
+
+		/**
+		 * @return true if a record with the same address was removed
+		 */
+		boolean remove(PeerAddressDBItem it) {
+			int slot = slotOf(it.item, hash(it.item));
+			if(slot < 0)
+				return false;
+			if(filterCounts != null && filterCounts.remove(it.bloomIndices()))
+				filter = null;
+			removeAt(slot(slot) - 1, slot);
+			return true;
+		}
+
+		private void removeAt(int pos, int slot) {
+			clearSlot(slot);
+			int last = size - 1;
+			if(pos != last) {
+				setSlot(slotOfPosition(last), pos + 1);
+				copyRecord(last, pos);
+			}
+			size = last;
+		}
+
+		/**
+		 * @return expiry time of the oldest remaining record, {@link Long#MAX_VALUE} if none are left
+		 */
+		long expire(Arena arena, long now, int max) {
+			int removed = 0;
+			long next = Long.MAX_VALUE;
+			for(int pos=0;pos<size;) {
+				long expiresAt = buf.getLong(record(pos) + TIMESTAMP) + DHTConstants.MAX_ITEM_AGE;
+				if(removed < max && expiresAt <= now) {
+					if(filterCounts != null && filterCounts.remove(bloomIndicesAt(pos)))
+						filter = null;
+					// the last record moves into this position, check it next
+					removeAt(pos, slotOfPosition(pos));
+					removed++;
+				} else {
+					next = Math.min(next, expiresAt);
+					pos++;
+				}
+			}
+
+			if(removed > 0)
+				shrink(arena);
+
+			return next;
+		}
+
+		private void shrink(Arena arena) {
+			if(size == 0) {
+				release(arena);
+				return;
+			}
+			if(sizeClass == 0 || size >= capacity / 4)
+				return;
+			int fitting = 0;
+			while(capacity(fitting) < size * 2)
+				fitting++;
+			resize(arena, fitting);
+		}
+
+		void release(Arena arena) {
+			size = 0;
+			if(buf != null)
+				resize(arena, -1);
+		}
+
+		/**
+		 * adds up to {@code max - target.size()} distinct random items to the target list
+		 */
+		void sample(List<? super PeerAddressDBItem> target, int max) {
+			int wanted = max - target.size();
+			// size may be inconsistent with the block when reading optimistically
+			int n = Math.min(size, capacity);
+			if(wanted <= 0 || n <= 0)
+				return;
+			if(n <= wanted) {
+				for(int pos=0;pos<n;pos++)
+					target.add(read(pos));
+				return;
+			}
+			// the records are kept shuffled, any contiguous run is a random sample
+			int offset = ThreadLocalRandom.current().nextInt(n);
+			for(int i=0;i<wanted;i++)
+				target.add(read((i + offset) % n));
+		}
+
+		/**
+		 * must be called with the write lock held unless {@link #filter} is set
+		 */
+		BloomFilterBEP33 getFilter() {
+			if(filterCounts == null) {
+				CountingBloomFilterBEP33 counts = new CountingBloomFilterBEP33();
+				for(int pos=0;pos<size;pos++)
+					counts.add(bloomIndicesAt(pos));
+				filterCounts = counts;
+			}
+			BloomFilterBEP33 f = filter;
+			if(f == null)
+				f = filter = filterCounts.toFilter();
+			return f;
+		}
+
+		PeerAddressDBItem[] toArray() {
+			PeerAddressDBItem[] items = new PeerAddressDBItem[size];
+			for(int pos=0;pos<size;pos++)
+				items[pos] = read(pos);
+			return items;
+		}
+	}
+
+	/**
+	 * On-heap part of a key
+	 */
+	static final class Entry {
+		final StampedLock lock = new StampedLock();
+		final Records seeds = new Records(true);
+		final Records peers = new Records(false);
+		// expiry time the key is scheduled for, guarded by the map entry of the key
+		long scheduledExpiry;
+
+		void add(Arena arena, PeerAddressDBItem it) {
+			Records removeTarget = it.seed ? peers : seeds;
+			Records insertTarget = it.seed ? seeds : peers;
+
+			// hash outside the lock
+			if(removeTarget.filterCounts != null || insertTarget.filterCounts != null)
+				it.bloomIndices();
+
+			long stamp = lock.writeLock();
+			try {
+				removeTarget.remove(it);
+				insertTarget.add(arena, it);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * like {@link #add(Arena, PeerAddressDBItem)}, but keeps a record with the same address that is at least as recent
+		 *
+		 * @return false if the item was dropped
+		 */
+		boolean addUnlessNewer(Arena arena, PeerAddressDBItem it) {
+			// records only change under the map entry of the key, which the caller holds, so nothing can slip in after the check
+			if(seeds.hasNewer(it) || peers.hasNewer(it))
+				return false;
+			add(arena, it);
+			return true;
+		}
+
+		BloomFilterBEP33 getFilter(boolean seed) {
+			Records records = seed ? seeds : peers;
+			BloomFilterBEP33 f = records.filter;
+			if(f != null)
+				return f;
+
+			long stamp = lock.writeLock();
+			try {
+				return records.getFilter();
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * @return expiry time of the oldest remaining record, {@link Long#MAX_VALUE} if none are left
+		 */
+		long expire(Arena arena, long now) {
+			long stamp = lock.writeLock();
+			try {
+				// don't remove all at once -> smears out new registrations on popular keys over time
+				int toRemove = DHTConstants.MAX_DB_ENTRIES_PER_KEY / 5;
+				return Math.min(seeds.expire(arena, now, toRemove), peers.expire(arena, now, toRemove));
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		void release(Arena arena) {
+			long stamp = lock.writeLock();
+			try {
+				seeds.release(arena);
+				peers.release(arena);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		int size() {
+			long stamp = lock.readLock();
+			try {
+				return seeds.size + peers.size;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>(3000);
+	private final Arena arena = new Arena();
+
+	OffHeapDatabase() {
+		super(false);
+	}
+
+	@Override
+	public void store(Key key, PeerAddressDBItem dbi) {
+		// expiry drops empty entries under the same map lock, so a stored item never lands in a released entry and every entry is in the expiry index
+		entries.compute(key, (k, v) -> {
+			if(v == null) {
+				v = new Entry();
+				schedule(k, v, dbi.getCreatedAt() + DHTConstants.MAX_ITEM_AGE);
+			}
+			v.add(arena, dbi);
+			return v;
+		});
+	}
+
+	@Override
+	void restore(Key key, PeerAddressDBItem dbi) {
+		long expiresAt = dbi.getCreatedAt() + DHTConstants.MAX_ITEM_AGE;
+		entries.compute(key, (k, v) -> {
+			if(v == null) {
+				v = new Entry();
+				schedule(k, v, expiresAt);
+				v.add(arena, dbi);
+				return v;
+			}
+			if(v.addUnlessNewer(arena, dbi) && expiresAt < v.scheduledExpiry)
+				schedule(k, v, expiresAt);
+			return v;
+		});
+	}
+
+	private void schedule(Key k, Entry e, long expiresAt) {
+		e.scheduledExpiry = expiresAt;
+		expiryIndex.schedule(k, expiresAt);
+	}
+
+	@Override
+	List<DBItem> sample(Key key, int max_entries, DHTtype forType, boolean preferPeers) {
+		Entry entry = entries.get(key);
+		if(entry == null)
+			return null;
+
+		// optimistic first so that samplers never hold off announces on popular keys
+		long stamp = entry.lock.tryOptimisticRead();
+		if(stamp != 0) {
+			try {
+				List<DBItem> result = sample(entry, max_entries, preferPeers);
+				if(entry.lock.validate(stamp))
+					return result;
+			} catch (RuntimeException e) {
+				// observed a block in the middle of a modification, the locked retry below reads it consistently
+			}
+		}
+
+		stamp = entry.lock.readLock();
+		try {
+			return sample(entry, max_entries, preferPeers);
+		} finally {
+			entry.lock.unlockRead(stamp);
+		}
+	}
+
+	private static List<DBItem> sample(Entry entry, int max_entries, boolean preferPeers) {
+		int peerCount = entry.peers.size;
+		int lengthSum = peerCount + entry.seeds.size;
+
+		if(lengthSum <= 0)
+			return null;
+
+		List<DBItem> peerlist = new ArrayList<>(Math.min(max_entries, lengthSum));
+
+		preferPeers &= lengthSum > max_entries;
+
+		Records source;
+
+		if(preferPeers)
+			source = entry.peers;
+		else {
+			// proportional sampling
+			source = ThreadLocalRandom.current().nextInt(lengthSum) < peerCount ? entry.peers : entry.seeds;
+		}
+
+		source.sample(peerlist, max_entries);
+
+		source = source == entry.peers ? entry.seeds : entry.peers;
+
+		source.sample(peerlist, max_entries);
+
+		return peerlist;
+	}
+
+	@Override
+	BloomFilterBEP33 createScrapeFilter(Key key, boolean seedFilter) {
+		Entry entry = entries.get(key);
+		if(entry == null)
+			return null;
+		return entry.getFilter(seedFilter);
+	}
+
+	@Override
+	void expireKey(Key key, long now) {
+		entries.computeIfPresent(key, (k, e) -> {
+			// see Database.expireKey
+			if(now < e.scheduledExpiry)
+				return e;
+			long next = e.expire(arena, now);
+			if(e.size() == 0) {
+				e.release(arena);
+				return null;
+			}
+			schedule(k, e, Math.max(next, now + 1));
+			return e;
+		});
+	}
+
+	@Override
+	int largestSetSize(Key key) {
+		Entry entry = entries.get(key);
+		if(entry == null)
+			return -1;
+		long stamp = entry.lock.readLock();
+		try {
+			return Math.max(entry.seeds.size, entry.peers.size);
+		} finally {
+			entry.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * materializes copies of all items, intended for diagnostics
+	 */
+	@Override
+	public Map<Key, PeersSeeds> getData() {
+		Map<Key, PeersSeeds> result = new HashMap<>();
+		entries.forEach((k, e) -> {
+			long stamp = e.lock.readLock();
+			try {
+				result.put(k, new PeersSeeds(e.seeds.toArray(), e.peers.toArray()));
+			} finally {
+				e.lock.unlockRead(stamp);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	void forEachKey(KeyItemsConsumer consumer) {
+		entries.forEach((k, e) -> {
+			PeerAddressDBItem[] seeds, peers;
+			long stamp = e.lock.readLock();
+			try {
+				seeds = e.seeds.toArray();
+				peers = e.peers.toArray();
+			} finally {
+				e.lock.unlockRead(stamp);
+			}
+			consumer.accept(k, seeds, peers);
+		});
+	}
+
+	long getReservedBytes() {
+		return arena.getReservedBytes();
+	}
+
+	long getUsedBytes() {
+		return arena.getUsedBytes();
+	}
+
+	@Override
+	public DatabaseStats getStats() {
+		return new DatabaseStats() {
+			@Override
+			public int getKeyCount() {
+				return entries.size();
+			}
+
+			@Override
+			public int getItemCount() {
+				return entries.values().stream().mapToInt(Entry::size).sum();
+			}
+
+			@Override
+			public String toString() {
+				return String.format("keys: %d items: %d off-heap: %d/%d KiB", getKeyCount(), getItemCount(), getUsedBytes() / 1024, getReservedBytes() / 1024);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,137 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Immutable snapshot of the main entries of a bucket, stored as struct-of-arrays.
+ *
+ * Node IDs are packed into the 3 lanes per entry described by {@link Key#LANE_0} and addresses into 16 bytes (IPv4 in mapped form)
+ * plus port, so that ID/address lookups and distance calculations scan flat primitive arrays instead of chasing entry -&gt; Key -&gt; byte[]
+ * and entry -&gt; InetSocketAddress -&gt; InetAddress pointers.
+ *
+ * The mutable per-node state (RTT, last seen, failures) stays in the {@link KBucketEntry} objects since those are shared with
+ * calls, lookups and the replacement bucket. This class is also a read-only {@link java.util.List} view of them so that existing code keeps working.
+ */
+final class PackedEntryList extends AbstractList<KBucketEntry> implements RandomAccess {
+
+	static final int ID_LANES = 3;
+	static final int ADDRESS_BYTES = 16;
+
+	static final PackedEntryList EMPTY = new PackedEntryList(new KBucketEntry[0]);
+
+	private final KBucketEntry[] entries;
+	private final long[] ids;
+	private final byte[] addresses;
+	private final char[] ports;
+
+	PackedEntryList(Collection<KBucketEntry> entries) {
+		this(entries.toArray(new KBucketEntry[entries.size()]));
+	}
+
+	private PackedEntryList(KBucketEntry[] entries) {
+		int n = entries.length;
+		this.entries = entries;
+		ids = new long[n * ID_LANES];
+		addresses = new byte[n * ADDRESS_BYTES];
+		ports = new char[n];
+
+		for(int i=0;i<n;i++) {
+			KBucketEntry e = entries[i];
+			Key id = e.getID();
+			ids[i * ID_LANES] = id.getLong(Key.LANE_0);
+			ids[i * ID_LANES + 1] = id.getLong(Key.LANE_1);
+			ids[i * ID_LANES + 2] = id.getLong(Key.LANE_2);
+			InetSocketAddress addr = e.getAddress();
+			if(addr.getAddress() != null)
+				pack(addr.getAddress(), addresses, i * ADDRESS_BYTES);
+			ports[i] = (char) addr.getPort();
+		}
+	}
+
+	private static void pack(InetAddress addr, byte[] dst, int offset) {
+		byte[] raw = addr.getAddress();
+		if(addr instanceof Inet4Address) {
+			dst[offset + 10] = (byte) 0xff;
+			dst[offset + 11] = (byte) 0xff;
+			System.arraycopy(raw, 0, dst, offset + 12, 4);
+		} else {
+			System.arraycopy(raw, 0, dst, offset, ADDRESS_BYTES);
+		}
+	}
+
+	@Override
+	public KBucketEntry get(int index) {
+		return entries[index];
+	}
+
+	@Override
+	public int size() {
+		return entries.length;
+	}
+
+	/**
+	 * @param lane 0 to 2, big-endian order
+	 */
+	long idLane(int index, int lane) {
+		return ids[index * ID_LANES + lane];
+	}
+
+	int indexOfId(Key id) {
+		if(id == null)
+			return -1;
+		long l0 = id.getLong(Key.LANE_0);
+		long l1 = id.getLong(Key.LANE_1);
+		long l2 = id.getLong(Key.LANE_2);
+		long[] ids = this.ids;
+		for(int i=0,n=entries.length;i<n;i++) {
+			int o = i * ID_LANES;
+			if(ids[o] == l0 && ids[o + 1] == l1 && ids[o + 2] == l2)
+				return i;
+		}
+		return -1;
+	}
+
+	int indexOfIP(InetAddress ip) {
+		if(ip == null)
+			return -1;
+		byte[] packed = new byte[ADDRESS_BYTES];
+		pack(ip, packed, 0);
+		return indexOfIP(packed);
+	}
+
+	private int indexOfIP(byte[] packed) {
+		byte[] addresses = this.addresses;
+		outer: for(int i=0,n=entries.length;i<n;i++) {
+			int o = i * ADDRESS_BYTES;
+			for(int j=ADDRESS_BYTES-1;j>=0;j--)
+				if(addresses[o + j] != packed[j])
+					continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+	int indexOfAddress(InetSocketAddress addr) {
+		if(addr.getAddress() == null)
+			return -1;
+		byte[] packed = new byte[ADDRESS_BYTES];
+		pack(addr.getAddress(), packed, 0);
+		int port = addr.getPort();
+		outer: for(int i=0,n=entries.length;i<n;i++) {
+			if(ports[i] != port)
+				continue;
+			int o = i * ADDRESS_BYTES;
+			for(int j=ADDRESS_BYTES-1;j>=0;j--)
+				if(addresses[o + j] != packed[j])
+					continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+}
@@ -30,6 +30,8 @@ public class PeerAddressDBItem extends DBItem {
 	
 	boolean seed;
 	byte[] originatorVersion;
+	// BEP33 filter bits of the address, computed on first use
+	private int bloomIndices = -1;
 	
 	public static PeerAddressDBItem createFromAddress(InetAddress addr, int port, boolean isSeed) {
 		byte[] tdata = new byte[addr.getAddress().length + 2];
@@ -41,9 +43,19 @@ public class PeerAddressDBItem extends DBItem {
 	
 	public PeerAddressDBItem(byte[] data, boolean isSeed) {
 		super(data);
+		checkLength(data);
+		seed = isSeed;
+	}
+	
+	PeerAddressDBItem(byte[] data, boolean isSeed, long createdAt) {
+		super(data, createdAt);
+		checkLength(data);
+		seed = isSeed;
+	}
+	
+	private static void checkLength(byte[] data) {
 		if(data.length != DHTtype.IPV4_DHT.ADDRESS_ENTRY_LENGTH && data.length != DHTtype.IPV6_DHT.ADDRESS_ENTRY_LENGTH)
 			throw new IllegalArgumentException("byte array length does not match ipv4 or ipv6 raw InetAddress+Port length");
-		seed = isSeed;
 	}
 	
 	public void setVersion(byte[] ary) {
@@ -127,4 +139,16 @@ public class PeerAddressDBItem extends DBItem {
 		return seed;
 	}
 	
+	void inheritBloomIndices(PeerAddressDBItem sameAddress) {
+		if(bloomIndices == -1)
+			bloomIndices = sameAddress.bloomIndices;
+	}
+	
+	int bloomIndices() {
+		int indices = bloomIndices;
+		if(indices == -1)
+			bloomIndices = indices = BloomFilterBEP33.indices(item, item.length - 2);
+		return indices;
+	}
+	
 }
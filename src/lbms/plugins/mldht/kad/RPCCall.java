@@ -20,15 +20,12 @@ import static the8472.bencode.Utils.prettyPrint;
 
 import lbms.plugins.mldht.kad.messages.MessageBase;
 import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author Damokles
@@ -40,14 +37,18 @@ public class RPCCall {
 	private MessageBase				rspMsg;
 	private boolean					sourceWasKnownReachable;
 	private List<RPCCallListener>	listeners		= new ArrayList<>(3);
-	private ScheduledFuture<?>		timeoutTimer;
 	long					sentTime		= -1;
 	long					responseTime	= -1;
 	private Key						expectedID;
 	long					expectedRTT = -1;
 	RPCState state = RPCState.UNSENT;
+	private TrafficClass			trafficClass = TrafficClass.USER;
 	
-	ScheduledExecutorService scheduler;
+	TimingWheel wheel;
+	// intrusive slot list, guarded by the wheel
+	RPCCall wheelPrev;
+	RPCCall wheelNext;
+	int wheelSlot = -1;
 
 	public RPCCall (MessageBase msg) {
 		assert(msg != null);
@@ -76,6 +77,17 @@ public class RPCCall {
 		return expectedRTT;
 	}
 	
+	public RPCCall setTrafficClass(TrafficClass c) {
+		if(c == TrafficClass.RESPONSE)
+			throw new IllegalArgumentException("calls are requests");
+		trafficClass = c;
+		return this;
+	}
+	
+	public TrafficClass getTrafficClass() {
+		return trafficClass;
+	}
+	
 	/**
 	 * @throws NullPointerException if no expected id has been specified in advance
 	 */
@@ -95,8 +107,8 @@ public class RPCCall {
 	}
 	
 	public void response (MessageBase rsp) {
-		if (timeoutTimer != null) {
-			timeoutTimer.cancel(false);
+		if (wheel != null) {
+			wheel.cancel(this);
 		}
 		
 		rspMsg = rsp;
@@ -148,16 +160,13 @@ public class RPCCall {
 	void sent(RPCServer srv) {
 		assert(expectedRTT > 0);
 		assert(expectedRTT <= DHTConstants.RPC_CALL_TIMEOUT_MAX);
-		sentTime = System.currentTimeMillis();
+		sentTime = TimeSource.currentTimeMillis();
 		
 		
 		stateTransition(EnumSet.of(RPCState.UNSENT), RPCState.SENT);
 		
-		scheduler = srv.getDHT().getScheduler();
-		
-		// spread out the stalls by +- 1ms to reduce lock contention
-		int smear = ThreadLocalRandom.current().nextInt(-1000, 1000);
-		timeoutTimer = scheduler.schedule(this::checkStallOrTimeout, expectedRTT*1000+smear, TimeUnit.MICROSECONDS);
+		wheel = srv.getTimingWheel();
+		wheel.schedule(this, expectedRTT);
 	}
 	
 	
@@ -167,13 +176,13 @@ public class RPCCall {
 			if(state != RPCState.SENT && state != RPCState.STALLED)
 				return;
 			
-			long elapsed = System.currentTimeMillis() - sentTime;
+			long elapsed = TimeSource.currentTimeMillis() - sentTime;
 			long remaining = DHTConstants.RPC_CALL_TIMEOUT_MAX - elapsed;
 			if(remaining > 0)
 			{
 				stateTransition(EnumSet.of(RPCState.SENT), RPCState.STALLED);
 				// re-schedule for failed
-				timeoutTimer = scheduler.schedule(this::checkStallOrTimeout, remaining, TimeUnit.MILLISECONDS);
+				wheel.schedule(this, remaining);
 			} else {
 				stateTransition(EnumSet.of(RPCState.SENT, RPCState.STALLED), RPCState.TIMEOUT);
 			}
@@ -202,7 +211,7 @@ public class RPCCall {
 					break;
 				case ERROR:
 				case RESPONDED:
-					responseTime = System.currentTimeMillis();
+					responseTime = TimeSource.currentTimeMillis();
 					break;
 				case SENT:
 					break;
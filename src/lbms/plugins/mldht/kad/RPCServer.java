@@ -19,6 +19,8 @@ package lbms.plugins.mldht.kad;
 import static the8472.bencode.Utils.prettyPrint;
 import static the8472.utils.Functional.typedGet;
 
+import the8472.bencode.BEncoder;
+import the8472.bencode.StreamingEncoder;
 import the8472.bencode.Tokenizer.BDecodingException;
 import the8472.bencode.Utils;
 
@@ -33,9 +35,9 @@ import lbms.plugins.mldht.kad.messages.MessageException;
 import lbms.plugins.mldht.kad.messages.PingRequest;
 import lbms.plugins.mldht.kad.messages.PingResponse;
 import lbms.plugins.mldht.kad.utils.AddressUtils;
-import lbms.plugins.mldht.kad.utils.ByteWrapper;
 import lbms.plugins.mldht.kad.utils.ResponseTimeoutFilter;
 import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 import lbms.plugins.mldht.utils.ExponentialWeightendMovingAverage;
 import lbms.plugins.mldht.utils.NIOConnectionManager;
 import lbms.plugins.mldht.utils.Selectable;
@@ -43,7 +45,9 @@ import lbms.plugins.mldht.utils.Selectable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
 import java.net.SocketAddress;
+import java.net.SocketOption;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
@@ -57,13 +61,16 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author The_8472, Damokles
@@ -71,7 +78,7 @@ import java.util.stream.Collectors;
  */
 public class RPCServer {
 	
-	private static final int MTID_LENGTH = 6;
+	private static final int MTID_LENGTH = TransactionTable.MTID_LENGTH;
 	
 	enum State {
 		INITIAL,
@@ -84,9 +91,20 @@ public class RPCServer {
 	private InetAddress								addr;
 	private DHT										dh_table;
 	private RPCServerManager						manager;
-	private ConcurrentMap<ByteWrapper, RPCCall>		calls;
+	private TransactionTable						calls;
+	private TimingWheel								timeouts;
+	// null if packets are handled on the shared scheduler
+	private volatile ServerEventLoop				loop;
 	private Queue<RPCCall>							call_queue;
+	// responses and errors, strict priority and never held back
 	private Queue<EnqueuedSend>						pipeline;
+	// our own requests, subject to pacing and sharing the send opportunities by weight
+	private Queue<EnqueuedSend>						maintenancePipeline;
+	private Queue<EnqueuedSend>						userPipeline;
+	private final AtomicInteger						requestTurn = new AtomicInteger();
+	// null if pacing is disabled
+	private volatile SendPacer						pacer;
+	private final AtomicBoolean						pacedWritePending = new AtomicBoolean();
 	private volatile int							numReceived;
 	private volatile int							numSent;
 	private int										port;
@@ -115,21 +133,52 @@ public class RPCServer {
 	private long	timeOfLastReceiveCountChange = 0;
 	
 
-	private SocketHandler sel;
+	// all sockets are bound to the same address and port, they share the calls, timeouts and the derived ID
+	private volatile PacketHandler[] sockets;
 
 	public RPCServer (RPCServerManager manager, InetAddress addr, int port, RPCStats stats) {
 		this.port = port;
 		this.dh_table = manager.dht;
 		timeoutFilter = new ResponseTimeoutFilter();
 		pipeline = new ConcurrentLinkedQueue<>();
-		calls = new ConcurrentHashMap<>(80,0.75f,3);
+		maintenancePipeline = new ConcurrentLinkedQueue<>();
+		userPipeline = new ConcurrentLinkedQueue<>();
+		calls = new TransactionTable(DHTConstants.MAX_ACTIVE_CALLS);
+		timeouts = new TimingWheel();
 		call_queue = new ConcurrentLinkedQueue<>();
 		this.stats = stats;
 		this.addr = addr;
 		this.manager = manager;
 		// reserve an ID
 		derivedId = dh_table.getNode().registerId();
-		sel = new SocketHandler();
+		if(dh_table.getTransport() != null) {
+			sockets = new PacketHandler[] {new TransportHandler(dh_table.getTransport())};
+			return;
+		}
+		PacketHandler[] handlers = new PacketHandler[Math.max(1, dh_table.getConfig().getSocketsPerAddress())];
+		for(int i=0;i<handlers.length;i++)
+			handlers[i] = new SocketHandler(i);
+		sockets = handlers;
+	}
+	
+	// only available on java 9+, looked up reflectively since we still target java 8
+	@SuppressWarnings("unchecked")
+	static final SocketOption<Boolean> SO_REUSEPORT = (SocketOption<Boolean>) Stream.of(StandardSocketOptions.class.getFields()).filter(f -> f.getName().equals("SO_REUSEPORT")).findAny().map(f -> {
+		try {
+			return f.get(null);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}).orElse(null);
+	
+	static boolean isReusePortSupported(ProtocolFamily family) {
+		if(SO_REUSEPORT == null)
+			return false;
+		try(DatagramChannel probe = DatagramChannel.open(family)) {
+			return probe.supportedOptions().contains(SO_REUSEPORT);
+		} catch (IOException | UnsupportedOperationException e) {
+			return false;
+		}
 	}
 	
 	public DHT getDHT()
@@ -137,6 +186,14 @@ public class RPCServer {
 		return dh_table;
 	}
 	
+	/**
+	 * @return the event loop of this server if enabled, the shared DHT scheduler otherwise. work concerning only this server, e.g. sending calls of a task bound to it, should be submitted here
+	 */
+	public Executor getExecutor() {
+		ServerEventLoop l = loop;
+		return l != null ? l : dh_table.getScheduler();
+	}
+	
 	public int getPort() {
 		return port;
 	}
@@ -149,13 +206,10 @@ public class RPCServer {
 	 * @return external addess, if known (only ipv6 for now)
 	 */
 	public InetAddress getPublicAddress() {
-		if(sel == null)
-			return null;
-		SelectableChannel chan = sel.getChannel();
-		if(chan == null)
+		InetAddress addr = sockets[0].getLocalAddress();
+		if(addr == null)
 			return null;
 		
-		InetAddress addr = ((DatagramChannel)chan).socket().getLocalAddress();
 		if(dh_table.getType().PREFERRED_ADDRESS_TYPE.isInstance(addr) && AddressUtils.isGlobalUnicast(addr))
 			return addr;
 		return null;
@@ -176,8 +230,28 @@ public class RPCServer {
 			throw new IllegalStateException("already initialized");
 		state = State.RUNNING;
 		DHT.logInfo("Starting RPC Server");
-		sel.start();
-		startTime = Instant.now();
+		timeoutFilter.reset();
+		// simulations drive all nodes through a transport on a single virtual clock, they keep using the shared scheduler
+		if(dh_table.getTransport() == null && dh_table.getConfig().useServerEventLoops())
+			loop = new ServerEventLoop("mlDHT " + dh_table.getType().shortName + " RPC " + addr.getHostAddress() + ":" + port);
+		timeouts.start(dh_table.getScheduler(), loop);
+		if(dh_table.getConfig().useSendPacing())
+			pacer = new SendPacer(TimeSource.nanoTime());
+		
+		PacketHandler[] handlers = sockets;
+		if(handlers.length > 1 && !isReusePortSupported(dh_table.getType().PROTO_FAMILY)) {
+			DHT.logError("SO_REUSEPORT not supported by this platform or JVM, using a single socket for " + addr + ":" + port + " instead of " + handlers.length);
+			handlers = new PacketHandler[] {handlers[0]};
+		}
+		
+		boolean shared = handlers.length > 1;
+		// keep the first socket even if it failed to bind to preserve the previous behavior, additional ones are only used if they are up
+		PacketHandler[] started = Stream.of(handlers).filter(h -> h.start(shared) || h.index() == 0).toArray(PacketHandler[]::new);
+		if(started.length < handlers.length)
+			DHT.logError("only " + started.length + " of " + handlers.length + " sockets could be bound to " + addr + ":" + port);
+		sockets = started;
+		
+		startTime = TimeSource.now();
 	}
 	
 	public void stop() {
@@ -185,16 +259,19 @@ public class RPCServer {
 			return;
 		state = State.STOPPED;
 		
-		try
-		{
-			sel.close();
-		} catch (IOException e)
-		{
-			DHT.log(e, LogLevel.Error);
+		for(PacketHandler h : sockets) {
+			try
+			{
+				h.close();
+			} catch (IOException e)
+			{
+				DHT.log(e, LogLevel.Error);
+			}
 		}
+		timeouts.stop();
 		dh_table.getNode().removeId(derivedId);
 		manager.serverRemoved(this);
-		pipeline.clear();
+		clearPipelines();
 	}
 	
 	
@@ -212,23 +289,14 @@ public class RPCServer {
 		
 		enqueueEventConsumers.forEach(callback -> callback.accept(c));
 		
-		while(true)
+		if(!calls.insert(c))
 		{
-			
-			if(calls.size() >= DHTConstants.MAX_ACTIVE_CALLS)
-			{
-				DHT.logInfo("Queueing RPC call, no slots available at the moment");
-				call_queue.add(c);
-				break;
-			}
-			byte[] mtid = new byte[MTID_LENGTH];
-			ThreadLocalUtils.getThreadLocalRandom().nextBytes(mtid);
-			if(calls.putIfAbsent(new ByteWrapper(mtid),c) == null)
-			{
-				dispatchCall(c, mtid);
-				break;
-			}
+			DHT.logInfo("Queueing RPC call, no slots available at the moment");
+			call_queue.add(c);
+			return;
 		}
+		
+		dispatchCall(c);
 	}
 	
 	public void onEnqueue(Consumer<RPCCall> listener) {
@@ -238,13 +306,12 @@ public class RPCServer {
 	private final RPCCallListener rpcListener = new RPCCallListener() {
 		
 		public void onTimeout(RPCCall c) {
-			ByteWrapper w = new ByteWrapper(c.getRequest().getMTID());
 			stats.addTimeoutMessageToCount(c.getRequest());
 			if(c.knownReachableAtCreationTime())
 				verifiedEntryLossrate.updateAverage(1.0);
 			else
 				unverifiedLossrate.updateAverage(1.0);
-			calls.remove(w, c);
+			calls.remove(c);
 			dh_table.timeout(c);
 			doQueuedCalls();
 		}
@@ -265,14 +332,14 @@ public class RPCServer {
 		PingRequest pr = new PingRequest();
 		pr.setID(derivedId);
 		pr.setDestination(addr);
-		doCall(new RPCCall(pr));
+		doCall(new RPCCall(pr).setTrafficClass(TrafficClass.MAINTENANCE));
 	}
 
 	/* (non-Javadoc)
 	 * @see lbms.plugins.mldht.kad.RPCServerBase#findCall(byte)
 	 */
 	public RPCCall findCall (byte[] mtid) {
-		return calls.get(new ByteWrapper(mtid));
+		return calls.get(mtid);
 	}
 
 	/// Get the number of active calls
@@ -322,19 +389,13 @@ public class RPCServer {
 		return isReachable;
 	}
 	
-	private void handlePacket (ByteBuffer p, SocketAddress soa) {
-		InetSocketAddress source = (InetSocketAddress) soa;
-		int rawLength = p.remaining();
-		
-		// ignore port 0, can't respond to them anyway and responses to requests from port 0 will be useless too
-		if(source.getPort() == 0)
-			return;
-
-
-
-		
+	/**
+	 * decodes the packet into a bencoded map first, sends error replies for malformed messages
+	 * 
+	 * @return null if the message is to be dropped
+	 */
+	private MessageBase decodeViaMap(ByteBuffer p, InetSocketAddress source, MessageDecoder dec, int rawLength) {
 		Map<String, Object> bedata = null;
-		MessageBase msg = null;
 		
 		try {
 			bedata = ThreadLocalUtils.getDecoder().decode(p);
@@ -352,22 +413,18 @@ public class RPCServer {
 			MessageBase err = new ErrorMessage(new byte[] {0,0,0,0}, ErrorCode.ProtocolError.code,"invalid bencoding: "+e.getMessage());
 			err.setDestination(source);
 			sendMessage(err);
-			return;
+			return null;
 		} catch(Exception e) {
 			DHT.log(e, LogLevel.Error);
 			p.rewind();
 			DHT.logError("unexpected error while bdecoding message  " + Utils.stripToAscii(p) + " (length:"+p.remaining()+") from: " + source + " reason:" + e.getMessage());
-			return;
+			return null;
 		}
 		
 		try {
-			MessageDecoder dec = new MessageDecoder((byte[] mtid) -> {
-				return Optional.ofNullable(findCall(mtid)).map(RPCCall::getMessageMethod);
-			}, dh_table.getType());
-			
 			p.rewind();
 			dec.toDecode(p, bedata);
-			msg = dec.parseMessage();
+			return dec.parseMessage();
 		} catch(MessageException e)
 		{
 			byte[] mtid = typedGet(bedata, MessageBase.TRANSACTION_KEY, byte[].class).orElse(new byte[MTID_LENGTH]);
@@ -375,11 +432,34 @@ public class RPCServer {
 			MessageBase err = new ErrorMessage(mtid, e.errorCode.code,e.getMessage());
 			err.setDestination(source);
 			sendMessage(err);
-			return;
 		} catch(IOException e) {
 			DHT.log(e, LogLevel.Error);
 		}
 		
+		return null;
+	}
+	
+	private void handlePacket (ByteBuffer p, SocketAddress soa) {
+		InetSocketAddress source = (InetSocketAddress) soa;
+		int rawLength = p.remaining();
+		
+		// ignore port 0, can't respond to them anyway and responses to requests from port 0 will be useless too
+		if(source.getPort() == 0)
+			return;
+		
+		MessageDecoder dec = new MessageDecoder((byte[] mtid) -> {
+			return Optional.ofNullable(findCall(mtid)).map(RPCCall::getMessageMethod);
+		}, dh_table.getType());
+		
+		MessageBase msg = null;
+		
+		// verbose logging wants to print the map representation, so only take the shortcut without it
+		if(!DHT.isLogLevelEnabled(LogLevel.Verbose))
+			msg = dec.parseDirect(p);
+		
+		if(msg == null)
+			msg = decodeViaMap(p, source, dec, rawLength);
+		
 		if(msg == null)
 			return;
 		
@@ -408,14 +488,14 @@ public class RPCServer {
 			
 		
 		// check if this is a response to an outstanding request
-		RPCCall c = calls.get(new ByteWrapper(msg.getMTID()));
+		RPCCall c = calls.get(msg.getMTID());
 		
 		// message matches transaction ID and origin == destination
 		if(c != null) {
 										
 			if(c.getRequest().getDestination().equals(msg.getOrigin())) {
 				// remove call first in case of exception
-				if(calls.remove(new ByteWrapper(msg.getMTID()),c)) {
+				if(calls.remove(c)) {
 					msg.setAssociatedCall(c);
 					c.response(msg);
 
@@ -446,7 +526,7 @@ public class RPCServer {
 		
 		// a) it's a response b) didn't find a call c) uptime is high enough that it's not a stray from a restart
 		// -> did not expect this response
-		if (msg.getType() == Type.RSP_MSG && Duration.between(startTime, Instant.now()).getSeconds() > 2*60) {
+		if (msg.getType() == Type.RSP_MSG && Duration.between(startTime, TimeSource.now()).getSeconds() > 2*60) {
 			byte[] mtid = msg.getMTID();
 			DHT.logDebug("Cannot find RPC call for response: "+ Utils.prettyPrint(mtid));
 			ErrorMessage err = new ErrorMessage(mtid, ErrorCode.ServerError.code, "received a response message whose transaction ID did not match a pending request or transaction expired");
@@ -504,15 +584,142 @@ public class RPCServer {
 	}
 
 	private void fillPipe(EnqueuedSend es) {
-		pipeline.add(es);
-		sel.writeEvent();
+		enqueue(es);
+		writeAny();
+	}
+	
+	private Queue<EnqueuedSend> queueFor(TrafficClass c) {
+		switch(c) {
+			case RESPONSE:
+				return pipeline;
+			case MAINTENANCE:
+				return maintenancePipeline;
+			default:
+				return userPipeline;
+		}
+	}
+	
+	private void enqueue(EnqueuedSend es) {
+		// count first so that the depth never goes negative
+		stats.addQueued(es.trafficClass, 1);
+		queueFor(es.trafficClass).add(es);
+	}
+	
+	private EnqueuedSend poll(Queue<EnqueuedSend> q) {
+		EnqueuedSend es = q.poll();
+		if(es != null)
+			stats.addQueued(es.trafficClass, -1);
+		return es;
+	}
+	
+	private void clearPipelines() {
+		for(TrafficClass c : TrafficClass.values())
+			while(poll(queueFor(c)) != null)
+				;
+	}
+	
+	private boolean hasRequests() {
+		return maintenancePipeline.peek() != null || userPipeline.peek() != null;
+	}
+	
+	/**
+	 * weighted round robin between maintenance and user requests. it's work-conserving, either class gets all send opportunities while the other has nothing queued
+	 */
+	private EnqueuedSend pollRequest() {
+		int turn = Integer.remainderUnsigned(requestTurn.getAndIncrement(), DHTConstants.MAINTENANCE_SEND_WEIGHT + DHTConstants.USER_SEND_WEIGHT);
+		boolean maintenanceFirst = turn < DHTConstants.MAINTENANCE_SEND_WEIGHT;
+		EnqueuedSend es = poll(maintenanceFirst ? maintenancePipeline : userPipeline);
+		if(es == null)
+			es = poll(maintenanceFirst ? userPipeline : maintenancePipeline);
+		return es;
+	}
+	
+	private void writeAny() {
+		// the first socket not already busy writing takes over, the others will pick up leftovers when they release their claim
+		for(PacketHandler h : sockets)
+			if(h.writeEvent())
+				break;
+	}
+	
+	/**
+	 * @return the next message to send, null if there is none or the pacer holds back the remaining requests. responses to remote requests always go first
+	 */
+	private EnqueuedSend pollSend() {
+		EnqueuedSend es = poll(pipeline);
+		if(es != null)
+			return es;
+		SendPacer p = pacer;
+		if(p == null)
+			return pollRequest();
+		if(!hasRequests())
+			return null;
+		
+		long now = TimeSource.nanoTime();
+		if(p.isAdjustDue(now))
+			p.adjust(now, excessLoss(), timeoutFilter.getMedianRTT());
+		if(!p.tryAcquire(now)) {
+			schedulePacedWrite(p.nanosUntilToken(now));
+			return null;
+		}
+		
+		es = pollRequest();
+		// another socket took it
+		if(es == null)
+			p.refund();
+		return es;
+	}
+	
+	/**
+	 * puts back a message the socket could not accept right now
+	 */
+	private void requeue(EnqueuedSend es) {
+		enqueue(es);
+		SendPacer p = pacer;
+		if(p != null && es.trafficClass != TrafficClass.RESPONSE)
+			p.refund();
+	}
+	
+	/**
+	 * @return true if a writer releasing its claim has to pick up again. requests held back by the pacer are left to a delayed write
+	 */
+	private boolean hasSendable() {
+		if(pipeline.peek() != null)
+			return true;
+		if(!hasRequests())
+			return false;
+		SendPacer p = pacer;
+		if(p == null)
+			return true;
+		long wait = p.nanosUntilToken(TimeSource.nanoTime());
+		if(wait > 0) {
+			schedulePacedWrite(wait);
+			return false;
+		}
+		return true;
+	}
+	
+	private void schedulePacedWrite(long delayNanos) {
+		if(!pacedWritePending.compareAndSet(false, true))
+			return;
+		dh_table.getScheduler().schedule(() -> {
+			pacedWritePending.set(false);
+			getExecutor().execute(this::writeAny);
+		}, delayNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @return loss above the background usually observed on server-class nodes (about 50% for unverified contacts, a third for verified ones), scaled to 0..1
+	 */
+	private double excessLoss() {
+		double unverified = Math.max(0, unverifiedLossrate.getAverage() - 0.5) * 2.;
+		double verified = Math.max(0, verifiedEntryLossrate.getAverage() - 1./3.) * 3./2.;
+		return Math.max(unverified, verified);
 	}
 		
 
-	private void dispatchCall(RPCCall call, byte[] mtid)
+	private void dispatchCall(RPCCall call)
 	{
 		MessageBase msg = call.getRequest();
-		msg.setMTID(mtid);
 		call.addListener(rpcListener);
 		
 		// known nodes - routing table entries - keep track of their own RTTs
@@ -535,6 +742,10 @@ public class RPCServer {
 	public ResponseTimeoutFilter getTimeoutFilter() {
 		return timeoutFilter;
 	}
+	
+	TimingWheel getTimingWheel() {
+		return timeouts;
+	}
 
 	/*
 	private void send (InetSocketAddress addr, byte[] msg) throws IOException {
@@ -581,7 +792,15 @@ public class RPCServer {
 		Formatter f = new Formatter();
 		f.format("%s\tbind: %s consensus: %s%n", getDerivedID(), getBindAddress(), consensusExternalAddress);
 		f.format("rx: %d tx: %d active: %d baseRTT: %d loss: %f  loss (verified): %f uptime: %s%n",
-				numReceived, numSent, getNumActiveRPCCalls(), timeoutFilter.getStallTimeout(), unverifiedLossrate.getAverage(), verifiedEntryLossrate.getAverage() , Duration.between(startTime, Instant.now()));
+				numReceived, numSent, getNumActiveRPCCalls(), timeoutFilter.getStallTimeout(), unverifiedLossrate.getAverage(), verifiedEntryLossrate.getAverage() , Duration.between(startTime, TimeSource.now()));
+		f.format("transactions: %s%n", calls);
+		ServerEventLoop l = loop;
+		if(l != null)
+			f.format("event loop: %s%n", l);
+		SendPacer p = pacer;
+		if(p != null)
+			f.format("pacing: %s%n", p);
+		f.format("queued: responses: %d maintenance: %d user: %d%n", pipeline.size(), maintenancePipeline.size(), userPipeline.size());
 		f.format("RTT stats (%dsamples) %s", timeoutFilter.getSampleCount(), timeoutFilter.getCurrentStats());
 
 		return f.toString();
@@ -589,7 +808,61 @@ public class RPCServer {
 	
 	static final ThreadLocal<ByteBuffer> writeBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1500));
 	
-	private class SocketHandler implements Selectable {
+	/**
+	 * @param length number of bytes received into buf, starting at index 0
+	 * @return false if the datagram should be dropped without further processing
+	 */
+	private boolean isPlausible(ByteBuffer buf, int length, InetSocketAddress soa) {
+		// * no conceivable DHT message is smaller than 10 bytes
+		// * all DHT messages start with a 'd' for dictionary
+		// * port 0 is reserved
+		// -> immediately discard junk on the read loop, don't even allocate a buffer for it
+		if(length < 10 || buf.get(0) != 'd' || soa.getPort() == 0)
+			return false;
+		if(throttle.isSpam(soa.getAddress()))
+			return false;
+		return true;
+	}
+	
+	private void sent(EnqueuedSend es, int bytesSent) {
+		if(DHT.isLogLevelEnabled(LogLevel.Verbose)) {
+			DHT.logVerbose("sent: " + prettyPrint(es.toSend.getBase())+ " to " + es.toSend.getDestination());
+		}
+		
+		if(es.associatedCall != null)
+			es.associatedCall.sent(RPCServer.this);
+		
+		stats.addSentMessageToCount(es.toSend);
+		stats.addQueueLatency(es.trafficClass, TimeSource.nanoTime() - es.enqueued);
+		stats.addSentBytes(bytesSent + dh_table.getType().HEADER_LENGTH);
+		if(DHT.isLogLevelEnabled(LogLevel.Debug))
+			DHT.logDebug("RPC send message to " + es.toSend.getDestination() + " | "+ es.toSend.toString() + " | length: " +bytesSent);
+		numSent++;
+	}
+	
+	private interface PacketHandler {
+		/**
+		 * @param shared true if other sockets of this server are bound to the same port, the kernel then distributes incoming datagrams among them
+		 * @return false if the socket could not be bound
+		 */
+		boolean start(boolean shared);
+		
+		/**
+		 * @return false if another thread is writing or the socket is waiting for the selector
+		 */
+		boolean writeEvent();
+		
+		void close() throws IOException;
+		
+		int index();
+		
+		/**
+		 * @return null if not bound
+		 */
+		InetAddress getLocalAddress();
+	}
+	
+	private class SocketHandler implements Selectable, PacketHandler {
 		DatagramChannel channel;
 		
 		private static final int NOT_INITIALIZED = -1;
@@ -600,27 +873,48 @@ public class RPCServer {
 		
 		private final AtomicInteger writeState = new AtomicInteger(NOT_INITIALIZED);
 		NIOConnectionManager connectionManager;
+		final int index;
 		
-		public SocketHandler() {
-
+		// only used by the thread currently holding the write state
+		private final StreamingEncoder directEncoder = new StreamingEncoder();
+		private final BEncoder mapEncoder = new BEncoder();
+		
+		public SocketHandler(int index) {
+			this.index = index;
 		}
 		
-		void start() {
+		@Override
+		public boolean start(boolean shared) {
 			try
 			{
-				timeoutFilter.reset();
-	
 				channel = DatagramChannel.open(dh_table.getType().PROTO_FAMILY);
 				channel.configureBlocking(false);
 				channel.setOption(StandardSocketOptions.SO_RCVBUF, 2*1024*1024);
 				channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				if(shared)
+					channel.setOption(SO_REUSEPORT, true);
 				channel.bind(new InetSocketAddress(addr, port));
-				connectionManager = dh_table.getConnectionManager();
+				
+				int batchSize = dh_table.getConfig().getReceiveBatchSize();
+				if(batchSize > 1)
+					idleBatches = ReceiveBatch.createPool(Math.max(1, dh_table.getConfig().getReceiveSlabSize()), batchSize, DHTConstants.RECEIVE_BUFFER_SIZE);
+				
+				// each socket gets its own selector thread so that the receive loops run in parallel
+				connectionManager = dh_table.getConnectionManager(index);
 				connectionManager.register(this);
 				writeState.set(WRITE_STATE_IDLE);
+				return true;
 			} catch (IOException e)
 			{
 				e.printStackTrace();
+				if(channel != null) {
+					try {
+						channel.close();
+					} catch (IOException ex) {
+						// ignore, already failed
+					}
+				}
+				return false;
 			}
 		}
 		
@@ -634,7 +928,7 @@ public class RPCServer {
 			if(key.isValid() && key.isWritable()) {
 				writeState.set(WRITE_STATE_IDLE);
 				connectionManager.interestOpsChanged(this);
-				dh_table.getScheduler().execute(this::writeEvent);
+				getExecutor().execute(this::writeEvent);
 			}
 			if(key.isValid() && key.isReadable())
 				readEvent();
@@ -643,7 +937,19 @@ public class RPCServer {
 		
 		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(DHTConstants.RECEIVE_BUFFER_SIZE);
 		
+		// null if batching is disabled
+		private BlockingQueue<ReceiveBatch> idleBatches;
+		
 		private void readEvent() throws IOException {
+			if(idleBatches != null) {
+				readBatches();
+				return;
+			}
+			
+			readSingle();
+		}
+		
+		private void readSingle() throws IOException {
 			
 			while(true)
 			{
@@ -652,13 +958,7 @@ public class RPCServer {
 				if(soa == null)
 					break;
 				
-				// * no conceivable DHT message is smaller than 10 bytes
-				// * all DHT messages start with a 'd' for dictionary
-				// * port 0 is reserved
-				// -> immediately discard junk on the read loop, don't even allocate a buffer for it
-				if(readBuffer.position() < 10 || readBuffer.get(0) != 'd' || soa.getPort() == 0)
-					continue;
-				if(throttle.isSpam(soa.getAddress()))
+				if(!isPlausible(readBuffer, readBuffer.position(), soa))
 					continue;
 				
 				// copy from the read buffer since we hand off to another thread
@@ -666,13 +966,72 @@ public class RPCServer {
 				ByteBuffer buf = ByteBuffer.allocate(readBuffer.limit()).put(readBuffer);
 				buf.flip();
 				
-				dh_table.getScheduler().execute(() -> {handlePacket(buf, soa);});
+				getExecutor().execute(() -> {handlePacket(buf, soa);});
 				numReceived++;
 				stats.addReceivedBytes(buf.limit() + dh_table.getType().HEADER_LENGTH);
 			}
 		}
 		
-		public void writeEvent()
+		private void readBatches() throws IOException {
+			while(true) {
+				ReceiveBatch batch = idleBatches.poll();
+				
+				if(batch == null) {
+					// all batches are still queued or being processed, fall back to heap copies instead of leaving packets in the socket buffer
+					readSingle();
+					return;
+				}
+				
+				boolean drained = fillBatch(batch);
+				
+				if(batch.size() > 0)
+					getExecutor().execute(() -> processBatch(batch));
+				else
+					batch.release();
+				
+				if(drained)
+					return;
+			}
+		}
+		
+		/**
+		 * @return true if the socket has no more pending datagrams
+		 */
+		private boolean fillBatch(ReceiveBatch batch) throws IOException {
+			while(!batch.isFull()) {
+				ByteBuffer slot = batch.nextSlot();
+				InetSocketAddress soa = (InetSocketAddress) channel.receive(slot);
+				if(soa == null)
+					return true;
+				
+				if(!isPlausible(slot, slot.position(), soa))
+					continue;
+				
+				batch.commit(soa);
+				numReceived++;
+				stats.addReceivedBytes(slot.position() + dh_table.getType().HEADER_LENGTH);
+			}
+			
+			return false;
+		}
+		
+		private void processBatch(ReceiveBatch batch) {
+			try {
+				for(int i=0;i<batch.size();i++) {
+					try {
+						handlePacket(batch.packet(i), batch.source(i));
+					} catch (RuntimeException e) {
+						// don't let one bad packet drop the remainder of the batch
+						DHT.log(e, LogLevel.Error);
+					}
+				}
+			} finally {
+				batch.release();
+			}
+		}
+		
+		@Override
+		public boolean writeEvent()
 		{
 			// simply assume nobody else is writing and attempt to do it
 			// if it fails it's the current writer's job to double-check after releasing the write lock
@@ -684,7 +1043,7 @@ public class RPCServer {
 				
 				while(true)
 				{
-					EnqueuedSend es = pipeline.poll();
+					EnqueuedSend es = pollSend();
 					if(es == null)
 						break;
 					try
@@ -693,45 +1052,35 @@ public class RPCServer {
 						
 						ByteBuffer buf = writeBuffer.get();
 								
-						es.encodeTo(buf);
+						es.encodeTo(buf, directEncoder, mapEncoder);
 						
 						int bytesSent = channel.send(buf, es.toSend.getDestination());
 						
 						if(bytesSent == 0)
 						{
-							pipeline.add(es);
+							requeue(es);
 
 							writeState.set(WRITE_STATE_AWAITING_NIO_NOTIFICATION);
 							// wakeup -> updates selections -> will wait for write OP
 							connectionManager.interestOpsChanged(this);
 							
-							return;
-						}
-						
-						if(DHT.isLogLevelEnabled(LogLevel.Verbose)) {
-							DHT.logVerbose("sent: " + prettyPrint(es.toSend.getBase())+ " to " + es.toSend.getDestination());
+							return true;
 						}
 						
-						if(es.associatedCall != null)
-							es.associatedCall.sent(RPCServer.this);
-						
-						stats.addSentMessageToCount(es.toSend);
-						stats.addSentBytes(bytesSent + dh_table.getType().HEADER_LENGTH);
-						if(DHT.isLogLevelEnabled(LogLevel.Debug))
-							DHT.logDebug("RPC send message to " + es.toSend.getDestination() + " | "+ es.toSend.toString() + " | length: " +bytesSent);
+						sent(es, bytesSent);
 					} catch (IOException e)
 					{
 						// async close
 						if(!channel.isOpen())
-							return;
+							return true;
 						
 						// BSD variants may throw an exception (ENOBUFS) instead of just signaling 0 bytes sent when network queues are full -> back off just like we would in the 0 bytes case.
 						if(e.getMessage().equals("No buffer space available")) {
-							pipeline.add(es);
+							requeue(es);
 							writeState.set(WRITE_STATE_AWAITING_NIO_NOTIFICATION);
 							connectionManager.interestOpsChanged(this);
 
-							return;
+							return true;
 						}
 
 						DHT.log(new IOException(addr+" -> "+es.toSend.getDestination()+" while attempting to send "+es.toSend, e), LogLevel.Error);
@@ -741,8 +1090,6 @@ public class RPCServer {
 						}
 						break;
 					}
-					
-					numSent++;
 				}
 				
 				// release claim on the socket
@@ -750,13 +1097,13 @@ public class RPCServer {
 				
 				// check if we might have to pick it up again due to races
 				// schedule async to avoid infinite stacks
-				if(pipeline.peek() != null)
-					dh_table.getScheduler().execute(this::writeEvent);
+				if(hasSendable())
+					getExecutor().execute(this::writeEvent);
 
-			
+				return true;
 			}
 			
-	
+			return false;
 		}
 		
 		@Override
@@ -768,13 +1115,28 @@ public class RPCServer {
 			return channel;
 		}
 		
+		@Override
+		public int index() {
+			return index;
+		}
+		
+		@Override
+		public InetAddress getLocalAddress() {
+			if(channel == null)
+				return null;
+			return channel.socket().getLocalAddress();
+		}
+		
+		@Override
 		public void close() throws IOException {
 			if(writeState.get() == CLOSED)
 				return;
 			writeState.set(CLOSED);
 			stop();
-			connectionManager.deRegister(this);
-			channel.close();
+			if(connectionManager != null)
+				connectionManager.deRegister(this);
+			if(channel != null)
+				channel.close();
 		}
 		
 		@Override
@@ -794,13 +1156,108 @@ public class RPCServer {
 		}
 	}
 
+	/**
+	 * Sends and receives through a {@link DatagramTransport} instead of a socket. Sends never block, so the writer simply drains the pipeline.
+	 */
+	private class TransportHandler implements PacketHandler, DatagramTransport.Receiver {
+		
+		private static final int IDLE = 0;
+		private static final int WRITING = 1;
+		private static final int CLOSED = 2;
+		
+		final DatagramTransport transport;
+		DatagramTransport.Endpoint endpoint;
+		
+		private final AtomicInteger writeState = new AtomicInteger(CLOSED);
+		private final StreamingEncoder directEncoder = new StreamingEncoder();
+		private final BEncoder mapEncoder = new BEncoder();
+		
+		TransportHandler(DatagramTransport transport) {
+			this.transport = transport;
+		}
+		
+		@Override
+		public boolean start(boolean shared) {
+			try {
+				endpoint = transport.bind(new InetSocketAddress(addr, port), this);
+				writeState.set(IDLE);
+				return true;
+			} catch (IOException e) {
+				DHT.log(e, LogLevel.Error);
+				return false;
+			}
+		}
+		
+		@Override
+		public void received(ByteBuffer packet, InetSocketAddress source) {
+			int length = packet.limit();
+			if(writeState.get() == CLOSED || !isPlausible(packet, length, source))
+				return;
+			numReceived++;
+			stats.addReceivedBytes(length + dh_table.getType().HEADER_LENGTH);
+			getExecutor().execute(() -> handlePacket(packet, source));
+		}
+		
+		@Override
+		public boolean writeEvent() {
+			if(!writeState.compareAndSet(IDLE, WRITING))
+				return false;
+			
+			EnqueuedSend es;
+			while((es = pollSend()) != null) {
+				try {
+					ByteBuffer buf = writeBuffer.get();
+					es.encodeTo(buf, directEncoder, mapEncoder);
+					int length = buf.remaining();
+					endpoint.send(buf, es.toSend.getDestination());
+					sent(es, length);
+				} catch (IOException e) {
+					DHT.log(new IOException(addr+" -> "+es.toSend.getDestination()+" while attempting to send "+es.toSend, e), LogLevel.Error);
+					if(es.associatedCall != null)
+						es.associatedCall.sendFailed();
+				}
+			}
+			
+			writeState.compareAndSet(WRITING, IDLE);
+			
+			if(hasSendable())
+				getExecutor().execute(this::writeEvent);
+			
+			return true;
+		}
+		
+		@Override
+		public int index() {
+			return 0;
+		}
+		
+		@Override
+		public InetAddress getLocalAddress() {
+			DatagramTransport.Endpoint ep = endpoint;
+			return ep == null ? null : ep.getLocalAddress().getAddress();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(writeState.getAndSet(CLOSED) == CLOSED)
+				return;
+			stop();
+			if(endpoint != null)
+				endpoint.close();
+		}
+	}
+
 	private class EnqueuedSend {
 		MessageBase toSend;
 		RPCCall associatedCall;
+		final TrafficClass trafficClass;
+		// kept when requeued, the wait counts from the first attempt
+		final long enqueued = TimeSource.nanoTime();
 		
 		public EnqueuedSend(MessageBase msg, RPCCall call) {
 			toSend = msg;
 			associatedCall = call;
+			trafficClass = call != null ? call.getTrafficClass() : TrafficClass.RESPONSE;
 			assert(toSend.getDestination() != null);
 			decorateMessage();
 		}
@@ -850,11 +1307,11 @@ public class RPCServer {
 				
 		}
 		
-		void encodeTo(ByteBuffer buf) throws IOException {
+		void encodeTo(ByteBuffer buf, StreamingEncoder direct, BEncoder fallback) throws IOException {
 			try {
 				buf.rewind();
 				buf.limit(dh_table.getType().MAX_PACKET_SIZE);
-				toSend.encode(buf);
+				toSend.encode(buf, direct, fallback);
 			} catch (Exception e) {
 				ByteBuffer t = ByteBuffer.allocate(4096);
 				try {
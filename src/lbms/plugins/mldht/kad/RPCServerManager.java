@@ -15,6 +15,7 @@ import java.util.stream.Collectors;
 
 import lbms.plugins.mldht.kad.utils.AddressUtils;
 import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 public class RPCServerManager {
 	
@@ -52,6 +53,11 @@ public class RPCServerManager {
 		try {
 			Class<? extends InetAddress> type = dht.getType().PREFERRED_ADDRESS_TYPE;
 			
+			if(dht.getTransport() != null) {
+				validBindAddresses = new ArrayList<>(dht.getTransport().getLocalAddresses(type));
+				return;
+			}
+			
 			List<InetAddress> newBindAddrs = Collections.list(NetworkInterface.getNetworkInterfaces()).stream()
 					.flatMap(iface -> iface.getInterfaceAddresses().stream())
 					.map(ifa -> ifa.getAddress())
@@ -83,6 +89,11 @@ public class RPCServerManager {
 		boolean multihome = dht.config.allowMultiHoming();
 		Class<? extends InetAddress> addressType = dht.getType().PREFERRED_ADDRESS_TYPE;
 		
+		// custom transports tell us exactly which addresses to use
+		if(dht.getTransport() != null) {
+			validBindAddresses.stream().filter(addr -> !interfacesInUse.containsKey(addr)).forEach(this::newServer);
+			return;
+		}
 		
 		if(multihome) {
 			// we only consider global unicast addresses in multihoming mode
@@ -146,7 +157,7 @@ public class RPCServerManager {
 	
 	void serverRemoved(RPCServer srv) {
 		interfacesInUse.remove(srv.getBindAddress(),srv);
-		refresh(System.currentTimeMillis());
+		refresh(TimeSource.currentTimeMillis());
 	}
 	
 	public void destroy() {
@@ -17,10 +17,14 @@
 package lbms.plugins.mldht.kad;
 
 import java.util.Formatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import lbms.plugins.mldht.kad.messages.MessageBase;
 import lbms.plugins.mldht.kad.messages.MessageBase.Method;
 import lbms.plugins.mldht.kad.messages.MessageBase.Type;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+import lbms.plugins.mldht.utils.ExponentialWeightendMovingAverage;
 
 /**
  * @author Damokles
@@ -42,10 +46,22 @@ public class RPCStats {
 	private long[][]	receivedMessages;
 	private long[]	timeoutMessages;
 
+	// per traffic class, over all servers. the depth is a gauge and must not drift, so it is updated atomically
+	private AtomicLongArray	queuedMessages;
+	private long[]	sentByClass;
+	private long[]	maxQueueLatency;
+	private ExponentialWeightendMovingAverage[]	queueLatency;
+
 	protected RPCStats () {
 		sentMessages = new long[Method.values().length][Type.values().length];
 		receivedMessages = new long[Method.values().length][Type.values().length];
 		timeoutMessages = new long[Method.values().length];
+		queuedMessages = new AtomicLongArray(TrafficClass.values().length);
+		sentByClass = new long[TrafficClass.values().length];
+		maxQueueLatency = new long[TrafficClass.values().length];
+		queueLatency = new ExponentialWeightendMovingAverage[TrafficClass.values().length];
+		for(int i=0;i<queueLatency.length;i++)
+			queueLatency[i] = new ExponentialWeightendMovingAverage().setWeight(0.01);
 	}
 	
 	@Override
@@ -74,6 +90,13 @@ public class RPCStats {
 			long errors = sentMessages[m.ordinal()][Type.ERR_MSG.ordinal()];
 			f.format("%15s %19d | %19d %19d %n", m, received, sent, errors);
 		}
+		f.format("%n### send queues%n");
+		f.format("%15s %19s %19s %19s %19s %n%n", "Class", "Queued", "Sent", "Avg wait (us)", "Max wait (us)");
+		for(TrafficClass c : TrafficClass.values())
+		{
+			f.format("%15s %19d %19d %19d %19d %n", c, getQueuedMessageCount(c), getSentMessageCount(c),
+					TimeUnit.NANOSECONDS.toMicros(getAverageQueueLatency(c)), TimeUnit.NANOSECONDS.toMicros(getMaxQueueLatency(c)));
+		}
 		
 		return b.toString();
 	}
@@ -96,7 +119,7 @@ public class RPCStats {
 	 * @return
 	 */
 	public long getReceivedBytesPerSec () {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		long d = now - tmpReceivedTimestamp;
 		if (d > 950) {
 			receivedBytesPerSec = (int) (tmpReceivedBytes * 1000 / d);
@@ -110,7 +133,7 @@ public class RPCStats {
 	 * @return
 	 */
 	public long getSentBytesPerSec () {
-		long now = System.currentTimeMillis();
+		long now = TimeSource.currentTimeMillis();
 		long d = now - tmpSentTimestamp;
 		if (d > 950) {
 			sentBytesPerSec = (int) (tmpSentBytes * 1000 / d);
@@ -187,4 +210,44 @@ public class RPCStats {
 	protected void addTimeoutMessageToCount (MessageBase msg) {
 		timeoutMessages[msg.getMethod().ordinal()]++;
 	}
+
+	/**
+	 * @return messages of the class currently waiting to be sent
+	 */
+	public long getQueuedMessageCount (TrafficClass c) {
+		return queuedMessages.get(c.ordinal());
+	}
+
+	public long getSentMessageCount (TrafficClass c) {
+		return sentByClass[c.ordinal()];
+	}
+
+	/**
+	 * @return moving average of the time messages of the class spent queued before they were sent, in nanoseconds
+	 */
+	public long getAverageQueueLatency (TrafficClass c) {
+		return (long) queueLatency[c.ordinal()].getAverage(0);
+	}
+
+	/**
+	 * @return in nanoseconds
+	 */
+	public long getMaxQueueLatency (TrafficClass c) {
+		return maxQueueLatency[c.ordinal()];
+	}
+
+	protected void addQueued (TrafficClass c, int delta) {
+		queuedMessages.addAndGet(c.ordinal(), delta);
+	}
+
+	/**
+	 * records a sent message of the class
+	 * @param waited nanoseconds between enqueueing and sending the message
+	 */
+	protected void addQueueLatency (TrafficClass c, long waited) {
+		sentByClass[c.ordinal()]++;
+		queueLatency[c.ordinal()].updateAverage(waited);
+		if(waited > maxQueueLatency[c.ordinal()])
+			maxQueueLatency[c.ordinal()] = waited;
+	}
 }
@@ -0,0 +1,86 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A group of datagram slots carved out of a shared direct-memory slab.
+ *
+ * The selector thread fills the slots of a batch, a single worker task processes all of them and then returns the batch to its pool.
+ * Messages decoded from a slot must not retain references into its buffer since it will be overwritten once the batch is recycled.
+ */
+class ReceiveBatch {
+
+	private final ByteBuffer[] slots;
+	private final InetSocketAddress[] sources;
+	private final BlockingQueue<ReceiveBatch> pool;
+	private int count;
+
+	private ReceiveBatch(ByteBuffer[] slots, BlockingQueue<ReceiveBatch> pool) {
+		this.slots = slots;
+		this.sources = new InetSocketAddress[slots.length];
+		this.pool = pool;
+	}
+
+	/**
+	 * @return a pool of idle batches, all of them backed by a single direct buffer
+	 */
+	static BlockingQueue<ReceiveBatch> createPool(int batches, int batchSize, int slotSize) {
+		BlockingQueue<ReceiveBatch> pool = new ArrayBlockingQueue<>(batches);
+		ByteBuffer slab = ByteBuffer.allocateDirect(batches * batchSize * slotSize);
+
+		for(int i=0;i<batches;i++) {
+			ByteBuffer[] slots = new ByteBuffer[batchSize];
+			for(int j=0;j<batchSize;j++) {
+				int offset = (i * batchSize + j) * slotSize;
+				slab.limit(offset + slotSize);
+				slab.position(offset);
+				slots[j] = slab.slice();
+			}
+			pool.add(new ReceiveBatch(slots, pool));
+		}
+
+		return pool;
+	}
+
+	/**
+	 * @return the cleared buffer for the next datagram. it only becomes part of the batch once {@link #commit(InetSocketAddress)} is called
+	 */
+	ByteBuffer nextSlot() {
+		ByteBuffer slot = slots[count];
+		slot.clear();
+		return slot;
+	}
+
+	void commit(InetSocketAddress source) {
+		slots[count].flip();
+		sources[count] = source;
+		count++;
+	}
+
+	boolean isFull() {
+		return count == slots.length;
+	}
+
+	int size() {
+		return count;
+	}
+
+	ByteBuffer packet(int idx) {
+		return slots[idx];
+	}
+
+	InetSocketAddress source(int idx) {
+		return sources[idx];
+	}
+
+	void release() {
+		Arrays.fill(sources, 0, count, null);
+		count = 0;
+		pool.add(this);
+	}
+
+}
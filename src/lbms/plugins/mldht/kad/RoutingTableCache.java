@@ -0,0 +1,249 @@
+package lbms.plugins.mldht.kad;
+
+import static the8472.bencode.Utils.buf2ary;
+import static the8472.bencode.Utils.buf2str;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import the8472.bencode.BDecoder;
+import the8472.bencode.StreamingEncoder;
+import the8472.bencode.Tokenizer.BDecodingException;
+
+import lbms.plugins.mldht.kad.Node.RoutingTable;
+import lbms.plugins.mldht.kad.Node.RoutingTableEntry;
+import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
+/**
+ * Streaming reader and writer for the bencoded routing table cache.
+ *
+ * The file is a single dictionary with the lists of main and replacement entries. Entries are encoded into and decoded from a small
+ * window that is flushed to or refilled from the file as needed, neither direction holds the whole file in memory.
+ */
+final class RoutingTableCache {
+
+	static final int BUFFER_SIZE = 16 * 1024;
+	// upper bound of a single entry or scalar value, bigger ones are treated as corruption
+	static final int MAX_VALUE_SIZE = 1024;
+	// longer versions are dropped when writing so that an entry always fits
+	private static final int MAX_VERSION_LENGTH = 64;
+
+	interface Visitor {
+		void mainEntry(KBucketEntry e);
+		void replacement(KBucketEntry e);
+		void log2estimate(double estimate);
+		void oldKey(Key k);
+		void timestamp(long timestamp);
+	}
+
+	private RoutingTableCache() {}
+
+	/**
+	 * writes to a temporary file first and atomically replaces the previous cache
+	 */
+	static void write(Path saveTo, RoutingTable table, double log2estimate, Key rootId) throws IOException {
+		Path tempFile = Files.createTempFile(saveTo.getParent(), "saveTable", "tmp");
+
+		try {
+			try(FileChannel chan = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				Writer w = new Writer(chan);
+				StreamingEncoder enc = w.enc;
+
+				// keys in sorted order
+				enc.dict();
+				enc.key("log2estimate");
+				enc.lengthPrefix(8);
+				enc.buffer().putDouble(log2estimate);
+
+				enc.key("mainEntries").list();
+				for(RoutingTableEntry e : table.list())
+					w.entries(e.getBucket().entriesSnapshot());
+				enc.end();
+
+				enc.key("oldKey").string(rootId.hash);
+
+				enc.key("replacements").list();
+				for(RoutingTableEntry e : table.list())
+					w.entries(e.getBucket().getReplacementEntries());
+				enc.end();
+
+				enc.key("timestamp").number(TimeSource.currentTimeMillis());
+				enc.end();
+
+				w.flush();
+				// one sync before the move instead of synchronous writes
+				chan.force(true);
+			}
+			Files.move(tempFile, saveTo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private static final class Writer {
+		final FileChannel chan;
+		final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		final StreamingEncoder enc = new StreamingEncoder().target(buf);
+
+		Writer(FileChannel chan) {
+			this.chan = chan;
+		}
+
+		void entries(Iterable<KBucketEntry> entries) throws IOException {
+			for(KBucketEntry e : entries) {
+				if(buf.remaining() < MAX_VALUE_SIZE)
+					flush();
+				if(e.getVersion().map(ByteBuffer::remaining).orElse(0) > MAX_VERSION_LENGTH)
+					e = copyWithoutVersion(e);
+				e.encodeTo(enc);
+			}
+			if(buf.remaining() < MAX_VALUE_SIZE)
+				flush();
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			while(buf.hasRemaining())
+				chan.write(buf);
+			buf.clear();
+		}
+	}
+
+	private static KBucketEntry copyWithoutVersion(KBucketEntry e) {
+		Map<String, Object> m = e.toBencoded();
+		m.remove("version");
+		return KBucketEntry.fromBencoded(m);
+	}
+
+	/**
+	 * parses the cache one value at a time and hands entries to the visitor as soon as they are decoded
+	 *
+	 * @throws BDecodingException if the file is malformed or truncated, entries decoded up to that point have already been visited
+	 */
+	static void read(Path file, Visitor v) throws IOException {
+		try(FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+			Reader r = new Reader(chan);
+			r.expect('d');
+			while(r.peek() != 'e') {
+				Object keyObj = r.value();
+				if(!(keyObj instanceof ByteBuffer))
+					throw new BDecodingException("expected a dictionary key in routing table cache");
+				String key = buf2str((ByteBuffer) keyObj);
+
+				switch(key) {
+					case "mainEntries":
+						r.list(m -> entry(m, v::mainEntry));
+						break;
+					case "replacements":
+						r.list(m -> entry(m, v::replacement));
+						break;
+					default:
+						Object value = r.value();
+						if(value instanceof ByteBuffer)
+							value = buf2ary((ByteBuffer) value);
+						scalar(key, value, v);
+				}
+			}
+		}
+	}
+
+	private static void entry(Map<String, Object> m, Consumer<KBucketEntry> target) {
+		KBucketEntry e;
+		try {
+			e = KBucketEntry.fromBencoded(m);
+		} catch (IllegalArgumentException ex) {
+			// e.g. an address family this JVM cannot represent, skip just that entry
+			return;
+		}
+		target.accept(e);
+	}
+
+	private static void scalar(String key, Object value, Visitor v) {
+		switch(key) {
+			case "log2estimate":
+				if(value instanceof byte[] && ((byte[]) value).length == 8)
+					v.log2estimate(ByteBuffer.wrap((byte[]) value).getDouble());
+				break;
+			case "oldKey":
+				if(value instanceof byte[] && ((byte[]) value).length == Key.SHA1_HASH_LENGTH)
+					v.oldKey(new Key((byte[]) value));
+				break;
+			case "timestamp":
+				if(value instanceof Long)
+					v.timestamp((Long) value);
+				break;
+			default:
+				// unknown keys from other versions are skipped
+		}
+	}
+
+	private static final class Reader {
+		final FileChannel chan;
+		final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		final BDecoder decoder = ThreadLocalUtils.getDecoder();
+		boolean eof;
+
+		Reader(FileChannel chan) {
+			this.chan = chan;
+			buf.flip();
+		}
+
+		/**
+		 * tops up the window so that it holds at least one complete value unless the end of the file is reached first
+		 */
+		void fill() throws IOException {
+			if(buf.remaining() >= MAX_VALUE_SIZE || eof)
+				return;
+			buf.compact();
+			while(buf.position() < MAX_VALUE_SIZE) {
+				if(chan.read(buf) < 0) {
+					eof = true;
+					break;
+				}
+			}
+			buf.flip();
+		}
+
+		byte peek() throws IOException {
+			fill();
+			if(!buf.hasRemaining())
+				throw new EOFException("routing table cache is truncated");
+			return buf.get(buf.position());
+		}
+
+		void expect(char c) throws IOException {
+			if(peek() != c)
+				throw new BDecodingException("expected '" + c + "' in routing table cache");
+			buf.get();
+		}
+
+		/**
+		 * strings are returned as slices of the window, they must be consumed before the next read
+		 */
+		Object value() throws IOException {
+			fill();
+			return decoder.decodeAny(buf);
+		}
+
+		@SuppressWarnings("unchecked")
+		void list(Consumer<Map<String, Object>> consumer) throws IOException {
+			expect('l');
+			while(peek() != 'e') {
+				Object o = value();
+				if(o instanceof Map)
+					consumer.accept((Map<String, Object>) o);
+			}
+			buf.get();
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package lbms.plugins.mldht.kad;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate at which a server sends its own requests, with an AIMD controller for the rate.
+ *
+ * The rate grows additively while the bucket actually limits us and shrinks multiplicatively when the loss rate rises above its
+ * usual background level or the median RTT inflates relative to its floor. Losses only show up once calls time out, so after a
+ * decrease we wait for the calls sent at the old rate to resolve before decreasing again.
+ *
+ * All times are in nanoseconds from {@link lbms.plugins.mldht.kad.utils.TimeSource#nanoTime()}, rates in packets per second.
+ */
+final class SendPacer {
+
+	static final double INITIAL_RATE = 500;
+	static final double MIN_RATE = 20;
+	static final double MAX_RATE = 5000;
+	// lookups send a handful of requests at once, don't delay those
+	static final double BURST = 32;
+
+	static final long ADJUST_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250);
+	static final long DECREASE_HOLDOFF = TimeUnit.MILLISECONDS.toNanos(DHTConstants.RPC_CALL_TIMEOUT_MAX);
+	static final double INCREASE = 25;
+	static final double DECREASE = 0.7;
+
+	// excess loss, 0 being the normal background loss rate and 1 everything lost. sits above the 0.25 excess that the initial 0.5
+	// verified loss estimate maps to, so a fresh server doesn't back off before it has seen any responses
+	static final double LOSS_THRESHOLD = 0.3;
+	static final double RTT_INFLATION_THRESHOLD = 2.0;
+	// lets the RTT floor follow route changes upwards
+	static final double RTT_FLOOR_DRIFT = 0.01;
+
+	private double rate = INITIAL_RATE;
+	private double tokens = BURST;
+	private long lastRefill;
+	private long lastAdjust;
+	private long lastDecrease;
+	private boolean limited;
+	private double rttFloor = -1;
+	private long decreases;
+
+	SendPacer(long now) {
+		lastRefill = now;
+		lastAdjust = now;
+		lastDecrease = now - DECREASE_HOLDOFF;
+	}
+
+	private void refill(long now) {
+		long elapsed = now - lastRefill;
+		if(elapsed <= 0)
+			return;
+		tokens = Math.min(BURST, tokens + elapsed * rate / TimeUnit.SECONDS.toNanos(1));
+		lastRefill = now;
+	}
+
+	synchronized boolean tryAcquire(long now) {
+		refill(now);
+		if(tokens >= 1) {
+			tokens--;
+			return true;
+		}
+		limited = true;
+		return false;
+	}
+
+	/**
+	 * returns a token that was acquired but not used
+	 */
+	synchronized void refund() {
+		tokens = Math.min(BURST, tokens + 1);
+	}
+
+	synchronized long nanosUntilToken(long now) {
+		refill(now);
+		if(tokens >= 1)
+			return 0;
+		return (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+	}
+
+	synchronized boolean isAdjustDue(long now) {
+		return now - lastAdjust >= ADJUST_INTERVAL;
+	}
+
+	/**
+	 * @param excessLoss loss rate above the usual background, 0 to 1
+	 * @param medianRtt in milliseconds, -1 if not known yet
+	 */
+	synchronized void adjust(long now, double excessLoss, long medianRtt) {
+		refill(now);
+		lastAdjust = now;
+
+		boolean rttInflated = false;
+		if(medianRtt > 0) {
+			if(rttFloor < 0 || medianRtt < rttFloor)
+				rttFloor = medianRtt;
+			else
+				rttFloor += (medianRtt - rttFloor) * RTT_FLOOR_DRIFT;
+			rttInflated = medianRtt > rttFloor * RTT_INFLATION_THRESHOLD;
+		}
+
+		if(excessLoss > LOSS_THRESHOLD || rttInflated) {
+			if(now - lastDecrease >= DECREASE_HOLDOFF) {
+				rate = Math.max(MIN_RATE, rate * DECREASE);
+				lastDecrease = now;
+				decreases++;
+			}
+		} else if(limited) {
+			// only probe for more when the current rate is actually in use
+			rate = Math.min(MAX_RATE, rate + INCREASE);
+		}
+
+		limited = false;
+	}
+
+	synchronized double getRate() {
+		return rate;
+	}
+
+	synchronized long getDecreaseCount() {
+		return decreases;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("rate: %.0f/s tokens: %.1f decreases: %d rtt floor: %.0fms", rate, tokens, decreases, rttFloor);
+	}
+
+}
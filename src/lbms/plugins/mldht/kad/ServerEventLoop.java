@@ -0,0 +1,89 @@
+package lbms.plugins.mldht.kad;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+import lbms.plugins.mldht.utils.ExponentialWeightendMovingAverage;
+
+/**
+ * Single thread owned by one {@link RPCServer}. Packet handling, timeouts and the call state transitions they cause run here
+ * in submission order instead of competing with unrelated work on the shared DHT scheduler.
+ *
+ * Records how many tasks are waiting and how long they waited before they started. The thread exits when idle for a while
+ * and is recreated on demand, a stopped server doesn't need to shut it down explicitly.
+ */
+final class ServerEventLoop implements Executor {
+
+	private static final double LATENCY_EMA_WEIGHT = 0.01;
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	// only updated by the loop thread
+	private final ExponentialWeightendMovingAverage queueLatency = new ExponentialWeightendMovingAverage().setWeight(LATENCY_EMA_WEIGHT);
+	private volatile long maxQueueLatency;
+	private volatile long executed;
+
+	ServerEventLoop(String name) {
+		executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		long enqueued = TimeSource.nanoTime();
+		executor.execute(() -> {
+			long waited = TimeSource.nanoTime() - enqueued;
+			queueLatency.updateAverage(waited);
+			if(waited > maxQueueLatency)
+				maxQueueLatency = waited;
+			executed++;
+			try {
+				command.run();
+			} catch (RuntimeException e) {
+				DHT.log(e, LogLevel.Error);
+			}
+		});
+		int depth = executor.getQueue().size();
+		maxQueueDepth.accumulateAndGet(depth, Math::max);
+	}
+
+	int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * @return moving average of the time tasks spent in the queue, in nanoseconds
+	 */
+	long getAverageQueueLatency() {
+		return (long) queueLatency.getAverage(0);
+	}
+
+	long getMaxQueueLatency() {
+		return maxQueueLatency;
+	}
+
+	long getExecutedCount() {
+		return executed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("queued: %d (max %d) latency avg: %dus max: %dus executed: %d", getQueueDepth(), getMaxQueueDepth(),
+				TimeUnit.NANOSECONDS.toMicros(getAverageQueueLatency()), TimeUnit.NANOSECONDS.toMicros(getMaxQueueLatency()), getExecutedCount());
+	}
+
+}
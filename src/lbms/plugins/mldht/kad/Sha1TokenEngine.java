@@ -0,0 +1,94 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
+/**
+ * The original token scheme: a truncated SHA1 over node ID, address, port, a timestamp, the target key and a session secret.
+ *
+ * The input is assembled in a per-thread scratch buffer instead of a fresh array for each token.
+ */
+public class Sha1TokenEngine implements TokenEngine {
+
+	private static final int MAX_INPUT = Key.SHA1_HASH_LENGTH + 16 + 2 + 8 + Key.SHA1_HASH_LENGTH + Key.SHA1_HASH_LENGTH;
+
+	private static final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_INPUT));
+	private static final ThreadLocal<byte[]> digestScratch = ThreadLocal.withInitial(() -> new byte[Key.SHA1_HASH_LENGTH]);
+
+	private final AtomicLong timestampCurrent = new AtomicLong();
+	private volatile long timestampPrevious;
+	private final byte[] sessionSecret = new byte[Key.SHA1_HASH_LENGTH];
+
+	public Sha1TokenEngine() {
+		ThreadLocalUtils.getThreadLocalRandom().nextBytes(sessionSecret);
+	}
+
+	@Override
+	public byte[] generate(Key nodeId, InetAddress ip, int port, Key lookupKey) {
+		updateTimestamps();
+		byte[] token = new byte[TOKEN_LENGTH];
+		System.arraycopy(digest(nodeId, ip, port, lookupKey, timestampCurrent.get()), 0, token, 0, TOKEN_LENGTH);
+		return token;
+	}
+
+	@Override
+	public boolean check(byte[] token, Key nodeId, InetAddress ip, int port, Key lookupKey) {
+		if(token.length != TOKEN_LENGTH)
+			return false;
+		updateTimestamps();
+		return matches(token, digest(nodeId, ip, port, lookupKey, timestampCurrent.get())) || matches(token, digest(nodeId, ip, port, lookupKey, timestampPrevious));
+	}
+
+	private static boolean matches(byte[] token, byte[] digest) {
+		for(int i=0;i<TOKEN_LENGTH;i++)
+			if(token[i] != digest[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the thread's digest scratch array, only valid until the next call
+	 */
+	private byte[] digest(Key nodeId, InetAddress ip, int port, Key lookupKey, long timestamp) {
+		ByteBuffer bb = scratch.get();
+		bb.clear();
+		nodeId.toBuffer(bb);
+		bb.put(ip.getAddress());
+		bb.putShort((short) port);
+		bb.putLong(timestamp);
+		lookupKey.toBuffer(bb);
+		bb.put(sessionSecret);
+
+		MessageDigest sha1 = ThreadLocalUtils.getThreadLocalSHA1();
+		sha1.update(bb.array(), 0, bb.position());
+		byte[] out = digestScratch.get();
+		try {
+			sha1.digest(out, 0, out.length);
+		} catch (DigestException e) {
+			throw new Error("SHA1 output does not fit 20 bytes", e);
+		}
+		return out;
+	}
+
+	private void updateTimestamps() {
+		long current = timestampCurrent.get();
+		long now = TimeSource.nanoTime();
+		while(TimeUnit.NANOSECONDS.toMillis(now - current) > DHTConstants.TOKEN_TIMEOUT)
+		{
+			if(timestampCurrent.compareAndSet(current, now))
+			{
+				timestampPrevious = current;
+				break;
+			}
+			current = timestampCurrent.get();
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+import the8472.utils.Arrays;
+
+/**
+ * Tokens from SipHash-2-4 keyed with a random 128bit secret, fed with the 64bit lanes of the node ID and target key and the packed address.
+ *
+ * Instead of mixing a timestamp into the hashed data the secret itself is replaced every {@link DHTConstants#TOKEN_TIMEOUT}, the
+ * previous one is kept to verify older tokens. Apart from the returned token array nothing is allocated for IPv4 requests,
+ * the hash state lives in a per-thread scratch object.
+ */
+public class SipHashTokenEngine implements TokenEngine {
+
+	private static final class Secrets {
+		final long k0, k1;
+		final long prevK0, prevK1;
+		final long createdAt;
+
+		Secrets(long k0, long k1, long prevK0, long prevK1, long createdAt) {
+			this.k0 = k0;
+			this.k1 = k1;
+			this.prevK0 = prevK0;
+			this.prevK1 = prevK1;
+			this.createdAt = createdAt;
+		}
+	}
+
+	// OpenJDK hashes IPv4 addresses to their numeric value, which saves copying the address. verified once in case another runtime does not
+	private static final boolean V4_HASH_IS_ADDRESS = checkV4Hash();
+
+	private static final ThreadLocal<SipHash> state = ThreadLocal.withInitial(SipHash::new);
+
+	private final AtomicReference<Secrets> secrets;
+
+	public SipHashTokenEngine() {
+		long k0 = randomLong(), k1 = randomLong();
+		// the first previous secret is random too, nothing was issued under it
+		secrets = new AtomicReference<>(new Secrets(k0, k1, randomLong(), randomLong(), TimeSource.nanoTime()));
+	}
+
+	private static long randomLong() {
+		return ThreadLocalUtils.getThreadLocalRandom().nextLong();
+	}
+
+	private static boolean checkV4Hash() {
+		byte[][] samples = {{1, 2, 3, 4}, {(byte) 0xC0, (byte) 0xA8, 0, 1}, {(byte) 0xFF, 0, (byte) 0x80, 7}};
+		try {
+			for(byte[] s : samples) {
+				if(InetAddress.getByAddress(s).hashCode() != toInt(s))
+					return false;
+			}
+		} catch (UnknownHostException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private static int toInt(byte[] b) {
+		return (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+	}
+
+	private Secrets currentSecrets() {
+		Secrets s = secrets.get();
+		long now = TimeSource.nanoTime();
+		while(TimeUnit.NANOSECONDS.toMillis(now - s.createdAt) > DHTConstants.TOKEN_TIMEOUT) {
+			Secrets rotated = new Secrets(randomLong(), randomLong(), s.k0, s.k1, now);
+			if(secrets.compareAndSet(s, rotated))
+				return rotated;
+			s = secrets.get();
+		}
+		return s;
+	}
+
+	@Override
+	public byte[] generate(Key nodeId, InetAddress ip, int port, Key lookupKey) {
+		Secrets s = currentSecrets();
+		int t = mac(s.k0, s.k1, nodeId, ip, port, lookupKey);
+		return new byte[] {(byte) (t >>> 24), (byte) (t >>> 16), (byte) (t >>> 8), (byte) t};
+	}
+
+	@Override
+	public boolean check(byte[] token, Key nodeId, InetAddress ip, int port, Key lookupKey) {
+		if(token.length != TOKEN_LENGTH)
+			return false;
+		int t = toInt(token);
+		Secrets s = currentSecrets();
+		return mac(s.k0, s.k1, nodeId, ip, port, lookupKey) == t || mac(s.prevK0, s.prevK1, nodeId, ip, port, lookupKey) == t;
+	}
+
+	private static int mac(long k0, long k1, Key nodeId, InetAddress ip, int port, Key lookupKey) {
+		SipHash h = state.get();
+		h.init(k0, k1);
+		h.update(nodeId.getLong(Key.LANE_0));
+		h.update(nodeId.getLong(Key.LANE_1));
+		h.update(nodeId.getLong(Key.LANE_2));
+		h.update(lookupKey.getLong(Key.LANE_0));
+		h.update(lookupKey.getLong(Key.LANE_1));
+		h.update(lookupKey.getLong(Key.LANE_2));
+		// the tag in the low byte keeps v4 and v6 inputs apart
+		long portWord = (port & 0xffffL) << 8;
+		if(ip instanceof Inet4Address) {
+			long addr = V4_HASH_IS_ADDRESS ? ip.hashCode() : toInt(ip.getAddress());
+			h.update((addr & 0xffffffffL) << 32 | portWord | 4);
+			return (int) h.finish();
+		}
+		byte[] raw = ip.getAddress();
+		h.update(Arrays.getLong(raw, 0));
+		h.update(Arrays.getLong(raw, 8));
+		h.update(portWord | 6);
+		return (int) h.finish();
+	}
+
+	/**
+	 * SipHash-2-4 over whole 64bit words, reused per thread
+	 */
+	static final class SipHash {
+		private long v0, v1, v2, v3;
+		private int words;
+
+		void init(long k0, long k1) {
+			v0 = k0 ^ 0x736f6d6570736575L;
+			v1 = k1 ^ 0x646f72616e646f6dL;
+			v2 = k0 ^ 0x6c7967656e657261L;
+			v3 = k1 ^ 0x7465646279746573L;
+			words = 0;
+		}
+
+		void update(long m) {
+			v3 ^= m;
+			round();
+			round();
+			v0 ^= m;
+			words++;
+		}
+
+		long finish() {
+			long b = ((long) words * 8) << 56;
+			v3 ^= b;
+			round();
+			round();
+			v0 ^= b;
+			v2 ^= 0xff;
+			round();
+			round();
+			round();
+			round();
+			return v0 ^ v1 ^ v2 ^ v3;
+		}
+
+		private void round() {
+			v0 += v1;
+			v1 = Long.rotateLeft(v1, 13);
+			v1 ^= v0;
+			v0 = Long.rotateLeft(v0, 32);
+			v2 += v3;
+			v3 = Long.rotateLeft(v3, 16);
+			v3 ^= v2;
+			v0 += v3;
+			v3 = Long.rotateLeft(v3, 21);
+			v3 ^= v0;
+			v2 += v1;
+			v1 = Long.rotateLeft(v1, 17);
+			v1 ^= v2;
+			v2 = Long.rotateLeft(v2, 32);
+		}
+	}
+
+}
@@ -5,16 +5,19 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
 
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
 public class SpamThrottle {
 	
 	private HashMap<InetAddress, Integer> hitcounter = new HashMap<>();
 	
-	private Instant lastDecayTime = Instant.now();
+	private Instant lastDecayTime = TimeSource.now();
 	
 	private static final int BURST = 10;
 	private static final int PER_SECOND = 2;
 	
-	public boolean isSpam(InetAddress addr) {
+	// shared by all sockets of a server
+	public synchronized boolean isSpam(InetAddress addr) {
 		decay();
 		
 		int updated = hitcounter.compute(addr, (key, old) -> old == null ? 1 : Math.min(old + 1, BURST));
@@ -25,8 +28,8 @@ public class SpamThrottle {
 		return false;
 	}
 	
-	public void decay() {
-		Instant now = Instant.now();
+	public synchronized void decay() {
+		Instant now = TimeSource.now();
 		long delta = Duration.between(lastDecayTime, now).getSeconds();
 		if(delta < 1)
 			return;
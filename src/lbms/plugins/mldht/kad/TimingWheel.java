@@ -0,0 +1,178 @@
+package lbms.plugins.mldht.kad;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
+/**
+ * Hashed timing wheel driving the stall and timeout checks of all in-flight calls of a server.
+ *
+ * Calls are linked directly into the slot lists through fields of {@link RPCCall}, so scheduling and cancelling are O(1) and do not
+ * allocate. A single periodic task advances the wheel and hands all calls whose slots have come due to {@link RPCCall#checkStallOrTimeout()}
+ * in one batch, instead of one scheduler task per call.
+ *
+ * The ticker only runs while calls are scheduled, idle servers (and simulations with many mostly idle nodes) don't pay for empty ticks.
+ */
+class TimingWheel {
+
+	static final int TICK_MILLIS = 2;
+
+	// one revolution has to cover the longest deadline so that no call ever needs more than one round
+	private static final int SLOTS = Integer.highestOneBit((DHTConstants.RPC_CALL_TIMEOUT_MAX / TICK_MILLIS + 1) * 2 - 1);
+	private static final int MASK = SLOTS - 1;
+
+	private final RPCCall[] heads = new RPCCall[SLOTS];
+	private final ArrayList<RPCCall> due = new ArrayList<>();
+
+	private long lastProcessedTick;
+	private int scheduled;
+	private ScheduledExecutorService scheduler;
+	// runs the expiry checks if set, the scheduler then only provides the timing
+	private Executor loop;
+	private final AtomicBoolean tickPending = new AtomicBoolean();
+	private ScheduledFuture<?> ticker;
+	private boolean draining;
+
+	TimingWheel() {
+		lastProcessedTick = tick(TimeSource.currentTimeMillis());
+	}
+
+	private static long tick(long millis) {
+		return millis / TICK_MILLIS;
+	}
+
+	synchronized void start(ScheduledExecutorService scheduler) {
+		start(scheduler, null);
+	}
+
+	synchronized void start(ScheduledExecutorService scheduler, Executor loop) {
+		this.scheduler = scheduler;
+		this.loop = loop;
+		if(scheduled > 0)
+			startTicker();
+	}
+
+	private void startTicker() {
+		if(ticker == null && scheduler != null)
+			ticker = scheduler.scheduleWithFixedDelay(loop == null ? this::advance : this::handOff, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * at most one tick is queued on the loop, a busy loop catches up on all elapsed slots at once
+	 */
+	private void handOff() {
+		if(!tickPending.compareAndSet(false, true))
+			return;
+		loop.execute(() -> {
+			tickPending.set(false);
+			advance();
+		});
+	}
+
+	/**
+	 * keeps ticking until the remaining calls have timed out so that their listeners still get notified
+	 */
+	synchronized void stop() {
+		draining = true;
+		stopIfDrained();
+	}
+
+	private void stopIfDrained() {
+		if(scheduled == 0 && ticker != null) {
+			ticker.cancel(false);
+			ticker = null;
+		}
+		if(draining && scheduled == 0)
+			scheduler = null;
+	}
+
+	/**
+	 * (re-)schedules the call to be checked after the delay has elapsed, replacing any previous deadline
+	 */
+	synchronized void schedule(RPCCall c, long delayMillis) {
+		if(c.wheelSlot != -1)
+			unlink(c);
+
+		// nothing has been processed while idle, catch up without walking the empty slots
+		if(scheduled == 0 && ticker == null)
+			lastProcessedTick = Math.max(lastProcessedTick, tick(TimeSource.currentTimeMillis()));
+
+		long deadline = tick(TimeSource.currentTimeMillis() + Math.max(delayMillis, 0)) + 1;
+		// never place a call in a slot that has already been processed, it would have to wait a whole revolution
+		deadline = Math.max(deadline, lastProcessedTick + 1);
+		deadline = Math.min(deadline, lastProcessedTick + SLOTS);
+
+		int slot = (int) (deadline & MASK);
+		RPCCall head = heads[slot];
+		c.wheelNext = head;
+		c.wheelPrev = null;
+		if(head != null)
+			head.wheelPrev = c;
+		heads[slot] = c;
+		c.wheelSlot = slot;
+		scheduled++;
+		startTicker();
+	}
+
+	synchronized void cancel(RPCCall c) {
+		if(c.wheelSlot != -1)
+			unlink(c);
+	}
+
+	private void unlink(RPCCall c) {
+		if(c.wheelPrev != null)
+			c.wheelPrev.wheelNext = c.wheelNext;
+		else
+			heads[c.wheelSlot] = c.wheelNext;
+		if(c.wheelNext != null)
+			c.wheelNext.wheelPrev = c.wheelPrev;
+		c.wheelPrev = null;
+		c.wheelNext = null;
+		c.wheelSlot = -1;
+		scheduled--;
+	}
+
+	synchronized int size() {
+		return scheduled;
+	}
+
+	/**
+	 * only invoked by the periodic ticker or tests, never concurrently with itself
+	 */
+	void advance() {
+		long now = tick(TimeSource.currentTimeMillis());
+
+		synchronized (this) {
+			while(lastProcessedTick < now) {
+				lastProcessedTick++;
+				int slot = (int) (lastProcessedTick & MASK);
+				RPCCall c;
+				while((c = heads[slot]) != null) {
+					unlink(c);
+					due.add(c);
+				}
+			}
+		}
+
+		// run the checks outside the lock, they may re-schedule the call or invoke listeners
+		for(int i=0;i<due.size();i++) {
+			try {
+				due.get(i).checkStallOrTimeout();
+			} catch (Exception e) {
+				DHT.log(e, DHT.LogLevel.Error);
+			}
+		}
+
+		due.clear();
+
+		synchronized (this) {
+			stopIfDrained();
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.InetAddress;
+
+/**
+ * Issues and verifies the write tokens handed out in get_peers and get responses.
+ *
+ * A token binds the requesting node ID, its address and the target key to a secret that is replaced every {@link DHTConstants#TOKEN_TIMEOUT}.
+ * Tokens issued under the current and the previous secret are accepted, i.e. a token stays valid for at least one and at most two timeouts.
+ *
+ * Implementations must be thread-safe.
+ */
+public interface TokenEngine {
+
+	/**
+	 * tokens are shortened to not waste packet size, the chance of guessing correctly is 1 : 4 billion and only valid for a single key
+	 */
+	int TOKEN_LENGTH = 4;
+
+	/**
+	 * @return a new array of {@link #TOKEN_LENGTH} bytes
+	 */
+	byte[] generate(Key nodeId, InetAddress ip, int port, Key lookupKey);
+
+	/**
+	 * @param token as received from the remote node, may have any length
+	 * @return true if the token was issued to this node for this key under the current or the previous secret
+	 */
+	boolean check(byte[] token, Key nodeId, InetAddress ip, int port, Key lookupKey);
+
+}
@@ -0,0 +1,19 @@
+package lbms.plugins.mldht.kad;
+
+/**
+ * Determines how outgoing messages are queued by the {@link RPCServer}
+ */
+public enum TrafficClass {
+	/**
+	 * responses and errors to remote requests. always sent first and never paced, other nodes judge us by how quickly we answer
+	 */
+	RESPONSE,
+	/**
+	 * requests keeping the routing table healthy: bucket refreshes, liveness pings, bootstrap
+	 */
+	MAINTENANCE,
+	/**
+	 * everything else, lookups, announces and bulk traffic like crawling
+	 */
+	USER;
+}
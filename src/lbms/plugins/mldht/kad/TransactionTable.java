@@ -0,0 +1,231 @@
+package lbms.plugins.mldht.kad;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+
+/**
+ * Lock-free table of in-flight calls, keyed by their 48bit transaction ID.
+ *
+ * The key selects a shard and a short window of slots within it. Insertion claims any empty slot of the window with a CAS, removal
+ * clears the slot with a CAS and lookups always scan the full window. Since no probe sequence ever stops at an empty slot, removals
+ * don't need tombstones and slots are reused immediately. When a window is full the generated ID is discarded and another one is tried.
+ *
+ * Lookups and removals are allocation-free, insertion only writes the ID into the byte array the request needs anyway.
+ */
+class TransactionTable {
+
+	static final int MTID_LENGTH = 6;
+
+	private static final int WINDOW = 8;
+	private static final int MAX_ATTEMPTS = 16;
+
+	private static final class Shard {
+		final AtomicReferenceArray<RPCCall> slots;
+		final AtomicInteger occupied = new AtomicInteger();
+
+		Shard(int size) {
+			slots = new AtomicReferenceArray<>(size);
+		}
+	}
+
+	private final Shard[] shards;
+	private final int shardMask;
+	private final int slotMask;
+	private final int maxActive;
+
+	private final LongAdder inserts = new LongAdder();
+	private final LongAdder insertProbes = new LongAdder();
+	private final LongAdder insertRetries = new LongAdder();
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder lookupProbes = new LongAdder();
+	private final AtomicInteger maxProbe = new AtomicInteger();
+
+	/**
+	 * @param maxActive upper bound for concurrently active calls, the table is sized to keep the load factor at 1/4 or less
+	 */
+	TransactionTable(int maxActive) {
+		this.maxActive = maxActive;
+		int numShards = Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+		int shardSize = Math.max(WINDOW * 2, Integer.highestOneBit(Math.max(1, maxActive * 4 / numShards) * 2 - 1));
+		shards = new Shard[numShards];
+		for(int i=0;i<numShards;i++)
+			shards[i] = new Shard(shardSize);
+		shardMask = numShards - 1;
+		slotMask = shardSize - 1;
+	}
+
+	static long toKey(byte[] mtid) {
+		long key = 0;
+		for(int i=0;i<MTID_LENGTH;i++)
+			key = (key << 8) | (mtid[i] & 0xFF);
+		return key;
+	}
+
+	private static long mix(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return key ^ (key >>> 29);
+	}
+
+	private Shard shardFor(long mixed) {
+		return shards[(int) (mixed >>> 48) & shardMask];
+	}
+
+	/**
+	 * Assigns a fresh random transaction ID to the call's request and registers the call under it.
+	 *
+	 * @return false if the table is at capacity
+	 */
+	boolean insert(RPCCall c) {
+		if(size() >= maxActive)
+			return false;
+
+		byte[] mtid = new byte[MTID_LENGTH];
+
+		for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			ThreadLocalUtils.getThreadLocalRandom().nextBytes(mtid);
+			long key = toKey(mtid);
+			long mixed = mix(key);
+			Shard s = shardFor(mixed);
+			int base = (int) mixed;
+
+			int free = -1;
+			boolean duplicate = false;
+
+			for(int i=0;i<WINDOW;i++) {
+				int idx = (base + i) & slotMask;
+				RPCCall existing = s.slots.get(idx);
+				if(existing == null) {
+					if(free == -1)
+						free = i;
+				} else if(toKey(existing.getRequest().getMTID()) == key) {
+					duplicate = true;
+					break;
+				}
+			}
+
+			if(duplicate || free == -1) {
+				insertRetries.increment();
+				continue;
+			}
+
+			// must be visible before the call can be found
+			c.getRequest().setMTID(mtid);
+
+			for(int i=free;i<WINDOW;i++) {
+				if(s.slots.compareAndSet((base + i) & slotMask, null, c)) {
+					s.occupied.incrementAndGet();
+					inserts.increment();
+					insertProbes.add(i + 1);
+					maxProbe.accumulateAndGet(i + 1, Math::max);
+					return true;
+				}
+			}
+
+			insertRetries.increment();
+		}
+
+		return false;
+	}
+
+	RPCCall get(byte[] mtid) {
+		if(mtid == null || mtid.length != MTID_LENGTH)
+			return null;
+		return get(toKey(mtid));
+	}
+
+	RPCCall get(long key) {
+		long mixed = mix(key);
+		Shard s = shardFor(mixed);
+		int base = (int) mixed;
+
+		lookups.increment();
+
+		for(int i=0;i<WINDOW;i++) {
+			RPCCall c = s.slots.get((base + i) & slotMask);
+			if(c != null && toKey(c.getRequest().getMTID()) == key) {
+				lookupProbes.add(i + 1);
+				return c;
+			}
+		}
+
+		lookupProbes.add(WINDOW);
+		return null;
+	}
+
+	/**
+	 * @return true if this invocation removed the call, false if it was not present (e.g. already removed by a concurrent response or timeout)
+	 */
+	boolean remove(RPCCall c) {
+		byte[] mtid = c.getRequest().getMTID();
+		if(mtid == null || mtid.length != MTID_LENGTH)
+			return false;
+		long mixed = mix(toKey(mtid));
+		Shard s = shardFor(mixed);
+		int base = (int) mixed;
+
+		for(int i=0;i<WINDOW;i++) {
+			int idx = (base + i) & slotMask;
+			if(s.slots.get(idx) == c && s.slots.compareAndSet(idx, c, null)) {
+				s.occupied.decrementAndGet();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	int size() {
+		int size = 0;
+		for(Shard s : shards)
+			size += s.occupied.get();
+		return size;
+	}
+
+	int capacity() {
+		return shards.length * (slotMask + 1);
+	}
+
+	/**
+	 * @return fraction of slots currently in use
+	 */
+	double occupancy() {
+		return size() * 1.0 / capacity();
+	}
+
+	/**
+	 * @return average number of slots inspected to find a free one, 1.0 means no collisions
+	 */
+	double averageInsertProbes() {
+		long n = inserts.sum();
+		return n == 0 ? 0 : insertProbes.sum() * 1.0 / n;
+	}
+
+	/**
+	 * @return average number of slots inspected per lookup, misses count as a full window
+	 */
+	double averageLookupProbes() {
+		long n = lookups.sum();
+		return n == 0 ? 0 : lookupProbes.sum() * 1.0 / n;
+	}
+
+	int maxInsertProbes() {
+		return maxProbe.get();
+	}
+
+	/**
+	 * @return number of generated IDs that had to be discarded due to a full window or a collision
+	 */
+	long insertRetries() {
+		return insertRetries.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("calls: %d/%d shards: %d occupancy: %.3f probes (insert avg/max, lookup avg): %.2f/%d %.2f retries: %d",
+				size(), maxActive, shards.length, occupancy(), averageInsertProbes(), maxInsertProbes(), averageLookupProbes(), insertRetries());
+	}
+
+}
@@ -0,0 +1,133 @@
+package lbms.plugins.mldht.kad;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+import lbms.plugins.mldht.kad.Node.RoutingTableEntry;
+import lbms.plugins.mldht.kad.messages.PingRequest;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
+/**
+ * Verifies the routing table restored from the cache after a start.
+ *
+ * Entries are pinged in small batches spread over all servers, buckets covering local IDs first, then deeper buckets before shallow ones
+ * since those are the hardest to refill. Entries that don't respond are removed. Once every entry has been answered or timed out
+ * the DHT counts as ready and the elapsed time is recorded in the stats. Without cached entries there is nothing to measure and no time is
+ * recorded.
+ */
+class WarmStartSweep {
+
+	private final DHT dht;
+	private final Deque<KBucketEntry> todo;
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final AtomicInteger removed = new AtomicInteger();
+	private final int total;
+	private int nextServer;
+	private long lastSent;
+	private volatile boolean finished;
+	private volatile ScheduledFuture<?> action;
+
+	WarmStartSweep(DHT dht) {
+		this.dht = dht;
+		Node node = dht.getNode();
+
+		Comparator<RoutingTableEntry> bucketOrder = Comparator.comparing((RoutingTableEntry e) -> !node.isLocalBucket(e.prefix)).thenComparing(e -> -e.prefix.getDepth());
+		Comparator<KBucketEntry> entryOrder = Comparator.comparing((KBucketEntry e) -> !e.verifiedReachable()).thenComparing(KBucketEntry::getLastSeen, Comparator.reverseOrder());
+
+		todo = node.table().stream().sorted(bucketOrder).flatMap(e -> e.getBucket().entriesStream().sorted(entryOrder)).collect(Collectors.toCollection(ArrayDeque::new));
+		total = todo.size();
+	}
+
+	boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return the periodic action sending the batches, it cancels itself once the sweep is finished
+	 */
+	ScheduledFuture<?> start(ScheduledExecutorService scheduler) {
+		action = scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				DHT.log(e, LogLevel.Fatal);
+			}
+		}, 0, DHTConstants.WARM_START_TICK_INTERVAL, TimeUnit.MILLISECONDS);
+		// the first tick may have finished before the action was assigned
+		if(finished)
+			action.cancel(false);
+		return action;
+	}
+
+	/**
+	 * sends the next batch, only called from the action scheduled by {@link #start(ScheduledExecutorService)}
+	 */
+	void tick() {
+		if(finished)
+			return;
+
+		List<RPCServer> servers = dht.getServerManager().getAllServers();
+		if(servers.isEmpty())
+			return;
+
+		// one batch per server, round-robin so that consecutive (i.e. related) entries are spread out. leave room for regular traffic
+		for(int i=0;i<DHTConstants.WARM_START_PINGS_PER_TICK * servers.size() && !todo.isEmpty();i++) {
+			RPCServer srv = servers.get(nextServer++ % servers.size());
+			if(srv.getNumActiveRPCCalls() < DHTConstants.MAX_ACTIVE_CALLS / 2)
+				ping(srv, todo.poll());
+		}
+
+		// calls that never complete, e.g. because their server shut down, must not delay readiness indefinitely
+		if(todo.isEmpty() && (outstanding.get() == 0 || TimeSource.currentTimeMillis() - lastSent > 2 * DHTConstants.RPC_CALL_TIMEOUT_MAX))
+			finish();
+	}
+
+	private void ping(RPCServer srv, KBucketEntry entry) {
+		PingRequest req = new PingRequest();
+		req.setDestination(entry.getAddress());
+		RPCCall call = new RPCCall(req);
+		call.builtFromEntry(entry);
+		call.setExpectedID(entry.getID());
+		call.setTrafficClass(TrafficClass.MAINTENANCE);
+		call.addListener(new RPCCallListener() {
+			@Override
+			public void stateTransition(RPCCall c, RPCState previous, RPCState current) {
+				if(current == RPCState.RESPONDED || current == RPCState.ERROR || current == RPCState.TIMEOUT)
+					outstanding.decrementAndGet();
+			}
+
+			@Override
+			public void onTimeout(RPCCall c) {
+				KBucket bucket = dht.getNode().table().entryForId(entry.getID()).getBucket();
+				bucket.removeEntryIfBad(entry, true);
+				removed.incrementAndGet();
+			}
+		});
+		outstanding.incrementAndGet();
+		lastSent = TimeSource.currentTimeMillis();
+		srv.doCall(call);
+	}
+
+	private void finish() {
+		finished = true;
+		ScheduledFuture<?> a = action;
+		if(a != null)
+			a.cancel(false);
+		if(total == 0)
+			return;
+		DHTStats stats = dht.getStats();
+		Duration elapsed = Duration.between(stats.getStartedTimestamp(), TimeSource.now());
+		stats.setTimeToReady(elapsed);
+		DHT.log("Verified " + (total - removed.get()) + " of " + total + " cached routing table entries, ready after " + elapsed, LogLevel.Info);
+	}
+
+}
@@ -24,6 +24,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -60,6 +62,15 @@ public abstract class AbstractLookupRequest extends MessageBase {
 	}
 
 	protected abstract String targetBencodingName();
+	
+	protected void encodeWant(StreamingEncoder enc) {
+		enc.key("want").list();
+		if(want4)
+			enc.string("n4");
+		if(want6)
+			enc.string("n6");
+		enc.end();
+	}
 
 	/**
 	 * @return the info_hash
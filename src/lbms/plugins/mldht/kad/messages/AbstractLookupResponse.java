@@ -7,6 +7,8 @@ import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.DHT.DHTtype;
 import lbms.plugins.mldht.kad.NodeList;
 
+import the8472.bencode.StreamingEncoder;
+
 public class AbstractLookupResponse extends MessageBase {
 	
 	protected NodeList	nodes;
@@ -63,6 +65,20 @@ public class AbstractLookupResponse extends MessageBase {
 		return inner;
 	}
 	
+	/**
+	 * writes the id, nodes, nodes6 and token entries of the inner dictionary, in that order
+	 */
+	protected void encodeLookupFields(StreamingEncoder enc) {
+		enc.key("id");
+		encodeKey(enc, id);
+		if(nodes != null)
+			enc.key("nodes").string(nodes.writer());
+		if(nodes6 != null)
+			enc.key("nodes6").string(nodes6.writer());
+		if(token != null)
+			enc.key("token").string(token);
+	}
+	
 	public NodeList getNodes(DHTtype type)
 	{
 		if(type == DHTtype.IPV4_DHT)
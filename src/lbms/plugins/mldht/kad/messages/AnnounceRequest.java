@@ -25,6 +25,8 @@ import java.util.TreeMap;
 import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.Key;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -77,6 +79,26 @@ public class AnnounceRequest extends AbstractLookupRequest {
 		return inner;
 	}
 	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		enc.key("id");
+		encodeKey(enc, id);
+		enc.key("info_hash");
+		encodeKey(enc, target);
+		if(name != null)
+			enc.key("name").string(name);
+		enc.key("port").number(port);
+		enc.key("seed").number(isSeed ? 1 : 0);
+		enc.key("token").string(token);
+		enc.end();
+	}
+	
 	public void setName(ByteBuffer name) {
 		this.name = name;
 	}
@@ -25,6 +25,8 @@ import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.DHTConstants;
 import lbms.plugins.mldht.kad.Key;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -54,5 +56,18 @@ public class AnnounceResponse extends MessageBase {
 
 		return inner;
 	}
+	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		enc.key("id");
+		encodeKey(enc, id);
+		enc.end();
+	}
 
 }
@@ -0,0 +1,600 @@
+package lbms.plugins.mldht.kad.messages;
+
+import static the8472.bencode.Utils.str2buf;
+
+import lbms.plugins.mldht.kad.BloomFilterBEP33;
+import lbms.plugins.mldht.kad.DBItem;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.NodeList;
+import lbms.plugins.mldht.kad.NodeList.AddressType;
+import lbms.plugins.mldht.kad.PeerAddressDBItem;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+import lbms.plugins.mldht.kad.messages.MessageBase.Type;
+import lbms.plugins.mldht.kad.utils.AddressUtils;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import the8472.bencode.Tokenizer;
+import the8472.bencode.Tokenizer.BDecodingException;
+import the8472.bencode.Tokenizer.Token;
+import the8472.bencode.Tokenizer.TokenConsumer;
+import the8472.bencode.Tokenizer.TokenType;
+
+/**
+ * Builds the most common queries and responses straight from the token offsets reported by the {@link Tokenizer}, without materializing a
+ * map tree, key strings or intermediate byte arrays.
+ *
+ * Only well-formed messages (sorted dictionary keys, expected value types, all mandatory fields present) are decoded.
+ * For everything else, including input that warrants an error reply, {@link #decode(ByteBuffer, Function, DHTtype)} returns null
+ * and the message has to take the map-based path of {@link MessageDecoder}, which produces the appropriate exceptions.
+ *
+ * Instances are stateful and must be confined to a single thread.
+ */
+class DirectMessageDecoder implements TokenConsumer {
+
+	enum Field {
+		// root dictionary
+		TRANSACTION(MessageBase.TRANSACTION_KEY),
+		TYPE(Type.TYPE_KEY),
+		QUERY(Type.REQ_MSG.getRPCTypeName()),
+		VERSION(MessageBase.VERSION_KEY),
+		EXTERNAL_IP(MessageBase.EXTERNAL_IP_KEY),
+		ARGUMENTS(Type.REQ_MSG.innerKey()),
+		RESPONSE(Type.RSP_MSG.innerKey()),
+		// arguments/response dictionary
+		ID("id"),
+		TARGET("target"),
+		INFO_HASH("info_hash"),
+		WANT("want"),
+		NOSEED("noseed"),
+		SCRAPE("scrape"),
+		SEQ("seq"),
+		PORT("port"),
+		TOKEN("token"),
+		SEED("seed"),
+		NAME("name"),
+		NODES("nodes"),
+		NODES6("nodes6"),
+		VALUES("values"),
+		BF_PEERS("BFpe"),
+		BF_SEEDS("BFse"),
+		PUBKEY("k"),
+		SIGNATURE("sig"),
+		VALUE("v");
+
+		final byte[] key;
+
+		Field(String key) {
+			this.key = str2buf(key).array();
+		}
+	}
+
+	private static final Field[] ROOT_FIELDS = Arrays.copyOfRange(Field.values(), Field.TRANSACTION.ordinal(), Field.RESPONSE.ordinal() + 1);
+	private static final Field[] INNER_FIELDS = Arrays.copyOfRange(Field.values(), Field.ID.ordinal(), Field.values().length);
+
+	private static final Method[] DIRECT_METHODS = {Method.PING, Method.FIND_NODE, Method.GET_PEERS, Method.ANNOUNCE_PEER, Method.GET};
+	private static final byte[][] DIRECT_METHOD_NAMES = Arrays.stream(DIRECT_METHODS).map(m -> str2buf(m.getRPCName()).array()).toArray(byte[][]::new);
+
+	private static final byte[] WANT4 = str2buf("n4").array();
+	private static final byte[] WANT6 = str2buf("n6").array();
+
+	/**
+	 * thrown from within the tokenizer callbacks to abort as soon as the message turns out to be unsuitable for the direct path
+	 */
+	private static final class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+
+	private static final int MAX_DEPTH = 257;
+	private static final int NONE = -1;
+	private static final int INNER_DEPTH = 2;
+
+	private final Tokenizer t = new Tokenizer();
+
+	// per nesting level
+	private final boolean[] isDict = new boolean[MAX_DEPTH];
+	private final boolean[] expectKey = new boolean[MAX_DEPTH];
+	private final int[] pendingField = new int[MAX_DEPTH];
+	private final int[] prevKeyStart = new int[MAX_DEPTH];
+	private final int[] prevKeyEnd = new int[MAX_DEPTH];
+	private final int[] listOwner = new int[MAX_DEPTH];
+
+	// per field, offsets are absolute positions in the input buffer
+	private final TokenType[] kinds = new TokenType[Field.values().length];
+	private final int[] starts = new int[Field.values().length];
+	private final int[] ends = new int[Field.values().length];
+	private final long[] numbers = new long[Field.values().length];
+
+	private int[] valueStarts = new int[16];
+	private int[] valueEnds = new int[16];
+	private int valueCount;
+	private boolean want4;
+	private boolean want6;
+
+	private int lastStringStart;
+	private int lastStringEnd;
+
+	private ByteBuffer buf;
+
+	DirectMessageDecoder() {
+		t.consumer(this);
+	}
+
+	/**
+	 * @param raw the buffer's position and limit delimit the message. the position is advanced
+	 * @return a message whose state does not reference the input buffer or null if the message has to be decoded via the map-based path
+	 */
+	MessageBase decode(ByteBuffer raw, Function<byte[], Optional<Method>> transactionIdMapper, DHTtype type) {
+		if(!raw.hasRemaining() || raw.get(raw.position()) != 'd')
+			return null;
+
+		buf = raw;
+		Arrays.fill(kinds, null);
+		valueCount = 0;
+		want4 = false;
+		want6 = false;
+
+		try {
+			t.inputBuffer(raw);
+			t.tokenize();
+			return build(transactionIdMapper, type);
+		} catch (Unsupported | BDecodingException e) {
+			return null;
+		} finally {
+			t.reset();
+			buf = null;
+		}
+	}
+
+	@Override
+	public void push(Token st) {
+		int depth = t.stackIdx();
+
+		switch(st.type()) {
+			case DICT:
+				if(depth == INNER_DEPTH) {
+					int owner = pendingField[1];
+					if(owner == Field.ARGUMENTS.ordinal() || owner == Field.RESPONSE.ordinal()) {
+						// only one body per message
+						if(kinds[Field.ARGUMENTS.ordinal()] != null || kinds[Field.RESPONSE.ordinal()] != null)
+							throw UNSUPPORTED;
+					}
+				}
+				isDict[depth] = true;
+				expectKey[depth] = true;
+				prevKeyStart[depth] = NONE;
+				pendingField[depth] = NONE;
+				break;
+			case LIST:
+				isDict[depth] = false;
+				listOwner[depth] = depth == INNER_DEPTH + 1 && isDict[INNER_DEPTH] && isBody(INNER_DEPTH) ? pendingField[INNER_DEPTH] : NONE;
+				break;
+			default:
+				isDict[depth] = false;
+				break;
+		}
+	}
+
+	@Override
+	public void pop(Token st) {
+		int depth = t.stackIdx();
+
+		if(st.type() == TokenType.STRING) {
+			lastStringStart = st.start();
+			lastStringEnd = st.end();
+			return;
+		}
+
+		if(depth == 1) {
+			if(st.type() != TokenType.DICT)
+				throw UNSUPPORTED;
+			return;
+		}
+
+		int container = depth - 1;
+
+		if(isDict[container]) {
+			if(expectKey[container])
+				key(container);
+			else
+				value(container, st);
+			expectKey[container] = !expectKey[container];
+		} else if(listOwner[container] != NONE) {
+			listElement(listOwner[container], st);
+		}
+	}
+
+	private boolean isBody(int depth) {
+		// the pending field of the root dictionary tells us which value is currently being decoded
+		int owner = pendingField[1];
+		return depth == INNER_DEPTH && (owner == Field.ARGUMENTS.ordinal() || owner == Field.RESPONSE.ordinal());
+	}
+
+	private void key(int depth) {
+		int start = lastStringStart;
+		int end = lastStringEnd;
+
+		// strictly ascending order also rules out duplicates, which the map-based path rejects
+		if(prevKeyStart[depth] != NONE && compare(prevKeyStart[depth], prevKeyEnd[depth], start, end) >= 0)
+			throw UNSUPPORTED;
+		prevKeyStart[depth] = start;
+		prevKeyEnd[depth] = end;
+
+		if(depth == 1)
+			pendingField[depth] = match(ROOT_FIELDS, start, end);
+		else if(isBody(depth))
+			pendingField[depth] = match(INNER_FIELDS, start, end);
+		else
+			pendingField[depth] = NONE;
+	}
+
+	private void value(int depth, Token st) {
+		int field = pendingField[depth];
+		if(field == NONE)
+			return;
+
+		if(depth != 1 && !isBody(depth))
+			return;
+
+		TokenType type = st.type();
+
+		kinds[field] = type;
+
+		switch(type) {
+			case PREFIXED_STRING:
+				starts[field] = lastStringStart;
+				ends[field] = lastStringEnd;
+				break;
+			case LONG:
+				numbers[field] = t.lastDecodedNum();
+				break;
+			default:
+				break;
+		}
+
+		if(field == Field.VALUE.ordinal()) {
+			// arbitrary bencoded value, keep the whole token
+			starts[field] = st.start();
+			ends[field] = st.end();
+		}
+	}
+
+	private void listElement(int owner, Token st) {
+		if(owner == Field.WANT.ordinal()) {
+			if(st.type() != TokenType.PREFIXED_STRING)
+				throw UNSUPPORTED;
+			want4 |= equals(lastStringStart, lastStringEnd, WANT4);
+			want6 |= equals(lastStringStart, lastStringEnd, WANT6);
+		} else if(owner == Field.VALUES.ordinal()) {
+			if(st.type() != TokenType.PREFIXED_STRING)
+				throw UNSUPPORTED;
+			if(valueCount == valueStarts.length) {
+				valueStarts = Arrays.copyOf(valueStarts, valueCount * 2);
+				valueEnds = Arrays.copyOf(valueEnds, valueCount * 2);
+			}
+			valueStarts[valueCount] = lastStringStart;
+			valueEnds[valueCount] = lastStringEnd;
+			valueCount++;
+		}
+	}
+
+	private int match(Field[] candidates, int start, int end) {
+		int length = end - start;
+		for(Field f : candidates) {
+			if(f.key.length == length && equals(start, end, f.key))
+				return f.ordinal();
+		}
+		return NONE;
+	}
+
+	private boolean equals(int start, int end, byte[] expected) {
+		if(end - start != expected.length)
+			return false;
+		for(int i=0;i<expected.length;i++) {
+			if(buf.get(start + i) != expected[i])
+				return false;
+		}
+		return true;
+	}
+
+	private int compare(int aStart, int aEnd, int bStart, int bEnd) {
+		int aLen = aEnd - aStart;
+		int bLen = bEnd - bStart;
+		int len = Math.min(aLen, bLen);
+		for(int i=0;i<len;i++) {
+			int c = Byte.toUnsignedInt(buf.get(aStart + i)) - Byte.toUnsignedInt(buf.get(bStart + i));
+			if(c != 0)
+				return c;
+		}
+		return aLen - bLen;
+	}
+
+	private boolean isString(Field f) {
+		return kinds[f.ordinal()] == TokenType.PREFIXED_STRING;
+	}
+
+	private boolean isLong(Field f) {
+		return kinds[f.ordinal()] == TokenType.LONG;
+	}
+
+	private boolean isAbsent(Field f) {
+		return kinds[f.ordinal()] == null;
+	}
+
+	private boolean isFlagSet(Field f) {
+		return isLong(f) && numbers[f.ordinal()] == 1;
+	}
+
+	private int length(Field f) {
+		return ends[f.ordinal()] - starts[f.ordinal()];
+	}
+
+	private byte[] copy(Field f) {
+		return copy(starts[f.ordinal()], ends[f.ordinal()]);
+	}
+
+	private byte[] copy(int start, int end) {
+		byte[] result = new byte[end - start];
+		for(int i=0;i<result.length;i++)
+			result[i] = buf.get(start + i);
+		return result;
+	}
+
+	private Key key(Field f) {
+		return new Key(buf, starts[f.ordinal()]);
+	}
+
+	/**
+	 * @return null if the field is absent or not a string
+	 */
+	private byte[] optionalString(Field f) {
+		if(isAbsent(f))
+			return null;
+		if(!isString(f))
+			throw UNSUPPORTED;
+		return copy(f);
+	}
+
+	private NodeList nodes(Field f, DHTtype nodesType) {
+		byte[] raw = optionalString(f);
+		if(raw == null)
+			return null;
+		if(raw.length % nodesType.NODES_ENTRY_LENGTH != 0)
+			throw UNSUPPORTED;
+		return NodeList.fromBuffer(ByteBuffer.wrap(raw), nodesType == DHTtype.IPV4_DHT ? AddressType.V4 : AddressType.V6);
+	}
+
+	private MessageBase build(Function<byte[], Optional<Method>> transactionIdMapper, DHTtype type) {
+		if(!isString(Field.TYPE) || length(Field.TYPE) != 1 || !isString(Field.TRANSACTION) || length(Field.TRANSACTION) == 0)
+			throw UNSUPPORTED;
+
+		MessageBase msg;
+
+		switch(buf.get(starts[Field.TYPE.ordinal()])) {
+			case 'q':
+				msg = request(type);
+				break;
+			case 'r':
+				msg = response(transactionIdMapper);
+				break;
+			default:
+				return null;
+		}
+
+		if(isString(Field.VERSION))
+			msg.setVersion(copy(Field.VERSION));
+
+		return msg;
+	}
+
+	private MessageBase request(DHTtype type) {
+		if(kinds[Field.ARGUMENTS.ordinal()] != TokenType.DICT || !isString(Field.QUERY) || !isString(Field.ID) || length(Field.ID) != Key.SHA1_HASH_LENGTH)
+			throw UNSUPPORTED;
+
+		Method method = null;
+		for(int i=0;i<DIRECT_METHODS.length;i++) {
+			if(equals(starts[Field.QUERY.ordinal()], ends[Field.QUERY.ordinal()], DIRECT_METHOD_NAMES[i])) {
+				method = DIRECT_METHODS[i];
+				break;
+			}
+		}
+
+		if(method == null)
+			throw UNSUPPORTED;
+
+		MessageBase msg;
+
+		switch(method) {
+			case PING:
+				msg = new PingRequest();
+				break;
+			case FIND_NODE:
+			case GET_PEERS:
+			case GET:
+				// the map-based path prefers 'target' over 'info_hash' if both are present
+				Field targetField = isString(Field.TARGET) ? Field.TARGET : Field.INFO_HASH;
+				if(!isString(targetField) || length(targetField) != Key.SHA1_HASH_LENGTH)
+					throw UNSUPPORTED;
+				Key target = key(targetField);
+
+				AbstractLookupRequest req;
+				if(method == Method.FIND_NODE)
+					req = new FindNodeRequest(target);
+				else if(method == Method.GET_PEERS)
+					req = new GetPeersRequest(target);
+				else
+					req = new GetRequest(target);
+
+				if(isAbsent(Field.WANT)) {
+					req.setWant4(type == DHTtype.IPV4_DHT);
+					req.setWant6(type == DHTtype.IPV6_DHT);
+				} else if(kinds[Field.WANT.ordinal()] == TokenType.LIST) {
+					req.setWant4(want4);
+					req.setWant6(want6);
+				} else {
+					throw UNSUPPORTED;
+				}
+
+				if(req instanceof GetPeersRequest) {
+					GetPeersRequest peerReq = (GetPeersRequest) req;
+					peerReq.setNoSeeds(isFlagSet(Field.NOSEED));
+					peerReq.setScrape(isFlagSet(Field.SCRAPE));
+				}
+
+				if(req instanceof GetRequest && isLong(Field.SEQ))
+					((GetRequest) req).setSeq(numbers[Field.SEQ.ordinal()]);
+
+				msg = req;
+				break;
+			case ANNOUNCE_PEER:
+				if(!isString(Field.INFO_HASH) || length(Field.INFO_HASH) != Key.SHA1_HASH_LENGTH || !isString(Field.TOKEN) || length(Field.TOKEN) == 0 || !isLong(Field.PORT))
+					throw UNSUPPORTED;
+				long port = numbers[Field.PORT.ordinal()];
+				if(port <= 0 || port > 65535)
+					throw UNSUPPORTED;
+
+				AnnounceRequest ar = new AnnounceRequest(key(Field.INFO_HASH), (int) port, copy(Field.TOKEN));
+				ar.setSeed(isFlagSet(Field.SEED));
+				if(isString(Field.NAME))
+					ar.setName(ByteBuffer.wrap(copy(Field.NAME)));
+				msg = ar;
+				break;
+			default:
+				throw UNSUPPORTED;
+		}
+
+		msg.setMTID(copy(Field.TRANSACTION));
+		msg.setID(key(Field.ID));
+
+		return msg;
+	}
+
+	private MessageBase response(Function<byte[], Optional<Method>> transactionIdMapper) {
+		if(kinds[Field.RESPONSE.ordinal()] != TokenType.DICT || !isString(Field.ID) || length(Field.ID) != Key.SHA1_HASH_LENGTH)
+			throw UNSUPPORTED;
+
+		InetSocketAddress publicIP = null;
+		if(!isAbsent(Field.EXTERNAL_IP)) {
+			// undecodable addresses are logged by the map-based path
+			publicIP = AddressUtils.unpackAddress(optionalString(Field.EXTERNAL_IP));
+			if(publicIP == null)
+				throw UNSUPPORTED;
+		}
+
+		byte[] mtid = copy(Field.TRANSACTION);
+		Method method = transactionIdMapper.apply(mtid).orElse(Method.UNKNOWN);
+
+		MessageBase msg;
+
+		switch(method) {
+			case PING:
+				msg = new PingResponse(mtid);
+				break;
+			case ANNOUNCE_PEER:
+				msg = new AnnounceResponse(mtid);
+				break;
+			case FIND_NODE: {
+				NodeList nodes = nodes(Field.NODES, DHTtype.IPV4_DHT);
+				NodeList nodes6 = nodes(Field.NODES6, DHTtype.IPV6_DHT);
+				if(nodes == null && nodes6 == null)
+					throw UNSUPPORTED;
+				FindNodeResponse fnr = new FindNodeResponse(mtid);
+				if(nodes != null)
+					fnr.setNodes(nodes);
+				if(nodes6 != null)
+					fnr.setNodes(nodes6);
+				msg = fnr;
+				break;
+			}
+			case GET_PEERS: {
+				NodeList nodes = nodes(Field.NODES, DHTtype.IPV4_DHT);
+				NodeList nodes6 = nodes(Field.NODES6, DHTtype.IPV6_DHT);
+				byte[] token = optionalString(Field.TOKEN);
+				byte[] peerFilter = optionalString(Field.BF_PEERS);
+				byte[] seedFilter = optionalString(Field.BF_SEEDS);
+
+				if((peerFilter != null && peerFilter.length != BloomFilterBEP33.m/8) || (seedFilter != null && seedFilter.length != BloomFilterBEP33.m/8))
+					throw UNSUPPORTED;
+
+				List<DBItem> items = null;
+				if(!isAbsent(Field.VALUES)) {
+					if(kinds[Field.VALUES.ordinal()] != TokenType.LIST)
+						throw UNSUPPORTED;
+					if(valueCount > 0) {
+						items = new ArrayList<>(valueCount);
+						for(int i=0;i<valueCount;i++) {
+							int length = valueEnds[i] - valueStarts[i];
+							// only accept ipv4 or ipv6 for now
+							if(length != DHTtype.IPV4_DHT.ADDRESS_ENTRY_LENGTH && length != DHTtype.IPV6_DHT.ADDRESS_ENTRY_LENGTH)
+								continue;
+							items.add(new PeerAddressDBItem(copy(valueStarts[i], valueEnds[i]), false));
+						}
+					}
+				}
+
+				if(items == null && nodes == null && nodes6 == null)
+					throw UNSUPPORTED;
+
+				GetPeersResponse resp = new GetPeersResponse(mtid);
+				if(nodes != null)
+					resp.setNodes(nodes);
+				if(nodes6 != null)
+					resp.setNodes(nodes6);
+				resp.setPeerItems(items);
+				resp.setToken(token);
+				resp.setScrapePeers(peerFilter);
+				resp.setScrapeSeeds(seedFilter);
+				msg = resp;
+				break;
+			}
+			case GET: {
+				GetResponse get = new GetResponse(mtid);
+				NodeList nodes = nodes(Field.NODES, DHTtype.IPV4_DHT);
+				NodeList nodes6 = nodes(Field.NODES6, DHTtype.IPV6_DHT);
+				if(nodes != null)
+					get.setNodes(nodes);
+				if(nodes6 != null)
+					get.setNodes(nodes6);
+				if(!isAbsent(Field.VALUE))
+					get.setRawValue(ByteBuffer.wrap(copy(Field.VALUE)));
+				byte[] token = optionalString(Field.TOKEN);
+				if(token != null)
+					get.setToken(token);
+				byte[] pubkey = optionalString(Field.PUBKEY);
+				if(pubkey != null)
+					get.setKey(pubkey);
+				byte[] sig = optionalString(Field.SIGNATURE);
+				if(sig != null)
+					get.setSignature(sig);
+				if(isLong(Field.SEQ))
+					get.setSequenceNumber(numbers[Field.SEQ.ordinal()]);
+				else if(!isAbsent(Field.SEQ))
+					throw UNSUPPORTED;
+				msg = get;
+				break;
+			}
+			default:
+				throw UNSUPPORTED;
+		}
+
+		if(publicIP != null)
+			msg.setPublicIP(publicIP);
+		msg.setID(key(Field.ID));
+
+		return msg;
+	}
+
+}
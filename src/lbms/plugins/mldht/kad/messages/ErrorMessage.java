@@ -22,6 +22,8 @@ import java.util.Map;
 
 import lbms.plugins.mldht.kad.DHT;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -61,6 +63,19 @@ public class ErrorMessage extends MessageBase {
 		return base;
 	}
 	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.list();
+		enc.number(code);
+		enc.string(msg);
+		enc.end();
+	}
+	
 	public void setMethod(Method m) {
 		this.method = m;
 	}
@@ -24,6 +24,8 @@ import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.DHTConstants;
 import lbms.plugins.mldht.kad.Key;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -48,4 +50,20 @@ public class FindNodeRequest extends AbstractLookupRequest {
 
 	@Override
 	protected String targetBencodingName() { return "target"; }
+	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		enc.key("id");
+		encodeKey(enc, id);
+		enc.key("target");
+		encodeKey(enc, target);
+		encodeWant(enc);
+		enc.end();
+	}
 }
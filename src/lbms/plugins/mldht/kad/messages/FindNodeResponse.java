@@ -18,6 +18,8 @@ package lbms.plugins.mldht.kad.messages;
 
 import lbms.plugins.mldht.kad.DHT;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -41,5 +43,17 @@ public class FindNodeResponse extends AbstractLookupResponse {
 	public void apply (DHT dh_table) {
 		dh_table.response(this);
 	}
+	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		encodeLookupFields(enc);
+		enc.end();
+	}
 
 }
@@ -21,6 +21,8 @@ import java.util.Map;
 import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.Key;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -59,6 +61,26 @@ public class GetPeersRequest extends AbstractLookupRequest {
 		return innerMap;
 	}
 	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		enc.key("id");
+		encodeKey(enc, id);
+		enc.key("info_hash");
+		encodeKey(enc, target);
+		if(noSeeds)
+			enc.key("noseed").number(1);
+		if(scrape)
+			enc.key("scrape").number(1);
+		encodeWant(enc);
+		enc.end();
+	}
+	
 	public boolean isNoSeeds() {
 		return noSeeds;
 	}
@@ -30,6 +30,8 @@ import lbms.plugins.mldht.kad.DBItem;
 import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.DHT.DHTtype;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -81,6 +83,28 @@ public class GetPeersResponse extends AbstractLookupResponse {
 		return innerMap;
 	}
 	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		if(scrapePeers != null && scrapeSeeds != null) {
+			enc.key("BFpe").string(scrapePeers);
+			enc.key("BFse").string(scrapeSeeds);
+		}
+		encodeLookupFields(enc);
+		if(items != null && !items.isEmpty()) {
+			enc.key("values").list();
+			for(int i=0;i<items.size();i++)
+				enc.string(items.get(i).getData());
+			enc.end();
+		}
+		enc.end();
+	}
+	
 	public void setPeerItems(List<DBItem> items) {
 		this.items = items;
 	}
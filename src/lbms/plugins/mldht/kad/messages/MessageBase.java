@@ -35,6 +35,7 @@ import lbms.plugins.mldht.kad.RPCCall;
 import lbms.plugins.mldht.kad.RPCServer;
 import lbms.plugins.mldht.kad.utils.AddressUtils;
 import the8472.bencode.BEncoder;
+import the8472.bencode.StreamingEncoder;
 
 /**
  * Base class for all RPC messages.
@@ -83,7 +84,80 @@ public abstract class MessageBase {
 	 */
 	public void encode(ByteBuffer target) throws IOException
 	{
-		new BEncoder().encodeInto(getBase(),target);
+		encode(target, new StreamingEncoder(), new BEncoder());
+	}
+	
+	/**
+	 * BEncode the message, streaming it straight into the target if the message type supports it, otherwise via {@link #getBase()}.
+	 * 
+	 * The encoders are only used for the duration of the call and can be reused by a single thread.
+	 */
+	public void encode(ByteBuffer target, StreamingEncoder direct, BEncoder fallback) throws IOException
+	{
+		int start = target.position();
+		direct.target(target);
+		if(encodeDirect(direct)) {
+			target.flip();
+			return;
+		}
+		target.position(start);
+		fallback.encodeInto(getBase(), target);
+	}
+	
+	private boolean encodeDirect(StreamingEncoder enc) {
+		if(!hasDirectEncoding())
+			return false;
+		
+		assert(mtid != null);
+		
+		// top-level keys in sorted order: a/e, ip, q, r, t, v, y
+		enc.dict();
+		switch(type) {
+			case REQ_MSG:
+				enc.key(type.innerKey());
+				encodeInner(enc);
+				enc.key(type.getRPCTypeName()).string(method.getRPCName());
+				break;
+			case RSP_MSG:
+				if(publicIP != null)
+					enc.key(EXTERNAL_IP_KEY).string(AddressUtils.packAddress(publicIP));
+				enc.key(type.innerKey());
+				encodeInner(enc);
+				break;
+			case ERR_MSG:
+				enc.key(type.innerKey());
+				encodeInner(enc);
+				break;
+			default:
+				throw new IllegalStateException("cannot encode message of type " + type);
+		}
+		enc.key(TRANSACTION_KEY).string(mtid);
+		enc.key(VERSION_KEY).string(DHTConstants.getVersion());
+		enc.key(Type.TYPE_KEY).string(type.getRPCTypeName());
+		enc.end();
+		
+		return true;
+	}
+	
+	/**
+	 * @return true if {@link #encodeInner(StreamingEncoder)} is implemented for this message type, otherwise encoding falls back to {@link #getBase()}
+	 */
+	protected boolean hasDirectEncoding() {
+		return false;
+	}
+	
+	/**
+	 * Streaming counterpart to {@link #getInnerMap()}, writes the value of the a/r/e key. Must produce the same output as encoding the map, i.e. emit keys in sorted order.
+	 * 
+	 * Subclasses that add entries to the inner map must override this method and {@link #hasDirectEncoding()} too.
+	 */
+	protected void encodeInner(StreamingEncoder enc) {
+		throw new UnsupportedOperationException();
+	}
+	
+	protected static void encodeKey(StreamingEncoder enc, Key k) {
+		enc.lengthPrefix(Key.SHA1_HASH_LENGTH);
+		k.toBuffer(enc.buffer());
 	}
 	
 	public Map<String, Object> getBase()
@@ -240,8 +314,10 @@ public abstract class MessageBase {
 	public static enum Method {
 		PING, FIND_NODE, GET_PEERS, ANNOUNCE_PEER, GET, PUT, UNKNOWN;
 		
+		private final String rpcName = name().toLowerCase();
+		
 		String getRPCName()	{
-			return name().toLowerCase();
+			return rpcName;
 		}
 	};
 	
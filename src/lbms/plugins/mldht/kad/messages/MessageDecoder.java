@@ -16,6 +16,7 @@
  */
 package lbms.plugins.mldht.kad.messages;
 
+import static the8472.bencode.Utils.buf2ary;
 import static the8472.bencode.Utils.prettyPrint;
 import static the8472.utils.Functional.castOrThrow;
 import static the8472.utils.Functional.tap;
@@ -63,6 +64,8 @@ public class MessageDecoder {
 		this.type = type;
 	}
 	
+	private static final ThreadLocal<DirectMessageDecoder> directDecoder = ThreadLocal.withInitial(DirectMessageDecoder::new);
+	
 	Map<String, Object> rootMap;
 	ByteBuffer raw;
 	final Function<byte[], Optional<Method>> transactionIdMapper;
@@ -73,6 +76,19 @@ public class MessageDecoder {
 		this.rootMap = map;
 	}
 
+	/**
+	 * Fast path for well-formed messages of the common types, bypasses the bencoded map.
+	 * 
+	 * @return null if the message could not be decoded directly and has to go through {@link #toDecode(ByteBuffer, Map)} and {@link #parseMessage()} instead. The buffer is rewound in either case.
+	 */
+	public MessageBase parseDirect(ByteBuffer rawMessage) {
+		try {
+			return directDecoder.get().decode(rawMessage, transactionIdMapper, type);
+		} finally {
+			rawMessage.rewind();
+		}
+	}
+
 	public MessageBase parseMessage() throws MessageException, IOException {
 
 		try {
@@ -221,7 +237,9 @@ public class MessageDecoder {
 			m.tokenizer(t);
 			ByteBuffer rawVal = m.match(raw);
 			
-			get.setRawValue(rawVal);
+			// copy, the receive buffer may be recycled once the packet has been processed
+			if(rawVal != null)
+				get.setRawValue(ByteBuffer.wrap(buf2ary(rawVal)));
 			
 			typedGet(args, "token", byte[].class).ifPresent(get::setToken);;
 			typedGet(args, "k", byte[].class).ifPresent(get::setKey);
@@ -21,6 +21,8 @@ import java.util.TreeMap;
 
 import lbms.plugins.mldht.kad.DHT;
 
+import the8472.bencode.StreamingEncoder;
+
 /**
  * @author Damokles
  *
@@ -50,4 +52,17 @@ public class PingRequest extends MessageBase {
 
 		return inner;
 	}
+	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		enc.key("id");
+		encodeKey(enc, id);
+		enc.end();
+	}
 }
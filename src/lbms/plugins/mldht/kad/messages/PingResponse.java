@@ -21,6 +21,8 @@ import java.util.TreeMap;
 
 import lbms.plugins.mldht.kad.DHT;
 
+import the8472.bencode.StreamingEncoder;
+
 
 /**
  * @author Damokles
@@ -52,4 +54,17 @@ public class PingResponse extends MessageBase {
 		return inner;
 	}
 	
+	@Override
+	protected boolean hasDirectEncoding() {
+		return true;
+	}
+	
+	@Override
+	protected void encodeInner(StreamingEncoder enc) {
+		enc.dict();
+		enc.key("id");
+		encodeKey(enc, id);
+		enc.end();
+	}
+	
 }
\ No newline at end of file
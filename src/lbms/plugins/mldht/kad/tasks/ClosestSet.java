@@ -7,6 +7,7 @@ import java.util.stream.Stream;
 
 import lbms.plugins.mldht.kad.KBucketEntry;
 import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 /*
  * We need to detect when the closest set is stable
@@ -21,6 +22,7 @@ public class ClosestSet {
 	
 	int insertAttemptsSinceTailModification = 0;
 	int insertAttemptsSinceHeadModification = 0;
+	long lastMembershipChange = -1;
 	
 	
 	public ClosestSet(Key target, int targetSize) {
@@ -36,17 +38,21 @@ public class ClosestSet {
 	
 	void insert(KBucketEntry reply) {
 		synchronized (this) {
-			closest.add(reply);
+			boolean added = closest.add(reply);
 			if (closest.size() > targetSize)
 			{
 				KBucketEntry last = closest.last();
 				closest.remove(last);
-				if(last == reply)
+				if(last == reply) {
 					insertAttemptsSinceTailModification++;
-				else
+					added = false;
+				} else
 					insertAttemptsSinceTailModification = 0;
 			}
 			
+			if(added)
+				lastMembershipChange = TimeSource.currentTimeMillis();
+			
 			if(closest.first() == reply) {
 				insertAttemptsSinceHeadModification = 0;
 			} else {
@@ -11,6 +11,8 @@ import lbms.plugins.mldht.kad.utils.AddressUtils;
 import lbms.plugins.mldht.kad.utils.PopulationEstimator;
 import lbms.plugins.mldht.kad.DHT.LogLevel;
 
+import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public abstract class IteratingTask extends TargetedTask {
@@ -29,6 +31,27 @@ public abstract class IteratingTask extends TargetedTask {
 		return (int) todo.cand().count();
 	}
 	
+	/**
+	 * @return IDs of the closest nodes that responded so far, nearest first
+	 */
+	public List<Key> getClosestIds() {
+		return closest.ids().collect(Collectors.toList());
+	}
+	
+	/**
+	 * @return request round trips along the longest chain of referrals leading to a member of the closest set, 0 if the set is empty
+	 */
+	public int getHopCount() {
+		return closest.entries().map(todo::nodeForEntry).filter(Objects::nonNull).mapToInt(n -> n.depth + 1).max().orElse(0);
+	}
+	
+	/**
+	 * @return the time the closest set last gained a member, -1 if it never did
+	 */
+	public long getLastClosestSetChange() {
+		return closest.lastMembershipChange;
+	}
+	
 	public String closestDebug() {
 		return this.closest.ids().<String>map(k -> {
 			return k + "  " + targetKey.distance(k) + " " + PopulationEstimator.distanceToDouble(k, targetKey) + " src:" + todo.allCand().unordered().filter(e -> e.getKey().getID().equals(k)).findAny().get().getValue().sources.size();
@@ -66,6 +66,8 @@ public class IterativeLookupCandidates {
 		boolean tainted;
 		boolean acceptedResponse;
 		int previouslyFailedCount;
+		// referral steps from the initial candidates, 0 for those not sourced from any response
+		int depth;
 		
 		public LookupGraphNode(KBucketEntry kbe) {
 			e = kbe;
@@ -182,6 +184,7 @@ public class IterativeLookupCandidates {
 			LookupGraphNode newNode = candidates.compute(e, (kbe, node) -> {
 				if(node == null) {
 					node = new LookupGraphNode(kbe);
+					node.depth = sourceNode != null ? sourceNode.depth + 1 : 0;
 					node.tainted = detector.isIdInconsistencyExpected(kbe.getAddress(), kbe.getID());
 					if(nonReachableCache != null) {
 						int failures = nonReachableCache.getFailures(kbe.getAddress());
@@ -189,8 +192,10 @@ public class IterativeLookupCandidates {
 						node.previouslyFailedCount = ThreadLocalRandom.current().nextFloat() < 0.05 ? 0 : failures;
 					}
 				}
-				if(sourceNode != null)
+				if(sourceNode != null) {
+					node.depth = Math.min(node.depth, sourceNode.depth + 1);
 					node.addSource(sourceNode);
+				}
 				return node;
 			});
 			
@@ -47,6 +47,7 @@ import lbms.plugins.mldht.kad.messages.GetPeersResponse;
 import lbms.plugins.mldht.kad.messages.MessageBase;
 import lbms.plugins.mldht.kad.messages.MessageBase.Method;
 import lbms.plugins.mldht.kad.utils.AddressUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 /**
  * @author Damokles
@@ -172,7 +173,7 @@ public class PeerLookupTask extends IteratingTask {
 		}
 		
 		if(returnedItems.size() > 0 && firstResultTime == 0)
-			firstResultTime = System.currentTimeMillis();
+			firstResultTime = TimeSource.currentTimeMillis();
 
 		// if someone has peers he might have filters, collect for scrape
 		if (!items.isEmpty() && scrapeHandler != null)
@@ -29,6 +29,7 @@ import lbms.plugins.mldht.kad.KBucketEntry;
 import lbms.plugins.mldht.kad.Node;
 import lbms.plugins.mldht.kad.RPCCall;
 import lbms.plugins.mldht.kad.RPCServer;
+import lbms.plugins.mldht.kad.TrafficClass;
 import lbms.plugins.mldht.kad.messages.MessageBase;
 import lbms.plugins.mldht.kad.messages.PingRequest;
 
@@ -54,6 +55,7 @@ public class PingRefreshTask extends Task {
 	 */
 	public PingRefreshTask (RPCServer rpc, Node node, KBucket bucket, boolean cleanOnTimeout) {
 		super(rpc, node);
+		setTrafficClass(TrafficClass.MAINTENANCE);
 		this.cleanOnTimeout = cleanOnTimeout;
 		todo = new ArrayDeque<>();
 		visited = new HashSet<>();
@@ -34,7 +34,9 @@ import lbms.plugins.mldht.kad.RPCCall;
 import lbms.plugins.mldht.kad.RPCCallListener;
 import lbms.plugins.mldht.kad.RPCServer;
 import lbms.plugins.mldht.kad.RPCState;
+import lbms.plugins.mldht.kad.TrafficClass;
 import lbms.plugins.mldht.kad.messages.MessageBase;
+import lbms.plugins.mldht.kad.utils.TimeSource;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -86,6 +88,7 @@ public abstract class Task implements Comparable<Task> {
 	private int							taskID;
 	private List<TaskListener>			listeners;
 	private boolean						lowPriority;
+	private TrafficClass				trafficClass = TrafficClass.USER;
 	protected final AtomicReference<TaskStats>				counts = new AtomicReference<>(new TaskStats());
 	
 	/**
@@ -207,7 +210,7 @@ public abstract class Task implements Comparable<Task> {
 	public void start () {
 		if (setState(EnumSet.of(TaskState.INITIAL, TaskState.QUEUED), TaskState.RUNNING)) {
 			DHT.logDebug("Starting Task: " + toString());
-			startTime = System.currentTimeMillis();
+			startTime = TimeSource.currentTimeMillis();
 			try
 			{
 				runStuff();
@@ -266,7 +269,7 @@ public abstract class Task implements Comparable<Task> {
 			return false;
 		}
 		
-		RPCCall call = new RPCCall(req).setExpectedID(expectedID);
+		RPCCall call = new RPCCall(req).setExpectedID(expectedID).setTrafficClass(trafficClass);
 		
 		// bump counters early to ensure task stays alive
 		counts.updateAndGet(cnt -> cnt.update(EnumSet.of(SENT, SENT_SINCE_RECEIVE), EnumSet.noneOf(CountedStat.class), EnumSet.noneOf(CountedStat.class)));
@@ -282,7 +285,7 @@ public abstract class Task implements Comparable<Task> {
 
 		
 		// asyncify since we're under a lock here
-		rpc.getDHT().getScheduler().execute(() -> rpc.doCall(call)) ;
+		rpc.getExecutor().execute(() -> rpc.doCall(call)) ;
 
 		return true;
 	}
@@ -292,6 +295,20 @@ public abstract class Task implements Comparable<Task> {
 		this.lowPriority = lowPriority;
 	}
 	
+	/**
+	 * @param c class of all requests sent by this task, {@link TrafficClass#USER} by default. tasks only send requests, so not
+	 * {@link TrafficClass#RESPONSE}
+	 */
+	public void setTrafficClass(TrafficClass c) {
+		if(c == TrafficClass.RESPONSE)
+			throw new IllegalArgumentException("tasks send requests");
+		this.trafficClass = c;
+	}
+	
+	public TrafficClass getTrafficClass() {
+		return trafficClass;
+	}
+	
 	public int requestConcurrency() {
 		return lowPriority ? DHTConstants.MAX_CONCURRENT_REQUESTS_LOWPRIO : DHTConstants.MAX_CONCURRENT_REQUESTS;
 	}
@@ -434,7 +451,7 @@ public abstract class Task implements Comparable<Task> {
 	}
 
 	private void notifyCompletionListeners() {
-		finishTime = System.currentTimeMillis();
+		finishTime = TimeSource.currentTimeMillis();
 		
 		DHT.logDebug("Task "+getTaskID()+" finished: " + toString());
 
@@ -464,7 +481,7 @@ public abstract class Task implements Comparable<Task> {
 	}
 	
 	public Duration age() {
-		return Duration.between(Instant.ofEpochMilli(startTime), Instant.now());
+		return Duration.between(Instant.ofEpochMilli(startTime), TimeSource.now());
 	}
 	
 	@Override
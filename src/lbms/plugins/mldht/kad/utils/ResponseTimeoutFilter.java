@@ -33,6 +33,8 @@ public class ResponseTimeoutFilter {
 	public static final int		NUM_SAMPLES			= 256;
 	public static final int		HIGH_QUANTILE_INDEX		= (int) (NUM_SAMPLES * 0.9f);
 	public static final int		LOW_QUANTILE_INDEX		= (int) (NUM_SAMPLES * 0.1f);
+	// until then the snapshot is dominated by the uniform prior set on reset
+	public static final int		MIN_SAMPLES_FOR_MEDIAN	= 64;
 	
 	public static final int	MIN_BIN = 0;
 	public static final int MAX_BIN = DHTConstants.RPC_CALL_TIMEOUT_MAX;
@@ -124,6 +126,15 @@ public class ResponseTimeoutFilter {
 		return snapshot;
 	}
 	
+	/**
+	 * @return median RTT in milliseconds, -1 until enough responses have been observed
+	 */
+	public long getMedianRTT() {
+		if(updateCount < MIN_SAMPLES_FOR_MEDIAN)
+			return -1;
+		return (long) snapshot.getQuantile(0.5f);
+	}
+	
 	
 	public static class Snapshot {
 		final float[] values;
@@ -33,6 +33,16 @@ public class ThreadLocalUtils {
 		return randTL.get();
 	}
 	
+	/**
+	 * replaces the random source of the calling thread, e.g. with a seeded one to make single-threaded simulations reproducible. null restores the default
+	 */
+	public static void setThreadLocalRandom(Random rnd) {
+		if(rnd == null)
+			randTL.remove();
+		else
+			randTL.set(rnd);
+	}
+	
 	public static BDecoder getDecoder() {
 		return decoder.get();
 	}
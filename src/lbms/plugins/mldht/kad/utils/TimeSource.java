@@ -0,0 +1,51 @@
+package lbms.plugins.mldht.kad.utils;
+
+import java.time.Instant;
+
+/**
+ * Wall clock and monotonic time as seen by the DHT internals. Defaults to the system clock.
+ *
+ * Simulations install a virtual clock so that timeouts, expiry and backoff windows follow simulated time. The source is global since all
+ * simulated nodes in a JVM share one clock.
+ */
+public abstract class TimeSource {
+
+	public static final TimeSource SYSTEM = new TimeSource() {
+		@Override
+		protected long millis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		protected long nanos() {
+			return System.nanoTime();
+		}
+	};
+
+	private static volatile TimeSource current = SYSTEM;
+
+	public static void install(TimeSource source) {
+		current = source == null ? SYSTEM : source;
+	}
+
+	public static TimeSource installed() {
+		return current;
+	}
+
+	public static long currentTimeMillis() {
+		return current.millis();
+	}
+
+	public static long nanoTime() {
+		return current.nanos();
+	}
+
+	public static Instant now() {
+		return Instant.ofEpochMilli(current.millis());
+	}
+
+	protected abstract long millis();
+
+	protected abstract long nanos();
+
+}
@@ -0,0 +1,114 @@
+package lbms.plugins.mldht.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads connections over several {@link NIOConnectionManager}s, each running its own selector thread.
+ *
+ * A connection stays on the selector it was placed on for its whole lifetime. Selectables should keep using the manager passed to
+ * {@link Selectable#registrationEvent(NIOConnectionManager, java.nio.channels.SelectionKey)} for interest op updates, those that only hold a
+ * reference to the group can use {@link #interestOpsChanged(Selectable)} which routes the update to the owning selector.
+ */
+public class NIOConnectionGroup {
+
+	public enum Placement {
+		/**
+		 * selector with the fewest registered connections, best for long-lived connections of varying lifetime
+		 */
+		LEAST_LOADED,
+		/**
+		 * selector derived from the identity hash of the selectable, no bookkeeping needed
+		 */
+		HASHED
+	}
+
+	private final NIOConnectionManager[] managers;
+	private final Placement placement;
+
+	// only used for least-loaded placement, entries are dropped when the selector discards the connection
+	private final Map<Selectable, NIOConnectionManager> owners = new ConcurrentHashMap<>();
+
+	public NIOConnectionGroup(String name, int threads, Placement placement) {
+		if(threads < 1)
+			throw new IllegalArgumentException("need at least one selector thread");
+		this.placement = placement;
+		managers = new NIOConnectionManager[threads];
+		for(int i=0;i<threads;i++) {
+			NIOConnectionManager m = new NIOConnectionManager(threads == 1 ? name : name + " " + i);
+			if(placement == Placement.LEAST_LOADED)
+				m.removalListener = owners::remove;
+			managers[i] = m;
+		}
+	}
+
+	/**
+	 * @return the manager the connection has been placed on
+	 */
+	public NIOConnectionManager register(Selectable connection) {
+		NIOConnectionManager target;
+
+		if(placement == Placement.HASHED) {
+			target = hashed(connection);
+		} else {
+			target = managers[0];
+			int min = target.getLoad();
+			for(int i=1;i<managers.length;i++) {
+				int load = managers[i].getLoad();
+				if(load < min) {
+					min = load;
+					target = managers[i];
+				}
+			}
+			owners.put(connection, target);
+		}
+
+		target.register(connection);
+		return target;
+	}
+
+	private NIOConnectionManager hashed(Selectable connection) {
+		int h = System.identityHashCode(connection);
+		h ^= h >>> 16;
+		return managers[Math.floorMod(h * 0x9E3779B9, managers.length)];
+	}
+
+	/**
+	 * @return the manager owning the connection, null if it is not (or no longer) registered with this group
+	 */
+	public NIOConnectionManager ownerOf(Selectable connection) {
+		if(placement == Placement.HASHED)
+			return hashed(connection);
+		return owners.get(connection);
+	}
+
+	public void interestOpsChanged(Selectable connection) {
+		NIOConnectionManager owner = ownerOf(connection);
+		if(owner != null)
+			owner.interestOpsChanged(connection);
+	}
+
+	public List<NIOConnectionManager> getManagers() {
+		return Collections.unmodifiableList(Arrays.asList(managers));
+	}
+
+	/**
+	 * @return total number of connections registered or waiting for registration
+	 */
+	public int getLoad() {
+		int sum = 0;
+		for(NIOConnectionManager m : managers)
+			sum += m.getLoad();
+		return sum;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.stream(managers).map(NIOConnectionManager::toString).collect(Collectors.joining("\n"));
+	}
+
+}
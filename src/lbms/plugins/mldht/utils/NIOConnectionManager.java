@@ -17,6 +17,7 @@
 package lbms.plugins.mldht.utils;
 
 import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -25,7 +26,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.DHT.LogLevel;
@@ -41,6 +44,16 @@ public class NIOConnectionManager {
 	Selector selector;
 	volatile boolean wakeupCalled;
 	
+	// registered connections plus pending registrations, used for placement within a group
+	final AtomicInteger load = new AtomicInteger();
+	Consumer<Selectable> removalListener = (unused) -> {};
+	
+	// only updated by the selector thread
+	volatile int keyCount;
+	final ExponentialWeightendMovingAverage selectTime = new ExponentialWeightendMovingAverage().setWeight(0.01);
+	final ExponentialWeightendMovingAverage processingTime = new ExponentialWeightendMovingAverage().setWeight(0.01);
+	final ExponentialWeightendMovingAverage eventsPerIteration = new ExponentialWeightendMovingAverage().setWeight(0.01);
+	
 	public NIOConnectionManager(String name) {
 		this.name = name;
 		try
@@ -64,15 +77,19 @@ public class NIOConnectionManager {
 			try
 			{
 				wakeupCalled = false;
+				long beforeSelect = System.nanoTime();
 				selector.select(100);
+				long afterSelect = System.nanoTime();
 				wakeupCalled = false;
 				
 				connectionChecks();
 				processSelected();
 				handleRegistrations();
 				updateInterestOps();
-
-					
+				
+				selectTime.updateAverage((afterSelect - beforeSelect) / 1000.0);
+				processingTime.updateAverage((System.nanoTime() - afterSelect) / 1000.0);
+				keyCount = connections.size();
 			} catch (Exception e)
 			{
 				DHT.log(e, LogLevel.Error);
@@ -87,6 +104,7 @@ public class NIOConnectionManager {
 	
 	void processSelected() throws IOException {
 		Set<SelectionKey> keys = selector.selectedKeys();
+		eventsPerIteration.updateAverage(keys.size());
 		for(SelectionKey selKey : keys)
 		{
 			Selectable connection = (Selectable) selKey.attachment();
@@ -111,13 +129,21 @@ public class NIOConnectionManager {
 			return;
 		lastConnectionCheck = now;
 		
-		for(Selectable conn : new ArrayList<>(connections)) {
-			conn.doStateChecks(now);
+		// single pass, removing entries one by one would be quadratic with many connections
+		int size = connections.size();
+		for(int i=0;i<size;i++)
+			connections.get(i).doStateChecks(now);
+		
+		connections.removeIf(conn -> {
 			SelectableChannel ch = conn.getChannel();
 			SelectionKey k;
-			if(ch == null || (k = ch.keyFor(selector)) == null || !k.isValid())
-				connections.remove(conn);
-		}
+			if(ch == null || (k = ch.keyFor(selector)) == null || !k.isValid()) {
+				load.decrementAndGet();
+				removalListener.accept(conn);
+				return true;
+			}
+			return false;
+		});
 	}
 	
 	void handleRegistrations() throws IOException {
@@ -126,7 +152,14 @@ public class NIOConnectionManager {
 		while((toRegister = registrations.poll()) != null)
 		{
 			connections.add(toRegister);
-			toRegister.registrationEvent(NIOConnectionManager.this,toRegister.getChannel().register(selector, toRegister.calcInterestOps(),toRegister));
+			SelectionKey key;
+			try {
+				key = toRegister.getChannel().register(selector, toRegister.calcInterestOps(),toRegister);
+			} catch (ClosedChannelException e) {
+				// closed before we got to it, the next connection check drops it
+				continue;
+			}
+			toRegister.registrationEvent(NIOConnectionManager.this,key);
 		}
 	}
 	
@@ -200,6 +233,7 @@ public class NIOConnectionManager {
 	
 	public void register(Selectable connection)
 	{
+		load.incrementAndGet();
 		registrations.add(connection);
 		ensureRunning();
 		selector.wakeup();
@@ -218,5 +252,46 @@ public class NIOConnectionManager {
 	public Selector getSelector() {
 		return selector;
 	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return number of connections registered or waiting for registration
+	 */
+	public int getLoad() {
+		return load.get();
+	}
+	
+	/**
+	 * @return number of connections handled by the selector thread as of the last loop iteration
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+	
+	/**
+	 * @return moving average of the time spent blocked in select, in microseconds
+	 */
+	public double getAverageSelectMicros() {
+		return selectTime.getAverage(0);
+	}
+	
+	/**
+	 * @return moving average of the time spent dispatching events and registrations after each select, in microseconds
+	 */
+	public double getAverageProcessingMicros() {
+		return processingTime.getAverage(0);
+	}
+	
+	public double getAverageEventsPerIteration() {
+		return eventsPerIteration.getAverage(0);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s keys: %d load: %d select: %.0fus processing: %.0fus events/iteration: %.1f", name, getKeyCount(), getLoad(), getAverageSelectMicros(), getAverageProcessingMicros(), getAverageEventsPerIteration());
+	}
 
 }
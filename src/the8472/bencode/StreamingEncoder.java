@@ -0,0 +1,124 @@
+package the8472.bencode;
+
+import static the8472.bencode.Utils.str2buf;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import the8472.bencode.BEncoder.StringWriter;
+
+/**
+ * Writes bencoded tokens directly into a buffer without building intermediate maps.
+ *
+ * The caller is responsible for the structure, i.e. for emitting dictionary keys in sorted order and balancing {@link #end()} calls.
+ * Instances are not thread-safe but can be reused for many messages.
+ */
+public class StreamingEncoder {
+
+	private ByteBuffer buf;
+
+	private static final byte[] MIN_LONG = str2buf(Long.toString(Long.MIN_VALUE)).array();
+
+	public StreamingEncoder target(ByteBuffer target) {
+		buf = target;
+		return this;
+	}
+
+	public ByteBuffer buffer() {
+		return buf;
+	}
+
+	public StreamingEncoder dict() {
+		buf.put((byte) 'd');
+		return this;
+	}
+
+	public StreamingEncoder list() {
+		buf.put((byte) 'l');
+		return this;
+	}
+
+	public StreamingEncoder end() {
+		buf.put((byte) 'e');
+		return this;
+	}
+
+	/**
+	 * dictionary keys are encoded like any other string, this is merely for readability
+	 */
+	public StreamingEncoder key(String key) {
+		return string(key);
+	}
+
+	public StreamingEncoder string(String str) {
+		lengthPrefix(str.length());
+		str2buf(str, buf);
+		return this;
+	}
+
+	public StreamingEncoder string(byte[] str) {
+		lengthPrefix(str.length);
+		buf.put(str);
+		return this;
+	}
+
+	/**
+	 * encodes the remaining bytes of the buffer without modifying its position
+	 */
+	public StreamingEncoder string(ByteBuffer str) {
+		lengthPrefix(str.remaining());
+		buf.put(str.duplicate());
+		return this;
+	}
+
+	public StreamingEncoder string(StringWriter w) {
+		lengthPrefix(w.length());
+		w.writeTo(buf);
+		return this;
+	}
+
+	/**
+	 * writes the length prefix of a string, the caller must put exactly <code>length</code> bytes into the {@link #buffer()} afterwards
+	 */
+	public StreamingEncoder lengthPrefix(int length) {
+		writeDecimal(length);
+		buf.put((byte) ':');
+		return this;
+	}
+
+	public StreamingEncoder number(long val) {
+		buf.put((byte) 'i');
+		writeDecimal(val);
+		buf.put((byte) 'e');
+		return this;
+	}
+
+	private void writeDecimal(long val) {
+		if(val == Long.MIN_VALUE) {
+			buf.put(MIN_LONG);
+			return;
+		}
+
+		if(val < 0) {
+			buf.put((byte) '-');
+			val = -val;
+		}
+
+		int digits = 1;
+		for(long probe = 10; digits < 19 && val >= probe; probe *= 10)
+			digits++;
+
+		int start = buf.position();
+		int end = start + digits;
+		if(end > buf.limit())
+			throw new BufferOverflowException();
+
+		for(int i = end - 1; i >= start; i--) {
+			buf.put(i, (byte) ('0' + val % 10));
+			val /= 10;
+		}
+
+		buf.position(end);
+	}
+
+}
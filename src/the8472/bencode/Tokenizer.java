@@ -54,7 +54,10 @@ public class Tokenizer {
 		});
 	}
 	
-	void reset() {
+	/**
+	 * clears any state left behind by a previous (possibly aborted) tokenization, required before reusing the instance
+	 */
+	public void reset() {
 		for(int i=0;i<stack.length;i++)
 			stack[i].reset();
 		stackIdx = 0;
@@ -90,6 +93,20 @@ public class Tokenizer {
 			return tokenEnums[state];
 		}
 		
+		/**
+		 * @return absolute offset in the input buffer. for strings this is the first byte of the content, for everything else the first byte of the token itself
+		 */
+		public int start() {
+			return start;
+		}
+		
+		/**
+		 * @return absolute offset following the last byte of the token. only valid when the token gets popped
+		 */
+		public int end() {
+			return end;
+		}
+		
 		void type(TokenType t) {
 			state = (byte) t.ordinal();
 		}
@@ -5,7 +5,10 @@ import static the8472.utils.Functional.uncheckedCons;
 
 import the8472.bencode.BEncoder;
 import the8472.bt.PullMetaDataConnection.CloseReason;
+import the8472.utils.concurrent.VirtualThreads;
 
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
 import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
 
 import java.io.IOException;
@@ -19,16 +22,25 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 public class UselessPeerFilter {
 	
 	Path path;
+	// inserts happen on the fetcher's selector thread, with virtual threads available the file write doesn't have to block it
+	Executor writer;
+	// a burst of closed connections shouldn't turn into an equally large burst of concurrent file writes
+	static final int MAX_CONCURRENT_WRITES = 2;
+	final Semaphore writePermits = new Semaphore(MAX_CONCURRENT_WRITES);
 	
 	public UselessPeerFilter(Path p) throws IOException {
 		path = p;
 		Files.createDirectories(p);
+		if(VirtualThreads.isEnabled())
+			writer = VirtualThreads.perTaskExecutor("useless peer filter");
 	}
 	
 	public void insert(PullMetaDataConnection toAdd) {
@@ -45,7 +57,27 @@ public class UselessPeerFilter {
 		dict.put("reason", toAdd.closeReason.name());
 		dict.put("created", System.currentTimeMillis());
 		
-		try(FileChannel chan = FileChannel.open(path.resolve(nameFromAddr(toAdd.destination)), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+		Path file = path.resolve(nameFromAddr(toAdd.destination));
+		
+		if(writer == null) {
+			write(file, dict);
+			return;
+		}
+		
+		writer.execute(() -> {
+			writePermits.acquireUninterruptibly();
+			try {
+				write(file, dict);
+			} catch (UncheckedIOException e) {
+				DHT.log(e, LogLevel.Error);
+			} finally {
+				writePermits.release();
+			}
+		});
+	}
+	
+	void write(Path file, Map<String, Object> dict) {
+		try(FileChannel chan = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
 			chan.write(new BEncoder().encode(dict, 1024));
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
@@ -31,7 +31,8 @@ import lbms.plugins.mldht.kad.DHTLogger;
 import the8472.utils.ConfigReader;
 import the8472.utils.FilesystemNotifications;
 import the8472.utils.XMLUtils;
-import the8472.utils.concurrent.NonblockingScheduledExecutor;
+import the8472.utils.concurrent.ShardedScheduledExecutor;
+import the8472.utils.concurrent.VirtualThreads;
 import the8472.utils.io.NetMask;
 
 public class Launcher {
@@ -72,6 +73,36 @@ public class Launcher {
 		public boolean allowMultiHoming() {
 			return configReader.getBoolean("//core/multihoming").orElse(true);
 		}
+		
+		@Override
+		public int getReceiveBatchSize() {
+			return configReader.getLong("//core/receiveBatchSize").orElse(32L).intValue();
+		}
+		
+		@Override
+		public int getReceiveSlabSize() {
+			return configReader.getLong("//core/receiveSlabSize").orElse(8L).intValue();
+		}
+		
+		@Override
+		public int getSocketsPerAddress() {
+			return configReader.getLong("//core/socketsPerAddress").orElse(1L).intValue();
+		}
+		
+		@Override
+		public boolean useServerEventLoops() {
+			return configReader.getBoolean("//core/serverEventLoops").orElse(false);
+		}
+		
+		@Override
+		public boolean useSendPacing() {
+			return configReader.getBoolean("//core/sendPacing").orElse(false);
+		}
+		
+		@Override
+		public boolean isPeerDatabaseOffHeap() {
+			return configReader.getBoolean("//core/offHeapPeerDatabase").orElse(false);
+		}
 	};
 
 	List<DHT> dhts = new ArrayList<>();
@@ -87,7 +118,7 @@ public class Launcher {
 		configReader = new ConfigReader(Paths.get(".", "config.xml"), configDefaults, configSchema);
 		configReader.read();
 		
-		scheduler = new NonblockingScheduledExecutor("mlDHT", Math.max(Runtime.getRuntime().availableProcessors(), 4), (t, ex) ->  {
+		scheduler = new ShardedScheduledExecutor("mlDHT", Math.max(Runtime.getRuntime().availableProcessors(), 4), (t, ex) ->  {
 			logger.log(ex, LogLevel.Fatal);
 		});
 	}
@@ -138,40 +169,35 @@ public class Launcher {
 
 			TransferQueue<String> toLog = new LinkedTransferQueue<>();
 
-			Thread writer = new Thread() {
-				@Override
-				public void run() {
-					try {
-						FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).close();
-
-						while (true) {
+			void write() {
+				try {
+					FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).close();
 
-							String toWrite = toLog.take();
-							
-							// log rotate at 1GB
-							if(Files.size(log) > 1024*1024*1024)
-								Files.move(log, log.resolveSibling("dht.log.1"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+					while (true) {
 
+						String toWrite = toLog.take();
+						
+						// log rotate at 1GB
+						if(Files.size(log) > 1024*1024*1024)
+							Files.move(log, log.resolveSibling("dht.log.1"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
 
-							try(PrintWriter logWriter = new PrintWriter(Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND))) {
-								do {
-									logWriter.println(toWrite);
-								} while((toWrite = toLog.poll()) != null);
-								logWriter.flush();
-							}
 
+						try(PrintWriter logWriter = new PrintWriter(Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND))) {
+							do {
+								logWriter.println(toWrite);
+							} while((toWrite = toLog.poll()) != null);
+							logWriter.flush();
 						}
 
-					} catch (InterruptedException | IOException e) {
-						e.printStackTrace();
 					}
+
+				} catch (InterruptedException | IOException e) {
+					e.printStackTrace();
 				}
-			};
+			}
 
 			{
-				writer.setDaemon(true);
-				writer.setName("LogWriter");
-				writer.start();
+				VirtualThreads.start("LogWriter", this::write);
 			}
 
 			public void log(String message, LogLevel l) {
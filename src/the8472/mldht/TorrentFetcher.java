@@ -32,7 +32,8 @@ import lbms.plugins.mldht.kad.PeerAddressDBItem;
 import lbms.plugins.mldht.kad.DHT.LogLevel;
 import lbms.plugins.mldht.kad.tasks.PeerLookupTask;
 import lbms.plugins.mldht.kad.utils.AddressUtils;
-import lbms.plugins.mldht.utils.NIOConnectionManager;
+import lbms.plugins.mldht.utils.NIOConnectionGroup;
+import lbms.plugins.mldht.utils.NIOConnectionGroup.Placement;
 import the8472.bt.MetadataPool;
 import the8472.bt.MetadataPool.Completion;
 import the8472.bt.PullMetaDataConnection;
@@ -45,7 +46,7 @@ public class TorrentFetcher {
 	
 	Collection<DHT> dhts;
 	ScheduledThreadPoolExecutor timer;
-	NIOConnectionManager conMan = new NIOConnectionManager("torrent fetcher");
+	NIOConnectionGroup conMan;
 	
 	AtomicInteger socketsIncludingHalfOpen = new AtomicInteger();
 	AtomicInteger openConnections = new AtomicInteger();
@@ -56,7 +57,15 @@ public class TorrentFetcher {
 	int maxSockets = 1000;
 	
 	public TorrentFetcher(Collection<DHT> dhts) {
+		this(dhts, Math.min(8, Runtime.getRuntime().availableProcessors()));
+	}
+	
+	/**
+	 * @param selectorThreads number of selector threads servicing the peer connections, they only run while connections are open
+	 */
+	public TorrentFetcher(Collection<DHT> dhts, int selectorThreads) {
 		this.dhts = dhts;
+		conMan = new NIOConnectionGroup("torrent fetcher", Math.max(1, selectorThreads), Placement.LEAST_LOADED);
 		timer = new LoggingScheduledThreadPoolExecutor(1, LoggingScheduledThreadPoolExecutor.namedDaemonFactory("TorrentFetcher Timer"), t -> DHT.log(t, LogLevel.Fatal));
 		timer.setKeepAliveTime(4, TimeUnit.SECONDS);
 		timer.allowCoreThreadTimeOut(true);
@@ -78,6 +87,13 @@ public class TorrentFetcher {
 		return socketsIncludingHalfOpen.get();
 	}
 	
+	/**
+	 * @return per-selector load and timing, one line per selector thread
+	 */
+	public String selectorStats() {
+		return conMan.toString();
+	}
+	
 	boolean socketLimitsReached() {
 		return openConnections.get() > maxOpen || socketsIncludingHalfOpen.get() > maxSockets;
 	}
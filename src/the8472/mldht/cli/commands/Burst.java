@@ -1,6 +1,7 @@
 package the8472.mldht.cli.commands;
 
 import the8472.mldht.cli.CommandProcessor;
+import the8472.utils.concurrent.VirtualThreads;
 
 import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.Key;
@@ -17,7 +18,8 @@ public class Burst extends CommandProcessor {
 	
 	@Override
 	protected void process() {
-		Thread t = new Thread(() -> {
+		// blocks until all lookups are done
+		VirtualThreads.start("burst command", () -> {
 			int count = 50;
 			
 			if(arguments.size() > 0)
@@ -55,11 +57,6 @@ public class Burst extends CommandProcessor {
 			
 			exit(0);
 		});
-		
-		t.setDaemon(true);
-		t.setName("burst command");
-		
-		t.start();
 	}
 
 
@@ -19,6 +19,7 @@ import lbms.plugins.mldht.kad.messages.MessageBase;
 import lbms.plugins.mldht.kad.messages.MessageBase.Method;
 import the8472.mldht.Component;
 import the8472.utils.ConfigReader;
+import the8472.utils.concurrent.VirtualThreads;
 
 public class OpentrackerLiveSync implements Component {
 	
@@ -26,7 +27,7 @@ public class OpentrackerLiveSync implements Component {
 	DatagramChannel channel;
 	
 	byte[] id = new byte[4];
-	Thread t = new Thread(this::send);
+	Thread t;
 	volatile boolean running = true;
 	
 	private static final int HEADER_LENGTH = 0x08;
@@ -51,9 +52,8 @@ public class OpentrackerLiveSync implements Component {
 			return;
 		}
 		
-		t.setDaemon(true);
-		t.setName("opentracker-sync");
-		t.start();
+		// mostly parked in take(), a virtual thread if available
+		t = VirtualThreads.start("opentracker-sync", this::send);
 		
 		// OT-sync only supports ipv4 atm
 		dhts.stream().filter(d -> d.getType().PREFERRED_ADDRESS_TYPE == Inet4Address.class).forEach(d -> {
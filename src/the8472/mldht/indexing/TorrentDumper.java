@@ -13,6 +13,7 @@ import the8472.mldht.TorrentFetcher.FetchTask;
 import the8472.mldht.indexing.TorrentDumper.FetchStats.State;
 import the8472.utils.ConfigReader;
 import the8472.utils.concurrent.LoggingScheduledThreadPoolExecutor;
+import the8472.utils.concurrent.VirtualThreads;
 import the8472.utils.io.FileIO;
 
 import lbms.plugins.mldht.kad.DHT;
@@ -52,9 +53,11 @@ import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -67,7 +70,14 @@ public class TorrentDumper implements Component {
 	Path statsDir = storageDir.resolve("stats");
 	Path torrentDir = storageDir.resolve("torrents");
 	
+	static final int MAX_FETCHES = 100;
+	static final int MAX_CONCURRENT_IO = 2;
+	
 	ScheduledThreadPoolExecutor scheduler;
+	// null if file operations run on the scheduler threads
+	Executor io;
+	final Semaphore ioPermits = new Semaphore(MAX_CONCURRENT_IO);
+	final Semaphore fetchPermits = new Semaphore(MAX_FETCHES);
 	
 	ConcurrentSkipListMap<Key, FetchStats> fromMessages;
 	ConcurrentMap<InetAddress, Long> blocklist = new ConcurrentHashMap<>();
@@ -182,7 +192,13 @@ public class TorrentDumper implements Component {
 	public void start(Collection<DHT> dhts, ConfigReader config) {
 		this.dhts = dhts;
 		fromMessages = new ConcurrentSkipListMap<>();
-		scheduler = new LoggingScheduledThreadPoolExecutor(2, new LoggingScheduledThreadPoolExecutor.NamedDaemonThreadFactory("torrent dumper"), this::log);
+		if(VirtualThreads.isEnabled()) {
+			// only timing, the file operations block on virtual threads
+			scheduler = new LoggingScheduledThreadPoolExecutor(1, new LoggingScheduledThreadPoolExecutor.NamedDaemonThreadFactory("torrent dumper"), this::log);
+			io = VirtualThreads.perTaskExecutor("torrent dumper io");
+		} else {
+			scheduler = new LoggingScheduledThreadPoolExecutor(MAX_CONCURRENT_IO, new LoggingScheduledThreadPoolExecutor.NamedDaemonThreadFactory("torrent dumper"), this::log);
+		}
 		
 		fetcher = new TorrentFetcher(dhts);
 		
@@ -201,13 +217,13 @@ public class TorrentDumper implements Component {
 		
 		fetcher.setPeerFilter(pf);
 		
-		scheduler.scheduleWithFixedDelay(this::dumpStats, 10, 1, TimeUnit.SECONDS);
-		scheduler.scheduleWithFixedDelay(this::startFetches, 10, 1, TimeUnit.SECONDS);
+		scheduleIo(this::dumpStats, 10, 1, TimeUnit.SECONDS);
+		scheduleIo(this::startFetches, 10, 1, TimeUnit.SECONDS);
 		scheduler.scheduleWithFixedDelay(this::cleanBlocklist, 1, 1, TimeUnit.MINUTES);
-		scheduler.scheduleWithFixedDelay(this::diagnostics, 30, 30, TimeUnit.SECONDS);
-		scheduler.scheduleWithFixedDelay(this::purgeStats, 5, 15, TimeUnit.MINUTES);
+		scheduleIo(this::diagnostics, 30, 30, TimeUnit.SECONDS);
+		scheduleIo(this::purgeStats, 5, 15, TimeUnit.MINUTES);
 		scheduler.scheduleWithFixedDelay(this::scrubActive, 10, 20, TimeUnit.SECONDS);
-		scheduler.scheduleWithFixedDelay(() -> {
+		scheduleIo(() -> {
 			try {
 				pf.clean();
 			} catch (IOException e) {
@@ -216,6 +232,51 @@ public class TorrentDumper implements Component {
 		}, 10, 5, TimeUnit.MINUTES);
 	}
 	
+	/**
+	 * like scheduleWithFixedDelay, a tick is skipped while the previous run of the job has not finished yet
+	 */
+	void scheduleIo(Runnable job, long initialDelay, long delay, TimeUnit unit) {
+		if(io == null) {
+			scheduler.scheduleWithFixedDelay(job, initialDelay, delay, unit);
+			return;
+		}
+		
+		AtomicBoolean running = new AtomicBoolean();
+		scheduler.scheduleWithFixedDelay(() -> {
+			if(!running.compareAndSet(false, true))
+				return;
+			runIo(() -> {
+				try {
+					job.run();
+				} finally {
+					running.set(false);
+				}
+			});
+		}, initialDelay, delay, unit);
+	}
+	
+	void runIo(Runnable r) {
+		if(io == null) {
+			scheduler.execute(r);
+			return;
+		}
+		
+		io.execute(() -> {
+			ioPermits.acquireUninterruptibly();
+			try {
+				r.run();
+			} catch (RuntimeException e) {
+				log(e);
+			} finally {
+				ioPermits.release();
+			}
+		});
+	}
+	
+	int activeFetches() {
+		return MAX_FETCHES - fetchPermits.availablePermits();
+	}
+	
 	void log(Throwable t) {
 		DHT.log(t, LogLevel.Error);
 	}
@@ -248,8 +309,8 @@ public class TorrentDumper implements Component {
 			if(Stream.of(theirID, ourId, target).distinct().count() != 3)
 				return;
 
-			int myCloseness = ourId.distance(target).leadingOneBit();
-			int theirCloseness = theirID.distance(target).leadingOneBit();
+			int myCloseness = ourId.findApproxKeyDistance(target);
+			int theirCloseness = theirID.findApproxKeyDistance(target);
 			
 			
 			if(theirCloseness > myCloseness && theirCloseness - myCloseness >= 8)
@@ -309,7 +370,7 @@ public class TorrentDumper implements Component {
 
 				if(!existing.isPresent()) {
 					// only throttle IPs for new hashes we don't already know about and wouldn't try anyway
-					if(activeCount.get() > 50 && blocklist.putIfAbsent(s.lastTouchedBy, now) != null)
+					if(activeFetches() > 50 && blocklist.putIfAbsent(s.lastTouchedBy, now) != null)
 						continue;
 				}
 				
@@ -482,7 +543,6 @@ public class TorrentDumper implements Component {
 		
 	}
 	
-	AtomicInteger activeCount = new AtomicInteger();
 	ConcurrentHashMap<Key, FetchTask> activeTasks = new ConcurrentHashMap<>();
 	
 	void scrubActive() {
@@ -491,7 +551,7 @@ public class TorrentDumper implements Component {
 		// we're fine with other ones taking longer as long as that's the case
 		long youngConnections = activeTasks.values().stream().filter(t -> t.attemptedCount() < 5).count();
 		
-		if(youngConnections > 15 || activeCount.get() < 90)
+		if(youngConnections > 15 || activeFetches() < 90)
 			return;
 		
 		
@@ -509,7 +569,7 @@ public class TorrentDumper implements Component {
 		if(activeTasks.containsKey(k))
 			return;
 		
-		if(activeCount.get() > 100)
+		if(!fetchPermits.tryAcquire())
 			return;
 		
 		FetchTask t = fetcher.fetch(k, (fetch) -> {
@@ -519,20 +579,16 @@ public class TorrentDumper implements Component {
 			});
 		});
 		
-		activeCount.incrementAndGet();
 		activeTasks.put(k, t);
 		
 		t.awaitCompletion().thenRun(() -> {
-			scheduler.execute(() -> {
-				// run on the scheduler so we don't end up with interfering file ops
-				taskFinished(stats, t);
-			});
-			
+			// run on the scheduler or under an io permit so we don't end up with interfering file ops
+			runIo(() -> taskFinished(stats, t));
 		});
 	}
 	
 	void taskFinished(FetchStats stats, FetchTask t) {
-		activeCount.decrementAndGet();
+		fetchPermits.release();
 		blocklist.remove(stats.lastTouchedBy);
 		activeTasks.remove(t.infohash());
 		try {
@@ -570,8 +626,9 @@ public class TorrentDumper implements Component {
 		try {
 			FileIO.writeAndAtomicMove(storageDir.resolve("dumper.log"), (p) -> {
 				p.format("Fetcher:%n established: %d%n sockets: %d %n%n", fetcher.openConnections(), fetcher.socketcount());
+				p.format("Selectors:%n%s%n%n", fetcher.selectorStats());
 				
-				p.format("FetchTasks: %d %n", activeCount.get());
+				p.format("FetchTasks: %d %n", activeFetches());
 				activeTasks.values().forEach(ft -> {
 					p.println(ft.toString());
 				});
@@ -0,0 +1,67 @@
+package the8472.mldht.sim;
+
+import the8472.mldht.sim.SimulatedNetwork.NatType;
+
+/**
+ * Link and NAT properties of a {@link SimulatedNetwork}.
+ *
+ * Every host gets an access delay drawn uniformly from [0.5, 1.5] * {@link #setLatency(int) latency}. The one-way delay of a packet is the
+ * sum of the access delays of both ends plus uniform jitter, so some hosts are consistently faster than others.
+ */
+public class NetworkModel {
+
+	int latencyMillis = 40;
+	int jitterMillis = 20;
+	double lossRate = 0.02;
+	double natFraction = 0.0;
+	NatType natType = NatType.PORT_RESTRICTED;
+	int natMappingTimeoutMillis = 120_000;
+
+	/**
+	 * @param millis mean one-way access delay per host
+	 */
+	public NetworkModel setLatency(int millis) {
+		latencyMillis = millis;
+		return this;
+	}
+
+	public NetworkModel setJitter(int millis) {
+		jitterMillis = millis;
+		return this;
+	}
+
+	/**
+	 * @param rate probability of any single datagram being dropped
+	 */
+	public NetworkModel setLossRate(double rate) {
+		lossRate = rate;
+		return this;
+	}
+
+	/**
+	 * @param fraction share of hosts placed behind a NAT of the configured type
+	 */
+	public NetworkModel setNatFraction(double fraction) {
+		natFraction = fraction;
+		return this;
+	}
+
+	public NetworkModel setNatType(NatType type) {
+		natType = type;
+		return this;
+	}
+
+	/**
+	 * @param millis inactivity after which a NAT forgets a mapping, later packets get a new external port
+	 */
+	public NetworkModel setNatMappingTimeout(int millis) {
+		natMappingTimeoutMillis = millis;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("latency: %dms jitter: %dms loss: %.3f nat: %.2f %s (mapping timeout %ds)", latencyMillis, jitterMillis, lossRate, natFraction, natType, natMappingTimeoutMillis / 1000);
+	}
+
+}
@@ -0,0 +1,554 @@
+package the8472.mldht.sim;
+
+import static the8472.mldht.cli.ParseArgs.extractString;
+
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import lbms.plugins.mldht.DHTConfiguration;
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+import lbms.plugins.mldht.kad.DHTConstants;
+import lbms.plugins.mldht.kad.DHTLogger;
+import lbms.plugins.mldht.kad.KBucketEntry;
+import lbms.plugins.mldht.kad.KClosestNodesSearch;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.Prefix;
+import lbms.plugins.mldht.kad.RPCServer;
+import lbms.plugins.mldht.kad.RPCStats;
+import lbms.plugins.mldht.kad.TrafficClass;
+import lbms.plugins.mldht.kad.tasks.NodeLookup;
+import lbms.plugins.mldht.kad.utils.ThreadLocalUtils;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+import the8472.mldht.sim.SimulatedNetwork.Host;
+import the8472.mldht.sim.SimulatedNetwork.NatType;
+
+/**
+ * Runs many DHT instances on a {@link SimulatedNetwork} in virtual time and measures bootstrap and lookup behavior.
+ *
+ * The scenario has three phases:
+ * <ol>
+ * <li>nodes join one after another, each bootstrapping from random reachable nodes that joined before it</li>
+ * <li>the network settles until 95% of the nodes have most of their true k closest neighbors in their routing tables</li>
+ * <li>node lookups for random targets are started from random nodes</li>
+ * </ol>
+ *
+ * The ground truth only contains nodes that can be contacted unsolicited, i.e. those without NAT or behind full cone NATs.
+ *
+ * Router bootstrapping is disabled since it needs DNS. Instead the runner plays the router: a joining node and any node whose routing table
+ * stays below {@link DHTConstants#USE_BT_ROUTER_IF_LESS_THAN_X_PEERS} entries for {@link DHTConstants#BOOTSTRAP_MIN_INTERVAL} gets
+ * introduced to {@value #K} random reachable nodes.
+ *
+ * All nodes run on the calling thread and share the global {@link TimeSource}, only one scenario may run per JVM at a time.
+ */
+public class ScenarioRunner {
+
+	static final int PORT = 49001;
+	static final int K = 8;
+	static final long EPOCH = 1_600_000_000_000L;
+
+	int nodes = 500;
+	int lookups = 200;
+	long joinIntervalMillis = 50;
+	long lookupIntervalMillis = 200;
+	long maxSettleMillis = TimeUnit.MINUTES.toMillis(10);
+	double nodeConvergenceThreshold = 0.75;
+	double networkConvergenceThreshold = 0.95;
+	long seed = 1;
+	NetworkModel model = new NetworkModel();
+
+	public ScenarioRunner setNodes(int nodes) {
+		this.nodes = nodes;
+		return this;
+	}
+
+	public ScenarioRunner setLookups(int lookups) {
+		this.lookups = lookups;
+		return this;
+	}
+
+	public ScenarioRunner setJoinInterval(long millis) {
+		this.joinIntervalMillis = millis;
+		return this;
+	}
+
+	public ScenarioRunner setLookupInterval(long millis) {
+		this.lookupIntervalMillis = millis;
+		return this;
+	}
+
+	/**
+	 * @param millis time after the last join at which lookups are started even if the network has not converged
+	 */
+	public ScenarioRunner setMaxSettleTime(long millis) {
+		this.maxSettleMillis = millis;
+		return this;
+	}
+
+	public ScenarioRunner setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public ScenarioRunner setModel(NetworkModel model) {
+		this.model = model;
+		return this;
+	}
+
+	static class SimNode {
+		final Host host;
+		final DHT dht;
+		final long joined;
+		Key id;
+		long converged = -1;
+		long lastRouterBootstrap;
+
+		SimNode(Host host, DHT dht, long joined) {
+			this.host = host;
+			this.dht = dht;
+			this.joined = joined;
+		}
+
+		Key id() {
+			if(id == null) {
+				List<RPCServer> servers = dht.getServerManager().getAllServers();
+				if(!servers.isEmpty())
+					id = servers.get(0).getDerivedID();
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Percentiles of a sample
+	 */
+	public static class Distribution {
+		final double[] sorted;
+
+		Distribution(Collection<? extends Number> values) {
+			sorted = values.stream().mapToDouble(Number::doubleValue).sorted().toArray();
+		}
+
+		public int count() {
+			return sorted.length;
+		}
+
+		public double percentile(double p) {
+			if(sorted.length == 0)
+				return Double.NaN;
+			return sorted[Math.min(sorted.length - 1, (int) Math.floor(p * sorted.length))];
+		}
+
+		public double mean() {
+			return Arrays.stream(sorted).average().orElse(Double.NaN);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("n: %d p50: %.1f p90: %.1f p99: %.1f mean: %.2f", count(), percentile(0.5), percentile(0.9), percentile(0.99), mean());
+		}
+	}
+
+	public static class Result {
+		NetworkModel model;
+		String network;
+		int nodes;
+		int reachableNodes;
+		int convergedNodes;
+		long lastJoin;
+		long networkConvergence = -1;
+		int lookupsStarted;
+		long events;
+		long realMillis;
+		final List<Integer> hops = new ArrayList<>();
+		final List<Integer> rpcs = new ArrayList<>();
+		final List<Long> durations = new ArrayList<>();
+		final List<Long> timeToClosest = new ArrayList<>();
+		final List<Double> accuracy = new ArrayList<>();
+		final List<Long> nodeConvergence = new ArrayList<>();
+		final long[] sentByClass = new long[TrafficClass.values().length];
+		final long[] maxQueueLatency = new long[TrafficClass.values().length];
+
+		/**
+		 * @return maximum number of request round trips needed to reach a member of the final closest set, per lookup
+		 */
+		public Distribution hopCounts() {
+			return new Distribution(hops);
+		}
+
+		/**
+		 * @return requests sent per lookup
+		 */
+		public Distribution rpcsPerLookup() {
+			return new Distribution(rpcs);
+		}
+
+		public Distribution lookupDurations() {
+			return new Distribution(durations);
+		}
+
+		/**
+		 * @return milliseconds from lookup start until the closest set last changed
+		 */
+		public Distribution timeToKClosest() {
+			return new Distribution(timeToClosest);
+		}
+
+		/**
+		 * @return fraction of the true k closest reachable nodes found by each lookup
+		 */
+		public Distribution lookupAccuracy() {
+			return new Distribution(accuracy);
+		}
+
+		/**
+		 * @return milliseconds from joining until a node's routing table held enough of its true closest neighbors
+		 */
+		public Distribution nodeConvergenceTimes() {
+			return new Distribution(nodeConvergence);
+		}
+
+		/**
+		 * @return milliseconds after the last join until enough nodes had converged, -1 if that never happened
+		 */
+		public long getNetworkConvergenceTime() {
+			return networkConvergence < 0 ? -1 : networkConvergence - lastJoin;
+		}
+
+		public int getConvergedNodes() {
+			return convergedNodes;
+		}
+
+		public int getCompletedLookups() {
+			return hops.size();
+		}
+
+		/**
+		 * @return messages of the class sent by all nodes
+		 */
+		public long getSentMessageCount(TrafficClass c) {
+			return sentByClass[c.ordinal()];
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder b = new StringBuilder();
+			b.append("network model: ").append(model).append('\n');
+			b.append("nodes: ").append(nodes).append(" reachable: ").append(reachableNodes).append(" last join at: ").append(lastJoin).append("ms\n");
+			b.append("node convergence [ms]: ").append(nodeConvergenceTimes()).append(" (").append(convergedNodes).append(" of ").append(nodes).append(" converged)\n");
+			b.append("network convergence after last join [ms]: ").append(getNetworkConvergenceTime()).append('\n');
+			b.append("lookups: ").append(getCompletedLookups()).append(" of ").append(lookupsStarted).append(" completed\n");
+			b.append("  hops: ").append(hopCounts()).append('\n');
+			b.append("  rpcs: ").append(rpcsPerLookup()).append('\n');
+			b.append("  duration [ms]: ").append(lookupDurations()).append('\n');
+			b.append("  time to k closest [ms]: ").append(timeToKClosest()).append('\n');
+			b.append("  accuracy: ").append(lookupAccuracy()).append('\n');
+			b.append("packets: ").append(network).append('\n');
+			for(TrafficClass c : TrafficClass.values())
+				b.append("  ").append(c).append(" sent: ").append(sentByClass[c.ordinal()]).append(" max wait: ").append(TimeUnit.NANOSECONDS.toMillis(maxQueueLatency[c.ordinal()])).append("ms\n");
+			b.append("events: ").append(events).append(" real time: ").append(realMillis).append("ms\n");
+			return b.toString();
+		}
+	}
+
+	VirtualTimeScheduler scheduler;
+	SimulatedNetwork network;
+	Random rnd;
+	final List<SimNode> simNodes = new ArrayList<>();
+	final List<SimNode> reachableNodes = new ArrayList<>();
+	Key[] reachableIds = new Key[0];
+	boolean reachableDirty;
+	Result result;
+
+	final DHTConfiguration config = new DHTConfiguration() {
+
+		@Override
+		public boolean isPersistingID() {
+			return false;
+		}
+
+		@Override
+		public Path getStoragePath() {
+			return Paths.get(".", "does", "not", "exist");
+		}
+
+		@Override
+		public int getListeningPort() {
+			return PORT;
+		}
+
+		@Override
+		public boolean noRouterBootstrap() {
+			return true;
+		}
+
+		@Override
+		public boolean allowMultiHoming() {
+			return false;
+		}
+	};
+
+	public Result run() {
+		long realStart = System.currentTimeMillis();
+		TimeSource previousTime = TimeSource.installed();
+
+		scheduler = new VirtualTimeScheduler(EPOCH);
+		network = new SimulatedNetwork(scheduler, model, seed);
+		rnd = new Random(seed);
+		simNodes.clear();
+		reachableNodes.clear();
+		reachableIds = new Key[0];
+		result = new Result();
+		result.model = model;
+		result.nodes = nodes;
+
+		TimeSource.install(scheduler.timeSource());
+		ThreadLocalUtils.setThreadLocalRandom(new Random(seed));
+
+		try {
+			for(int i = 0; i < nodes; i++)
+				scheduler.schedule(this::join, i * joinIntervalMillis, TimeUnit.MILLISECONDS);
+
+			long lastJoin = (nodes - 1) * joinIntervalMillis;
+			result.lastJoin = lastJoin;
+
+			scheduler.scheduleAtFixedRate(this::routerBootstraps, 1, 1, TimeUnit.SECONDS);
+			ScheduledFuture<?> convergenceChecks = scheduler.scheduleAtFixedRate(this::checkConvergence, 1, 1, TimeUnit.SECONDS);
+
+			long lookupStart = lastJoin + maxSettleMillis;
+			while(scheduler.elapsedMillis() < lookupStart && result.networkConvergence < 0)
+				scheduler.runFor(1000);
+			convergenceChecks.cancel(false);
+
+			lookupStart = scheduler.elapsedMillis();
+			for(int i = 0; i < lookups; i++)
+				scheduler.schedule(this::lookup, i * lookupIntervalMillis, TimeUnit.MILLISECONDS);
+
+			long deadline = lookupStart + lookups * lookupIntervalMillis + TimeUnit.MINUTES.toMillis(5);
+			while(scheduler.elapsedMillis() < deadline && (scheduler.elapsedMillis() <= lookupStart + lookups * lookupIntervalMillis || result.hops.size() < result.lookupsStarted))
+				scheduler.runFor(1000);
+
+			for(SimNode n : simNodes) {
+				if(n.converged >= 0)
+					result.nodeConvergence.add(n.converged - n.joined);
+			}
+			result.convergedNodes = result.nodeConvergence.size();
+			result.reachableNodes = reachableIds().length;
+			result.network = network.toString();
+			result.events = scheduler.getExecutedTasks();
+			for(SimNode n : simNodes) {
+				RPCStats stats = n.dht.getStats().getRpcStats();
+				for(TrafficClass c : TrafficClass.values()) {
+					result.sentByClass[c.ordinal()] += stats.getSentMessageCount(c);
+					result.maxQueueLatency[c.ordinal()] = Math.max(result.maxQueueLatency[c.ordinal()], stats.getMaxQueueLatency(c));
+				}
+			}
+
+			simNodes.forEach(n -> n.dht.stop());
+			scheduler.runFor(1000);
+			scheduler.shutdownNow();
+		} finally {
+			TimeSource.install(previousTime);
+			ThreadLocalUtils.setThreadLocalRandom(null);
+		}
+
+		result.realMillis = System.currentTimeMillis() - realStart;
+		return result;
+	}
+
+	void join() {
+		Host host = network.addHost();
+		DHT dht = new DHT(DHTtype.IPV4_DHT);
+		dht.setScheduler(scheduler);
+		dht.setTransport(host);
+		try {
+			dht.start(config);
+		} catch (SocketException e) {
+			throw new RuntimeException(e);
+		}
+
+		SimNode node = new SimNode(host, dht, scheduler.elapsedMillis());
+		// introduce the node to those that joined before it
+		routerBootstrap(node);
+
+		simNodes.add(node);
+		if(host.getNatType().acceptsUnsolicited()) {
+			reachableNodes.add(node);
+			reachableDirty = true;
+		}
+	}
+
+	void routerBootstrap(SimNode node) {
+		node.lastRouterBootstrap = scheduler.elapsedMillis();
+		if(reachableNodes.isEmpty())
+			return;
+
+		Set<SimNode> contacts = new HashSet<>();
+		for(int i = 0; i < 2 * K && contacts.size() < K; i++) {
+			SimNode c = reachableNodes.get(rnd.nextInt(reachableNodes.size()));
+			if(c != node)
+				contacts.add(c);
+		}
+
+		// pings are sent from the next event onwards, after the servers have been started
+		contacts.forEach(c -> scheduler.schedule(() -> {
+			if(node.dht.isRunning())
+				node.dht.addDHTNode(c.host.getPublicAddress().getHostAddress(), PORT);
+		}, 1, TimeUnit.MILLISECONDS));
+	}
+
+	void routerBootstraps() {
+		long now = scheduler.elapsedMillis();
+		for(SimNode n : simNodes) {
+			if(n.dht.isRunning() && now - n.lastRouterBootstrap >= DHTConstants.BOOTSTRAP_MIN_INTERVAL && n.dht.getNode().getNumEntriesInRoutingTable() < DHTConstants.USE_BT_ROUTER_IF_LESS_THAN_X_PEERS)
+				routerBootstrap(n);
+		}
+	}
+
+	Key[] reachableIds() {
+		if(reachableDirty) {
+			reachableIds = simNodes.stream().filter(n -> n.host.getNatType().acceptsUnsolicited()).map(SimNode::id).filter(k -> k != null).sorted().toArray(Key[]::new);
+			reachableDirty = reachableIds.length != simNodes.stream().filter(n -> n.host.getNatType().acceptsUnsolicited()).count();
+		}
+		return reachableIds;
+	}
+
+	/**
+	 * @param sorted ascending keys
+	 * @return the k keys closest to the target, excluding the target itself
+	 */
+	static List<Key> closest(Key[] sorted, Key target, int k) {
+		int from = 0;
+		int to = sorted.length;
+
+		// keys sharing a longer prefix with the target are closer than all others and form a contiguous range in sort order.
+		// narrow down to the smallest such range that still holds more than k keys
+		for(int depth = 0; depth < Key.SHA1_HASH_LENGTH * 8; depth++) {
+			Prefix p = new Prefix(target, depth);
+			int lower = insertionPoint(sorted, p.first(), false);
+			int upper = insertionPoint(sorted, p.last(), true);
+			if(upper - lower <= k)
+				break;
+			from = lower;
+			to = upper;
+		}
+
+		return Arrays.stream(sorted, from, to).filter(key -> !key.equals(target)).sorted(new Key.DistanceOrder(target)).limit(k).collect(Collectors.toList());
+	}
+
+	private static int insertionPoint(Key[] sorted, Key k, boolean after) {
+		int idx = Arrays.binarySearch(sorted, k);
+		if(idx < 0)
+			return -idx - 1;
+		return after ? idx + 1 : idx;
+	}
+
+	static double overlap(Collection<Key> found, List<Key> truth) {
+		if(truth.isEmpty())
+			return 1.0;
+		Set<Key> expected = new HashSet<>(truth);
+		return found.stream().filter(expected::contains).count() / (double) truth.size();
+	}
+
+	void checkConvergence() {
+		Key[] truth = reachableIds();
+		long now = scheduler.elapsedMillis();
+		int converged = 0;
+
+		for(SimNode n : simNodes) {
+			Key id = n.id();
+			if(id == null)
+				continue;
+			KClosestNodesSearch search = new KClosestNodesSearch(id, K, n.dht);
+			search.fill();
+			List<Key> known = search.getEntries().stream().map(KBucketEntry::getID).collect(Collectors.toList());
+			if(overlap(known, closest(truth, id, K)) >= nodeConvergenceThreshold) {
+				converged++;
+				if(n.converged < 0)
+					n.converged = now;
+			}
+		}
+
+		if(simNodes.size() == nodes && result.networkConvergence < 0 && converged >= networkConvergenceThreshold * nodes)
+			result.networkConvergence = now;
+	}
+
+	void lookup() {
+		SimNode n = simNodes.get(rnd.nextInt(simNodes.size()));
+		RPCServer srv = n.dht.getServerManager().getRandomActiveServer(false);
+		if(srv == null)
+			return;
+
+		Key target = Key.createRandomKey();
+		List<Key> truth = closest(reachableIds(), target, K);
+
+		NodeLookup task = new NodeLookup(target, srv, n.dht.getNode(), false);
+		task.addListener(t -> {
+			result.hops.add(task.getHopCount());
+			result.rpcs.add(task.getSentReqs());
+			result.durations.add(task.getFinishedTime() - task.getStartTime());
+			long change = task.getLastClosestSetChange();
+			result.timeToClosest.add(change < 0 ? task.getFinishedTime() - task.getStartTime() : change - task.getStartTime());
+			result.accuracy.add(overlap(task.getClosestIds(), truth));
+		});
+		result.lookupsStarted++;
+		n.dht.getTaskManager().addTask(task);
+	}
+
+	/**
+	 * e.g. {@code --nodes 2000 --lookups 500 --latency 40 --jitter 20 --loss 0.02 --nat 0.3 --nat-type PORT_RESTRICTED --seed 7}
+	 */
+	public static void main(String[] argsArray) {
+		List<String> args = new ArrayList<>(Arrays.asList(argsArray));
+
+		NetworkModel model = new NetworkModel();
+		extractString(args, "--latency").map(Integer::parseInt).ifPresent(model::setLatency);
+		extractString(args, "--jitter").map(Integer::parseInt).ifPresent(model::setJitter);
+		extractString(args, "--loss").map(Double::parseDouble).ifPresent(model::setLossRate);
+		extractString(args, "--nat").map(Double::parseDouble).ifPresent(model::setNatFraction);
+		extractString(args, "--nat-type").map(NatType::valueOf).ifPresent(model::setNatType);
+		extractString(args, "--nat-timeout").map(Integer::parseInt).map(s -> s * 1000).ifPresent(model::setNatMappingTimeout);
+
+		ScenarioRunner runner = new ScenarioRunner().setModel(model);
+		extractString(args, "--nodes").map(Integer::parseInt).ifPresent(runner::setNodes);
+		extractString(args, "--lookups").map(Integer::parseInt).ifPresent(runner::setLookups);
+		extractString(args, "--join-interval").map(Long::parseLong).ifPresent(runner::setJoinInterval);
+		extractString(args, "--lookup-interval").map(Long::parseLong).ifPresent(runner::setLookupInterval);
+		extractString(args, "--settle").map(Long::parseLong).map(TimeUnit.SECONDS::toMillis).ifPresent(runner::setMaxSettleTime);
+		extractString(args, "--seed").map(Long::parseLong).ifPresent(runner::setSeed);
+
+		if(!args.isEmpty()) {
+			System.err.println("unknown arguments: " + args);
+			System.exit(1);
+		}
+
+		DHT.setLogger(new DHTLogger() {
+			@Override
+			public void log(String message, LogLevel l) {
+				if(l == LogLevel.Error || l == LogLevel.Fatal)
+					System.err.println(message);
+			}
+
+			@Override
+			public void log(Throwable t, LogLevel l) {
+				if(l == LogLevel.Error || l == LogLevel.Fatal)
+					t.printStackTrace();
+			}
+		});
+
+		System.out.print(runner.run());
+	}
+
+}
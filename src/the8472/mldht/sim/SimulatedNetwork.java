@@ -0,0 +1,354 @@
+package the8472.mldht.sim;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import lbms.plugins.mldht.kad.DatagramTransport;
+import lbms.plugins.mldht.kad.utils.AddressUtils;
+
+/**
+ * In-memory IPv4 network for {@link DatagramTransport}s. Each {@link Host} is one machine with its own public address, optionally behind
+ * a NAT. Datagrams are delayed, dropped and filtered according to the {@link NetworkModel} and delivered through the
+ * {@link VirtualTimeScheduler}.
+ *
+ * All random decisions come from a seeded generator, and everything runs on the scheduler thread. A given seed therefore replays the
+ * same packet fates as long as the nodes send the same traffic.
+ */
+public class SimulatedNetwork {
+
+	public enum NatType {
+		/**
+		 * host owns a public address
+		 */
+		NONE,
+		/**
+		 * anyone may send to an existing mapping
+		 */
+		FULL_CONE,
+		/**
+		 * only addresses the host has sent to through the mapping may use it
+		 */
+		ADDRESS_RESTRICTED,
+		/**
+		 * only address and port pairs the host has sent to through the mapping may use it
+		 */
+		PORT_RESTRICTED,
+		/**
+		 * new external port for each destination, only that destination may reply
+		 */
+		SYMMETRIC;
+
+		/**
+		 * @return true if hosts that never heard from this one can contact it once it has sent anything
+		 */
+		public boolean acceptsUnsolicited() {
+			return this == NONE || this == FULL_CONE;
+		}
+	}
+
+	final VirtualTimeScheduler scheduler;
+	final NetworkModel model;
+	final Random rnd;
+
+	private final Map<InetAddress, Host> hostsByPublicAddress = new HashMap<>();
+	private final List<Host> hosts = new ArrayList<>();
+
+	private long sent;
+	private long delivered;
+	private long lost;
+	private long filtered;
+	private long unroutable;
+
+	public SimulatedNetwork(VirtualTimeScheduler scheduler, NetworkModel model, long seed) {
+		this.scheduler = scheduler;
+		this.model = model;
+		this.rnd = new Random(seed);
+	}
+
+	/**
+	 * @return a new host, placed behind a NAT with the probability configured in the model
+	 */
+	public Host addHost() {
+		return addHost(rnd.nextDouble() < model.natFraction ? model.natType : NatType.NONE);
+	}
+
+	public Host addHost(NatType nat) {
+		InetAddress publicAddress = randomPublicAddress();
+		InetAddress localAddress = publicAddress;
+		if(nat != NatType.NONE) {
+			int i = hosts.size();
+			localAddress = address(new byte[] {10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+		}
+		long accessDelay = (long) (TimeUnit.MILLISECONDS.toNanos(model.latencyMillis) * (0.5 + rnd.nextDouble()));
+		Host h = new Host(localAddress, publicAddress, nat, accessDelay);
+		hosts.add(h);
+		hostsByPublicAddress.put(publicAddress, h);
+		return h;
+	}
+
+	private InetAddress randomPublicAddress() {
+		while(true) {
+			byte[] raw = new byte[4];
+			rnd.nextBytes(raw);
+			int first = raw[0] & 0xff;
+			if(first == 0 || first >= 224 || first == 100 || first == 127)
+				continue;
+			InetAddress addr = address(raw);
+			if(AddressUtils.isGlobalUnicast(addr) && !hostsByPublicAddress.containsKey(addr))
+				return addr;
+		}
+	}
+
+	private static InetAddress address(byte[] raw) {
+		try {
+			return InetAddress.getByAddress(raw);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	public List<Host> getHosts() {
+		return Collections.unmodifiableList(hosts);
+	}
+
+	public Host hostFor(InetAddress publicAddress) {
+		return hostsByPublicAddress.get(publicAddress);
+	}
+
+	void send(Host from, int port, ByteBuffer packet, InetSocketAddress destination) {
+		sent++;
+		byte[] data = new byte[packet.remaining()];
+		packet.get(data);
+
+		// the NAT sees the packet even if it gets lost further down the path
+		InetSocketAddress source = from.outbound(port, destination);
+
+		if(rnd.nextDouble() < model.lossRate) {
+			lost++;
+			return;
+		}
+
+		Host to = hostsByPublicAddress.get(destination.getAddress());
+		if(to == null) {
+			unroutable++;
+			return;
+		}
+
+		long delay = from.accessDelay + to.accessDelay + (long) (TimeUnit.MILLISECONDS.toNanos(model.jitterMillis) * rnd.nextDouble());
+		scheduler.schedule(() -> to.deliver(data, source, destination.getPort()), delay, TimeUnit.NANOSECONDS);
+	}
+
+	public long getSent() {
+		return sent;
+	}
+
+	public long getDelivered() {
+		return delivered;
+	}
+
+	public long getLost() {
+		return lost;
+	}
+
+	/**
+	 * @return datagrams dropped by NATs
+	 */
+	public long getFiltered() {
+		return filtered;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hosts: %d sent: %d delivered: %d lost: %d nat-filtered: %d unroutable: %d", hosts.size(), sent, delivered, lost, filtered, unroutable);
+	}
+
+	private static class Mapping {
+		final int internalPort;
+		final int externalPort;
+		// only for symmetric NATs
+		final InetSocketAddress destination;
+		long lastOutbound;
+		// addresses or socket addresses the host has sent to, for restricted NATs
+		final Map<Object, Long> contacted = new HashMap<>();
+
+		Mapping(int internalPort, int externalPort, InetSocketAddress destination) {
+			this.internalPort = internalPort;
+			this.externalPort = externalPort;
+			this.destination = destination;
+		}
+	}
+
+	public class Host implements DatagramTransport {
+
+		final InetAddress localAddress;
+		final InetAddress publicAddress;
+		final NatType nat;
+		final long accessDelay;
+
+		private final Map<Integer, Receiver> bound = new HashMap<>();
+
+		// NAT state
+		private final Map<Object, Mapping> outbound = new HashMap<>();
+		private final Map<Integer, Mapping> inbound = new HashMap<>();
+		private int nextExternalPort = 20000;
+
+		Host(InetAddress localAddress, InetAddress publicAddress, NatType nat, long accessDelay) {
+			this.localAddress = localAddress;
+			this.publicAddress = publicAddress;
+			this.nat = nat;
+			this.accessDelay = accessDelay;
+		}
+
+		public InetAddress getPublicAddress() {
+			return publicAddress;
+		}
+
+		public InetAddress getLocalAddress() {
+			return localAddress;
+		}
+
+		public NatType getNatType() {
+			return nat;
+		}
+
+		@Override
+		public List<InetAddress> getLocalAddresses(Class<? extends InetAddress> type) {
+			return type.isInstance(localAddress) || type == InetAddress.class ? Collections.singletonList(localAddress) : Collections.emptyList();
+		}
+
+		@Override
+		public Endpoint bind(InetSocketAddress local, Receiver receiver) throws IOException {
+			if(!(local.getAddress() instanceof Inet4Address))
+				throw new BindException("simulated network only supports IPv4");
+			int port = local.getPort();
+			if(bound.putIfAbsent(port, receiver) != null)
+				throw new BindException("port " + port + " already in use on " + localAddress);
+
+			InetSocketAddress boundAddress = new InetSocketAddress(localAddress, port);
+
+			return new Endpoint() {
+				@Override
+				public void send(ByteBuffer packet, InetSocketAddress destination) {
+					SimulatedNetwork.this.send(Host.this, port, packet, destination);
+				}
+
+				@Override
+				public InetSocketAddress getLocalAddress() {
+					return boundAddress;
+				}
+
+				@Override
+				public void close() {
+					bound.remove(port, receiver);
+				}
+			};
+		}
+
+		private boolean expired(Mapping m, long now) {
+			return now - m.lastOutbound > model.natMappingTimeoutMillis;
+		}
+
+		/**
+		 * @return the source address as seen by the destination
+		 */
+		InetSocketAddress outbound(int port, InetSocketAddress destination) {
+			if(nat == NatType.NONE)
+				return new InetSocketAddress(publicAddress, port);
+
+			long now = scheduler.elapsedMillis();
+			Object key = nat == NatType.SYMMETRIC ? Arrays.asList(port, destination) : port;
+			Mapping m = outbound.get(key);
+			if(m == null || expired(m, now)) {
+				if(m != null)
+					inbound.remove(m.externalPort);
+				m = new Mapping(port, allocatePort(), nat == NatType.SYMMETRIC ? destination : null);
+				outbound.put(key, m);
+				inbound.put(m.externalPort, m);
+			}
+
+			m.lastOutbound = now;
+			if(nat == NatType.ADDRESS_RESTRICTED)
+				m.contacted.put(destination.getAddress(), now);
+			if(nat == NatType.PORT_RESTRICTED)
+				m.contacted.put(destination, now);
+			if(m.contacted.size() > 1024)
+				m.contacted.values().removeIf(t -> now - t > model.natMappingTimeoutMillis);
+
+			return new InetSocketAddress(publicAddress, m.externalPort);
+		}
+
+		private int allocatePort() {
+			while(true) {
+				int p = nextExternalPort;
+				nextExternalPort = p == 65535 ? 20000 : p + 1;
+				if(!inbound.containsKey(p))
+					return p;
+			}
+		}
+
+		/**
+		 * @return the internal port or -1 if the NAT drops the datagram
+		 */
+		private int inbound(int port, InetSocketAddress source) {
+			if(nat == NatType.NONE)
+				return port;
+
+			long now = scheduler.elapsedMillis();
+			Mapping m = inbound.get(port);
+			if(m == null || expired(m, now))
+				return -1;
+
+			Long lastContact;
+			switch(nat) {
+				case FULL_CONE:
+					return m.internalPort;
+				case ADDRESS_RESTRICTED:
+					lastContact = m.contacted.get(source.getAddress());
+					break;
+				case PORT_RESTRICTED:
+					lastContact = m.contacted.get(source);
+					break;
+				case SYMMETRIC:
+					return source.equals(m.destination) ? m.internalPort : -1;
+				default:
+					throw new IllegalStateException();
+			}
+
+			return lastContact != null && now - lastContact <= model.natMappingTimeoutMillis ? m.internalPort : -1;
+		}
+
+		void deliver(byte[] data, InetSocketAddress source, int port) {
+			int internalPort = inbound(port, source);
+			if(internalPort < 0) {
+				filtered++;
+				return;
+			}
+			Receiver r = bound.get(internalPort);
+			if(r == null) {
+				unroutable++;
+				return;
+			}
+			delivered++;
+			r.received(ByteBuffer.wrap(data), source);
+		}
+
+		@Override
+		public String toString() {
+			return nat == NatType.NONE ? publicAddress.getHostAddress() : localAddress.getHostAddress() + " via " + nat + " " + publicAddress.getHostAddress();
+		}
+	}
+
+}
@@ -0,0 +1,295 @@
+package the8472.mldht.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
+/**
+ * Discrete event scheduler on a virtual clock. Nothing runs on its own, tasks are executed on the thread calling {@link #runUntil(long)}
+ * in deadline order, ties are broken by submission order. Time only advances between tasks, so a simulation of thousands of nodes is
+ * single-threaded and reproducible.
+ *
+ * Use {@link #timeSource()} with {@link TimeSource#install(TimeSource)} to make the DHT internals observe the same clock.
+ */
+public class VirtualTimeScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final PriorityQueue<Event<?>> queue = new PriorityQueue<>();
+	private final long epochMillis;
+	private long nanos;
+	private long sequence;
+	private long executed;
+	private boolean shutdown;
+
+	private final TimeSource timeSource = new TimeSource() {
+		@Override
+		protected long millis() {
+			return VirtualTimeScheduler.this.currentTimeMillis();
+		}
+
+		@Override
+		protected long nanos() {
+			return VirtualTimeScheduler.this.nanoTime();
+		}
+	};
+
+	/**
+	 * @param epochMillis wall clock time corresponding to the start of the simulation
+	 */
+	public VirtualTimeScheduler(long epochMillis) {
+		this.epochMillis = epochMillis;
+	}
+
+	public TimeSource timeSource() {
+		return timeSource;
+	}
+
+	public synchronized long nanoTime() {
+		return nanos;
+	}
+
+	public synchronized long currentTimeMillis() {
+		return epochMillis + TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * @return milliseconds since the start of the simulation
+	 */
+	public synchronized long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	public synchronized long getExecutedTasks() {
+		return executed;
+	}
+
+	public synchronized int getQueuedTasks() {
+		return queue.size();
+	}
+
+	/**
+	 * runs all tasks that are due at or before the given number of milliseconds since the start of the simulation, then advances the clock to it
+	 */
+	public void runUntil(long elapsedMillis) {
+		long deadline = TimeUnit.MILLISECONDS.toNanos(elapsedMillis);
+		while(true) {
+			Event<?> next;
+			synchronized (this) {
+				next = queue.peek();
+				if(next == null || next.time > deadline) {
+					nanos = Math.max(nanos, deadline);
+					return;
+				}
+				queue.poll();
+				nanos = Math.max(nanos, next.time);
+				executed++;
+			}
+			next.run();
+		}
+	}
+
+	public void runFor(long millis) {
+		runUntil(elapsedMillis() + millis);
+	}
+
+	private synchronized <T> Event<T> enqueue(Event<T> e) {
+		if(shutdown)
+			throw new IllegalStateException("scheduler shut down");
+		e.seq = sequence++;
+		queue.add(e);
+		return e;
+	}
+
+	private synchronized void requeue(Event<?> e, long time) {
+		e.time = time;
+		e.seq = sequence++;
+		if(!shutdown)
+			queue.add(e);
+	}
+
+	private synchronized void dequeue(Event<?> e) {
+		queue.remove(e);
+	}
+
+	private synchronized long delayToTime(long delay, TimeUnit unit) {
+		return nanos + Math.max(0, unit.toNanos(delay));
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		enqueue(new Event<>(nanoTime(), 0, () -> {
+			command.run();
+			return null;
+		}));
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return enqueue(new Event<>(delayToTime(delay, unit), 0, () -> {
+			command.run();
+			return null;
+		}));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return enqueue(new Event<>(delayToTime(delay, unit), 0, callable));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if(period <= 0)
+			throw new IllegalArgumentException();
+		return enqueue(new Event<>(delayToTime(initialDelay, unit), unit.toNanos(period), () -> {
+			command.run();
+			return null;
+		}));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if(delay <= 0)
+			throw new IllegalArgumentException();
+		return enqueue(new Event<>(delayToTime(initialDelay, unit), -unit.toNanos(delay), () -> {
+			command.run();
+			return null;
+		}));
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		shutdown = true;
+	}
+
+	@Override
+	public synchronized List<Runnable> shutdownNow() {
+		shutdown = true;
+		List<Runnable> pending = new ArrayList<>(queue);
+		queue.clear();
+		return pending;
+	}
+
+	@Override
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public synchronized boolean isTerminated() {
+		return shutdown && queue.isEmpty();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return isTerminated();
+	}
+
+	private class Event<T> implements ScheduledFuture<T>, Runnable {
+
+		long time;
+		long seq;
+		// > 0 fixed rate, < 0 fixed delay, 0 one-shot
+		final long period;
+		final Callable<T> task;
+
+		private volatile boolean done;
+		private volatile boolean cancelled;
+		private T result;
+		private Throwable failure;
+
+		Event(long time, long period, Callable<T> task) {
+			this.time = time;
+			this.period = period;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			if(done)
+				return;
+			try {
+				T r = task.call();
+				if(period == 0) {
+					result = r;
+					done = true;
+					return;
+				}
+			} catch (Throwable t) {
+				// same as ScheduledThreadPoolExecutor, a failing periodic task is not run again
+				DHT.log(t, LogLevel.Error);
+				failure = t;
+				done = true;
+				return;
+			}
+
+			if(!done)
+				requeue(this, period > 0 ? time + period : nanoTime() - period);
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			if(o instanceof VirtualTimeScheduler.Event) {
+				Event<?> other = (Event<?>) o;
+				int c = Long.compare(time, other.time);
+				return c != 0 ? c : Long.compare(seq, other.seq);
+			}
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if(done)
+				return false;
+			cancelled = true;
+			done = true;
+			dequeue(this);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done;
+		}
+
+		@Override
+		public T get() throws ExecutionException {
+			if(cancelled)
+				throw new CancellationException();
+			if(!done)
+				throw new IllegalStateException("waiting for a pending task would block the simulation");
+			if(failure != null)
+				throw new ExecutionException(failure);
+			return result;
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws ExecutionException, TimeoutException {
+			if(!done)
+				throw new TimeoutException();
+			return get();
+		}
+	}
+
+}
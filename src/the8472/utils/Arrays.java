@@ -3,11 +3,13 @@ package the8472.utils;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.nio.ByteOrder;
 
 public class Arrays {
 	
 	private static final java.lang.invoke.MethodHandle compareImpl;
 	private static final java.lang.invoke.MethodHandle mismatchImpl;
+	private static final java.lang.invoke.MethodHandle getLongImpl;
 	
 	static {
 		
@@ -34,6 +36,43 @@ public class Arrays {
 		
 		compareImpl = compU;
 		mismatchImpl = mism;
+		
+		MethodHandle getLong = null;
+		
+		try {
+			// java9 byte array view, accessed reflectively since VarHandle does not exist in the java 8 API
+			Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+			Class<?> accessMode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+			Object view = MethodHandles.class.getMethod("byteArrayViewVarHandle", Class.class, ByteOrder.class).invoke(null, long[].class, ByteOrder.BIG_ENDIAN);
+			Object get = accessMode.getField("GET").get(null);
+			getLong = (MethodHandle) varHandle.getMethod("toMethodHandle", accessMode).invoke(view, get);
+			getLong = getLong.asType(MethodType.methodType(long.class, byte[].class, int.class));
+		} catch (ReflectiveOperationException e) {
+			// no java9
+		}
+		
+		if(getLong == null) {
+			try {
+				getLong = MethodHandles.lookup().findStatic(Arrays.class, "getLongFallback", MethodType.methodType(long.class, byte[].class, int.class));
+			}  catch (NoSuchMethodException | IllegalAccessException e) {
+				throw new Error("should not happen");
+			}
+		}
+		
+		getLongImpl = getLong;
+	}
+	
+	/**
+	 * @return the 8 bytes starting at offset as big-endian long, i.e. unsigned comparisons of the result match the unsigned byte order
+	 */
+	public static long getLong(byte[] a, int offset) {
+		try {
+			return (long) getLongImpl.invokeExact(a, offset);
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Throwable e) {
+			throw new Error("should not happen", e);
+		}
 	}
 	
 	public static int compareUnsigned(byte[] a, byte[] b) {
@@ -99,6 +138,20 @@ public class Arrays {
 		return a.length - b.length;
 	}
 	
+	@SuppressWarnings("unused")
+	private static long getLongFallback(byte[] a, int i) {
+		if(i < 0 || i + 8 > a.length)
+			throw new ArrayIndexOutOfBoundsException(i);
+		return Byte.toUnsignedLong(a[i]) << 56 |
+				Byte.toUnsignedLong(a[i+1]) << 48 |
+				Byte.toUnsignedLong(a[i+2]) << 40 |
+				Byte.toUnsignedLong(a[i+3]) << 32 |
+				Byte.toUnsignedLong(a[i+4]) << 24 |
+				Byte.toUnsignedLong(a[i+5]) << 16 |
+				Byte.toUnsignedLong(a[i+6]) << 8 |
+				Byte.toUnsignedLong(a[i+7]) << 0;
+	}
+	
 	@SuppressWarnings("unused")
 	private static int mismatchFallback(byte[] a, byte[] b) {
 		int min = Math.min(a.length, b.length);
@@ -0,0 +1,307 @@
+package the8472.utils.concurrent;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scheduled executor without a single sequencing point.
+ *
+ * - immediate tasks go to a FIFO work-stealing pool. tasks submitted from worker threads land in that worker's own deque, external
+ *   submissions are spread over the pool's submission queues
+ * - delayed tasks are spread over several timer shards, each with its own heap, lock and timer thread. the timer threads only move due
+ *   tasks into the pool, they never run them
+ * - cancelled tasks are purged from a shard once they make up half of it, so schedule/cancel churn doesn't pile up until the deadlines pass
+ *
+ * Exceptions of tasks and futures are reported to the handler, like {@link NonblockingScheduledExecutor} does.
+ */
+public class ShardedScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+	static final int PURGE_THRESHOLD = 64;
+
+	final ForkJoinPool pool;
+	final TimerShard[] shards;
+	final UncaughtExceptionHandler exceptionHandler;
+
+	public ShardedScheduledExecutor(String name, int threadCount, UncaughtExceptionHandler handler) {
+		this.exceptionHandler = handler;
+
+		pool = new ForkJoinPool(threadCount, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setDaemon(true);
+			t.setName(name);
+			return t;
+		}, handler, true);
+
+		shards = new TimerShard[threadCount];
+		for(int i=0;i<shards.length;i++) {
+			shards[i] = new TimerShard();
+			Thread t = new Thread(shards[i], name + " timer");
+			t.setDaemon(true);
+			if(handler != null)
+				t.setUncaughtExceptionHandler(handler);
+			shards[i].thread = t;
+			t.start();
+		}
+	}
+
+	TimerShard shardForCurrentThread() {
+		long id = Thread.currentThread().getId();
+		// mix so that sequentially allocated thread ids don't cluster
+		int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+		return shards[(h & Integer.MAX_VALUE) % shards.length];
+	}
+
+	final class TimerShard implements Runnable {
+
+		final PriorityQueue<SchedF<?>> heap = new PriorityQueue<>();
+		final List<SchedF<?>> due = new ArrayList<>();
+		Thread thread;
+		int cancelled;
+
+		void add(SchedF<?> f) {
+			boolean wakeup;
+			synchronized (this) {
+				heap.add(f);
+				wakeup = heap.peek() == f;
+			}
+			// an unpark before the timer parks is not lost, the park returns immediately
+			if(wakeup)
+				LockSupport.unpark(thread);
+		}
+
+		synchronized void onCancel() {
+			cancelled++;
+			if(cancelled >= PURGE_THRESHOLD && cancelled * 2 >= heap.size()) {
+				heap.removeIf(SchedF::isCancelled);
+				cancelled = 0;
+			}
+		}
+
+		@Override
+		public void run() {
+			while(!isShutdown()) {
+				long sleep;
+				synchronized (this) {
+					long now = System.nanoTime();
+					SchedF<?> f;
+					while((f = heap.peek()) != null && f.nanos - now <= 0) {
+						heap.poll();
+						if(f.isCancelled())
+							cancelled = Math.max(0, cancelled - 1);
+						else
+							due.add(f);
+					}
+					sleep = f == null ? -1 : f.nanos - now;
+				}
+
+				try {
+					for(int i=0;i<due.size();i++)
+						pool.execute(due.get(i));
+				} catch (RejectedExecutionException e) {
+					// shut down while we were dispatching
+					return;
+				} finally {
+					due.clear();
+				}
+
+				if(sleep < 0)
+					LockSupport.park(this);
+				else
+					LockSupport.parkNanos(this, sleep);
+			}
+		}
+
+		synchronized int size() {
+			return heap.size();
+		}
+	}
+
+	class ReportingFuture<T> extends FutureTask<T> {
+
+		ReportingFuture(Callable<T> c) {
+			super(c);
+		}
+
+		ReportingFuture(Runnable r, T result) {
+			super(r, result);
+		}
+
+		@Override
+		protected void setException(Throwable t) {
+			super.setException(t);
+			if(exceptionHandler != null)
+				exceptionHandler.uncaughtException(Thread.currentThread(), t);
+		}
+	}
+
+	class SchedF<T> extends ReportingFuture<T> implements RunnableScheduledFuture<T> {
+
+		final TimerShard shard;
+		// positive for fixed rate, negative for fixed delay
+		final long period;
+		volatile long nanos;
+
+		SchedF(Runnable r, long delay, long period, TimeUnit u) {
+			super(r, null);
+			this.shard = shardForCurrentThread();
+			this.nanos = System.nanoTime() + u.toNanos(delay);
+			this.period = u.toNanos(period);
+		}
+
+		SchedF(Callable<T> c, long delay, TimeUnit u) {
+			super(c);
+			this.shard = shardForCurrentThread();
+			this.nanos = System.nanoTime() + u.toNanos(delay);
+			this.period = 0;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			long diff;
+			if(o instanceof SchedF) {
+				diff = this.nanos - ((SchedF<?>) o).nanos;
+			} else {
+				diff = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+			}
+
+			return (diff == 0) ? 0 : (diff < 0) ? -1 : 1;
+		}
+
+		@Override
+		public boolean isPeriodic() {
+			return period != 0;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean result = super.cancel(mayInterruptIfRunning);
+			if(result)
+				shard.onCancel();
+			return result;
+		}
+
+		@Override
+		public void run() {
+			if(!isPeriodic()) {
+				super.run();
+				return;
+			}
+
+			if(runAndReset() && !isShutdown()) {
+				if(period < 0)
+					nanos = System.nanoTime() - period;
+				else
+					nanos += period;
+				shard.add(this);
+			}
+		}
+	}
+
+	<T> SchedF<T> enqueue(SchedF<T> f) {
+		f.shard.add(f);
+		return f;
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new ReportingFuture<>(callable);
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new ReportingFuture<>(runnable, value);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		pool.execute(command);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return enqueue(new SchedF<Void>(command, delay, 0, unit));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return enqueue(new SchedF<>(callable, delay, unit));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if(period <= 0)
+			throw new IllegalArgumentException("period must be positive");
+		return enqueue(new SchedF<Void>(command, initialDelay, period, unit));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if(delay <= 0)
+			throw new IllegalArgumentException("delay must be positive");
+		return enqueue(new SchedF<Void>(command, initialDelay, -delay, unit));
+	}
+
+	/**
+	 * @return number of delayed tasks in all shards, including cancelled ones that have not been purged yet
+	 */
+	public int getDelayedCount() {
+		int sum = 0;
+		for(TimerShard s : shards)
+			sum += s.size();
+		return sum;
+	}
+
+	void wakeTimers() {
+		for(TimerShard s : shards)
+			LockSupport.unpark(s.thread);
+	}
+
+	@Override
+	public void shutdown() {
+		pool.shutdown();
+		wakeTimers();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> l = pool.shutdownNow();
+		wakeTimers();
+		return l;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return pool.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return pool.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return pool.awaitTermination(timeout, unit);
+	}
+
+}
@@ -0,0 +1,76 @@
+package the8472.utils.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs blocking workflows on virtual threads when the JVM supports them (JDK 21+), on named daemon platform threads otherwise.
+ *
+ * We still target java 8, so the builder API is looked up reflectively. Virtual threads can be disabled with the system property
+ * {@code mldht.virtualThreads=false}.
+ */
+public final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_FACTORY;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+
+		if(Boolean.parseBoolean(System.getProperty("mldht.virtualThreads", "true"))) {
+			try {
+				Class<?> builder = Class.forName("java.lang.Thread$Builder");
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+				name = builder.getMethod("name", String.class);
+				factory = builder.getMethod("factory");
+				// preview releases have the API but throw unless preview features are enabled
+				ofVirtual.invoke(null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				ofVirtual = null;
+			}
+		}
+
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = name;
+		BUILDER_FACTORY = factory;
+	}
+
+	private VirtualThreads() {}
+
+	public static boolean isEnabled() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @return a factory for virtual threads if enabled, for daemon platform threads otherwise. all threads get the same name
+	 */
+	public static ThreadFactory factory(String name) {
+		if(!isEnabled())
+			return new LoggingScheduledThreadPoolExecutor.NamedDaemonThreadFactory(name);
+		try {
+			Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+			return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static Thread start(String name, Runnable r) {
+		Thread t = factory(name).newThread(r);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * @return an executor starting one thread per task. only meant for virtual threads, concurrency has to be bounded by the caller
+	 */
+	public static Executor perTaskExecutor(String name) {
+		ThreadFactory factory = factory(name);
+		return r -> factory.newThread(r).start();
+	}
+
+}
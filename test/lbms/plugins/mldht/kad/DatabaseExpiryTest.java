@@ -0,0 +1,120 @@
+package lbms.plugins.mldht.kad;
+
+import static lbms.plugins.mldht.kad.TestItems.item;
+import static org.junit.Assert.assertEquals;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatabaseExpiryTest {
+
+	static final long START = 10_000_000;
+	static final int BUCKET = DHTConstants.DB_EXPIRY_BUCKET;
+
+	ManualClock clock;
+
+	@Before
+	public void installClock() {
+		clock = ManualClock.install(START);
+	}
+
+	@After
+	public void restoreClock() {
+		ManualClock.restore();
+	}
+
+	@Test
+	public void testOnlyDueBucketsAreVisited() {
+		ExpiryIndex index = new ExpiryIndex(clock.current(), DHTConstants.MAX_ITEM_AGE, BUCKET, 100);
+		Key early = Key.createRandomKey();
+		Key late = Key.createRandomKey();
+		Key aliased = Key.createRandomKey();
+		index.schedule(early, START + 5 * BUCKET);
+		index.schedule(late, START + 30 * BUCKET);
+		// shares its slot with a due bucket when draining lags
+		index.schedule(aliased, START + 5 * BUCKET + DHTConstants.MAX_ITEM_AGE + 2 * BUCKET);
+
+		List<Key> visited = new ArrayList<>();
+		assertEquals(0, index.drain(START + 5 * BUCKET, visited::add));
+		assertEquals(1, index.drain(START + 7 * BUCKET, visited::add));
+		assertEquals(early, visited.get(0));
+		assertEquals(0, index.drain(START + 29 * BUCKET, visited::add));
+		assertEquals(1, index.drain(START + 31 * BUCKET, visited::add));
+		assertEquals(late, visited.get(1));
+	}
+
+	@Test
+	public void testScheduleRacingDrain() throws InterruptedException {
+		// millisecond buckets and a ring much longer than the test runs, an entry missed by the drain would never come around again
+		int buckets = 50_000;
+		ExpiryIndex index = new ExpiryIndex(0, 2 * buckets, 1, Integer.MAX_VALUE);
+		Key k = Key.createRandomKey();
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicInteger scheduled = new AtomicInteger();
+		Thread t = new Thread(() -> {
+			while(!stop.get()) {
+				// already expired, lands in whichever bucket is being drained
+				index.schedule(k, 0);
+				scheduled.incrementAndGet();
+			}
+		});
+		t.start();
+		int visited = 0;
+		for(long now=1;now<=buckets;now++)
+			visited += index.drain(now, key -> {});
+		stop.set(true);
+		t.join();
+		visited += index.drain(buckets + 2, key -> {});
+		assertEquals(scheduled.get(), visited);
+	}
+
+	@Test
+	public void testKeyBudgetPerTick() throws UnknownHostException {
+		for(Database db : new Database[] {new Database(), new OffHeapDatabase()}) {
+			int keys = DHTConstants.DB_EXPIRY_KEYS_PER_TICK + 100;
+			for(int i=0;i<keys;i++)
+				db.store(Key.createRandomKey(), item(i, false));
+
+			clock.advance(DHTConstants.MAX_ITEM_AGE + BUCKET);
+			db.expire(clock.current());
+			assertEquals(100, db.getStats().getKeyCount());
+			db.expire(clock.current());
+			assertEquals(0, db.getStats().getKeyCount());
+			clock.set(START);
+		}
+	}
+
+	@Test
+	public void testItemBudgetPerKey() throws UnknownHostException {
+		for(Database db : new Database[] {new Database(), new OffHeapDatabase()}) {
+			Key k = Key.createRandomKey();
+			int limit = DHTConstants.MAX_DB_ENTRIES_PER_KEY / 5;
+			for(int i=0;i<limit + 50;i++)
+				db.store(k, item(i, false));
+			clock.advance(5 * BUCKET);
+			db.store(k, item(1_000_000, false));
+
+			clock.set(START + DHTConstants.MAX_ITEM_AGE + BUCKET);
+			db.expire(clock.current());
+			assertEquals(51, db.largestSetSize(k));
+			// the remainder is retried once the current bucket has passed
+			db.expire(clock.current());
+			assertEquals(51, db.largestSetSize(k));
+			clock.advance(BUCKET);
+			db.expire(clock.current());
+			assertEquals(1, db.largestSetSize(k));
+			clock.advance(5 * BUCKET);
+			db.expire(clock.current());
+			assertEquals(-1, db.largestSetSize(k));
+			clock.set(START);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+package lbms.plugins.mldht.kad;
+
+import static lbms.plugins.mldht.kad.TestItems.item;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lbms.plugins.mldht.kad.Database.PeersSeeds;
+
+public class DatabaseSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	ManualClock clock;
+
+	@Before
+	public void installClock() {
+		clock = ManualClock.install(100_000_000);
+	}
+
+	@After
+	public void restoreClock() {
+		ManualClock.restore();
+	}
+
+	static Set<String> describe(PeersSeeds entry) {
+		return Stream.concat(entry.seeds().stream(), entry.peers().stream()).map(it -> it + " " + it.getCreatedAt()).collect(Collectors.toSet());
+	}
+
+	void fill(Database db) throws IOException {
+		Random rnd = new Random(3);
+		for(int n=0;n<20000;n++) {
+			byte[] raw = new byte[rnd.nextBoolean() ? 4 : 16];
+			rnd.nextBytes(raw);
+			PeerAddressDBItem it = PeerAddressDBItem.createFromAddress(InetAddress.getByAddress(raw), 1 + rnd.nextInt(65535), rnd.nextBoolean());
+			if(rnd.nextBoolean())
+				it.setVersion(new byte[] {'L', 'T', 1, 2});
+			db.store(new Key(new byte[] {(byte) rnd.nextInt(50), 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19}), it);
+			if(n == 10000)
+				clock.advance(DHTConstants.MAX_ITEM_AGE / 2);
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("peers.cache");
+		for(Database source : new Database[] {new Database(), new OffHeapDatabase()}) {
+			fill(source);
+			int written = DatabaseSnapshot.save(source, file);
+			assertEquals(20000, written);
+
+			for(Database target : new Database[] {new Database(), new OffHeapDatabase()}) {
+				assertEquals(written, DatabaseSnapshot.load(target, file));
+				Map<Key, PeersSeeds> expected = source.getData();
+				Map<Key, PeersSeeds> actual = target.getData();
+				assertEquals(expected.keySet(), actual.keySet());
+				for(Key k : expected.keySet())
+					assertEquals(describe(expected.get(k)), describe(actual.get(k)));
+			}
+			clock.set(100_000_000);
+		}
+		assertEquals(1, Files.list(folder.getRoot().toPath()).count());
+	}
+
+	@Test
+	public void testExpiredItemsAreDropped() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("peers.cache");
+		Database source = new Database();
+		fill(source);
+		DatabaseSnapshot.save(source, file);
+
+		// only the items of the second half are still alive
+		clock.advance(DHTConstants.MAX_ITEM_AGE / 2);
+		Database target = new Database();
+		assertEquals(20000 - 10001, DatabaseSnapshot.load(target, file));
+		assertTrue(target.getData().values().stream().flatMap(e -> Stream.concat(e.seeds().stream(), e.peers().stream())).noneMatch(it -> it.expired(clock.current())));
+	}
+
+	@Test
+	public void testRestoreKeepsLiveItems() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("peers.cache");
+		Key k = Key.createRandomKey();
+		Database source = new Database();
+		source.store(k, item(0, false));
+		source.store(k, item(1, false));
+		DatabaseSnapshot.save(source, file);
+
+		clock.advance(DHTConstants.MAX_ITEM_AGE / 2);
+		long live = clock.current();
+		for(Database target : new Database[] {new Database(), new OffHeapDatabase()}) {
+			// announced again before the snapshot is loaded, now as a seed
+			target.store(k, item(0, true));
+			DatabaseSnapshot.load(target, file);
+
+			PeersSeeds entry = target.getData().get(k);
+			assertEquals(1, entry.seeds().size());
+			assertEquals(live, entry.seeds().snapshot()[0].getCreatedAt());
+			assertEquals(1, entry.peers().size());
+
+			// the key was created by the live announce, the restored peer still has to expire at its own time
+			clock.advance(DHTConstants.MAX_ITEM_AGE / 2 + DHTConstants.DB_EXPIRY_BUCKET);
+			target.expire(clock.current());
+			entry = target.getData().get(k);
+			assertEquals(0, entry.peers().size());
+			assertEquals(1, entry.seeds().size());
+			clock.set(live);
+		}
+	}
+
+	@Test
+	public void testTruncatedSnapshot() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("peers.cache");
+		Database source = new Database();
+		fill(source);
+		DatabaseSnapshot.save(source, file);
+
+		long size = Files.size(file);
+		try(FileChannel chan = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			chan.truncate(size / 2);
+		}
+
+		Database target = new Database();
+		int loaded = DatabaseSnapshot.load(target, file);
+		assertTrue(loaded > 5000 && loaded < 15000);
+		assertEquals(loaded, target.getStats().getItemCount());
+	}
+
+}
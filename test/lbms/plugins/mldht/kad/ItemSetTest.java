@@ -0,0 +1,114 @@
+package lbms.plugins.mldht.kad;
+
+import static lbms.plugins.mldht.kad.TestItems.item;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Database.ItemSet;
+
+public class ItemSetTest {
+
+	@Test
+	public void testInsertReplaceRemove() throws UnknownHostException {
+		Database db = new Database();
+		Key k = Key.createRandomKey();
+		Random rnd = new Random(1);
+
+		// reference model: address -> seed flag
+		boolean[] present = new boolean[2000];
+		boolean[] seed = new boolean[2000];
+
+		for(int n=0;n<20000;n++) {
+			int i = rnd.nextInt(present.length);
+			boolean s = rnd.nextBoolean();
+			db.store(k, item(i, s));
+			present[i] = true;
+			seed[i] = s;
+		}
+
+		Database.PeersSeeds entry = db.getData().get(k);
+		Set<PeerAddressDBItem> expectedSeeds = new HashSet<>();
+		Set<PeerAddressDBItem> expectedPeers = new HashSet<>();
+		for(int i=0;i<present.length;i++) {
+			if(present[i])
+				(seed[i] ? expectedSeeds : expectedPeers).add(item(i, seed[i]));
+		}
+
+		assertEquals(expectedSeeds.size(), entry.seeds().size());
+		assertEquals(expectedPeers.size(), entry.peers().size());
+		assertEquals(expectedSeeds, entry.seeds().stream().collect(Collectors.toSet()));
+		assertEquals(expectedPeers, entry.peers().stream().collect(Collectors.toSet()));
+		entry.peers().stream().forEach(it -> assertFalse(it.isSeed()));
+	}
+
+	@Test
+	public void testSampleDistinct() throws UnknownHostException {
+		Database db = new Database();
+		Key k = Key.createRandomKey();
+		for(int i=0;i<500;i++)
+			db.store(k, item(i, false));
+		ItemSet set = db.getData().get(k).peers();
+
+		for(int round=0;round<100;round++) {
+			List<PeerAddressDBItem> sample = new ArrayList<>();
+			set.sample(sample, 50);
+			assertEquals(50, sample.size());
+			assertEquals(50, new HashSet<>(sample).size());
+		}
+
+		List<DBItem> all = db.sample(k, 1000, DHTtype.IPV4_DHT, false);
+		assertEquals(500, all.size());
+		assertEquals(500, new HashSet<>(all).size());
+
+		List<DBItem> prefilled = new ArrayList<>();
+		prefilled.add(item(9999, true));
+		set.sample(prefilled, 20);
+		assertEquals(20, prefilled.size());
+		assertTrue(prefilled.get(0).equals(item(9999, true)));
+	}
+
+	@Test
+	public void testExpire() throws UnknownHostException {
+		ManualClock clock = ManualClock.install(1_000_000);
+
+		try {
+			Database db = new Database();
+			Key k = Key.createRandomKey();
+			for(int i=0;i<300;i++)
+				db.store(k, item(i, false));
+			clock.advance(DHTConstants.MAX_ITEM_AGE / 2);
+			Set<PeerAddressDBItem> fresh = new HashSet<>();
+			for(int i=1000;i<1100;i++) {
+				db.store(k, item(i, false));
+				fresh.add(item(i, false));
+			}
+
+			// expiry works in whole buckets
+			clock.advance(DHTConstants.MAX_ITEM_AGE / 2 + DHTConstants.DB_EXPIRY_BUCKET);
+			db.expire(clock.current());
+
+			ItemSet peers = db.getData().get(k).peers();
+			assertEquals(100, peers.size());
+			assertEquals(fresh, peers.stream().collect(Collectors.toSet()));
+
+			// index still consistent after the moves
+			db.store(k, item(1000, true));
+			assertEquals(99, peers.size());
+		} finally {
+			ManualClock.restore();
+		}
+	}
+
+}
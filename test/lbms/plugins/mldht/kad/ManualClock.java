@@ -0,0 +1,51 @@
+package lbms.plugins.mldht.kad;
+
+import java.util.concurrent.TimeUnit;
+
+import lbms.plugins.mldht.kad.utils.TimeSource;
+
+/**
+ * Time source for tests that only moves when told to. Install it before the code under test reads the time and restore the system
+ * clock afterwards, the installed source is global.
+ */
+final class ManualClock extends TimeSource {
+
+	private volatile long millis;
+
+	private ManualClock(long start) {
+		millis = start;
+	}
+
+	static ManualClock install(long start) {
+		ManualClock c = new ManualClock(start);
+		TimeSource.install(c);
+		return c;
+	}
+
+	static void restore() {
+		TimeSource.install(null);
+	}
+
+	long current() {
+		return millis;
+	}
+
+	void set(long millis) {
+		this.millis = millis;
+	}
+
+	void advance(long delta) {
+		millis += delta;
+	}
+
+	@Override
+	protected long millis() {
+		return millis;
+	}
+
+	@Override
+	protected long nanos() {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+}
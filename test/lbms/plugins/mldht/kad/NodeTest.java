@@ -1,5 +1,6 @@
 package lbms.plugins.mldht.kad;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -7,6 +8,7 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.junit.Before;
@@ -71,4 +73,33 @@ public class NodeTest {
 		
 	}
 
+	@Test
+	public void testBulkLoadMatchesIncrementalInsertion() {
+		Node incremental = NodeFactory.buildDHT().getNode();
+		incremental.initKey(null);
+		Node bulk = NodeFactory.buildDHT().getNode();
+		bulk.initKey(null);
+		
+		// uniform keys plus a dense cluster that forces deep splits
+		Prefix p = new Prefix(Key.createRandomKey(), 30);
+		List<KBucketEntry> entries = new ArrayList<>();
+		for(int i=0;i<2000;i++) {
+			Key id = i % 4 == 0 ? p.createRandomKeyFromPrefix() : Key.createRandomKey();
+			entries.add(new KBucketEntry(new InetSocketAddress(NodeFactory.generateIp((byte) 0), 1024 + i), id));
+		}
+		
+		for(KBucketEntry e : entries)
+			incremental.insertEntry(e, EnumSet.of(InsertOptions.ALWAYS_SPLIT_IF_FULL, InsertOptions.FORCE_INTO_MAIN_BUCKET));
+		bulk.bulkLoad(entries);
+		
+		assertEquals(describe(incremental), describe(bulk));
+		// the incremental counter is only an estimate until the next bucket check, the bulk one is exact
+		assertEquals(entries.size(), bulk.table().stream().mapToInt(e -> e.getBucket().getNumEntries()).sum());
+		assertEquals(entries.size(), bulk.getNumEntriesInRoutingTable());
+	}
+	
+	static List<String> describe(Node n) {
+		return n.table().stream().map(e -> e.prefix + " " + e.getBucket().entriesStream().map(KBucketEntry::getID).sorted().map(Key::toString).collect(Collectors.joining(","))).collect(Collectors.toList());
+	}
+
 }
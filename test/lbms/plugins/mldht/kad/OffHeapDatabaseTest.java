@@ -0,0 +1,122 @@
+package lbms.plugins.mldht.kad;
+
+import static lbms.plugins.mldht.kad.TestItems.mixedItem;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Database.PeersSeeds;
+
+public class OffHeapDatabaseTest {
+
+	static PeerAddressDBItem item(Random rnd, int i, boolean seed) throws UnknownHostException {
+		PeerAddressDBItem it = mixedItem(i, 1024 + rnd.nextInt(60000), seed);
+		if(rnd.nextBoolean())
+			it.setVersion(new byte[] {'L', 'T', (byte) i, 1});
+		return it;
+	}
+
+	static Set<String> describe(Stream<PeerAddressDBItem> items) {
+		// toString covers address, port, seed flag and version
+		return items.map(PeerAddressDBItem::toString).collect(Collectors.toSet());
+	}
+
+	@Test
+	public void testMatchesHeapDatabase() throws UnknownHostException {
+		Database heap = new Database();
+		OffHeapDatabase offHeap = new OffHeapDatabase();
+		Random rnd = new Random(7);
+		Key[] keys = {Key.createRandomKey(), Key.createRandomKey(), Key.createRandomKey()};
+
+		for(int n=0;n<30000;n++) {
+			Key k = keys[rnd.nextInt(keys.length)];
+			PeerAddressDBItem it = item(rnd, rnd.nextInt(3000), rnd.nextBoolean());
+			heap.store(k, it);
+			offHeap.store(k, it);
+		}
+
+		Map<Key, PeersSeeds> expected = heap.getData();
+		Map<Key, PeersSeeds> actual = offHeap.getData();
+		assertEquals(expected.keySet(), actual.keySet());
+		for(Key k : keys) {
+			assertEquals(describe(expected.get(k).seeds().stream()), describe(actual.get(k).seeds().stream()));
+			assertEquals(describe(expected.get(k).peers().stream()), describe(actual.get(k).peers().stream()));
+			assertEquals(heap.largestSetSize(k), offHeap.largestSetSize(k));
+			for(boolean seeds : new boolean[] {true, false})
+				assertArrayEquals(heap.createScrapeFilter(k, seeds).serialize(), offHeap.createScrapeFilter(k, seeds).serialize());
+		}
+
+		assertEquals(heap.getStats().getItemCount(), offHeap.getStats().getItemCount());
+		assertEquals(3, offHeap.getStats().getKeyCount());
+	}
+
+	@Test
+	public void testSample() throws UnknownHostException {
+		OffHeapDatabase db = new OffHeapDatabase();
+		Random rnd = new Random(3);
+		Key k = Key.createRandomKey();
+		for(int i=0;i<500;i++)
+			db.store(k, item(rnd, i, i % 5 == 0));
+
+		assertNull(db.sample(Key.createRandomKey(), 50, DHTtype.IPV4_DHT, false));
+
+		for(int round=0;round<100;round++) {
+			List<DBItem> sample = db.sample(k, 50, DHTtype.IPV4_DHT, true);
+			assertEquals(50, sample.size());
+			assertEquals(50, new HashSet<>(sample).size());
+			assertTrue(sample.stream().noneMatch(it -> ((PeerAddressDBItem) it).isSeed()));
+		}
+
+		List<DBItem> all = db.sample(k, 1000, DHTtype.IPV4_DHT, false);
+		assertEquals(500, new HashSet<>(all).size());
+	}
+
+	@Test
+	public void testExpireReleasesMemory() throws UnknownHostException {
+		ManualClock clock = ManualClock.install(1_000_000);
+
+		try {
+			OffHeapDatabase db = new OffHeapDatabase();
+			Random rnd = new Random(5);
+			Key old = Key.createRandomKey();
+			Key fresh = Key.createRandomKey();
+			for(int i=0;i<1000;i++)
+				db.store(old, item(rnd, i, false));
+			long used = db.getUsedBytes();
+
+			clock.advance(DHTConstants.MAX_ITEM_AGE / 2);
+			for(int i=0;i<10;i++)
+				db.store(fresh, item(rnd, i, true));
+			clock.advance(DHTConstants.MAX_ITEM_AGE / 2 + DHTConstants.DB_EXPIRY_BUCKET);
+			db.expire(clock.current());
+
+			assertEquals(-1, db.largestSetSize(old));
+			assertEquals(10, db.largestSetSize(fresh));
+			assertEquals(1, db.getStats().getKeyCount());
+			assertTrue(db.getUsedBytes() < used);
+
+			// freed blocks get reused
+			long reserved = db.getReservedBytes();
+			for(int i=0;i<1000;i++)
+				db.store(old, item(rnd, i, false));
+			assertEquals(reserved, db.getReservedBytes());
+			assertEquals(1000, db.largestSetSize(old));
+		} finally {
+			ManualClock.restore();
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package lbms.plugins.mldht.kad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PackedEntryListTest {
+
+	@Test
+	public void testLookups() throws UnknownHostException {
+		List<KBucketEntry> list = new ArrayList<>();
+		for(int i=0;i<DHTConstants.MAX_ENTRIES_PER_BUCKET;i++)
+			list.add(new KBucketEntry(new InetSocketAddress(NodeFactory.generateIp((byte) i), 1000 + i), Key.createRandomKey()));
+		KBucketEntry v4 = new KBucketEntry(new InetSocketAddress(InetAddress.getByName("1.2.3.4"), 6881), Key.createRandomKey());
+		list.set(3, v4);
+
+		PackedEntryList packed = new PackedEntryList(list);
+
+		assertEquals(list, packed);
+		for(int i=0;i<list.size();i++) {
+			KBucketEntry e = list.get(i);
+			assertEquals(i, packed.indexOfId(new Key(e.getID())));
+			assertEquals(i, packed.indexOfIP(e.getAddress().getAddress()));
+			assertEquals(i, packed.indexOfAddress(new InetSocketAddress(e.getAddress().getAddress(), e.getAddress().getPort())));
+			assertEquals(e.getID().getLong(0), packed.idLane(i, 0));
+		}
+
+		assertSame(v4, packed.get(packed.indexOfIP(InetAddress.getByName("1.2.3.4"))));
+		assertEquals(-1, packed.indexOfAddress(new InetSocketAddress(InetAddress.getByName("1.2.3.4"), 6882)));
+		assertEquals(-1, packed.indexOfIP(InetAddress.getByName("1.2.3.5")));
+		assertEquals(-1, packed.indexOfId(Key.createRandomKey()));
+		assertEquals(-1, packed.indexOfId(null));
+		assertEquals(-1, packed.indexOfIP(null));
+
+		// key order must match the unsigned lane order for the distance comparisons
+		Key[] keys = list.stream().map(KBucketEntry::getID).toArray(Key[]::new);
+		Arrays.sort(keys);
+		for(int i=1;i<keys.length;i++) {
+			long a = keys[i-1].getLong(0), b = keys[i].getLong(0);
+			assertEquals(true, Long.compareUnsigned(a, b) <= 0);
+		}
+	}
+
+}
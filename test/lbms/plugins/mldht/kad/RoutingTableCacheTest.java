@@ -0,0 +1,169 @@
+package lbms.plugins.mldht.kad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import the8472.bencode.BDecoder;
+import the8472.bencode.BEncoder;
+import the8472.bencode.Tokenizer.BDecodingException;
+import the8472.bencode.Utils;
+
+import lbms.plugins.mldht.kad.Node.InsertOptions;
+
+public class RoutingTableCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static class Collector implements RoutingTableCache.Visitor {
+		List<KBucketEntry> main = new ArrayList<>();
+		List<KBucketEntry> replacements = new ArrayList<>();
+		double estimate;
+		Key oldKey;
+		long timestamp;
+
+		@Override
+		public void mainEntry(KBucketEntry e) {
+			main.add(e);
+		}
+
+		@Override
+		public void replacement(KBucketEntry e) {
+			replacements.add(e);
+		}
+
+		@Override
+		public void log2estimate(double estimate) {
+			this.estimate = estimate;
+		}
+
+		@Override
+		public void oldKey(Key k) {
+			oldKey = k;
+		}
+
+		@Override
+		public void timestamp(long timestamp) {
+			this.timestamp = timestamp;
+		}
+	}
+
+	static List<Map<String, Object>> maps(List<KBucketEntry> entries) {
+		return entries.stream().map(KBucketEntry::toBencoded).collect(Collectors.toList());
+	}
+
+	// byte arrays in readable form so that the maps can be compared
+	static List<String> encoded(List<KBucketEntry> entries) {
+		return maps(entries).stream().map(m -> m.entrySet().stream().map(e -> e.getKey() + "=" + (e.getValue() instanceof byte[] ? Utils.prettyPrint((byte[]) e.getValue()) : e.getValue())).collect(Collectors.joining(" "))).collect(Collectors.toList());
+	}
+
+	Node filledNode() {
+		DHT dht = NodeFactory.buildDHT();
+		Node node = dht.getNode();
+		node.initKey(null);
+		// big enough to span many refills of the window
+		for(int i=0;i<3000;i++) {
+			KBucketEntry e = new KBucketEntry(new InetSocketAddress(NodeFactory.generateIp((byte) 0), 1024 + i), Key.createRandomKey());
+			e.signalResponse(DHTConstants.RPC_CALL_TIMEOUT_MAX);
+			node.insertEntry(e, EnumSet.of(InsertOptions.ALWAYS_SPLIT_IF_FULL, InsertOptions.FORCE_INTO_MAIN_BUCKET));
+		}
+		return node;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Node node = filledNode();
+		Path file = folder.getRoot().toPath().resolve("table.cache");
+		node.saveTable(file);
+
+		List<KBucketEntry> expectedMain = node.table().stream().flatMap(e -> e.getBucket().entriesStream()).collect(Collectors.toList());
+
+		Collector c = new Collector();
+		RoutingTableCache.read(file, c);
+		assertEquals(node.getRootID(), c.oldKey);
+		assertEquals(expectedMain.size(), c.main.size());
+		assertEquals(encoded(expectedMain), encoded(c.main));
+
+		// still readable by the generic decoder
+		Map<String, Object> decoded = new BDecoder().decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+		assertEquals(expectedMain.size(), ((List<?>) decoded.get("mainEntries")).size());
+		assertArrayEquals(node.getRootID().getHash(), (byte[]) decoded.get("oldKey"));
+
+		Node restored = filledNode();
+		int before = restored.getNumEntriesInRoutingTable();
+		restored.loadTable(file);
+		assertTrue(restored.getNumEntriesInRoutingTable() > before);
+
+		assertEquals(1, Files.list(folder.getRoot().toPath()).count());
+	}
+
+	@Test
+	public void testReadsMapEncodedCache() throws IOException {
+		Node node = filledNode();
+		List<KBucketEntry> main = node.table().stream().flatMap(e -> e.getBucket().entriesStream()).collect(Collectors.toList());
+
+		Map<String, Object> table = new TreeMap<>();
+		table.put("mainEntries", maps(main));
+		table.put("replacements", new ArrayList<>());
+		ByteBuffer estimate = ByteBuffer.allocate(8);
+		estimate.putDouble(0, 12.5);
+		table.put("log2estimate", estimate);
+		table.put("timestamp", 1234L);
+		table.put("oldKey", node.getRootID().getHash());
+
+		ByteBuffer buf = new BEncoder().encode(table, 1024 * 1024);
+		Path file = folder.getRoot().toPath().resolve("table.cache");
+		try(FileChannel chan = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			chan.write(buf);
+		}
+
+		Collector c = new Collector();
+		RoutingTableCache.read(file, c);
+		assertEquals(encoded(main), encoded(c.main));
+		assertEquals(12.5, c.estimate, 0.0);
+		assertEquals(1234L, c.timestamp);
+		assertEquals(node.getRootID(), c.oldKey);
+	}
+
+	@Test
+	public void testTruncatedCache() throws IOException {
+		Node node = filledNode();
+		Path file = folder.getRoot().toPath().resolve("table.cache");
+		node.saveTable(file);
+		int total = (int) node.table().stream().flatMap(e -> e.getBucket().entriesStream()).count();
+
+		try(FileChannel chan = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			chan.truncate(chan.size() / 2);
+		}
+
+		Collector c = new Collector();
+		try {
+			RoutingTableCache.read(file, c);
+			fail("truncation not detected");
+		} catch (IOException | BDecodingException e) {
+			// expected
+		}
+		assertTrue(c.main.size() + " of " + total, c.main.size() > total / 4 && c.main.size() < total);
+	}
+
+}
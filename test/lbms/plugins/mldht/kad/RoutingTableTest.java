@@ -1,9 +1,11 @@
 package lbms.plugins.mldht.kad;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -56,4 +58,48 @@ public class RoutingTableTest {
 		test((k) -> table.entryForId(k));
 	}
 
+	@Test
+	public void testBatchMatchesFullRebuild() {
+		table = new RoutingTable();
+		
+		for(int i = 0; i < 300;i++) {
+			RoutingTable.Batch batch = table.batch();
+			Set<RoutingTableEntry> touched = new HashSet<>();
+			
+			// split a few random buckets, some of them twice within the same batch
+			for(int j=0;j<3;j++) {
+				RoutingTableEntry entry = table.entryForId(Key.createRandomKey());
+				if(!touched.add(entry))
+					continue;
+				RoutingTableEntry low = new RoutingTableEntry(entry.prefix.splitPrefixBranch(false), new KBucket(), (x) -> false);
+				RoutingTableEntry high = new RoutingTableEntry(entry.prefix.splitPrefixBranch(true), new KBucket(), (x) -> false);
+				batch.split(entry, low, high);
+				if(j == 0)
+					batch.split(high, new RoutingTableEntry(high.prefix.splitPrefixBranch(false), new KBucket(), (x) -> false), new RoutingTableEntry(high.prefix.splitPrefixBranch(true), new KBucket(), (x) -> false));
+			}
+			
+			// and merge a sibling pair now and then
+			if(i % 3 == 0) {
+				for(int j=1;j<table.size();j++) {
+					RoutingTableEntry e1 = table.get(j-1);
+					RoutingTableEntry e2 = table.get(j);
+					if(e1.prefix.isSiblingOf(e2.prefix) && !touched.contains(e1) && !touched.contains(e2)) {
+						batch.merge(e1, e2, new RoutingTableEntry(e1.prefix.getParentPrefix(), new KBucket(), (x) -> false));
+						break;
+					}
+				}
+			}
+			
+			RoutingTable next = batch.build();
+			RoutingTable rebuilt = new RoutingTable(Arrays.stream(next.entries).sorted().toArray(RoutingTableEntry[]::new));
+			
+			assertArrayEquals(rebuilt.entries, next.entries);
+			assertArrayEquals(rebuilt.indexCache, next.indexCache);
+			for(int j=0;j<next.size();j++)
+				assertEquals(j, next.indexForId(next.get(j).prefix.last()));
+			
+			table = next;
+		}
+	}
+
 }
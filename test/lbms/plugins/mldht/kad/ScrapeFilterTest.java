@@ -0,0 +1,94 @@
+package lbms.plugins.mldht.kad;
+
+import static lbms.plugins.mldht.kad.TestItems.mixedItem;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.Database.ItemSet;
+
+public class ScrapeFilterTest {
+
+	static byte[] rebuilt(ItemSet set) {
+		BloomFilterBEP33 f = new BloomFilterBEP33();
+		set.stream().forEach(it -> f.insert(it.getInetAddress()));
+		return f.serialize();
+	}
+
+	static void assertFiltersCurrent(Database db, Key k) {
+		Database.PeersSeeds entry = db.getData().get(k);
+		assertArrayEquals(rebuilt(entry.seeds()), db.createScrapeFilter(k, true).serialize());
+		assertArrayEquals(rebuilt(entry.peers()), db.createScrapeFilter(k, false).serialize());
+	}
+
+	@Test
+	public void testFiltersFollowModifications() throws UnknownHostException {
+		ManualClock clock = ManualClock.install(1_000_000);
+
+		try {
+			for(Database db : new Database[] {new Database(), new OffHeapDatabase()}) {
+				Random rnd = new Random(11);
+				Key k = Key.createRandomKey();
+				for(int i=0;i<300;i++)
+					db.store(k, mixedItem(i, 6881, rnd.nextBoolean()));
+
+				// starts maintaining the counting filters
+				assertFiltersCurrent(db, k);
+
+				clock.advance(DHTConstants.MAX_ITEM_AGE / 2);
+				// moves between seeds and peers remove from one set
+				for(int n=0;n<2000;n++)
+					db.store(k, mixedItem(rnd.nextInt(600), 6881, rnd.nextBoolean()));
+				assertFiltersCurrent(db, k);
+
+				clock.advance(DHTConstants.MAX_ITEM_AGE / 2 + DHTConstants.DB_EXPIRY_BUCKET);
+				db.expire(clock.current());
+				assertFiltersCurrent(db, k);
+
+				clock.set(1_000_000);
+			}
+		} finally {
+			ManualClock.restore();
+		}
+	}
+
+	@Test
+	public void testFilterSharedUntilModified() throws UnknownHostException {
+		Database db = new Database();
+		Key k = Key.createRandomKey();
+		db.store(k, mixedItem(1, 6881, false));
+
+		BloomFilterBEP33 first = db.createScrapeFilter(k, false);
+		assertSame(first, db.createScrapeFilter(k, false));
+		// replacing an item keeps the bitmap
+		db.store(k, mixedItem(1, 6881, false));
+		assertSame(first, db.createScrapeFilter(k, false));
+
+		db.store(k, mixedItem(2, 6881, false));
+		BloomFilterBEP33 second = db.createScrapeFilter(k, false);
+		assertNotSame(first, second);
+		assertEquals(1, first.size());
+		assertEquals(2, second.size());
+	}
+
+	@Test
+	public void testCountingRemoval() {
+		CountingBloomFilterBEP33 counts = new CountingBloomFilterBEP33();
+		int a = 3 | 7 << 16;
+		int b = 7 | 9 << 16;
+		counts.add(a);
+		counts.add(b);
+		counts.remove(a);
+
+		BloomFilterBEP33 expected = new BloomFilterBEP33();
+		expected.insert(b);
+		assertArrayEquals(expected.serialize(), counts.toFilter().serialize());
+	}
+
+}
@@ -0,0 +1,81 @@
+package lbms.plugins.mldht.kad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SendPacerTest {
+
+	static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testBurstThenRate() {
+		long now = 0;
+		SendPacer p = new SendPacer(now);
+
+		for(int i=0;i<SendPacer.BURST;i++)
+			assertTrue(p.tryAcquire(now));
+		assertFalse(p.tryAcquire(now));
+
+		long wait = p.nanosUntilToken(now);
+		assertEquals(SECOND / (long) SendPacer.INITIAL_RATE, wait, 1);
+		assertTrue(p.tryAcquire(now + wait));
+
+		// refunds don't exceed the burst size
+		for(int i=0;i<100;i++)
+			p.refund();
+		int sent = 0;
+		while(p.tryAcquire(now + wait))
+			sent++;
+		assertEquals((int) SendPacer.BURST, sent);
+	}
+
+	@Test
+	public void testAimd() {
+		long now = 0;
+		SendPacer p = new SendPacer(now);
+
+		// no probing while the rate isn't used
+		now += SendPacer.ADJUST_INTERVAL;
+		p.adjust(now, 0, -1);
+		assertEquals(SendPacer.INITIAL_RATE, p.getRate(), 0);
+
+		while(p.tryAcquire(now));
+		now += SendPacer.ADJUST_INTERVAL;
+		p.adjust(now, 0, -1);
+		assertEquals(SendPacer.INITIAL_RATE + SendPacer.INCREASE, p.getRate(), 0);
+
+		double before = p.getRate();
+		now += SendPacer.ADJUST_INTERVAL;
+		p.adjust(now, 1.0, -1);
+		assertEquals(before * SendPacer.DECREASE, p.getRate(), 0.001);
+
+		// the loss signal lags, further decreases wait for the holdoff
+		now += SendPacer.ADJUST_INTERVAL;
+		p.adjust(now, 1.0, -1);
+		assertEquals(before * SendPacer.DECREASE, p.getRate(), 0.001);
+		now += SendPacer.DECREASE_HOLDOFF;
+		p.adjust(now, 1.0, -1);
+		assertEquals(before * SendPacer.DECREASE * SendPacer.DECREASE, p.getRate(), 0.001);
+		assertEquals(2, p.getDecreaseCount());
+
+		// RTT inflation relative to the floor is a congestion signal too
+		now += SendPacer.DECREASE_HOLDOFF;
+		p.adjust(now, 0, 100);
+		double rate = p.getRate();
+		now += SendPacer.ADJUST_INTERVAL;
+		p.adjust(now, 0, 300);
+		assertTrue(p.getRate() < rate);
+
+		for(int i=0;i<100;i++) {
+			now += SendPacer.DECREASE_HOLDOFF;
+			p.adjust(now, 1.0, -1);
+		}
+		assertEquals(SendPacer.MIN_RATE, p.getRate(), 0);
+	}
+
+}
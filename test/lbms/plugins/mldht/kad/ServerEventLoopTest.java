@@ -0,0 +1,56 @@
+package lbms.plugins.mldht.kad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ServerEventLoopTest {
+
+	@Test
+	public void testRunsInOrderOnOneThread() throws InterruptedException {
+		ServerEventLoop loop = new ServerEventLoop("test loop");
+		List<Integer> order = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		CountDownLatch blocker = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+
+		loop.execute(() -> {
+			try {
+				blocker.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		for(int i=0;i<100;i++) {
+			int n = i;
+			loop.execute(() -> {
+				order.add(n);
+				threads.add(Thread.currentThread());
+			});
+		}
+		// a failing task must not take down the loop
+		loop.execute(() -> {
+			throw new IllegalStateException("expected");
+		});
+		loop.execute(done::countDown);
+
+		assertTrue(loop.getQueueDepth() >= 100);
+		blocker.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+
+		for(int i=0;i<100;i++)
+			assertEquals(i, (int) order.get(i));
+		assertEquals(1, threads.stream().distinct().count());
+		assertEquals("test loop", threads.get(0).getName());
+		assertTrue(loop.getMaxQueueDepth() >= 100);
+		assertTrue(loop.getMaxQueueLatency() > 0);
+		assertEquals(103, loop.getExecutedCount());
+	}
+
+}
@@ -0,0 +1,31 @@
+package lbms.plugins.mldht.kad;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Peer items with distinct addresses for database tests
+ */
+final class TestItems {
+
+	private TestItems() {}
+
+	/**
+	 * @return IPv4 item, distinct for each i below 2^24
+	 */
+	static PeerAddressDBItem item(int i, boolean seed) throws UnknownHostException {
+		return PeerAddressDBItem.createFromAddress(InetAddress.getByAddress(new byte[] {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}), 6881, seed);
+	}
+
+	/**
+	 * @return IPv4 item for even i, IPv6 for odd, distinct for each i below 2^16
+	 */
+	static PeerAddressDBItem mixedItem(int i, int port, boolean seed) throws UnknownHostException {
+		byte[] raw = new byte[(i & 1) == 0 ? 4 : 16];
+		raw[0] = 10;
+		raw[raw.length - 2] = (byte) (i >> 8);
+		raw[raw.length - 1] = (byte) i;
+		return PeerAddressDBItem.createFromAddress(InetAddress.getByAddress(raw), port, seed);
+	}
+
+}
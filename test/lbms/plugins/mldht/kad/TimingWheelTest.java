@@ -0,0 +1,86 @@
+package lbms.plugins.mldht.kad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.messages.PingRequest;
+
+public class TimingWheelTest {
+
+	static class CountingCall extends RPCCall {
+		final AtomicInteger checks = new AtomicInteger();
+		volatile long firedAt;
+
+		CountingCall() {
+			super(new PingRequest());
+		}
+
+		@Override
+		void checkStallOrTimeout() {
+			firedAt = System.currentTimeMillis();
+			checks.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void testScheduleAndCancel() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel();
+
+		CountingCall early = new CountingCall();
+		CountingCall late = new CountingCall();
+		CountingCall cancelled = new CountingCall();
+
+		long start = System.currentTimeMillis();
+		wheel.schedule(early, 10);
+		wheel.schedule(late, 200);
+		wheel.schedule(cancelled, 10);
+		assertEquals(3, wheel.size());
+
+		wheel.cancel(cancelled);
+		// cancelling twice is harmless
+		wheel.cancel(cancelled);
+		assertEquals(2, wheel.size());
+
+		Thread.sleep(50);
+		wheel.advance();
+
+		assertEquals(1, early.checks.get());
+		assertTrue(early.firedAt - start >= 10);
+		assertEquals(0, late.checks.get());
+		assertEquals(0, cancelled.checks.get());
+		assertEquals(1, wheel.size());
+
+		// re-scheduling replaces the previous deadline
+		wheel.schedule(late, 0);
+		assertEquals(1, wheel.size());
+		Thread.sleep(10);
+		wheel.advance();
+		assertEquals(1, late.checks.get());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testManyCallsSameSlot() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel();
+		CountingCall[] calls = new CountingCall[1000];
+		for(int i=0;i<calls.length;i++) {
+			calls[i] = new CountingCall();
+			wheel.schedule(calls[i], 5);
+		}
+		// remove every other one from the middle of the slot list
+		for(int i=0;i<calls.length;i+=2)
+			wheel.cancel(calls[i]);
+
+		Thread.sleep(20);
+		wheel.advance();
+
+		for(int i=0;i<calls.length;i++)
+			assertEquals(i % 2, calls[i].checks.get());
+		assertEquals(0, wheel.size());
+	}
+
+}
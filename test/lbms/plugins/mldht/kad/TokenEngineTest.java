@@ -0,0 +1,79 @@
+package lbms.plugins.mldht.kad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenEngineTest {
+
+	ManualClock clock;
+
+	@Before
+	public void installClock() {
+		clock = ManualClock.install(1_000_000);
+	}
+
+	@After
+	public void restoreClock() {
+		ManualClock.restore();
+	}
+
+	static TokenEngine[] engines() {
+		return new TokenEngine[] {new SipHashTokenEngine(), new Sha1TokenEngine()};
+	}
+
+	@Test
+	public void testValidityWindow() throws UnknownHostException {
+		for(InetAddress ip : new InetAddress[] {InetAddress.getByName("192.0.2.7"), InetAddress.getByName("2001:db8::7")}) {
+			for(TokenEngine engine : engines()) {
+				Key node = Key.createRandomKey();
+				Key target = Key.createRandomKey();
+				byte[] token = engine.generate(node, ip, 6881, target);
+				assertEquals(TokenEngine.TOKEN_LENGTH, token.length);
+				assertTrue(engine.check(token, node, ip, 6881, target));
+
+				// rotated once, accepted under the previous secret
+				clock.advance(DHTConstants.TOKEN_TIMEOUT + 1);
+				assertTrue(engine.check(token, node, ip, 6881, target));
+
+				clock.advance(DHTConstants.TOKEN_TIMEOUT + 1);
+				assertFalse(engine.check(token, node, ip, 6881, target));
+			}
+		}
+	}
+
+	@Test
+	public void testBoundToRequest() throws UnknownHostException {
+		InetAddress ip = InetAddress.getByName("192.0.2.7");
+		InetAddress other = InetAddress.getByName("192.0.2.8");
+		for(TokenEngine engine : engines()) {
+			Key node = Key.createRandomKey();
+			Key target = Key.createRandomKey();
+			byte[] token = engine.generate(node, ip, 6881, target);
+
+			assertFalse(engine.check(token, node, other, 6881, target));
+			assertFalse(engine.check(token, node, ip, 6882, target));
+			assertFalse(engine.check(token, Key.createRandomKey(), ip, 6881, target));
+			assertFalse(engine.check(token, node, ip, 6881, Key.createRandomKey()));
+			assertFalse(engine.check(new byte[] {token[0], token[1], token[2]}, node, ip, 6881, target));
+		}
+	}
+
+	@Test
+	public void testSipHashVector() {
+		// reference vector from the SipHash paper: key 00..0f, 16 byte message 00..0f
+		SipHashTokenEngine.SipHash h = new SipHashTokenEngine.SipHash();
+		h.init(0x0706050403020100L, 0x0f0e0d0c0b0a0908L);
+		h.update(0x0706050403020100L);
+		h.update(0x0f0e0d0c0b0a0908L);
+		assertEquals(0x3f2acc7f57c29bdbL, h.finish());
+	}
+
+}
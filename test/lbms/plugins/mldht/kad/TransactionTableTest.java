@@ -0,0 +1,91 @@
+package lbms.plugins.mldht.kad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.messages.PingRequest;
+
+public class TransactionTableTest {
+
+	static RPCCall call() {
+		return new RPCCall(new PingRequest());
+	}
+
+	@Test
+	public void testInsertLookupRemove() {
+		TransactionTable table = new TransactionTable(256);
+
+		List<RPCCall> calls = new ArrayList<>();
+		for(int i=0;i<256;i++) {
+			RPCCall c = call();
+			assertTrue(table.insert(c));
+			assertEquals(TransactionTable.MTID_LENGTH, c.getRequest().getMTID().length);
+			calls.add(c);
+		}
+
+		assertEquals(256, table.size());
+		assertTrue(table.occupancy() <= 0.25);
+		// bounded by the configured number of active calls
+		assertFalse(table.insert(call()));
+
+		for(RPCCall c : calls)
+			assertSame(c, table.get(c.getRequest().getMTID()));
+
+		assertNull(table.get(new byte[TransactionTable.MTID_LENGTH - 1]));
+
+		for(RPCCall c : calls) {
+			assertTrue(table.remove(c));
+			assertFalse(table.remove(c));
+			assertNull(table.get(c.getRequest().getMTID()));
+		}
+
+		assertEquals(0, table.size());
+		assertTrue(table.insert(call()));
+		assertTrue(table.averageInsertProbes() >= 1.0);
+	}
+
+	@Test
+	public void testConcurrentChurn() throws Exception {
+		TransactionTable table = new TransactionTable(1024);
+		int threads = 4;
+		ExecutorService exec = Executors.newFixedThreadPool(threads);
+
+		List<Future<?>> futures = new ArrayList<>();
+		for(int t=0;t<threads;t++) {
+			futures.add(exec.submit(() -> {
+				List<RPCCall> own = new ArrayList<>();
+				for(int round=0;round<200;round++) {
+					for(int i=0;i<100;i++) {
+						RPCCall c = call();
+						if(table.insert(c))
+							own.add(c);
+					}
+					for(RPCCall c : own) {
+						assertSame(c, table.get(c.getRequest().getMTID()));
+						assertTrue(table.remove(c));
+					}
+					own.clear();
+				}
+			}));
+		}
+
+		for(Future<?> f : futures)
+			f.get(60, TimeUnit.SECONDS);
+		exec.shutdown();
+
+		assertEquals(0, table.size());
+	}
+
+}
@@ -0,0 +1,247 @@
+package lbms.plugins.mldht.kad.messages;
+
+import static lbms.plugins.mldht.kad.messages.MessageEncodingTest.prepare;
+import static lbms.plugins.mldht.kad.messages.MessageEncodingTest.randomBytes;
+import static lbms.plugins.mldht.kad.messages.MessageEncodingTest.randomNodes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.BloomFilterBEP33;
+import lbms.plugins.mldht.kad.DBItem;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.NodeList.AddressType;
+import lbms.plugins.mldht.kad.PeerAddressDBItem;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+import the8472.bencode.BDecoder;
+import the8472.bencode.BEncoder;
+import the8472.bencode.Utils;
+
+/**
+ * Differential test, any message the direct decoder accepts must be identical to the one produced by the map-based path.
+ */
+public class DirectDecodingTest {
+
+	static final Function<byte[], Optional<Method>> MAPPER = mtid -> {
+		if(mtid.length < 2)
+			return Optional.empty();
+		switch(new String(mtid, 0, 2, StandardCharsets.ISO_8859_1)) {
+			case "pi": return Optional.of(Method.PING);
+			case "fn": return Optional.of(Method.FIND_NODE);
+			case "gp": return Optional.of(Method.GET_PEERS);
+			case "an": return Optional.of(Method.ANNOUNCE_PEER);
+			case "ge": return Optional.of(Method.GET);
+			case "pu": return Optional.of(Method.PUT);
+			default: return Optional.empty();
+		}
+	};
+
+	static MessageBase viaMap(ByteBuffer raw) {
+		try {
+			MessageDecoder dec = new MessageDecoder(MAPPER, DHTtype.IPV4_DHT);
+			dec.toDecode(raw.duplicate(), new BDecoder().decode(raw.duplicate()));
+			return dec.parseMessage();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	static String describe(MessageBase msg) {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		new BEncoder().encodeInto(msg.getBase(), buf);
+		return msg.getClass().getSimpleName() + " " + msg.getType() + " " + msg.getMethod() + " " + Utils.buf2str(buf) + " v=" + msg.getVersion().map(Arrays::toString).orElse("") + " ip=" + msg.getPublicIP() + " " + msg;
+	}
+
+	/**
+	 * @return true if the fast path handled the message
+	 */
+	static boolean assertEquivalent(ByteBuffer raw) {
+		MessageBase direct = new MessageDecoder(MAPPER, DHTtype.IPV4_DHT).parseDirect(raw);
+
+		if(direct == null)
+			return false;
+
+		MessageBase reference = viaMap(raw);
+		String input = Utils.stripToAscii(raw);
+
+		assertNotNull("direct path accepted input rejected by the map path: " + input, reference);
+		assertEquals(input, describe(reference), describe(direct));
+
+		return true;
+	}
+
+	static ByteBuffer unescape(String line) {
+		ByteBuffer buf = ByteBuffer.allocate(line.length());
+		for(int i=0;i<line.length();i++) {
+			char c = line.charAt(i);
+			if(c == '\\' && line.charAt(i+1) == 'x') {
+				buf.put((byte) Integer.parseInt(line.substring(i+2, i+4), 16));
+				i += 3;
+				continue;
+			}
+			buf.put((byte) c);
+		}
+		buf.flip();
+		return buf;
+	}
+
+	@Test
+	public void testCorpus() throws IOException {
+		int lines = 0;
+
+		try(BufferedReader r = new BufferedReader(new InputStreamReader(DirectDecodingTest.class.getResourceAsStream("decoding-corpus.txt"), StandardCharsets.ISO_8859_1))) {
+			String line;
+			while((line = r.readLine()) != null) {
+				if(line.isEmpty() || line.startsWith("#"))
+					continue;
+				boolean expectDirect = line.charAt(0) == '+';
+				ByteBuffer raw = unescape(line.substring(2));
+				assertEquals(line, expectDirect, assertEquivalent(raw));
+				lines++;
+			}
+		}
+
+		assertEquals(true, lines > 50);
+	}
+
+	static List<ByteBuffer> generated() throws IOException {
+		List<MessageBase> msgs = new ArrayList<>();
+
+		msgs.add(prepare(new PingRequest()));
+
+		FindNodeRequest fnr = prepare(new FindNodeRequest(Key.createRandomKey()));
+		fnr.setWant4(true);
+		fnr.setWant6(true);
+		msgs.add(fnr);
+
+		GetPeersRequest gpr = prepare(new GetPeersRequest(Key.createRandomKey()));
+		gpr.setNoSeeds(true);
+		gpr.setScrape(true);
+		msgs.add(gpr);
+
+		GetRequest get = prepare(new GetRequest(Key.createRandomKey()));
+		get.setSeq(12345);
+		msgs.add(get);
+
+		AnnounceRequest ar = prepare(new AnnounceRequest(Key.createRandomKey(), 6881, randomBytes(4)));
+		ar.setSeed(true);
+		ar.setName(ByteBuffer.wrap("ubuntu.iso".getBytes(StandardCharsets.UTF_8)));
+		msgs.add(ar);
+
+		PingResponse ping = prepare(new PingResponse(null));
+		ping.setMTID("pi1234".getBytes(StandardCharsets.ISO_8859_1));
+		ping.setPublicIP(new InetSocketAddress(InetAddress.getByAddress(randomBytes(16)), 1234));
+		msgs.add(ping);
+
+		AnnounceResponse ars = prepare(new AnnounceResponse(null));
+		ars.setMTID("an1234".getBytes(StandardCharsets.ISO_8859_1));
+		msgs.add(ars);
+
+		FindNodeResponse fnrs = prepare(new FindNodeResponse(null));
+		fnrs.setMTID("fn1234".getBytes(StandardCharsets.ISO_8859_1));
+		fnrs.setNodes(randomNodes(AddressType.V4, 8));
+		fnrs.setNodes(randomNodes(AddressType.V6, 8));
+		msgs.add(fnrs);
+
+		GetPeersResponse gprs = prepare(new GetPeersResponse(null));
+		gprs.setMTID("gp1234".getBytes(StandardCharsets.ISO_8859_1));
+		gprs.setNodes(randomNodes(AddressType.V4, 8));
+		gprs.setToken(randomBytes(4));
+		List<DBItem> items = new ArrayList<>();
+		for(int i=0;i<30;i++)
+			items.add(new PeerAddressDBItem(randomBytes(i % 2 == 0 ? 6 : 18), false));
+		gprs.setPeerItems(items);
+		gprs.setScrapePeers(new BloomFilterBEP33());
+		gprs.setScrapeSeeds(randomBytes(BloomFilterBEP33.m / 8));
+		msgs.add(gprs);
+
+		GetResponse getrs = prepare(new GetResponse(null));
+		getrs.setMTID("ge1234".getBytes(StandardCharsets.ISO_8859_1));
+		getrs.setToken(randomBytes(4));
+		getrs.setKey(randomBytes(32));
+		getrs.setSignature(randomBytes(64));
+		getrs.setSequenceNumber(3);
+		getrs.setRawValue(ByteBuffer.wrap("d1:ali1ei2eee".getBytes(StandardCharsets.ISO_8859_1)));
+		msgs.add(getrs);
+
+		List<ByteBuffer> encoded = new ArrayList<>();
+		for(MessageBase msg : msgs) {
+			ByteBuffer buf = ByteBuffer.allocate(1500);
+			msg.encode(buf);
+			encoded.add(buf);
+		}
+		return encoded;
+	}
+
+	@Test
+	public void testGeneratedMessages() throws IOException {
+		for(ByteBuffer raw : generated()) {
+			assertEquals(Utils.stripToAscii(raw), true, assertEquivalent(raw));
+			// direct buffers as used by the batched receive path
+			ByteBuffer direct = ByteBuffer.allocateDirect(raw.remaining());
+			direct.put(raw.duplicate()).flip();
+			assertEquals(true, assertEquivalent(direct));
+		}
+	}
+
+	@Test
+	public void testMutations() throws IOException {
+		Random rnd = new Random(0x5eed);
+
+		for(ByteBuffer original : generated()) {
+			for(int i=0;i<500;i++) {
+				ByteBuffer raw = ByteBuffer.allocate(original.remaining());
+				raw.put(original.duplicate()).flip();
+
+				int mutations = 1 + rnd.nextInt(3);
+				for(int j=0;j<mutations;j++) {
+					int idx = rnd.nextInt(raw.limit());
+					switch(rnd.nextInt(3)) {
+						case 0:
+							raw.put(idx, (byte) rnd.nextInt(256));
+							break;
+						case 1:
+							// favor structural characters to hit the interesting paths
+							raw.put(idx, (byte) "deil0123456789:".charAt(rnd.nextInt(15)));
+							break;
+						default:
+							raw.limit(idx);
+							break;
+					}
+					if(raw.limit() == 0)
+						break;
+				}
+
+				assertEquivalent(raw);
+			}
+		}
+	}
+
+	@Test
+	public void testDecoderIsReusableAfterFailure() throws IOException {
+		MessageDecoder dec = new MessageDecoder(MAPPER, DHTtype.IPV4_DHT);
+		assertNull(dec.parseDirect(unescape("d1:ad2:id20:abcdefghij0123456789e1:q4:ping1:t2:aa1:y1:q")));
+		ByteBuffer valid = unescape("d1:ad2:id20:abcdefghij0123456789e1:q4:ping1:t2:aa1:y1:qe");
+		MessageBase msg = dec.parseDirect(valid);
+		assertNotNull(msg);
+		assertEquals(0, valid.position());
+	}
+
+}
@@ -0,0 +1,124 @@
+package lbms.plugins.mldht.kad.messages;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.BloomFilterBEP33;
+import lbms.plugins.mldht.kad.DBItem;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.NodeList;
+import lbms.plugins.mldht.kad.NodeList.AddressType;
+import lbms.plugins.mldht.kad.PeerAddressDBItem;
+import the8472.bencode.BEncoder;
+import the8472.bencode.Utils;
+
+public class MessageEncodingTest {
+	
+	static byte[] randomBytes(int len) {
+		byte[] b = new byte[len];
+		ThreadLocalRandom.current().nextBytes(b);
+		return b;
+	}
+	
+	static <T extends MessageBase> T prepare(T msg) {
+		msg.setMTID(randomBytes(6));
+		msg.setID(Key.createRandomKey());
+		return msg;
+	}
+	
+	static NodeList randomNodes(AddressType type, int count) {
+		DHTtype t = type == AddressType.V4 ? DHTtype.IPV4_DHT : DHTtype.IPV6_DHT;
+		return NodeList.fromBuffer(ByteBuffer.wrap(randomBytes(t.NODES_ENTRY_LENGTH * count)), type);
+	}
+	
+	void assertSameEncoding(MessageBase msg) throws Exception {
+		ByteBuffer direct = ByteBuffer.allocate(1500);
+		msg.encode(direct);
+		
+		ByteBuffer viaMap = ByteBuffer.allocate(1500);
+		new BEncoder().encodeInto(msg.getBase(), viaMap);
+		
+		assertEquals(Utils.prettyPrint(msg.getBase()), Utils.buf2str(viaMap), Utils.buf2str(direct));
+	}
+	
+	@Test
+	public void testRequests() throws Exception {
+		assertSameEncoding(prepare(new PingRequest()));
+		
+		FindNodeRequest fnr = prepare(new FindNodeRequest(Key.createRandomKey()));
+		assertSameEncoding(fnr);
+		fnr.setWant4(true);
+		assertSameEncoding(fnr);
+		fnr.setWant6(true);
+		assertSameEncoding(fnr);
+		
+		GetPeersRequest gpr = prepare(new GetPeersRequest(Key.createRandomKey()));
+		gpr.setWant6(true);
+		assertSameEncoding(gpr);
+		gpr.setScrape(true);
+		gpr.setNoSeeds(true);
+		assertSameEncoding(gpr);
+		
+		AnnounceRequest ar = prepare(new AnnounceRequest(Key.createRandomKey(), 65535, randomBytes(4)));
+		assertSameEncoding(ar);
+		ar.setSeed(true);
+		ar.setName(ByteBuffer.wrap("ubuntu.iso".getBytes(StandardCharsets.UTF_8)));
+		assertSameEncoding(ar);
+	}
+	
+	@Test
+	public void testResponses() throws Exception {
+		PingResponse ping = prepare(new PingResponse(null));
+		assertSameEncoding(ping);
+		ping.setPublicIP(new InetSocketAddress(InetAddress.getByAddress(randomBytes(4)), 1234));
+		assertSameEncoding(ping);
+		
+		assertSameEncoding(prepare(new AnnounceResponse(null)));
+		
+		FindNodeResponse fnr = prepare(new FindNodeResponse(null));
+		fnr.setNodes(randomNodes(AddressType.V4, 8));
+		assertSameEncoding(fnr);
+		fnr.setNodes(randomNodes(AddressType.V6, 8));
+		fnr.setPublicIP(new InetSocketAddress(InetAddress.getByAddress(randomBytes(16)), 4321));
+		assertSameEncoding(fnr);
+		
+		GetPeersResponse gpr = prepare(new GetPeersResponse(null));
+		gpr.setNodes(randomNodes(AddressType.V4, 8));
+		gpr.setToken(randomBytes(4));
+		assertSameEncoding(gpr);
+		
+		List<DBItem> items = new ArrayList<>();
+		for(int i=0;i<30;i++)
+			items.add(new PeerAddressDBItem(randomBytes(6), false));
+		gpr.setPeerItems(items);
+		assertSameEncoding(gpr);
+		
+		gpr.setScrapePeers(new BloomFilterBEP33());
+		gpr.setScrapeSeeds(randomBytes(BloomFilterBEP33.m / 8));
+		assertSameEncoding(gpr);
+	}
+	
+	@Test
+	public void testErrors() throws Exception {
+		ErrorMessage err = new ErrorMessage(randomBytes(6), ErrorMessage.ErrorCode.ProtocolError.code, "invalid token");
+		assertSameEncoding(err);
+	}
+	
+	@Test
+	public void testFallback() throws Exception {
+		GetResponse rsp = prepare(new GetResponse(null));
+		rsp.setRawValue(ByteBuffer.wrap("4:test".getBytes(StandardCharsets.ISO_8859_1)));
+		assertSameEncoding(rsp);
+	}
+
+}
@@ -0,0 +1,119 @@
+package lbms.plugins.mldht.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.utils.NIOConnectionGroup.Placement;
+
+public class NIOConnectionGroupTest {
+
+	static class PipeEnd implements Selectable {
+		final Pipe pipe;
+		final CountDownLatch registered = new CountDownLatch(1);
+		final CountDownLatch readable = new CountDownLatch(1);
+		volatile NIOConnectionManager manager;
+		volatile boolean wantRead;
+
+		PipeEnd() throws IOException {
+			pipe = Pipe.open();
+			pipe.source().configureBlocking(false);
+		}
+
+		@Override
+		public SelectableChannel getChannel() {
+			return pipe.source();
+		}
+
+		@Override
+		public void registrationEvent(NIOConnectionManager manager, SelectionKey key) throws IOException {
+			this.manager = manager;
+			registered.countDown();
+		}
+
+		@Override
+		public void selectionEvent(SelectionKey key) throws IOException {
+			if(key.isValid() && key.isReadable()) {
+				pipe.source().read(ByteBuffer.allocate(16));
+				readable.countDown();
+			}
+		}
+
+		@Override
+		public void doStateChecks(long now) throws IOException {}
+
+		@Override
+		public int calcInterestOps() {
+			return wantRead ? SelectionKey.OP_READ : 0;
+		}
+
+		void close() throws IOException {
+			pipe.source().close();
+			pipe.sink().close();
+		}
+	}
+
+	@Test
+	public void testLeastLoadedPlacementAndRouting() throws Exception {
+		NIOConnectionGroup group = new NIOConnectionGroup("test", 4, Placement.LEAST_LOADED);
+
+		List<PipeEnd> ends = new ArrayList<>();
+		for(int i=0;i<40;i++) {
+			PipeEnd end = new PipeEnd();
+			NIOConnectionManager placed = group.register(end);
+			assertSame(placed, group.ownerOf(end));
+			ends.add(end);
+		}
+
+		for(NIOConnectionManager m : group.getManagers())
+			assertEquals(10, m.getLoad());
+
+		for(PipeEnd end : ends) {
+			assertTrue(end.registered.await(5, TimeUnit.SECONDS));
+			assertSame(end.manager, group.ownerOf(end));
+		}
+
+		// interest ops updates issued through the group have to reach the owning selector
+		PipeEnd probe = ends.get(7);
+		probe.wantRead = true;
+		group.interestOpsChanged(probe);
+		probe.pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+		assertTrue(probe.readable.await(5, TimeUnit.SECONDS));
+
+		for(PipeEnd end : ends)
+			end.close();
+
+		// closed connections are dropped by the periodic state checks
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(group.getLoad() > 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+
+		assertEquals(0, group.getLoad());
+		assertNull(group.ownerOf(probe));
+	}
+
+	@Test
+	public void testHashedPlacementIsStable() throws Exception {
+		NIOConnectionGroup group = new NIOConnectionGroup("test", 3, Placement.HASHED);
+		PipeEnd end = new PipeEnd();
+		NIOConnectionManager placed = group.register(end);
+		assertSame(placed, group.ownerOf(end));
+		assertTrue(end.registered.await(5, TimeUnit.SECONDS));
+		assertSame(placed, end.manager);
+		end.close();
+	}
+
+}
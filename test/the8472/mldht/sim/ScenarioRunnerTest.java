@@ -0,0 +1,67 @@
+package the8472.mldht.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import lbms.plugins.mldht.kad.DatagramTransport.Endpoint;
+import lbms.plugins.mldht.kad.TrafficClass;
+import the8472.mldht.sim.SimulatedNetwork.Host;
+import the8472.mldht.sim.SimulatedNetwork.NatType;
+
+public class ScenarioRunnerTest {
+
+	@Test
+	public void testNatFiltering() throws IOException {
+		VirtualTimeScheduler scheduler = new VirtualTimeScheduler(0);
+		SimulatedNetwork net = new SimulatedNetwork(scheduler, new NetworkModel().setLossRate(0), 1);
+
+		Host open = net.addHost(NatType.NONE);
+		Host natted = net.addHost(NatType.PORT_RESTRICTED);
+
+		List<InetSocketAddress> receivedByOpen = new ArrayList<>();
+		List<InetSocketAddress> receivedByNatted = new ArrayList<>();
+
+		Endpoint openEp = open.bind(new InetSocketAddress(open.getLocalAddress(), 1000), (buf, src) -> receivedByOpen.add(src));
+		Endpoint nattedEp = natted.bind(new InetSocketAddress(natted.getLocalAddress(), 1000), (buf, src) -> receivedByNatted.add(src));
+
+		// no mapping yet
+		openEp.send(ByteBuffer.allocate(10), new InetSocketAddress(natted.getPublicAddress(), 1000));
+		scheduler.runFor(1000);
+		assertEquals(0, receivedByNatted.size());
+
+		nattedEp.send(ByteBuffer.allocate(10), new InetSocketAddress(open.getPublicAddress(), 1000));
+		scheduler.runFor(1000);
+		assertEquals(1, receivedByOpen.size());
+		InetSocketAddress mapped = receivedByOpen.get(0);
+		assertEquals(natted.getPublicAddress(), mapped.getAddress());
+
+		// reply through the mapping passes, a different source port does not
+		openEp.send(ByteBuffer.allocate(10), mapped);
+		open.bind(new InetSocketAddress(open.getLocalAddress(), 2000), (buf, src) -> {}).send(ByteBuffer.allocate(10), mapped);
+		scheduler.runFor(1000);
+		assertEquals(1, receivedByNatted.size());
+		assertEquals(2, net.getFiltered());
+	}
+
+	@Test
+	public void testSmallNetwork() {
+		ScenarioRunner runner = new ScenarioRunner().setNodes(40).setLookups(20).setMaxSettleTime(300_000).setSeed(3);
+		ScenarioRunner.Result result = runner.run();
+
+		assertEquals(result.lookupsStarted, result.getCompletedLookups());
+		assertTrue(result.toString(), result.lookupsStarted >= 15);
+		assertTrue(result.toString(), result.lookupAccuracy().mean() > 0.8);
+		assertTrue(result.toString(), result.hopCounts().percentile(0.5) >= 1);
+		for(TrafficClass c : TrafficClass.values())
+			assertTrue(result.toString(), result.getSentMessageCount(c) > 0);
+	}
+
+}
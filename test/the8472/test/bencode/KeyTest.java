@@ -3,6 +3,8 @@ package the8472.test.bencode;
 import static org.junit.Assert.assertEquals;
 import static the8472.utils.Functional.tap;
 
+import java.math.BigInteger;
+import java.util.Random;
 import java.util.stream.IntStream;
 
 import org.junit.Test;
@@ -38,6 +40,31 @@ public class KeyTest {
 
 	}
 	
+	@Test
+	public void testLanesMatchBytewiseOrder() {
+		Random rnd = new Random(0x1a4e);
+		for(int i=0;i<20000;i++) {
+			byte[] t = new byte[20], a = new byte[20], b = new byte[20];
+			rnd.nextBytes(t);
+			rnd.nextBytes(a);
+			// share a random-length prefix so that every lane gets to decide some comparisons
+			System.arraycopy(a, 0, b, 0, rnd.nextInt(21));
+			if(rnd.nextBoolean())
+				rnd.nextBytes(b);
+			for(int j=rnd.nextInt(21);j<20;j++)
+				b[j] = (byte) rnd.nextInt();
+			
+			BigInteger bt = new BigInteger(1, t), ba = new BigInteger(1, a), bb = new BigInteger(1, b);
+			Key kt = new Key(t), ka = new Key(a), kb = new Key(b);
+			
+			assertEquals(ba.compareTo(bb), ka.compareTo(kb));
+			assertEquals(ba.xor(bt).compareTo(bb.xor(bt)), kt.threeWayDistance(ka, kb));
+			int expectedBit = ba.equals(bb) ? -1 : 159 - ba.xor(bb).bitLength() + 1;
+			assertEquals(expectedBit, ka.findApproxKeyDistance(kb));
+			assertEquals(ka.distance(kb).leadingOneBit(), ka.findApproxKeyDistance(kb));
+		}
+	}
+	
 	@Test
 	public void testLeadingBit() {
 		assertEquals(-1, Key.MIN_KEY.leadingOneBit());
@@ -1,7 +1,12 @@
 package the8472.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class ArraysTest {
@@ -22,4 +27,18 @@ public class ArraysTest {
 		assertTrue(Arrays.compareUnsigned(new byte[] {0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00, (byte) 0x01}, new byte[] {0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,(byte) 0xFF}) == -1);
 	}
 
+	@Test
+	public void testGetLong() throws Exception {
+		Method fallback = Arrays.class.getDeclaredMethod("getLongFallback", byte[].class, int.class);
+		fallback.setAccessible(true);
+		
+		byte[] data = new byte[20];
+		new Random(1).nextBytes(data);
+		for(int i=0;i+8<=data.length;i++) {
+			long expected = ByteBuffer.wrap(data).getLong(i);
+			assertEquals(expected, Arrays.getLong(data, i));
+			assertEquals(expected, fallback.invoke(null, data, i));
+		}
+	}
+
 }
@@ -0,0 +1,98 @@
+package the8472.utils.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedScheduledExecutorTest {
+
+	ShardedScheduledExecutor exec;
+	List<Throwable> reported = new ArrayList<>();
+
+	@Before
+	public void setup() {
+		exec = new ShardedScheduledExecutor("test", 4, (t, e) -> {
+			synchronized (reported) {
+				reported.add(e);
+			}
+		});
+	}
+
+	@After
+	public void teardown() {
+		exec.shutdownNow();
+	}
+
+	@Test
+	public void testDelayedTasksFireAfterDeadline() throws InterruptedException {
+		int n = 200;
+		CountDownLatch latch = new CountDownLatch(n);
+		AtomicInteger early = new AtomicInteger();
+		for(int i=0;i<n;i++) {
+			long delay = (i % 20) + 1;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+			exec.schedule(() -> {
+				if(System.nanoTime() - deadline < 0)
+					early.incrementAndGet();
+				latch.countDown();
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(0, early.get());
+	}
+
+	@Test
+	public void testCancelledTasksArePurged() throws InterruptedException {
+		AtomicInteger ran = new AtomicInteger();
+		for(int i=0;i<10_000;i++)
+			exec.schedule(ran::incrementAndGet, 1, TimeUnit.HOURS).cancel(false);
+		assertTrue(exec.getDelayedCount() < 10_000 / 2);
+
+		ScheduledFuture<?> f = exec.schedule(ran::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+		f.cancel(false);
+		Thread.sleep(50);
+		assertEquals(0, ran.get());
+	}
+
+	@Test
+	public void testPeriodicAndExceptions() throws Exception {
+		CountDownLatch runs = new CountDownLatch(5);
+		ScheduledFuture<?> periodic = exec.scheduleWithFixedDelay(runs::countDown, 0, 1, TimeUnit.MILLISECONDS);
+		assertTrue(runs.await(10, TimeUnit.SECONDS));
+		periodic.cancel(false);
+
+		CountDownLatch failed = new CountDownLatch(1);
+		exec.schedule(() -> {
+			try {
+				throw new IllegalStateException("expected");
+			} finally {
+				failed.countDown();
+			}
+		}, 1, TimeUnit.MILLISECONDS);
+		assertTrue(failed.await(10, TimeUnit.SECONDS));
+		exec.submit(() -> {throw new IllegalStateException("expected");});
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(System.nanoTime() - deadline < 0) {
+			synchronized (reported) {
+				if(reported.size() == 2)
+					break;
+			}
+			Thread.sleep(1);
+		}
+		synchronized (reported) {
+			assertEquals(2, reported.size());
+		}
+	}
+
+}